@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import com.allogy.couch.exporters.BulkZipCouchDatabaseExporter;
+import com.allogy.couch.exporters.CouchDatabaseExporter;
+import com.allogy.couch.exporters.MimeCouchDocumentExporter;
+import com.allogy.couch.exporters.ParallelZipCouchDatabaseExporter;
+import com.allogy.couch.exporters.ZipCompression;
+import com.allogy.couch.exporters.ZipCouchDatabaseExporter;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.ektorp.CouchDbConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * End-to-end export of a database served by StubCouchHttpClient into a zip
+ * archive which is counted and discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExportBenchmark
+{
+	@Param({"zip", "zip-stored", "zip-content-type", "parallel-zip", "bulk-zip"})
+	public String exporter;
+
+	@Param({"1000"})
+	public int documentCount;
+
+	@Param({"1024", "16384"})
+	public int documentSize;
+
+	@Param({"0", "10", "100"})
+	public int attachmentPercent;
+
+	@Param({"65536"})
+	public int attachmentSize;
+
+	private CouchDbConnector couchDbConnector;
+	private CouchDatabaseExporter couchDatabaseExporter;
+
+	@Setup
+	public void setUp()
+	{
+		couchDbConnector = new StubCouchHttpClient(
+				StubDocument.generate(documentCount, documentSize, attachmentPercent, attachmentSize, 1L)).createConnector();
+
+		if(exporter.equals("zip"))
+			couchDatabaseExporter = new ZipCouchDatabaseExporter(new MimeCouchDocumentExporter());
+		else if(exporter.equals("zip-stored"))
+			couchDatabaseExporter = createZipExporter(ZipCompression.stored());
+		else if(exporter.equals("zip-content-type"))
+			couchDatabaseExporter = createZipExporter(ZipCompression.contentTypeAware(Deflater.DEFAULT_COMPRESSION));
+		else if(exporter.equals("parallel-zip"))
+			couchDatabaseExporter = new ParallelZipCouchDatabaseExporter(new MimeCouchDocumentExporter(), 64 * 1024 * 1024);
+		else if(exporter.equals("bulk-zip"))
+			couchDatabaseExporter = new BulkZipCouchDatabaseExporter(new MimeCouchDocumentExporter());
+		else
+			throw new IllegalArgumentException("Unknown exporter: " + exporter);
+	}
+
+	private static CouchDatabaseExporter createZipExporter(ZipCompression zipCompression)
+	{
+		return new ZipCouchDatabaseExporter(new MimeCouchDocumentExporter(), ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE,
+				NullTransferMetricsListener.metricsListener(), false, zipCompression);
+	}
+
+	@Benchmark
+	public long export() throws IOException
+	{
+		CountingOutputStream countingOutputStream = new CountingOutputStream(new NullOutputStream());
+		couchDatabaseExporter.export(couchDbConnector, countingOutputStream);
+		return countingOutputStream.getByteCount();
+	}
+}
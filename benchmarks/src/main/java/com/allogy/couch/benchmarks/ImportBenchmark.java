@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import com.allogy.couch.exporters.MimeCouchDocumentExporter;
+import com.allogy.couch.exporters.ZipCouchDatabaseExporter;
+import com.allogy.couch.filter.IncludeAllDocumentFilter;
+import com.allogy.couch.importers.MimeCouchDocumentImporter;
+import com.allogy.couch.importers.ZipCouchDatabaseImporter;
+import com.allogy.couch.importers.command.BufferedCouchImporter;
+import com.allogy.couch.importers.command.CouchImporter;
+import com.allogy.couch.importers.command.ImmediateCouchImporter;
+import org.ektorp.CouchDbConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end import of a zip archive into StubCouchHttpClient. The archive is
+ * exported from the same stub during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImportBenchmark
+{
+	@Param({"immediate", "buffered"})
+	public String importer;
+
+	@Param({"1000"})
+	public int documentCount;
+
+	@Param({"1024", "16384"})
+	public int documentSize;
+
+	@Param({"0", "10", "100"})
+	public int attachmentPercent;
+
+	@Param({"65536"})
+	public int attachmentSize;
+
+	private StubCouchHttpClient stubCouchHttpClient;
+	private CouchDbConnector couchDbConnector;
+	private byte[] archive;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		stubCouchHttpClient = new StubCouchHttpClient(
+				StubDocument.generate(documentCount, documentSize, attachmentPercent, attachmentSize, 1L));
+		couchDbConnector = stubCouchHttpClient.createConnector();
+
+		ByteArrayOutputStream archiveOutputStream = new ByteArrayOutputStream();
+		new ZipCouchDatabaseExporter(new MimeCouchDocumentExporter()).export(couchDbConnector, archiveOutputStream);
+		archive = archiveOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public long importDatabase() throws IOException
+	{
+		long bytesReceivedBefore = stubCouchHttpClient.getBytesReceived();
+		new ZipCouchDatabaseImporter(new MimeCouchDocumentImporter(IncludeAllDocumentFilter.documentFilter(), createCouchImporter()))
+				.importDatabase(couchDbConnector, new ByteArrayInputStream(archive));
+		return stubCouchHttpClient.getBytesReceived() - bytesReceivedBefore;
+	}
+
+	private CouchImporter createCouchImporter()
+	{
+		if(importer.equals("immediate"))
+			return new ImmediateCouchImporter();
+		if(importer.equals("buffered"))
+			return new BufferedCouchImporter(100);
+		throw new IllegalArgumentException("Unknown importer: " + importer);
+	}
+}
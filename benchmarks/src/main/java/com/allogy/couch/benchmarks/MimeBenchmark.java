@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import com.allogy.mime.MimeEnvelope;
+import com.allogy.mime.MimeEnvelopeReader;
+import com.allogy.mime.MimeEnvelopeWriter;
+import com.allogy.mime.MimeGeneratingInputStream;
+import com.allogy.mime.MimeStreamingReader;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.message.BasicHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of generating and parsing the MIME entry wrapped around each exported
+ * document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MimeBenchmark
+{
+	@Param({"256", "4096", "65536"})
+	public int documentSize;
+
+	private StubDocument document;
+	private List<Header> headers;
+	private byte[] entry;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		document = StubDocument.generate(1, documentSize, 0, 0, 1L).values().iterator().next();
+
+		headers = new ArrayList<Header>();
+		headers.add(new BasicHeader("Content-ID", document.getId()));
+		headers.add(new BasicHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(document.getJson().length)));
+		headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/json"));
+		headers.add(new BasicHeader(HttpHeaders.ETAG, document.getRevision()));
+
+		ByteArrayOutputStream entryOutputStream = new ByteArrayOutputStream();
+		IOUtils.copy(new MimeGeneratingInputStream(headers, new ByteArrayInputStream(document.getJson())), entryOutputStream);
+		entry = entryOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public int generate() throws IOException
+	{
+		return IOUtils.copy(new MimeGeneratingInputStream(headers, new ByteArrayInputStream(document.getJson())),
+				new NullOutputStream());
+	}
+
+	@Benchmark
+	public long generateEnvelope() throws IOException
+	{
+		MimeEnvelopeWriter mimeEnvelopeWriter = MimeEnvelopeWriter.currentThreadWriter();
+		mimeEnvelopeWriter.addHeaders(headers);
+		return mimeEnvelopeWriter.writeTo(new NullOutputStream(), document.getJson(), 0, document.getJson().length);
+	}
+
+	@Benchmark
+	public int parse() throws IOException
+	{
+		MimeStreamingReader mimeReader = new MimeStreamingReader(new ByteArrayInputStream(entry));
+		int headerCount = 0;
+		for(Header ignored : mimeReader.getHeaders())
+			headerCount++;
+		return headerCount + IOUtils.copy(mimeReader.getContentInputStream(), new NullOutputStream());
+	}
+
+	@Benchmark
+	public long parseEnvelope() throws IOException
+	{
+		ByteArrayInputStream entryInputStream = new ByteArrayInputStream(entry);
+		MimeEnvelope mimeEnvelope = MimeEnvelopeReader.currentThreadReader().read(entryInputStream);
+		return mimeEnvelope.getContentLength() + IOUtils.copy(entryInputStream, new NullOutputStream());
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import com.allogy.io.BulkUpdateInputStream;
+import com.allogy.io.NoNewEditsInputStream;
+import com.allogy.io.UnCloseableInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the com.allogy.io stream wrappers used when building a _bulk_docs
+ * request, read either a byte at a time or through a buffer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamWrapperBenchmark
+{
+	@Param({"256", "4096", "65536"})
+	public int documentSize;
+
+	@Param({"100"})
+	public int documentCount;
+
+	@Param({"1", "8192"})
+	public int readSize;
+
+	private List<byte[]> documents;
+
+	@Setup
+	public void setUp()
+	{
+		documents = new ArrayList<byte[]>();
+		for(StubDocument document : StubDocument.generate(documentCount, documentSize, 0, 0, 1L).values())
+			documents.add(document.getJson());
+	}
+
+	@Benchmark
+	public long bulkUpdateInputStream() throws IOException
+	{
+		List<InputStream> documentInputStreams = new ArrayList<InputStream>(documents.size());
+		for(byte[] document : documents)
+			documentInputStreams.add(new ByteArrayInputStream(document));
+
+		return drain(new NoNewEditsInputStream(new BulkUpdateInputStream(documentInputStreams)));
+	}
+
+	@Benchmark
+	public long unCloseableInputStream() throws IOException
+	{
+		long bytesRead = 0;
+		for(byte[] document : documents)
+			bytesRead += drain(new UnCloseableInputStream(new ByteArrayInputStream(document)));
+		return bytesRead;
+	}
+
+	private long drain(InputStream inputStream) throws IOException
+	{
+		long bytesRead = 0;
+		if(readSize == 1)
+		{
+			while(inputStream.read() != -1)
+				bytesRead++;
+			return bytesRead;
+		}
+
+		byte[] buffer = new byte[readSize];
+		int count;
+		while((count = inputStream.read(buffer)) != -1)
+			bytesRead += count;
+		return bytesRead;
+	}
+}
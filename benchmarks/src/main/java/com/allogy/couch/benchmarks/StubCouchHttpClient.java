@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import com.google.common.base.Charsets;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.impl.StdCouchDbConnector;
+import org.ektorp.impl.StdCouchDbInstance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An in-process stand-in for a single Couch database, serving the requests the
+ * exporters and importers make from generated documents. Uploaded content is read
+ * fully and discarded, so benchmarks measure this library rather than Couch or the
+ * network.
+ */
+public class StubCouchHttpClient implements HttpClient
+{
+	public static final String DATABASE_NAME = "benchmark";
+
+	private static final String JSON_CONTENT_TYPE = "application/json";
+	private static final byte[] EMPTY_ARRAY = "[]".getBytes(Charsets.US_ASCII);
+
+	private final String databasePath = "/" + DATABASE_NAME + "/";
+	private final SortedMap<String, StubDocument> documents;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private long bytesReceived;
+
+	public StubCouchHttpClient(SortedMap<String, StubDocument> documents)
+	{
+		this.documents = documents;
+	}
+
+	public CouchDbConnector createConnector()
+	{
+		return new StdCouchDbConnector(DATABASE_NAME, new StdCouchDbInstance(this));
+	}
+
+	/**
+	 * @return the number of request body bytes read since this client was created
+	 */
+	public long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+	public HttpResponse get(String uri)
+	{
+		String path = getPath(uri);
+		Map<String, String> parameters = getParameters(uri);
+
+		if(path.equals(databasePath + "_all_docs"))
+			return getAllDocuments(uri, parameters);
+
+		StubDocument document = documents.get(path.substring(databasePath.length()));
+		if(document == null)
+			return notFound(uri);
+		if(document.hasAttachment())
+			return new StubHttpResponse(200, uri, document.getMultipartContentType(), document.getRevision(),
+					document.getMultipart());
+		return new StubHttpResponse(200, uri, JSON_CONTENT_TYPE, document.getRevision(), document.getJson());
+	}
+
+	public HttpResponse get(String uri, Map<String, String> headers)
+	{
+		return get(uri);
+	}
+
+	public HttpResponse getUncached(String uri)
+	{
+		return get(uri);
+	}
+
+	public HttpResponse put(String uri, String content)
+	{
+		bytesReceived += content.length();
+		return updated(uri);
+	}
+
+	public HttpResponse put(String uri)
+	{
+		return updated(uri);
+	}
+
+	public HttpResponse put(String uri, InputStream data, String contentType, long contentLength)
+	{
+		drain(data);
+		return updated(uri);
+	}
+
+	public HttpResponse post(String uri, String content)
+	{
+		bytesReceived += content.length();
+		if(getPath(uri).equals(databasePath + "_bulk_get"))
+			return bulkGet(uri, content);
+		return notFound(uri);
+	}
+
+	public HttpResponse post(String uri, InputStream content)
+	{
+		drain(content);
+		return new StubHttpResponse(201, uri, JSON_CONTENT_TYPE, null, EMPTY_ARRAY);
+	}
+
+	public HttpResponse postUncached(String uri, String content)
+	{
+		return post(uri, content);
+	}
+
+	public HttpResponse delete(String uri)
+	{
+		return notFound(uri);
+	}
+
+	public HttpResponse head(String uri)
+	{
+		return notFound(uri);
+	}
+
+	public HttpResponse copy(String sourceUri, String destination)
+	{
+		return notFound(sourceUri);
+	}
+
+	public void shutdown()
+	{ }
+
+	private HttpResponse getAllDocuments(String uri, Map<String, String> parameters)
+	{
+		SortedMap<String, StubDocument> page = documents;
+		try
+		{
+			if(parameters.containsKey("startkey"))
+				page = documents.tailMap(objectMapper.readValue(parameters.get("startkey"), String.class));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		int limit = parameters.containsKey("limit") ?
+				Integer.parseInt(parameters.get("limit")) :
+				Integer.MAX_VALUE;
+
+		StringBuilder response = new StringBuilder();
+		response.append("{\"total_rows\":").append(documents.size()).append(",\"offset\":0,\"rows\":[");
+		int rowCount = 0;
+		for(StubDocument document : page.values())
+		{
+			if(rowCount == limit)
+				break;
+			if(rowCount++ > 0)
+				response.append(',');
+			response.append("{\"id\":\"").append(document.getId()).append("\",\"key\":\"").append(document.getId())
+					.append("\",\"value\":{\"rev\":\"").append(document.getRevision()).append("\"}}");
+		}
+		response.append("]}");
+
+		return new StubHttpResponse(200, uri, JSON_CONTENT_TYPE, null, response.toString().getBytes(Charsets.UTF_8));
+	}
+
+	private HttpResponse bulkGet(String uri, String content)
+	{
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		try
+		{
+			response.write("{\"results\":[".getBytes(Charsets.US_ASCII));
+			boolean first = true;
+			for(JsonNode requestDocument : objectMapper.readTree(content).path("docs"))
+			{
+				StubDocument document = documents.get(requestDocument.path("id").getTextValue());
+				if(document == null)
+					continue;
+				if(!first)
+					response.write(',');
+				first = false;
+				response.write(("{\"id\":\"" + document.getId() + "\",\"docs\":[{\"ok\":").getBytes(Charsets.UTF_8));
+				response.write(document.getJson());
+				response.write("}]}".getBytes(Charsets.US_ASCII));
+			}
+			response.write("]}".getBytes(Charsets.US_ASCII));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		return new StubHttpResponse(200, uri, JSON_CONTENT_TYPE, null, response.toByteArray());
+	}
+
+	private HttpResponse updated(String uri)
+	{
+		String id = getPath(uri).substring(databasePath.length());
+		return new StubHttpResponse(201, uri, JSON_CONTENT_TYPE, null,
+				("{\"ok\":true,\"id\":\"" + id + "\",\"rev\":\"1-0\"}").getBytes(Charsets.UTF_8));
+	}
+
+	private static HttpResponse notFound(String uri)
+	{
+		return new StubHttpResponse(404, uri, JSON_CONTENT_TYPE, null,
+				"{\"error\":\"not_found\",\"reason\":\"missing\"}".getBytes(Charsets.US_ASCII));
+	}
+
+	private void drain(InputStream inputStream)
+	{
+		byte[] buffer = new byte[8192];
+		try
+		{
+			int bytesRead;
+			while((bytesRead = inputStream.read(buffer)) != -1)
+				bytesReceived += bytesRead;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String getPath(String uri)
+	{
+		int queryStart = uri.indexOf('?');
+		return queryStart < 0 ? uri : uri.substring(0, queryStart);
+	}
+
+	private static Map<String, String> getParameters(String uri)
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+		int queryStart = uri.indexOf('?');
+		if(queryStart < 0)
+			return parameters;
+
+		try
+		{
+			for(String parameter : uri.substring(queryStart + 1).split("&"))
+			{
+				int separator = parameter.indexOf('=');
+				if(separator > 0)
+					parameters.put(parameter.substring(0, separator), URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+			}
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+		return parameters;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A generated document held by StubCouchHttpClient, optionally with a single
+ * binary attachment.
+ */
+public class StubDocument
+{
+	private static final String PAYLOAD_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789 ";
+	private static final String MULTIPART_BOUNDARY = "b5c1a2e3f4d6b7a8c9d0e1f2a3b4c5d6";
+
+	private final String id;
+	private final String revision;
+	private final byte[] json;
+	private final byte[] attachment;
+	private final byte[] multipart;
+
+	StubDocument(String id, String revision, byte[] json, byte[] attachment)
+	{
+		this.id = id;
+		this.revision = revision;
+		this.json = json;
+		this.attachment = attachment;
+		this.multipart = attachment != null ?
+				createMultipart(json, attachment) :
+				null;
+	}
+
+	/**
+	 * Generates documents with ids in _all_docs order. The same seed always
+	 * produces the same documents so runs can be compared.
+	 * @param documentCount the number of documents
+	 * @param documentSize the approximate size of each document's JSON, in bytes
+	 * @param attachmentPercent the percentage of documents, 0 to 100, which have an attachment
+	 * @param attachmentSize the size of each attachment, in bytes
+	 * @param seed the random seed
+	 */
+	public static SortedMap<String, StubDocument> generate(int documentCount, int documentSize,
+			int attachmentPercent, int attachmentSize, long seed)
+	{
+		Random random = new Random(seed);
+		SortedMap<String, StubDocument> documents = new TreeMap<String, StubDocument>();
+		for(int documentIndex = 0; documentIndex < documentCount; documentIndex++)
+		{
+			String id = String.format("document-%08d", documentIndex);
+			String revisionHash = Long.toHexString(random.nextLong());
+			String revision = "1-" + revisionHash;
+
+			byte[] attachment = null;
+			if(random.nextInt(100) < attachmentPercent)
+			{
+				attachment = new byte[attachmentSize];
+				random.nextBytes(attachment);
+			}
+
+			StringBuilder json = new StringBuilder();
+			json.append("{\"_id\":\"").append(id).append("\",\"_rev\":\"").append(revision).append("\",");
+			json.append("\"_revisions\":{\"start\":1,\"ids\":[\"").append(revisionHash).append("\"]},");
+			if(attachment != null)
+			{
+				json.append("\"_attachments\":{\"photo.jpg\":{\"content_type\":\"image/jpeg\",")
+						.append("\"revpos\":1,\"length\":").append(attachmentSize).append(",\"follows\":true}},");
+			}
+			json.append("\"payload\":\"");
+			while(json.length() < documentSize - 2)
+				json.append(PAYLOAD_CHARACTERS.charAt(random.nextInt(PAYLOAD_CHARACTERS.length())));
+			json.append("\"}");
+
+			documents.put(id, new StubDocument(id, revision, json.toString().getBytes(Charsets.UTF_8), attachment));
+		}
+		return documents;
+	}
+
+	public String getId()
+	{
+		return id;
+	}
+
+	public String getRevision()
+	{
+		return revision;
+	}
+
+	public byte[] getJson()
+	{
+		return json;
+	}
+
+	public boolean hasAttachment()
+	{
+		return attachment != null;
+	}
+
+	String getMultipartContentType()
+	{
+		return "multipart/related; boundary=\"" + MULTIPART_BOUNDARY + "\"";
+	}
+
+	/**
+	 * @return the document as Couch returns it for a multipart/related GET
+	 */
+	byte[] getMultipart()
+	{
+		return multipart;
+	}
+
+	private static byte[] createMultipart(byte[] json, byte[] attachment)
+	{
+		ByteArrayOutputStream multipart = new ByteArrayOutputStream(json.length + attachment.length + 512);
+		write(multipart, ("--" + MULTIPART_BOUNDARY + "\r\nContent-Type: application/json\r\n\r\n").getBytes(Charsets.US_ASCII));
+		write(multipart, json);
+		write(multipart, ("\r\n--" + MULTIPART_BOUNDARY + "\r\nContent-Disposition: attachment; filename=\"photo.jpg\"\r\n"
+				+ "Content-Type: image/jpeg\r\nContent-Length: " + attachment.length + "\r\n\r\n")
+				.getBytes(Charsets.US_ASCII));
+		write(multipart, attachment);
+		write(multipart, ("\r\n--" + MULTIPART_BOUNDARY + "--").getBytes(Charsets.US_ASCII));
+		return multipart.toByteArray();
+	}
+
+	private static void write(ByteArrayOutputStream outputStream, byte[] bytes)
+	{
+		outputStream.write(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import org.ektorp.http.HttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * An in-memory HttpResponse served by StubCouchHttpClient.
+ */
+class StubHttpResponse implements HttpResponse
+{
+	private final int code;
+	private final String requestUri;
+	private final String contentType;
+	private final String eTag;
+	private final byte[] content;
+
+	StubHttpResponse(int code, String requestUri, String contentType, String eTag, byte[] content)
+	{
+		this.code = code;
+		this.requestUri = requestUri;
+		this.contentType = contentType;
+		this.eTag = eTag;
+		this.content = content;
+	}
+
+	public boolean isSuccessful()
+	{
+		return code < 300;
+	}
+
+	public int getCode()
+	{
+		return code;
+	}
+
+	public String getRequestURI()
+	{
+		return requestUri;
+	}
+
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	public long getContentLength()
+	{
+		return content.length;
+	}
+
+	public InputStream getContent()
+	{
+		return new ByteArrayInputStream(content);
+	}
+
+	public String getETag()
+	{
+		return eTag;
+	}
+
+	public void releaseConnection()
+	{ }
+
+	public void abort()
+	{ }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Cost of the zip entry encoding and decoding which wraps every document in an
+ * archive, independent of Couch and MIME.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZipEntryBenchmark
+{
+	@Param({"256", "4096", "65536"})
+	public int documentSize;
+
+	@Param({"100"})
+	public int documentCount;
+
+	private Collection<StubDocument> documents;
+	private byte[] archive;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		documents = StubDocument.generate(documentCount, documentSize, 0, 0, 1L).values();
+
+		ByteArrayOutputStream archiveOutputStream = new ByteArrayOutputStream();
+		encode(archiveOutputStream);
+		archive = archiveOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public long encode() throws IOException
+	{
+		CountingOutputStream countingOutputStream = new CountingOutputStream(new NullOutputStream());
+		encode(countingOutputStream);
+		return countingOutputStream.getByteCount();
+	}
+
+	@Benchmark
+	public long decode() throws IOException
+	{
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive));
+		long bytesRead = 0;
+		while(zipInputStream.getNextEntry() != null)
+			bytesRead += IOUtils.copy(zipInputStream, new NullOutputStream());
+		return bytesRead;
+	}
+
+	private void encode(OutputStream outputStream) throws IOException
+	{
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		for(StubDocument document : documents)
+		{
+			zipOutputStream.putNextEntry(new ZipEntry(document.getId()));
+			zipOutputStream.write(document.getJson());
+		}
+		zipOutputStream.finish();
+	}
+}
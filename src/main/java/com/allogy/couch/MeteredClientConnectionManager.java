@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch;
+
+import com.allogy.couch.metrics.ConnectionMetricsListener;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ThreadSafeClientConnManager which reports each connection leased to a
+ * ConnectionMetricsListener, with the time spent waiting for it and whether every
+ * connection of the pool was leased when it was requested. It extends rather than
+ * wraps the manager because connections release themselves to the manager which
+ * created them.
+ */
+class MeteredClientConnectionManager extends ThreadSafeClientConnManager
+{
+	private final ConnectionMetricsListener connectionMetricsListener;
+	private final Set<ManagedClientConnection> leasedConnections;
+
+	MeteredClientConnectionManager(SchemeRegistry schemeRegistry, ConnectionMetricsListener connectionMetricsListener)
+	{
+		super(schemeRegistry);
+		this.connectionMetricsListener = connectionMetricsListener;
+		leasedConnections = Collections.newSetFromMap(new ConcurrentHashMap<ManagedClientConnection, Boolean>());
+	}
+
+	/**
+	 * @return the number of connections currently leased
+	 */
+	int getLeasedConnections()
+	{
+		return leasedConnections.size();
+	}
+
+	@Override
+	public ClientConnectionRequest requestConnection(HttpRoute route, Object state)
+	{
+		final boolean poolExhausted = leasedConnections.size() >= getMaxTotal();
+		final ClientConnectionRequest connectionRequest = super.requestConnection(route, state);
+
+		return new ClientConnectionRequest()
+		{
+			public ManagedClientConnection getConnection(long timeout, TimeUnit timeUnit) throws InterruptedException, ConnectionPoolTimeoutException
+			{
+				long startNanos = System.nanoTime();
+				ManagedClientConnection connection = connectionRequest.getConnection(timeout, timeUnit);
+				leasedConnections.add(connection);
+				connectionMetricsListener.connectionLeased(System.nanoTime() - startNanos, poolExhausted);
+				return connection;
+			}
+
+			public void abortRequest()
+			{
+				connectionRequest.abortRequest();
+			}
+		};
+	}
+
+	@Override
+	public void releaseConnection(ManagedClientConnection connection, long validDuration, TimeUnit timeUnit)
+	{
+		try
+		{
+			super.releaseConnection(connection, validDuration, timeUnit);
+		}
+		finally
+		{
+			leasedConnections.remove(connection);
+		}
+	}
+}
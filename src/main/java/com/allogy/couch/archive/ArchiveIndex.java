@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.archive;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The index of the documents in a zip archive, kept in an entry of the archive named
+ * ENTRY_NAME. Couch rejects document ids beginning with an underscore other than
+ * design and local documents, so the name cannot collide with a document.
+ * The index is a JSON array with one object per document, written by ArchiveIndexWriter.
+ */
+public class ArchiveIndex
+{
+	public static final String ENTRY_NAME = "_archive/index";
+
+	private final NavigableMap<String, ArchiveIndexEntry> entries;
+
+	private ArchiveIndex(NavigableMap<String, ArchiveIndexEntry> entries)
+	{
+		this.entries = entries;
+	}
+
+	/**
+	 * Reads the index of a zip archive.
+	 * @param zipFile the archive
+	 * @return the index, or null if the archive was written without one
+	 * @throws IOException the index could not be read
+	 */
+	public static ArchiveIndex read(ZipFile zipFile) throws IOException
+	{
+		ZipEntry indexEntry = zipFile.getEntry(ENTRY_NAME);
+		if(indexEntry == null)
+			return null;
+
+		InputStream inputStream = zipFile.getInputStream(indexEntry);
+		try
+		{
+			return read(inputStream);
+		}
+		finally
+		{
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Reads an index from a stream holding the contents of its entry.
+	 * @throws IOException the index could not be read
+	 */
+	public static ArchiveIndex read(InputStream inputStream) throws IOException
+	{
+		NavigableMap<String, ArchiveIndexEntry> entries = new TreeMap<String, ArchiveIndexEntry>();
+
+		JsonParser jsonParser = new JsonFactory().createJsonParser(inputStream);
+		if(jsonParser.nextToken() != JsonToken.START_ARRAY)
+			throw new JsonParseException("Expected an array of index entries", jsonParser.getCurrentLocation());
+
+		while(jsonParser.nextToken() == JsonToken.START_OBJECT)
+		{
+			String id = null;
+			long offset = -1;
+			String revision = null;
+			long size = -1;
+			boolean attachments = false;
+
+			while(jsonParser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String fieldName = jsonParser.getCurrentName();
+				jsonParser.nextToken();
+
+				if("id".equals(fieldName))
+					id = jsonParser.getText();
+				else if("offset".equals(fieldName))
+					offset = jsonParser.getLongValue();
+				else if("rev".equals(fieldName))
+					revision = jsonParser.getText();
+				else if("size".equals(fieldName))
+					size = jsonParser.getLongValue();
+				else if("attachments".equals(fieldName))
+					attachments = jsonParser.getBooleanValue();
+				else
+					jsonParser.skipChildren();
+			}
+
+			if(id == null)
+				throw new JsonParseException("Index entry has no id", jsonParser.getCurrentLocation());
+
+			entries.put(id, new ArchiveIndexEntry(id, offset, revision, size, attachments));
+		}
+
+		return new ArchiveIndex(entries);
+	}
+
+	/**
+	 * @return the entry for a document id, or null if the archive has no such document
+	 */
+	public ArchiveIndexEntry getEntry(String id)
+	{
+		return entries.get(id);
+	}
+
+	/**
+	 * Gets the entries whose ids fall within a range, in id order.
+	 * @param startId the first id of the range, inclusive; null to begin at the first id
+	 * @param endId the last id of the range, inclusive; null to end at the last id
+	 */
+	public Collection<ArchiveIndexEntry> getEntries(String startId, String endId)
+	{
+		NavigableMap<String, ArchiveIndexEntry> range = entries;
+		if(startId != null)
+			range = range.tailMap(startId, true);
+		if(endId != null)
+			range = range.headMap(endId, true);
+		return Collections.unmodifiableCollection(range.values());
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.archive;
+
+/**
+ * The location and description of one document in a zip archive.
+ */
+public class ArchiveIndexEntry
+{
+	private final String id;
+	private final long offset;
+	private final String revision;
+	private final long size;
+	private final boolean attachments;
+
+	/**
+	 * Constructs a new ArchiveIndexEntry.
+	 * @param id the Couch document id, which is also the name of the zip entry
+	 * @param offset the offset in the archive of the entry's local file header
+	 * @param revision the revision of the document in the entry
+	 * @param size the uncompressed size of the entry
+	 * @param attachments true if the document was exported with attachments
+	 */
+	public ArchiveIndexEntry(String id, long offset, String revision, long size, boolean attachments)
+	{
+		this.id = id;
+		this.offset = offset;
+		this.revision = revision;
+		this.size = size;
+		this.attachments = attachments;
+	}
+
+	public String getId()
+	{
+		return id;
+	}
+
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	public String getRevision()
+	{
+		return revision;
+	}
+
+	public long getSize()
+	{
+		return size;
+	}
+
+	public boolean hasAttachments()
+	{
+		return attachments;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.archive;
+
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects ArchiveIndexEntries while an archive is written and writes them as the
+ * archive's index once the archive's documents have been written. The entries are
+ * held in memory up to a threshold and overflow into a temporary file beyond that,
+ * so that memory use does not grow with the size of the database.
+ */
+public class ArchiveIndexWriter
+{
+	public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+
+	private final DeferredFileOutputStream spool;
+	private final JsonGenerator jsonGenerator;
+
+	public ArchiveIndexWriter() throws IOException
+	{
+		this(DEFAULT_MEMORY_THRESHOLD);
+	}
+
+	/**
+	 * Constructs a new ArchiveIndexWriter.
+	 * @param memoryThreshold the number of bytes of index to hold in memory before using a temporary file
+	 */
+	public ArchiveIndexWriter(int memoryThreshold) throws IOException
+	{
+		spool = new DeferredFileOutputStream(memoryThreshold, "couch-index-", ".spool", null);
+		jsonGenerator = new JsonFactory().createJsonGenerator(spool, JsonEncoding.UTF8);
+		jsonGenerator.writeStartArray();
+	}
+
+	public void add(ArchiveIndexEntry entry) throws IOException
+	{
+		jsonGenerator.writeStartObject();
+		jsonGenerator.writeStringField("id", entry.getId());
+		jsonGenerator.writeNumberField("offset", entry.getOffset());
+		if(entry.getRevision() != null)
+			jsonGenerator.writeStringField("rev", entry.getRevision());
+		jsonGenerator.writeNumberField("size", entry.getSize());
+		jsonGenerator.writeBooleanField("attachments", entry.hasAttachments());
+		jsonGenerator.writeEndObject();
+	}
+
+	/**
+	 * Writes the index. No more entries may be added afterwards.
+	 * @param outputStream the stream to which the index is written; this method
+	 *                     will not close the stream
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException
+	{
+		jsonGenerator.writeEndArray();
+		jsonGenerator.close();
+		spool.writeTo(outputStream);
+	}
+
+	/**
+	 * Releases the temporary file, if one was used.
+	 */
+	public void discard()
+	{
+		try
+		{
+			jsonGenerator.close();
+		}
+		catch (IOException e)
+		{ }
+
+		if(!spool.isInMemory() && spool.getFile() != null)
+			spool.getFile().delete();
+	}
+}
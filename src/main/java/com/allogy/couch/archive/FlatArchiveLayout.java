@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.archive;
+
+/**
+ * The entry names of a flat multi-database archive, in which every document of every
+ * database is an entry of a single zip archive rather than an entry of a nested
+ * per-database archive. A document's entry is named with its database name, a slash
+ * and its document id. Database names may themselves contain slashes, so those are
+ * escaped as %2F; Couch does not allow a percent sign in a database name, so the first
+ * unescaped slash always separates the database from the document.
+ * The archive begins with an entry named LAYOUT_ENTRY_NAME which distinguishes it from
+ * an archive of nested databases.
+ */
+public class FlatArchiveLayout
+{
+	public static final String LAYOUT_ENTRY_NAME = "_archive/layout";
+	public static final String LAYOUT_NAME = "flat";
+
+	private static final char SEPARATOR = '/';
+	private static final String ESCAPED_SEPARATOR = "%2F";
+
+	private FlatArchiveLayout()
+	{
+	}
+
+	public static String getEntryName(String databaseName, String documentId)
+	{
+		return databaseName.replace(String.valueOf(SEPARATOR), ESCAPED_SEPARATOR) + SEPARATOR + documentId;
+	}
+
+	/**
+	 * @return the database name of a document entry
+	 * @throws IllegalArgumentException the name is not that of a document entry
+	 */
+	public static String getDatabaseName(String entryName)
+	{
+		return entryName.substring(0, getSeparatorIndex(entryName)).replace(ESCAPED_SEPARATOR, String.valueOf(SEPARATOR));
+	}
+
+	/**
+	 * @return the document id of a document entry
+	 * @throws IllegalArgumentException the name is not that of a document entry
+	 */
+	public static String getDocumentId(String entryName)
+	{
+		return entryName.substring(getSeparatorIndex(entryName) + 1);
+	}
+
+	private static int getSeparatorIndex(String entryName)
+	{
+		int separatorIndex = entryName.indexOf(SEPARATOR);
+		if(separatorIndex < 1 || separatorIndex == entryName.length() - 1)
+			throw new IllegalArgumentException("Not a document entry: " + entryName);
+		return separatorIndex;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.exporters;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An Iterable over the rows of a database's _all_docs which requests
+ * the rows one page at a time as the iteration reaches them.
+ */
+public class AllDocumentsRows implements Iterable<ViewResult.Row>
+{
+	private final CouchDbConnector couchDbConnector;
+	private final int pageSize;
+	private final String startAfterKey;
+
+	public AllDocumentsRows(CouchDbConnector couchDbConnector, int pageSize)
+	{
+		this(couchDbConnector, pageSize, null);
+	}
+
+	/**
+	 * Constructs rows which begin after a given key, such as the last key exported
+	 * before an interruption.
+	 * @param startAfterKey the key after which to begin; null to begin at the first row
+	 */
+	public AllDocumentsRows(CouchDbConnector couchDbConnector, int pageSize, String startAfterKey)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.couchDbConnector = couchDbConnector;
+		this.pageSize = pageSize;
+		this.startAfterKey = startAfterKey;
+	}
+
+	public Iterator<ViewResult.Row> iterator()
+	{
+		return new PageIterator();
+	}
+
+	/**
+	 * Creates an _all_docs query for one page. One row beyond the page size is
+	 * requested so that its key can start the next page.
+	 */
+	private ViewQuery createPageQuery(String startKey)
+	{
+		ViewQuery viewQuery = new ViewQuery().allDocs().limit(pageSize + 1);
+		if(startKey != null)
+			viewQuery.startKey(startKey);
+		return viewQuery;
+	}
+
+	private class PageIterator implements Iterator<ViewResult.Row>
+	{
+		private List<ViewResult.Row> pageRows;
+		private int pageIndex;
+		private String nextPageStartKey;
+
+		PageIterator()
+		{
+			loadPage(startAfterKey);
+			if(startAfterKey != null && !pageRows.isEmpty() && startAfterKey.equals(pageRows.get(0).getKey()))
+				pageIndex++;
+		}
+
+		private void loadPage(String startKey)
+		{
+			List<ViewResult.Row> rows = couchDbConnector.queryView(createPageQuery(startKey)).getRows();
+
+			if(rows.size() > pageSize)
+			{
+				nextPageStartKey = rows.get(pageSize).getKey();
+				pageRows = rows.subList(0, pageSize);
+			}
+			else
+			{
+				nextPageStartKey = null;
+				pageRows = rows;
+			}
+			pageIndex = 0;
+		}
+
+		public boolean hasNext()
+		{
+			if(pageIndex < pageRows.size())
+				return true;
+			if(nextPageStartKey == null)
+				return false;
+
+			loadPage(nextPageStartKey);
+			return pageIndex < pageRows.size();
+		}
+
+		public ViewResult.Row next()
+		{
+			if(!hasNext())
+				throw new NoSuchElementException();
+			return pageRows.get(pageIndex++);
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
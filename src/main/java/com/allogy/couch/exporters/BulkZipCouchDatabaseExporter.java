@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import com.allogy.io.TimedInputStream;
+import com.allogy.io.TimedOutputStream;
+import com.allogy.mime.MimeEnvelopeWriter;
+import org.apache.http.HttpHeaders;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewResult;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A CouchDatabaseExporter which produces the same archive as ZipCouchDatabaseExporter
+ * while reading documents in bulk.
+ * Each page of _all_docs is fetched with a single _bulk_get request. Documents without
+ * attachments are written directly from that response. Documents with attachments, and
+ * documents for which _bulk_get returned an error or no revision, such as documents
+ * changed since the page was read, are exported individually with the given
+ * CouchDocumentExporter, so that no document is left out of the archive.
+ */
+public class BulkZipCouchDatabaseExporter implements CouchDatabaseExporter
+{
+	static final String JSON_CONTENT_TYPE = "application/json";
+
+	private final CouchDocumentExporter attachmentsCouchDocumentExporter;
+	private final int pageSize;
+	private final ObjectMapper objectMapper;
+	private final TransferMetricsListener transferMetricsListener;
+
+	public BulkZipCouchDatabaseExporter(CouchDocumentExporter attachmentsCouchDocumentExporter)
+	{
+		this(attachmentsCouchDocumentExporter, ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a new BulkZipCouchDatabaseExporter.
+	 * @param attachmentsCouchDocumentExporter the exporter used for documents which have attachments
+	 *                                         or could not be read in bulk
+	 * @param pageSize the number of documents to request at a time
+	 */
+	public BulkZipCouchDatabaseExporter(CouchDocumentExporter attachmentsCouchDocumentExporter, int pageSize)
+	{
+		this(attachmentsCouchDocumentExporter, pageSize, NullTransferMetricsListener.metricsListener());
+	}
+
+	/**
+	 * Constructs a new BulkZipCouchDatabaseExporter which reports each _bulk_get and
+	 * each exported document to a TransferMetricsListener.
+	 * @param attachmentsCouchDocumentExporter the exporter used for documents which have attachments
+	 *                                         or could not be read in bulk
+	 * @param pageSize the number of documents to request at a time
+	 * @param transferMetricsListener the listener receiving measurements
+	 */
+	public BulkZipCouchDatabaseExporter(CouchDocumentExporter attachmentsCouchDocumentExporter, int pageSize, TransferMetricsListener transferMetricsListener)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.attachmentsCouchDocumentExporter = attachmentsCouchDocumentExporter;
+		this.pageSize = pageSize;
+		this.transferMetricsListener = transferMetricsListener;
+
+		objectMapper = new ObjectMapper();
+		objectMapper.configure(DeserializationConfig.Feature.USE_BIG_DECIMAL_FOR_FLOATS, true);
+	}
+
+	public void export(CouchDbConnector couchDbConnector, OutputStream outputStream) throws IOException
+	{
+		Iterator<ViewResult.Row> rows = new AllDocumentsRows(couchDbConnector, pageSize).iterator();
+
+		if(!rows.hasNext())
+			return;
+
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		TimedOutputStream timedOutputStream = new TimedOutputStream(zipOutputStream);
+
+		try
+		{
+			List<ViewResult.Row> pageRows = new ArrayList<ViewResult.Row>(pageSize);
+			while(rows.hasNext())
+			{
+				pageRows.add(rows.next());
+				if(pageRows.size() == pageSize || !rows.hasNext())
+				{
+					exportPage(pageRows, couchDbConnector, zipOutputStream, timedOutputStream);
+					pageRows.clear();
+				}
+			}
+		}
+		finally
+		{
+			zipOutputStream.finish();
+		}
+	}
+
+	private void exportPage(List<ViewResult.Row> pageRows, CouchDbConnector couchDbConnector, ZipOutputStream zipOutputStream,
+			TimedOutputStream timedOutputStream) throws IOException
+	{
+		Map<String, JsonNode> documents = bulkGetDocuments(pageRows, couchDbConnector);
+
+		for(ViewResult.Row row : pageRows)
+		{
+			String id = row.getId();
+			String revision = row.getValueAsNode().get("rev").getTextValue();
+			JsonNode document = documents.get(id);
+
+			zipOutputStream.putNextEntry(new ZipEntry(id));
+
+			long startNanos = System.nanoTime();
+			long startByteCount = timedOutputStream.getByteCount();
+			long startWriteNanos = timedOutputStream.getElapsedNanos();
+			if(document == null || document.has("_attachments") || !document.has("_rev"))
+				attachmentsCouchDocumentExporter.exportDocument(id, revision, couchDbConnector, timedOutputStream);
+			else
+				writeDocument(id, document, timedOutputStream);
+
+			long elapsedNanos = System.nanoTime() - startNanos;
+			long writeNanos = timedOutputStream.getElapsedNanos() - startWriteNanos;
+			transferMetricsListener.writeBlocked(writeNanos);
+			transferMetricsListener.readBlocked(elapsedNanos - writeNanos);
+			transferMetricsListener.documentTransferred(id, timedOutputStream.getByteCount() - startByteCount, elapsedNanos);
+		}
+	}
+
+	private void writeDocument(String id, JsonNode document, OutputStream outputStream) throws IOException
+	{
+		byte[] content = objectMapper.writeValueAsBytes(document);
+
+		MimeEnvelopeWriter mimeEnvelopeWriter = MimeEnvelopeWriter.currentThreadWriter().startEntry();
+		mimeEnvelopeWriter.addHeader("Content-ID", id);
+		mimeEnvelopeWriter.addHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(content.length));
+		mimeEnvelopeWriter.addHeader(HttpHeaders.CONTENT_TYPE, JSON_CONTENT_TYPE);
+		mimeEnvelopeWriter.addHeader(HttpHeaders.ETAG, document.get("_rev").getTextValue());
+		mimeEnvelopeWriter.writeTo(outputStream, content, 0, content.length);
+	}
+
+	/**
+	 * Requests the documents of one page, with their revision histories, in a single
+	 * _bulk_get request.
+	 * @return the documents by id; documents which could not be read are absent
+	 */
+	private Map<String, JsonNode> bulkGetDocuments(List<ViewResult.Row> pageRows, CouchDbConnector couchDbConnector) throws IOException
+	{
+		ObjectNode request = JsonNodeFactory.instance.objectNode();
+		ArrayNode requestDocuments = request.putArray("docs");
+		for(ViewResult.Row row : pageRows)
+		{
+			ObjectNode requestDocument = requestDocuments.addObject();
+			requestDocument.put("id", row.getId());
+			requestDocument.put("rev", row.getValueAsNode().get("rev").getTextValue());
+		}
+
+		long startNanos = System.nanoTime();
+		HttpResponse response = couchDbConnector.getConnection().post(couchDbConnector.path() + "_bulk_get?revs=true",
+				objectMapper.writeValueAsString(request));
+
+		try
+		{
+			if(!response.isSuccessful())
+				throw StdResponseHandler.createDbAccessException(response);
+
+			TimedInputStream responseInputStream = new TimedInputStream(response.getContent());
+			JsonNode results = objectMapper.readTree(responseInputStream).path("results");
+			long elapsedNanos = System.nanoTime() - startNanos;
+			transferMetricsListener.readBlocked(elapsedNanos);
+			transferMetricsListener.requestCompleted(CouchRequestType.BULK_GET, pageRows.size(),
+					responseInputStream.getByteCount(), elapsedNanos);
+
+			Map<String, JsonNode> documents = new HashMap<String, JsonNode>();
+			for(JsonNode result : results)
+			{
+				for(JsonNode resultDocument : result.path("docs"))
+				{
+					JsonNode document = resultDocument.get("ok");
+					if(document != null)
+						documents.put(result.path("id").getTextValue(), document);
+				}
+			}
+			return documents;
+		}
+		finally
+		{
+			response.releaseConnection();
+		}
+	}
+}
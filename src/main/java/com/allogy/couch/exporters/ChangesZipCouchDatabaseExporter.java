@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A CouchDatabaseExporter which exports only the documents changed since the
+ * previous export, as read from the database's _changes feed.
+ * Each changed document is exported at its winning revision by the given
+ * CouchDocumentExporter, so deleted documents are exported as tombstones and the
+ * archive is imported like any other. The sequence reached is stored in a
+ * SequenceStore once the archive is finished, and written to the archive's
+ * comment as "last_seq=&lt;sequence&gt;".
+ * A document changed again while the export runs would appear twice in the feed;
+ * the export stops before the second change, which the next export picks up.
+ */
+public class ChangesZipCouchDatabaseExporter implements CouchDatabaseExporter
+{
+	public static final String LAST_SEQUENCE_COMMENT_PREFIX = "last_seq=";
+
+	private final CouchDocumentExporter couchDocumentExporter;
+	private final SequenceStore sequenceStore;
+	private final int pageSize;
+	private final ObjectMapper objectMapper;
+
+	public ChangesZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, SequenceStore sequenceStore)
+	{
+		this(couchDocumentExporter, sequenceStore, ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a new ChangesZipCouchDatabaseExporter.
+	 * @param couchDocumentExporter the exporter used for each changed document
+	 * @param sequenceStore the store of the sequence each database has been exported up to
+	 * @param pageSize the number of changes to request at a time
+	 */
+	public ChangesZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, SequenceStore sequenceStore, int pageSize)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.couchDocumentExporter = couchDocumentExporter;
+		this.sequenceStore = sequenceStore;
+		this.pageSize = pageSize;
+		objectMapper = new ObjectMapper();
+	}
+
+	/**
+	 * Exports the documents changed since the stored sequence. Nothing is written if
+	 * no document has changed.
+	 */
+	public void export(CouchDbConnector couchDbConnector, OutputStream outputStream) throws IOException
+	{
+		String databaseName = couchDbConnector.getDatabaseName();
+		String lastSequence = sequenceStore.getSequence(databaseName);
+		Set<String> exportedIds = new HashSet<String>();
+		ZipOutputStream zipOutputStream = null;
+
+		try
+		{
+			boolean morePages = true;
+			while(morePages)
+			{
+				JsonNode results = getChanges(couchDbConnector, lastSequence).path("results");
+				morePages = results.size() == pageSize;
+
+				for(JsonNode change : results)
+				{
+					String id = change.path("id").getTextValue();
+					if(!exportedIds.add(id))
+					{
+						morePages = false;
+						break;
+					}
+
+					if(zipOutputStream == null)
+						zipOutputStream = new ZipOutputStream(outputStream);
+
+					String revision = change.path("changes").path(0).path("rev").getTextValue();
+					zipOutputStream.putNextEntry(new ZipEntry(id));
+					couchDocumentExporter.exportDocument(id, revision, couchDbConnector, zipOutputStream);
+					lastSequence = change.path("seq").asText();
+				}
+			}
+		}
+		finally
+		{
+			if(zipOutputStream != null)
+			{
+				zipOutputStream.setComment(LAST_SEQUENCE_COMMENT_PREFIX + lastSequence);
+				zipOutputStream.finish();
+			}
+		}
+
+		if(zipOutputStream != null)
+			sequenceStore.setSequence(databaseName, lastSequence);
+	}
+
+	private JsonNode getChanges(CouchDbConnector couchDbConnector, String since) throws IOException
+	{
+		StringBuilder uri = new StringBuilder(couchDbConnector.path()).append("_changes?style=main_only&limit=").append(pageSize);
+		if(since != null)
+			uri.append("&since=").append(URLEncoder.encode(since, "UTF-8"));
+
+		HttpResponse response = couchDbConnector.getConnection().get(uri.toString());
+		try
+		{
+			if(!response.isSuccessful())
+				throw StdResponseHandler.createDbAccessException(response);
+
+			return objectMapper.readTree(response.getContent());
+		}
+		finally
+		{
+			response.releaseConnection();
+		}
+	}
+}
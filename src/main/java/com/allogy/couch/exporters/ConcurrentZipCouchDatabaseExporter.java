@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import com.allogy.io.PendingSpool;
+import com.allogy.io.TimedOutputStream;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A CouchDatabaseExporter which produces the same archive as ZipCouchDatabaseExporter,
+ * but fetches documents concurrently.
+ * A pool of fetch threads exports documents ahead of the writer into spools. Each
+ * spool is held in memory up to an equal share of the memory budget and overflows
+ * into a temporary file beyond that. The calling thread writes the spools into the
+ * zip archive in _all_docs order.
+ */
+public class ConcurrentZipCouchDatabaseExporter implements CouchDatabaseExporter
+{
+	private final CouchDocumentExporter couchDocumentExporter;
+	private final int fetchThreads;
+	private final int prefetchCount;
+	private final int spoolThreshold;
+	private final int pageSize;
+	private final TransferMetricsListener transferMetricsListener;
+
+	/**
+	 * Constructs a new ConcurrentZipCouchDatabaseExporter.
+	 * @param couchDocumentExporter the exporter used for each document; it is called from
+	 *                              multiple threads at once
+	 * @param fetchThreads the number of documents to fetch from Couch at the same time
+	 * @param prefetchCount the maximum number of documents fetched, or being fetched, ahead of the writer
+	 * @param memoryBudget the number of bytes of document data to hold in memory across
+	 *                     all prefetched documents
+	 */
+	public ConcurrentZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int fetchThreads, int prefetchCount, long memoryBudget)
+	{
+		this(couchDocumentExporter, fetchThreads, prefetchCount, memoryBudget, ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE);
+	}
+
+	public ConcurrentZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int fetchThreads, int prefetchCount, long memoryBudget, int pageSize)
+	{
+		this(couchDocumentExporter, fetchThreads, prefetchCount, memoryBudget, pageSize, NullTransferMetricsListener.metricsListener());
+	}
+
+	/**
+	 * Constructs a new ConcurrentZipCouchDatabaseExporter which reports each written
+	 * document to a TransferMetricsListener. Time the writer spends waiting for a
+	 * fetch is reported as read time.
+	 * @param transferMetricsListener the listener receiving measurements
+	 */
+	public ConcurrentZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int fetchThreads, int prefetchCount, long memoryBudget, int pageSize,
+			TransferMetricsListener transferMetricsListener)
+	{
+		if(fetchThreads < 1)
+			throw new IllegalArgumentException("fetchThreads");
+		if(prefetchCount < fetchThreads)
+			throw new IllegalArgumentException("prefetchCount");
+		if(memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget");
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.couchDocumentExporter = couchDocumentExporter;
+		this.fetchThreads = fetchThreads;
+		this.prefetchCount = prefetchCount;
+		this.spoolThreshold = (int)Math.min(memoryBudget / prefetchCount, Integer.MAX_VALUE);
+		this.pageSize = pageSize;
+		this.transferMetricsListener = transferMetricsListener;
+	}
+
+	public void export(CouchDbConnector couchDbConnector, OutputStream outputStream) throws IOException
+	{
+		Iterator<ViewResult.Row> rows = new AllDocumentsRows(couchDbConnector, pageSize).iterator();
+
+		if(!rows.hasNext())
+			return;
+
+		ExecutorService executorService = Executors.newFixedThreadPool(fetchThreads);
+		Deque<PendingSpool> pendingDocuments = new ArrayDeque<PendingSpool>(prefetchCount);
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		TimedOutputStream timedOutputStream = new TimedOutputStream(zipOutputStream);
+
+		try
+		{
+			while(rows.hasNext())
+			{
+				if(pendingDocuments.size() == prefetchCount)
+					writeDocument(pendingDocuments.removeFirst(), zipOutputStream, timedOutputStream);
+
+				ViewResult.Row row = rows.next();
+				pendingDocuments.addLast(fetchDocument(row, couchDbConnector, executorService));
+			}
+
+			while(!pendingDocuments.isEmpty())
+				writeDocument(pendingDocuments.removeFirst(), zipOutputStream, timedOutputStream);
+		}
+		finally
+		{
+			executorService.shutdownNow();
+			for(PendingSpool pendingDocument : pendingDocuments)
+				pendingDocument.discard();
+
+			zipOutputStream.finish();
+		}
+	}
+
+	private PendingSpool fetchDocument(ViewResult.Row row, final CouchDbConnector couchDbConnector, ExecutorService executorService)
+	{
+		final String id = row.getId();
+		final String revision = row.getValueAsNode().get("rev").getTextValue();
+
+		return PendingSpool.submit(id, "couch-export-", spoolThreshold, executorService, new PendingSpool.SpoolWriter()
+		{
+			public void write(OutputStream outputStream) throws IOException
+			{
+				couchDocumentExporter.exportDocument(id, revision, couchDbConnector, outputStream);
+			}
+		});
+	}
+
+	private void writeDocument(PendingSpool pendingDocument, ZipOutputStream zipOutputStream, TimedOutputStream timedOutputStream) throws IOException
+	{
+		try
+		{
+			long startNanos = System.nanoTime();
+			pendingDocument.await();
+			long readNanos = System.nanoTime() - startNanos;
+
+			zipOutputStream.putNextEntry(new ZipEntry(pendingDocument.getName()));
+			long startByteCount = timedOutputStream.getByteCount();
+			long startWriteNanos = timedOutputStream.getElapsedNanos();
+			pendingDocument.writeTo(timedOutputStream);
+
+			transferMetricsListener.readBlocked(readNanos);
+			transferMetricsListener.writeBlocked(timedOutputStream.getElapsedNanos() - startWriteNanos);
+			transferMetricsListener.documentTransferred(pendingDocument.getName(), timedOutputStream.getByteCount() - startByteCount,
+					System.nanoTime() - startNanos);
+		}
+		finally
+		{
+			pendingDocument.discard();
+		}
+	}
+}
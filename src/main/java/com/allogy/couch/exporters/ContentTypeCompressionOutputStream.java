@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.mime.MimeStreamingReader;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a MIME document entry to a deflating stream, changing the Deflater level to
+ * suit the content type of the document and of each part of a multipart document.
+ * The level is changed between writes to the deflating stream, so the Deflater may
+ * compress the start of a part at the previous part's level.
+ * Headers which are larger than a limit are not read, and the content after them is
+ * compressed at the level for content which is not already compressed.
+ */
+class ContentTypeCompressionOutputStream extends OutputStream
+{
+	private static final int MAXIMUM_HEADER_SIZE = 8192;
+	private static final byte[] HEADER_ENDING = { '\r', '\n', '\r', '\n' };
+
+	private enum State { HEADERS, PART_HEADERS, PARTS, BODY }
+
+	/**
+	 * Changes the level of the Deflater behind the deflating stream.
+	 */
+	interface LevelSetter
+	{
+		void setLevel(int level);
+	}
+
+	private final OutputStream deflatingOutputStream;
+	private final LevelSetter levelSetter;
+	private final ZipCompression zipCompression;
+	private final ByteArrayOutputStream headerOutputStream;
+	private State state;
+	private int headerEndingMatched;
+	private byte[] delimiter;
+	private int delimiterMatched;
+	private int level;
+
+	ContentTypeCompressionOutputStream(final ZipOutputStream zipOutputStream, ZipCompression zipCompression)
+	{
+		this(zipOutputStream, new LevelSetter()
+		{
+			public void setLevel(int level)
+			{
+				zipOutputStream.setLevel(level);
+			}
+		}, zipCompression);
+	}
+
+	ContentTypeCompressionOutputStream(OutputStream deflatingOutputStream, LevelSetter levelSetter, ZipCompression zipCompression)
+	{
+		this.deflatingOutputStream = deflatingOutputStream;
+		this.levelSetter = levelSetter;
+		this.zipCompression = zipCompression;
+		headerOutputStream = new ByteArrayOutputStream();
+		state = State.HEADERS;
+		level = zipCompression.getLevel();
+		levelSetter.setLevel(level);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException
+	{
+		if(state == State.BODY)
+		{
+			deflatingOutputStream.write(buffer, offset, length);
+			return;
+		}
+
+		int runStart = offset;
+		int end = offset + length;
+		for(int i = offset; i < end && state != State.BODY; i++)
+		{
+			byte b = buffer[i];
+			if(state == State.PARTS)
+			{
+				if(b == delimiter[delimiterMatched])
+					delimiterMatched++;
+				else
+					delimiterMatched = b == delimiter[0] ? 1 : 0;
+
+				if(delimiterMatched == delimiter.length)
+				{
+					delimiterMatched = 0;
+					headerOutputStream.reset();
+					headerEndingMatched = 0;
+					state = State.PART_HEADERS;
+				}
+			}
+			else if(captureHeader(b))
+			{
+				deflatingOutputStream.write(buffer, runStart, i + 1 - runStart);
+				runStart = i + 1;
+				headersComplete();
+			}
+		}
+
+		deflatingOutputStream.write(buffer, runStart, end - runStart);
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		deflatingOutputStream.flush();
+	}
+
+	/**
+	 * @return true if the byte completes the headers
+	 */
+	private boolean captureHeader(byte b)
+	{
+		if(headerOutputStream.size() >= MAXIMUM_HEADER_SIZE)
+		{
+			setLevel(zipCompression.getLevel(null));
+			state = State.BODY;
+			return false;
+		}
+
+		headerOutputStream.write(b);
+
+		if(b == HEADER_ENDING[headerEndingMatched])
+			headerEndingMatched++;
+		else
+			headerEndingMatched = b == HEADER_ENDING[0] ? 1 : 0;
+
+		return headerEndingMatched == HEADER_ENDING.length;
+	}
+
+	private void headersComplete() throws IOException
+	{
+		byte[] headerBytes = headerOutputStream.toByteArray();
+		int headerStart = 0;
+		// A part's headers are captured from the end of its delimiter, which is followed by a line break
+		if(state == State.PART_HEADERS)
+			headerStart = 2;
+
+		String contentType = null;
+		if(headerBytes.length > headerStart + 2)
+		{
+			MimeStreamingReader mimeReader = new MimeStreamingReader(new ByteArrayInputStream(headerBytes, headerStart, headerBytes.length - headerStart));
+			for(Header header : mimeReader.getHeaders())
+			{
+				if(HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getName()))
+					contentType = header.getValue();
+			}
+		}
+
+		String boundary = state == State.HEADERS ? getBoundary(contentType) : null;
+		if(boundary != null)
+		{
+			// The first delimiter may begin the body without a preceding line break
+			delimiter = ("\r\n--" + boundary).getBytes("US-ASCII");
+			delimiterMatched = 2;
+			state = State.PARTS;
+			return;
+		}
+
+		setLevel(zipCompression.getLevel(contentType));
+		state = state == State.PART_HEADERS ?
+				State.PARTS :
+				State.BODY;
+	}
+
+	private void setLevel(int level)
+	{
+		if(level != this.level)
+		{
+			levelSetter.setLevel(level);
+			this.level = level;
+		}
+	}
+
+	private static String getBoundary(String contentType)
+	{
+		if(contentType == null || !contentType.toLowerCase().startsWith("multipart/"))
+			return null;
+
+		NameValuePair boundaryNameValuePair = new BasicHeader(HttpHeaders.CONTENT_TYPE, contentType).getElements()[0]
+				.getParameterByName("boundary");
+		return boundaryNameValuePair != null ?
+				boundaryNameValuePair.getValue() :
+				null;
+	}
+}
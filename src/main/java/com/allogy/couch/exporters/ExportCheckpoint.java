@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The progress of a ResumableZipCouchDatabaseExporter, as recorded in its checkpoint
+ * manifest. Everything up to and including the last key has been written to the
+ * archive segments, and the current segment is valid up to its recorded length.
+ */
+public class ExportCheckpoint
+{
+	private static final String LAST_KEY = "lastKey";
+	private static final String ENTRY_COUNT = "entryCount";
+	private static final String BYTE_COUNT = "byteCount";
+	private static final String SEGMENT = "segment";
+	private static final String SEGMENT_LENGTH = "segmentLength";
+	private static final String COMPLETE = "complete";
+
+	private final String lastKey;
+	private final long entryCount;
+	private final long byteCount;
+	private final int segment;
+	private final long segmentLength;
+	private final boolean complete;
+
+	/**
+	 * Constructs a new ExportCheckpoint.
+	 * @param lastKey the _all_docs key of the last exported document; null if none has been exported
+	 * @param entryCount the number of entries written across all segments
+	 * @param byteCount the number of bytes written across all segments
+	 * @param segment the index of the segment being written
+	 * @param segmentLength the number of valid bytes in the segment being written
+	 * @param complete true if the export has finished
+	 */
+	public ExportCheckpoint(String lastKey, long entryCount, long byteCount, int segment, long segmentLength, boolean complete)
+	{
+		this.lastKey = lastKey;
+		this.entryCount = entryCount;
+		this.byteCount = byteCount;
+		this.segment = segment;
+		this.segmentLength = segmentLength;
+		this.complete = complete;
+	}
+
+	public static ExportCheckpoint read(InputStream inputStream) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.load(inputStream);
+
+		try
+		{
+			return new ExportCheckpoint(properties.getProperty(LAST_KEY),
+					Long.parseLong(properties.getProperty(ENTRY_COUNT)),
+					Long.parseLong(properties.getProperty(BYTE_COUNT)),
+					Integer.parseInt(properties.getProperty(SEGMENT)),
+					Long.parseLong(properties.getProperty(SEGMENT_LENGTH)),
+					Boolean.parseBoolean(properties.getProperty(COMPLETE)));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Invalid export checkpoint: " + e.getMessage());
+		}
+	}
+
+	public void write(OutputStream outputStream) throws IOException
+	{
+		Properties properties = new Properties();
+		if(lastKey != null)
+			properties.setProperty(LAST_KEY, lastKey);
+		properties.setProperty(ENTRY_COUNT, Long.toString(entryCount));
+		properties.setProperty(BYTE_COUNT, Long.toString(byteCount));
+		properties.setProperty(SEGMENT, Integer.toString(segment));
+		properties.setProperty(SEGMENT_LENGTH, Long.toString(segmentLength));
+		properties.setProperty(COMPLETE, Boolean.toString(complete));
+		properties.store(outputStream, "couch-transfer export checkpoint");
+	}
+
+	public String getLastKey()
+	{
+		return lastKey;
+	}
+
+	public long getEntryCount()
+	{
+		return entryCount;
+	}
+
+	public long getByteCount()
+	{
+		return byteCount;
+	}
+
+	public int getSegment()
+	{
+		return segment;
+	}
+
+	public long getSegmentLength()
+	{
+		return segmentLength;
+	}
+
+	public boolean isComplete()
+	{
+		return complete;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.io.FileReplacer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * A SequenceStore kept in a properties file of database names and sequences.
+ * The file is replaced whole on every update. It may be shared by exporters
+ * running concurrently.
+ */
+public class FileSequenceStore implements SequenceStore
+{
+	private final File file;
+	private final Properties sequences;
+
+	/**
+	 * Constructs a new FileSequenceStore, reading the sequences already stored in the
+	 * file if it exists.
+	 * @param file the sequence file
+	 * @throws IOException the existing sequences could not be read
+	 */
+	public FileSequenceStore(File file) throws IOException
+	{
+		this.file = file;
+		sequences = new Properties();
+
+		if(file.exists())
+		{
+			InputStream inputStream = new FileInputStream(file);
+			try
+			{
+				sequences.load(inputStream);
+			}
+			finally
+			{
+				inputStream.close();
+			}
+		}
+	}
+
+	public synchronized String getSequence(String databaseName)
+	{
+		return sequences.getProperty(databaseName);
+	}
+
+	public synchronized void setSequence(String databaseName, String sequence) throws IOException
+	{
+		sequences.setProperty(databaseName, sequence);
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		sequences.store(outputStream, "couch-transfer export sequences");
+		FileReplacer.replace(file, outputStream.toByteArray());
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.archive.FlatArchiveLayout;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A CouchMultipleDatabaseExporter which writes every document of every database as an
+ * entry of a single zip archive, named as FlatArchiveLayout describes. Unlike
+ * ZipCouchMultipleDatabaseExporter, which writes each database's archive as an entry
+ * of the outer archive, each document is compressed once and the archive can be read
+ * without nested ZipInputStreams. Databases without documents are not written.
+ * The archive is read by FlatZipCouchMultipleDatabaseImporter.
+ */
+public class FlatZipCouchMultipleDatabaseExporter implements CouchMultipleDatabaseExporter
+{
+	private CouchDocumentExporter couchDocumentExporter;
+	private int pageSize;
+	private ZipCompression zipCompression;
+
+	public FlatZipCouchMultipleDatabaseExporter(CouchDocumentExporter couchDocumentExporter)
+	{
+		this(couchDocumentExporter, ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE, ZipCompression.defaultCompression());
+	}
+
+	/**
+	 * Constructs a new FlatZipCouchMultipleDatabaseExporter.
+	 * @param couchDocumentExporter the exporter used for each document
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 * @param zipCompression how each entry is compressed
+	 */
+	public FlatZipCouchMultipleDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int pageSize, ZipCompression zipCompression)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.couchDocumentExporter = couchDocumentExporter;
+		this.pageSize = pageSize;
+		this.zipCompression = zipCompression;
+	}
+
+	public void export(Iterable<CouchDbConnector> couchDbConnectors, OutputStream outputStream) throws IOException
+	{
+		if(couchDbConnectors == null || Iterables.size(couchDbConnectors) == 0)
+			throw new IllegalArgumentException("couchDbConnectors");
+		if(outputStream == null)
+			throw new IllegalArgumentException("outputStream");
+
+		ZipEntryWriter zipEntryWriter = new ZipEntryWriter(outputStream, zipCompression);
+
+		try
+		{
+			zipEntryWriter.startEntry(FlatArchiveLayout.LAYOUT_ENTRY_NAME, "text/plain")
+					.write(FlatArchiveLayout.LAYOUT_NAME.getBytes(Charsets.UTF_8));
+			zipEntryWriter.finishEntry();
+
+			for(CouchDbConnector couchDbConnector : couchDbConnectors)
+				exportDatabase(couchDbConnector, zipEntryWriter);
+		}
+		finally
+		{
+			zipEntryWriter.finish();
+		}
+	}
+
+	private void exportDatabase(CouchDbConnector couchDbConnector, ZipEntryWriter zipEntryWriter) throws IOException
+	{
+		String databaseName = couchDbConnector.getDatabaseName();
+
+		for(ViewResult.Row row : new AllDocumentsRows(couchDbConnector, pageSize))
+		{
+			String id = row.getId();
+			String revision = row.getValueAsNode().get("rev").getTextValue();
+
+			OutputStream entryOutputStream = zipEntryWriter.startEntry(FlatArchiveLayout.getEntryName(databaseName, id));
+			couchDocumentExporter.exportDocument(id, revision, couchDbConnector, entryOutputStream);
+			zipEntryWriter.finishEntry();
+		}
+	}
+}
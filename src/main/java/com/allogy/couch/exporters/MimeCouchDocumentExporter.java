@@ -16,31 +16,22 @@
 
 package com.allogy.couch.exporters;
 
-import com.allogy.mime.MimeGeneratingInputStream;
-import org.apache.commons.io.IOUtils;
-import org.apache.http.Header;
+import com.allogy.mime.MimeEnvelopeWriter;
 import org.apache.http.HttpHeaders;
-import org.apache.http.message.BasicHeader;
 import org.ektorp.CouchDbConnector;
 import org.ektorp.http.HttpResponse;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class MimeCouchDocumentExporter implements CouchDocumentExporter
 {
 	public void exportDocument(String id, String revision, CouchDbConnector couchDbConnector, OutputStream outputStream) throws IOException
 	{
-		String dbName = couchDbConnector.path();
-		String getPath = dbName + id + "?revs=true&attachments=true&rev=" + revision;
-		Map<String, String> getRequestHeaders = new HashMap<String, String>();
-		getRequestHeaders.put(HttpHeaders.ACCEPT, "multipart/related");
-		HttpResponse getResponse = couchDbConnector.getConnection().get(getPath, getRequestHeaders);
+		HttpResponse getResponse = requestDocument(id, revision, couchDbConnector);
 
 		long contentLength = getResponse.getContentLength();
 		String contentType = getResponse.getContentType();
@@ -48,22 +39,38 @@ public class MimeCouchDocumentExporter implements CouchDocumentExporter
 		if(revisionReceived == null)
 			return;
 
-		List<Header> headers = new ArrayList<Header>();
-		headers.add(new BasicHeader("Content-ID",  id));
-		headers.add(new BasicHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(contentLength)));
-		headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, contentType));
-		headers.add(new BasicHeader(HttpHeaders.ETAG, revisionReceived));
+		MimeEnvelopeWriter mimeEnvelopeWriter = MimeEnvelopeWriter.currentThreadWriter().startEntry();
+		mimeEnvelopeWriter.addHeader("Content-ID", id);
+		mimeEnvelopeWriter.addHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(contentLength));
+		mimeEnvelopeWriter.addHeader(HttpHeaders.CONTENT_TYPE, contentType);
+		mimeEnvelopeWriter.addHeader(HttpHeaders.ETAG, revisionReceived);
 
 		InputStream documentEntryInputStream = getResponse.getContent();
-
-		InputStream mimeStream = new MimeGeneratingInputStream(headers, documentEntryInputStream);
 		try
 		{
-			IOUtils.copy(mimeStream, outputStream);
+			mimeEnvelopeWriter.writeTo(outputStream, documentEntryInputStream);
 		}
 		finally
 		{
 			documentEntryInputStream.close();
 		}
 	}
+
+	/**
+	 * Requests one revision of a document with its revision history and attachments,
+	 * as multipart/related when it has attachments. The ETag of the response is the
+	 * revision, or null if it could not be read.
+	 * @param id the Couch document id
+	 * @param revision the revision to request
+	 * @param couchDbConnector the Couch database holding the document
+	 * @return the response, whose content the caller must close
+	 */
+	public static HttpResponse requestDocument(String id, String revision, CouchDbConnector couchDbConnector)
+	{
+		String dbName = couchDbConnector.path();
+		String getPath = dbName + id + "?revs=true&attachments=true&rev=" + revision;
+		Map<String, String> getRequestHeaders = new HashMap<String, String>();
+		getRequestHeaders.put(HttpHeaders.ACCEPT, "multipart/related");
+		return couchDbConnector.getConnection().get(getPath, getRequestHeaders);
+	}
 }
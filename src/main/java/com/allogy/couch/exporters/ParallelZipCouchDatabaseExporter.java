@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import com.allogy.io.PendingSpool;
+import com.allogy.io.TimedOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * A CouchDatabaseExporter which produces a zip archive like ZipCouchDatabaseExporter,
+ * but fetches and compresses documents on a pool of threads.
+ * Each thread exports a document through its own Deflater into a spool, computing the
+ * CRC and size of the uncompressed document as it goes. Each spool is held in memory up
+ * to an equal share of the memory budget and overflows into a temporary file beyond that.
+ * The calling thread writes the compressed spools into the archive in _all_docs order,
+ * so compression uses as many cores as there are threads.
+ * The archive is a standard zip archive which any zip importer can read;
+ * ParallelZipCouchDatabaseImporter also decompresses it on several threads.
+ */
+public class ParallelZipCouchDatabaseExporter implements CouchDatabaseExporter
+{
+	private static final int DEFLATER_BUFFER_SIZE = 8192;
+
+	private final CouchDocumentExporter couchDocumentExporter;
+	private final int threads;
+	private final int prefetchCount;
+	private final int spoolThreshold;
+	private final int pageSize;
+	private final ZipCompression zipCompression;
+	private final TransferMetricsListener transferMetricsListener;
+
+	/**
+	 * Constructs a new ParallelZipCouchDatabaseExporter which uses one thread for each
+	 * available processor.
+	 * @param couchDocumentExporter the exporter used for each document; it is called from
+	 *                              multiple threads at once
+	 * @param memoryBudget the number of bytes of compressed document data to hold in memory
+	 *                     across all documents ahead of the writer
+	 */
+	public ParallelZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, long memoryBudget)
+	{
+		this(couchDocumentExporter, Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors(), memoryBudget,
+				ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE, ZipCompression.defaultCompression(), NullTransferMetricsListener.metricsListener());
+	}
+
+	/**
+	 * Constructs a new ParallelZipCouchDatabaseExporter.
+	 * @param couchDocumentExporter the exporter used for each document; it is called from
+	 *                              multiple threads at once
+	 * @param threads the number of documents to fetch and compress at the same time
+	 * @param prefetchCount the maximum number of documents compressed, or being compressed, ahead of the writer
+	 * @param memoryBudget the number of bytes of compressed document data to hold in memory
+	 *                     across all documents ahead of the writer
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 * @param zipCompression how each entry is compressed
+	 * @param transferMetricsListener the listener receiving measurements; time the writer
+	 *                                spends waiting for a document is reported as read time
+	 */
+	public ParallelZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int threads, int prefetchCount, long memoryBudget,
+			int pageSize, ZipCompression zipCompression, TransferMetricsListener transferMetricsListener)
+	{
+		if(threads < 1)
+			throw new IllegalArgumentException("threads");
+		if(prefetchCount < threads)
+			throw new IllegalArgumentException("prefetchCount");
+		if(memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget");
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
+		this.couchDocumentExporter = couchDocumentExporter;
+		this.threads = threads;
+		this.prefetchCount = prefetchCount;
+		this.spoolThreshold = (int)Math.min(memoryBudget / prefetchCount, Integer.MAX_VALUE);
+		this.pageSize = pageSize;
+		this.zipCompression = zipCompression;
+		this.transferMetricsListener = transferMetricsListener;
+	}
+
+	public void export(CouchDbConnector couchDbConnector, OutputStream outputStream) throws IOException
+	{
+		Iterator<ViewResult.Row> rows = new AllDocumentsRows(couchDbConnector, pageSize).iterator();
+
+		if(!rows.hasNext())
+			return;
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		Deque<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>(prefetchCount);
+		TimedOutputStream timedOutputStream = new TimedOutputStream(outputStream);
+		PrecompressedZipWriter precompressedZipWriter = new PrecompressedZipWriter(timedOutputStream);
+
+		try
+		{
+			while(rows.hasNext())
+			{
+				if(pendingEntries.size() == prefetchCount)
+					writeEntry(pendingEntries.removeFirst(), precompressedZipWriter, timedOutputStream);
+
+				ViewResult.Row row = rows.next();
+				pendingEntries.addLast(compressDocument(row, couchDbConnector, executorService));
+			}
+
+			while(!pendingEntries.isEmpty())
+				writeEntry(pendingEntries.removeFirst(), precompressedZipWriter, timedOutputStream);
+		}
+		finally
+		{
+			executorService.shutdownNow();
+			for(PendingEntry pendingEntry : pendingEntries)
+				pendingEntry.spool.discard();
+
+			precompressedZipWriter.finish();
+		}
+	}
+
+	private PendingEntry compressDocument(ViewResult.Row row, final CouchDbConnector couchDbConnector, ExecutorService executorService)
+	{
+		final String id = row.getId();
+		final String revision = row.getValueAsNode().get("rev").getTextValue();
+		final PendingEntry pendingEntry = new PendingEntry(zipCompression.isStored() ? ZipEntry.STORED : ZipEntry.DEFLATED);
+
+		pendingEntry.spool = PendingSpool.submit(id, "couch-export-", spoolThreshold, executorService, new PendingSpool.SpoolWriter()
+		{
+			public void write(OutputStream outputStream) throws IOException
+			{
+				if(pendingEntry.method == ZipEntry.STORED)
+				{
+					CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+					couchDocumentExporter.exportDocument(id, revision, couchDbConnector, countingOutputStream);
+					pendingEntry.size = countingOutputStream.getByteCount();
+					return;
+				}
+
+				final Deflater deflater = new Deflater(zipCompression.getLevel(), true);
+				try
+				{
+					DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater, DEFLATER_BUFFER_SIZE);
+					OutputStream documentOutputStream = deflaterOutputStream;
+					if(zipCompression.isContentTypeAware())
+					{
+						documentOutputStream = new ContentTypeCompressionOutputStream(deflaterOutputStream,
+								new ContentTypeCompressionOutputStream.LevelSetter()
+								{
+									public void setLevel(int level)
+									{
+										deflater.setLevel(level);
+									}
+								}, zipCompression);
+					}
+
+					CRC32 crc32 = new CRC32();
+					CountingOutputStream countingOutputStream = new CountingOutputStream(new CheckedOutputStream(documentOutputStream, crc32));
+					couchDocumentExporter.exportDocument(id, revision, couchDbConnector, countingOutputStream);
+					deflaterOutputStream.finish();
+
+					pendingEntry.size = countingOutputStream.getByteCount();
+					pendingEntry.crc = crc32.getValue();
+				}
+				finally
+				{
+					deflater.end();
+				}
+			}
+		});
+
+		return pendingEntry;
+	}
+
+	private void writeEntry(PendingEntry pendingEntry, PrecompressedZipWriter precompressedZipWriter, TimedOutputStream timedOutputStream) throws IOException
+	{
+		PendingSpool spool = pendingEntry.spool;
+		try
+		{
+			long startNanos = System.nanoTime();
+			spool.await();
+			long readNanos = System.nanoTime() - startNanos;
+
+			long startWriteNanos = timedOutputStream.getElapsedNanos();
+			// A STORED spool is the document itself, so its CRC is the document's
+			long crc = pendingEntry.method == ZipEntry.STORED ? spool.getCrc() : pendingEntry.crc;
+			spool.writeTo(precompressedZipWriter.startEntry(spool.getName(), pendingEntry.method, crc, pendingEntry.size, spool.getSize()));
+			precompressedZipWriter.finishEntry();
+
+			transferMetricsListener.readBlocked(readNanos);
+			transferMetricsListener.writeBlocked(timedOutputStream.getElapsedNanos() - startWriteNanos);
+			transferMetricsListener.documentTransferred(spool.getName(), pendingEntry.size, System.nanoTime() - startNanos);
+		}
+		finally
+		{
+			spool.discard();
+		}
+	}
+
+	/**
+	 * A document being compressed. Its CRC and size are set by the compressing thread
+	 * and read after PendingSpool.await.
+	 */
+	private static class PendingEntry
+	{
+		final int method;
+		PendingSpool spool;
+		long crc;
+		long size;
+
+		PendingEntry(int method)
+		{
+			this.method = method;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive whose entries have already been compressed, so that their
+ * compression can happen elsewhere, such as on other threads. Each entry's CRC and
+ * sizes must be known when it is started; they are written in its local header, so
+ * the archive has no data descriptors. Zip64 records are written where the sizes,
+ * offsets or number of entries need them.
+ * A writer can also finish an archive whose entries were written by another writer,
+ * such as a ZipOutputStream which was interrupted before writing its central directory.
+ */
+class PrecompressedZipWriter
+{
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int VERSION = 20;
+	private static final int ZIP64_VERSION = 45;
+	private static final int UTF8_NAMES_FLAG = 0x0800;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+	private static final int ZIP64_ENTRY_COUNT_MAGIC = 0xffff;
+
+	private final CountingOutputStream countingOutputStream;
+	private final long archiveOffset;
+	private final ByteArrayOutputStream centralDirectory;
+	private final int dosTime;
+	private final int dosDate;
+	private long entryCount;
+	private String entryName;
+	private long entryEnd;
+
+	PrecompressedZipWriter(OutputStream outputStream)
+	{
+		this(outputStream, 0);
+	}
+
+	/**
+	 * Constructs a writer which appends to an archive.
+	 * @param outputStream the stream appending to the archive
+	 * @param archiveOffset the number of bytes already in the archive
+	 */
+	PrecompressedZipWriter(OutputStream outputStream, long archiveOffset)
+	{
+		countingOutputStream = new CountingOutputStream(outputStream);
+		this.archiveOffset = archiveOffset;
+		centralDirectory = new ByteArrayOutputStream();
+
+		Calendar calendar = Calendar.getInstance();
+		dosTime = (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+		dosDate = ((calendar.get(Calendar.YEAR) - 1980) << 9) | ((calendar.get(Calendar.MONTH) + 1) << 5) | calendar.get(Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * @return the number of bytes written to the archive
+	 */
+	long getByteCount()
+	{
+		return archiveOffset + countingOutputStream.getByteCount();
+	}
+
+	/**
+	 * Writes an entry's local header.
+	 * @param name the entry name
+	 * @param method ZipEntry.STORED or ZipEntry.DEFLATED, for raw deflate data
+	 * @param crc the CRC-32 of the uncompressed data
+	 * @param size the size of the uncompressed data
+	 * @param compressedSize the size of the data which will be written
+	 * @return the stream to which exactly compressedSize bytes of data must be written
+	 */
+	OutputStream startEntry(String name, int method, long crc, long size, long compressedSize) throws IOException
+	{
+		if(entryName != null)
+			throw new IllegalStateException("Entry " + entryName + " has not been finished");
+		if(method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+			throw new IllegalArgumentException("method");
+
+		byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+		long offset = getByteCount();
+		boolean zip64Sizes = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+
+		ByteArrayOutputStream localHeader = new ByteArrayOutputStream(30 + nameBytes.length + 20);
+		writeInt(localHeader, LOCAL_HEADER_SIGNATURE);
+		writeShort(localHeader, zip64Sizes ? ZIP64_VERSION : VERSION);
+		writeShort(localHeader, UTF8_NAMES_FLAG);
+		writeShort(localHeader, method);
+		writeShort(localHeader, dosTime);
+		writeShort(localHeader, dosDate);
+		writeInt(localHeader, (int)crc);
+		writeInt(localHeader, (int)(zip64Sizes ? ZIP64_MAGIC : compressedSize));
+		writeInt(localHeader, (int)(zip64Sizes ? ZIP64_MAGIC : size));
+		writeShort(localHeader, nameBytes.length);
+		writeShort(localHeader, zip64Sizes ? 20 : 0);
+		localHeader.write(nameBytes);
+		if(zip64Sizes)
+		{
+			writeShort(localHeader, ZIP64_EXTRA_FIELD_ID);
+			writeShort(localHeader, 16);
+			writeLong(localHeader, size);
+			writeLong(localHeader, compressedSize);
+		}
+		localHeader.writeTo(countingOutputStream);
+
+		addCentralDirectoryEntry(nameBytes, UTF8_NAMES_FLAG, method, crc, size, compressedSize, offset);
+
+		entryCount++;
+		entryName = name;
+		entryEnd = getByteCount() + compressedSize;
+		return countingOutputStream;
+	}
+
+	/**
+	 * Adds an entry which is already in the archive to the central directory.
+	 * @param name the entry name
+	 * @param flags the general purpose flags of the entry's local header
+	 * @param method the compression method of the entry
+	 * @param crc the CRC-32 of the uncompressed data
+	 * @param size the size of the uncompressed data
+	 * @param compressedSize the size of the entry's data in the archive
+	 * @param offset the offset of the entry's local header
+	 */
+	void addWrittenEntry(String name, int flags, int method, long crc, long size, long compressedSize, long offset)
+	{
+		if(entryName != null)
+			throw new IllegalStateException("Entry " + entryName + " has not been finished");
+
+		addCentralDirectoryEntry(name.getBytes(Charsets.UTF_8), flags | UTF8_NAMES_FLAG, method, crc, size, compressedSize, offset);
+		entryCount++;
+	}
+
+	/**
+	 * Checks that the data written for the entry matches the size it was started with.
+	 */
+	void finishEntry() throws IOException
+	{
+		if(getByteCount() != entryEnd)
+			throw new ZipException("Entry " + entryName + " should have " + (entryEnd - getByteCount()) + " more bytes");
+		entryName = null;
+	}
+
+	/**
+	 * Writes the central directory without closing the stream the archive is written to.
+	 */
+	void finish() throws IOException
+	{
+		long centralDirectoryOffset = getByteCount();
+		long centralDirectorySize = centralDirectory.size();
+		centralDirectory.writeTo(countingOutputStream);
+
+		ByteArrayOutputStream end = new ByteArrayOutputStream();
+		boolean zip64 = entryCount >= ZIP64_ENTRY_COUNT_MAGIC || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+		if(zip64)
+		{
+			long zip64EndOffset = getByteCount();
+			writeInt(end, ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+			writeLong(end, 44);
+			writeShort(end, ZIP64_VERSION);
+			writeShort(end, ZIP64_VERSION);
+			writeInt(end, 0);
+			writeInt(end, 0);
+			writeLong(end, entryCount);
+			writeLong(end, entryCount);
+			writeLong(end, centralDirectorySize);
+			writeLong(end, centralDirectoryOffset);
+
+			writeInt(end, ZIP64_LOCATOR_SIGNATURE);
+			writeInt(end, 0);
+			writeLong(end, zip64EndOffset);
+			writeInt(end, 1);
+		}
+
+		writeInt(end, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		writeShort(end, 0);
+		writeShort(end, 0);
+		writeShort(end, (int)Math.min(entryCount, ZIP64_ENTRY_COUNT_MAGIC));
+		writeShort(end, (int)Math.min(entryCount, ZIP64_ENTRY_COUNT_MAGIC));
+		writeInt(end, (int)Math.min(centralDirectorySize, ZIP64_MAGIC));
+		writeInt(end, (int)(zip64 ? ZIP64_MAGIC : centralDirectoryOffset));
+		writeShort(end, 0);
+		end.writeTo(countingOutputStream);
+		countingOutputStream.flush();
+	}
+
+	private void addCentralDirectoryEntry(byte[] nameBytes, int flags, int method, long crc, long size, long compressedSize, long offset)
+	{
+		boolean zip64Offset = offset >= ZIP64_MAGIC;
+		int extraLength = (size >= ZIP64_MAGIC ? 8 : 0) + (compressedSize >= ZIP64_MAGIC ? 8 : 0) + (zip64Offset ? 8 : 0);
+		writeInt(centralDirectory, CENTRAL_DIRECTORY_SIGNATURE);
+		writeShort(centralDirectory, ZIP64_VERSION);
+		writeShort(centralDirectory, extraLength > 0 ? ZIP64_VERSION : VERSION);
+		writeShort(centralDirectory, flags);
+		writeShort(centralDirectory, method);
+		writeShort(centralDirectory, dosTime);
+		writeShort(centralDirectory, dosDate);
+		writeInt(centralDirectory, (int)crc);
+		writeInt(centralDirectory, (int)Math.min(compressedSize, ZIP64_MAGIC));
+		writeInt(centralDirectory, (int)Math.min(size, ZIP64_MAGIC));
+		writeShort(centralDirectory, nameBytes.length);
+		writeShort(centralDirectory, extraLength > 0 ? 4 + extraLength : 0);
+		writeShort(centralDirectory, 0);
+		writeShort(centralDirectory, 0);
+		writeShort(centralDirectory, 0);
+		writeInt(centralDirectory, 0);
+		writeInt(centralDirectory, (int)Math.min(offset, ZIP64_MAGIC));
+		centralDirectory.write(nameBytes, 0, nameBytes.length);
+		if(extraLength > 0)
+		{
+			writeShort(centralDirectory, ZIP64_EXTRA_FIELD_ID);
+			writeShort(centralDirectory, extraLength);
+			if(size >= ZIP64_MAGIC)
+				writeLong(centralDirectory, size);
+			if(compressedSize >= ZIP64_MAGIC)
+				writeLong(centralDirectory, compressedSize);
+			if(zip64Offset)
+				writeLong(centralDirectory, offset);
+		}
+	}
+
+	private static void writeShort(ByteArrayOutputStream outputStream, int value)
+	{
+		outputStream.write(value);
+		outputStream.write(value >>> 8);
+	}
+
+	private static void writeInt(ByteArrayOutputStream outputStream, int value)
+	{
+		writeShort(outputStream, value);
+		writeShort(outputStream, value >>> 16);
+	}
+
+	private static void writeLong(ByteArrayOutputStream outputStream, long value)
+	{
+		writeInt(outputStream, (int)value);
+		writeInt(outputStream, (int)(value >>> 32));
+	}
+}
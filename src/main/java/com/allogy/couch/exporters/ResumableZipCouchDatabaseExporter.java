@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.io.FileReplacer;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports a Couch database into a directory of zip archive segments, recording its
+ * progress in a checkpoint manifest so that an interrupted export can be resumed.
+ * Each run writes a new segment which begins after the last checkpointed document.
+ * A segment interrupted mid-write is truncated back to its last checkpoint when the
+ * export is resumed, and a central directory is written for the whole entries left in
+ * it, so that every segment is a complete zip archive. Import the segments in order,
+ * one after another.
+ */
+public class ResumableZipCouchDatabaseExporter
+{
+	public static final String CHECKPOINT_FILE_NAME = "checkpoint.properties";
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+
+	private final CouchDocumentExporter couchDocumentExporter;
+	private final int pageSize;
+	private final int checkpointInterval;
+
+	public ResumableZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter)
+	{
+		this(couchDocumentExporter, ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Constructs a new ResumableZipCouchDatabaseExporter.
+	 * @param couchDocumentExporter the exporter used for each document
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 * @param checkpointInterval the number of documents to export between checkpoints
+	 */
+	public ResumableZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int pageSize, int checkpointInterval)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+		if(checkpointInterval < 1)
+			throw new IllegalArgumentException("checkpointInterval");
+
+		this.couchDocumentExporter = couchDocumentExporter;
+		this.pageSize = pageSize;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Exports a Couch database into a directory, resuming from the directory's
+	 * checkpoint if it has one.
+	 * @param couchDbConnector the Couch database to export
+	 * @param directory the directory holding the segments and the checkpoint
+	 * @return the final checkpoint
+	 * @throws IOException an error occurred reading or writing a document; the
+	 * checkpoint records the progress made before it
+	 */
+	public ExportCheckpoint export(CouchDbConnector couchDbConnector, File directory) throws IOException
+	{
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create export directory " + directory);
+
+		ExportCheckpoint checkpoint = readCheckpoint(directory);
+		if(checkpoint == null)
+			return exportSegment(couchDbConnector, directory, new ExportCheckpoint(null, 0, 0, -1, 0, false));
+		if(checkpoint.isComplete())
+			return checkpoint;
+
+		closeSegment(getSegmentFile(directory, checkpoint.getSegment()), checkpoint.getSegmentLength());
+		return exportSegment(couchDbConnector, directory, checkpoint);
+	}
+
+	/**
+	 * @return the segments of an export in the order they should be imported
+	 */
+	public static List<File> getSegmentFiles(File directory) throws IOException
+	{
+		List<File> segmentFiles = new ArrayList<File>();
+		ExportCheckpoint checkpoint = readCheckpoint(directory);
+		if(checkpoint == null)
+			return segmentFiles;
+
+		for(int segment = 0; segment <= checkpoint.getSegment(); segment++)
+		{
+			File segmentFile = getSegmentFile(directory, segment);
+			if(segmentFile.exists())
+				segmentFiles.add(segmentFile);
+		}
+		return segmentFiles;
+	}
+
+	private ExportCheckpoint exportSegment(CouchDbConnector couchDbConnector, File directory, ExportCheckpoint previousCheckpoint) throws IOException
+	{
+		Iterator<ViewResult.Row> rows = new AllDocumentsRows(couchDbConnector, pageSize, previousCheckpoint.getLastKey()).iterator();
+
+		if(!rows.hasNext())
+		{
+			ExportCheckpoint checkpoint = new ExportCheckpoint(previousCheckpoint.getLastKey(), previousCheckpoint.getEntryCount(),
+					previousCheckpoint.getByteCount(), previousCheckpoint.getSegment(), previousCheckpoint.getSegmentLength(), true);
+			writeCheckpoint(directory, checkpoint);
+			return checkpoint;
+		}
+
+		int segment = previousCheckpoint.getSegment() + 1;
+		long previousByteCount = previousCheckpoint.getByteCount();
+		String lastKey = previousCheckpoint.getLastKey();
+		long entryCount = previousCheckpoint.getEntryCount();
+
+		FileOutputStream segmentOutputStream = new FileOutputStream(getSegmentFile(directory, segment));
+		try
+		{
+			ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(segmentOutputStream));
+			int entriesSinceCheckpoint = 0;
+			while(rows.hasNext())
+			{
+				ViewResult.Row row = rows.next();
+				String id = row.getId();
+				String revision = row.getValueAsNode().get("rev").getTextValue();
+				zipOutputStream.putNextEntry(new ZipEntry(id));
+				couchDocumentExporter.exportDocument(id, revision, couchDbConnector, zipOutputStream);
+				zipOutputStream.closeEntry();
+
+				lastKey = row.getKey();
+				entryCount++;
+				if(++entriesSinceCheckpoint == checkpointInterval)
+				{
+					zipOutputStream.flush();
+					segmentOutputStream.getFD().sync();
+					long segmentLength = segmentOutputStream.getChannel().position();
+					writeCheckpoint(directory, new ExportCheckpoint(lastKey, entryCount, previousByteCount + segmentLength,
+							segment, segmentLength, false));
+					entriesSinceCheckpoint = 0;
+				}
+			}
+
+			zipOutputStream.finish();
+			zipOutputStream.flush();
+			segmentOutputStream.getFD().sync();
+			long segmentLength = segmentOutputStream.getChannel().position();
+			ExportCheckpoint checkpoint = new ExportCheckpoint(lastKey, entryCount, previousByteCount + segmentLength,
+					segment, segmentLength, true);
+			writeCheckpoint(directory, checkpoint);
+			return checkpoint;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(segmentOutputStream);
+		}
+	}
+
+	private static File getSegmentFile(File directory, int segment)
+	{
+		return new File(directory, String.format("segment-%05d.zip", segment));
+	}
+
+	/**
+	 * Truncates an interrupted segment to its last checkpoint and writes a central
+	 * directory for the entries before it.
+	 */
+	private static void closeSegment(File segmentFile, long segmentLength) throws IOException
+	{
+		if(!segmentFile.exists())
+			return;
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "rw");
+		try
+		{
+			if(randomAccessFile.length() > segmentLength)
+				randomAccessFile.setLength(segmentLength);
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+
+		FileOutputStream segmentOutputStream = new FileOutputStream(segmentFile, true);
+		try
+		{
+			PrecompressedZipWriter precompressedZipWriter = new PrecompressedZipWriter(new BufferedOutputStream(segmentOutputStream), segmentLength);
+			if(addWrittenEntries(precompressedZipWriter, segmentFile, segmentLength))
+			{
+				precompressedZipWriter.finish();
+				segmentOutputStream.getFD().sync();
+			}
+		}
+		finally
+		{
+			segmentOutputStream.close();
+		}
+	}
+
+	/**
+	 * Adds the entries of a segment to a central directory.
+	 * @return false if the segment already ends with a central directory
+	 */
+	private static boolean addWrittenEntries(PrecompressedZipWriter precompressedZipWriter, File segmentFile, long segmentLength) throws IOException
+	{
+		ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(segmentFile)));
+		RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "r");
+		try
+		{
+			long offset = 0;
+			ZipEntry zipEntry;
+			while((zipEntry = zipInputStream.getNextEntry()) != null)
+			{
+				// Reading to the end of the entry fills in its CRC and sizes from its data descriptor
+				zipInputStream.closeEntry();
+
+				randomAccessFile.seek(offset);
+				if(Integer.reverseBytes(randomAccessFile.readInt()) != LOCAL_HEADER_SIGNATURE)
+					throw new ZipException("No local header for entry " + zipEntry.getName() + " at offset " + offset);
+				randomAccessFile.seek(offset + 6);
+				int flags = readShort(randomAccessFile);
+				randomAccessFile.seek(offset + 26);
+				int nameLength = readShort(randomAccessFile);
+				int extraLength = readShort(randomAccessFile);
+
+				precompressedZipWriter.addWrittenEntry(zipEntry.getName(), flags, zipEntry.getMethod(), zipEntry.getCrc(),
+						zipEntry.getSize(), zipEntry.getCompressedSize(), offset);
+				offset += 30 + nameLength + extraLength + zipEntry.getCompressedSize();
+				if((flags & DATA_DESCRIPTOR_FLAG) != 0)
+					offset += getDataDescriptorLength(randomAccessFile, offset, zipEntry);
+			}
+
+			// Entries which stop short of the segment length are followed by a central directory
+			return offset == segmentLength;
+		}
+		finally
+		{
+			randomAccessFile.close();
+			zipInputStream.close();
+		}
+	}
+
+	/**
+	 * Gets the length of a data descriptor, which may or may not begin with a signature
+	 * and has 8 byte sizes when either size needs Zip64.
+	 */
+	private static int getDataDescriptorLength(RandomAccessFile randomAccessFile, long offset, ZipEntry zipEntry) throws IOException
+	{
+		randomAccessFile.seek(offset);
+		boolean signed = Integer.reverseBytes(randomAccessFile.readInt()) == DATA_DESCRIPTOR_SIGNATURE;
+		boolean zip64 = zipEntry.getSize() >= ZIP64_MAGIC || zipEntry.getCompressedSize() >= ZIP64_MAGIC;
+		return (signed ? 4 : 0) + 4 + (zip64 ? 16 : 8);
+	}
+
+	private static int readShort(RandomAccessFile randomAccessFile) throws IOException
+	{
+		return Short.reverseBytes(randomAccessFile.readShort()) & 0xffff;
+	}
+
+	private static ExportCheckpoint readCheckpoint(File directory) throws IOException
+	{
+		File checkpointFile = new File(directory, CHECKPOINT_FILE_NAME);
+		if(!checkpointFile.exists())
+			return null;
+
+		InputStream checkpointInputStream = new FileInputStream(checkpointFile);
+		try
+		{
+			return ExportCheckpoint.read(checkpointInputStream);
+		}
+		finally
+		{
+			checkpointInputStream.close();
+		}
+	}
+
+	private static void writeCheckpoint(File directory, ExportCheckpoint checkpoint) throws IOException
+	{
+		ByteArrayOutputStream checkpointOutputStream = new ByteArrayOutputStream();
+		checkpoint.write(checkpointOutputStream);
+		FileReplacer.replace(new File(directory, CHECKPOINT_FILE_NAME), checkpointOutputStream.toByteArray());
+	}
+}
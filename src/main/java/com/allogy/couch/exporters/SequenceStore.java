@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import java.io.IOException;
+
+/**
+ * Stores the _changes sequence each database has been exported up to, for
+ * ChangesZipCouchDatabaseExporter.
+ */
+public interface SequenceStore
+{
+	/**
+	 * @param databaseName the name of the exported database
+	 * @return the last exported sequence; null if the database has not been exported
+	 */
+	String getSequence(String databaseName);
+
+	/**
+	 * Records the last exported sequence of a database.
+	 * @param databaseName the name of the exported database
+	 * @param sequence the last exported sequence
+	 * @throws IOException the sequence could not be stored
+	 */
+	void setSequence(String databaseName, String sequence) throws IOException;
+}
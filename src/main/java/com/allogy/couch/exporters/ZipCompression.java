@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * How the entries of an exported zip archive are compressed.
+ */
+public class ZipCompression
+{
+	private static final Set<String> COMPRESSED_CONTENT_TYPES = new HashSet<String>(Arrays.asList(
+			"application/pdf", "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+			"application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+			"image/jpeg", "image/png", "image/gif", "image/webp"));
+
+	private final int level;
+	private final boolean stored;
+	private final boolean contentTypeAware;
+
+	private ZipCompression(int level, boolean stored, boolean contentTypeAware)
+	{
+		if(level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+			throw new IllegalArgumentException("level");
+
+		this.level = level;
+		this.stored = stored;
+		this.contentTypeAware = contentTypeAware;
+	}
+
+	/**
+	 * @return deflated entries at the default level, which is how ZipOutputStream writes them
+	 */
+	public static ZipCompression defaultCompression()
+	{
+		return deflated(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level the Deflater level; Deflater.NO_COMPRESSION copies the data into
+	 *              the archive without spooling it
+	 * @return deflated entries at a given level
+	 */
+	public static ZipCompression deflated(int level)
+	{
+		return new ZipCompression(level, false, false);
+	}
+
+	/**
+	 * Entries are written STORED, which requires their size and CRC before their data.
+	 * An entry whose size is not known in advance is spooled, in memory up to a threshold
+	 * and in a temporary file beyond that, before it is written.
+	 * @return stored entries
+	 */
+	public static ZipCompression stored()
+	{
+		return new ZipCompression(Deflater.NO_COMPRESSION, true, false);
+	}
+
+	/**
+	 * Entries are deflated at a given level except for content which is already
+	 * compressed, such as JPEG or PDF attachments, which is not compressed again.
+	 * The content type of a document entry is read from its MIME headers, and each part
+	 * of a multipart document is compressed according to its own content type.
+	 * @param level the Deflater level for content which is not already compressed
+	 * @return content type aware entries
+	 */
+	public static ZipCompression contentTypeAware(int level)
+	{
+		return new ZipCompression(level, false, true);
+	}
+
+	public int getLevel()
+	{
+		return level;
+	}
+
+	public boolean isStored()
+	{
+		return stored;
+	}
+
+	public boolean isContentTypeAware()
+	{
+		return contentTypeAware;
+	}
+
+	/**
+	 * @param contentType a MIME content type, which may have parameters; null for none
+	 * @return true if content of the type is already compressed, so that deflating it
+	 *         again spends time without saving space
+	 */
+	public static boolean isCompressedContentType(String contentType)
+	{
+		if(contentType == null)
+			return false;
+
+		int parametersIndex = contentType.indexOf(';');
+		String mediaType = (parametersIndex < 0 ? contentType : contentType.substring(0, parametersIndex)).trim().toLowerCase();
+
+		return COMPRESSED_CONTENT_TYPES.contains(mediaType) ||
+				mediaType.startsWith("audio/") ||
+				mediaType.startsWith("video/") ||
+				mediaType.startsWith("application/vnd.openxmlformats-officedocument.");
+	}
+
+	/**
+	 * @return the Deflater level for content of a type
+	 */
+	int getLevel(String contentType)
+	{
+		return contentTypeAware && isCompressedContentType(contentType) ?
+				Deflater.NO_COMPRESSION :
+				level;
+	}
+}
@@ -16,48 +16,179 @@
 
 package com.allogy.couch.exporters;
 
+import com.allogy.couch.archive.ArchiveIndex;
+import com.allogy.couch.archive.ArchiveIndexEntry;
+import com.allogy.couch.archive.ArchiveIndexWriter;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import com.allogy.io.TimedOutputStream;
+import com.allogy.mime.HeaderCapturingOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.ektorp.CouchDbConnector;
-import org.ektorp.ViewQuery;
 import org.ektorp.ViewResult;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Iterator;
 
+/**
+ * A CouchDatabaseExporter which writes each document as an entry in a zip archive.
+ * Documents are enumerated from _all_docs one page at a time so that memory use
+ * does not grow with the size of the database.
+ * The exporter can also write an ArchiveIndex as the last entry of the archive, which
+ * lets SelectiveZipCouchDatabaseImporter restore chosen documents without reading
+ * the rest of the archive. Entries are compressed as a ZipCompression decides.
+ */
 public class ZipCouchDatabaseExporter implements CouchDatabaseExporter
 {
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	private static final int MAXIMUM_HEADER_SIZE = 8192;
+
 	private CouchDocumentExporter couchDocumentExporter;
+	private int pageSize;
+	private TransferMetricsListener transferMetricsListener;
+	private boolean writeIndex;
+	private ZipCompression zipCompression;
 
 	public ZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter)
 	{
+		this(couchDocumentExporter, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a new ZipCouchDatabaseExporter which reads _all_docs in
+	 * pages of a given size.
+	 * @param couchDocumentExporter the exporter used for each document
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 */
+	public ZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int pageSize)
+	{
+		this(couchDocumentExporter, pageSize, NullTransferMetricsListener.metricsListener());
+	}
+
+	/**
+	 * Constructs a new ZipCouchDatabaseExporter which reports each exported document
+	 * to a TransferMetricsListener. Time spent writing to the archive is reported as
+	 * write time and the remainder of each document's export as read time.
+	 * @param couchDocumentExporter the exporter used for each document
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 * @param transferMetricsListener the listener receiving measurements
+	 */
+	public ZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int pageSize, TransferMetricsListener transferMetricsListener)
+	{
+		this(couchDocumentExporter, pageSize, transferMetricsListener, false);
+	}
+
+	/**
+	 * Constructs a new ZipCouchDatabaseExporter which optionally writes an ArchiveIndex.
+	 * The index records each document's revision and whether it has attachments from the
+	 * MIME headers the CouchDocumentExporter writes, so it is meant to be used with
+	 * MimeCouchDocumentExporter.
+	 * @param couchDocumentExporter the exporter used for each document
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 * @param transferMetricsListener the listener receiving measurements
+	 * @param writeIndex true to write an ArchiveIndex entry after the documents
+	 */
+	public ZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int pageSize, TransferMetricsListener transferMetricsListener,
+			boolean writeIndex)
+	{
+		this(couchDocumentExporter, pageSize, transferMetricsListener, writeIndex, ZipCompression.defaultCompression());
+	}
+
+	/**
+	 * Constructs a new ZipCouchDatabaseExporter which compresses entries as a
+	 * ZipCompression decides. Time spent spooling STORED entries is reported as write time.
+	 * @param couchDocumentExporter the exporter used for each document
+	 * @param pageSize the number of _all_docs rows to request at a time
+	 * @param transferMetricsListener the listener receiving measurements
+	 * @param writeIndex true to write an ArchiveIndex entry after the documents
+	 * @param zipCompression how each entry is compressed
+	 */
+	public ZipCouchDatabaseExporter(CouchDocumentExporter couchDocumentExporter, int pageSize, TransferMetricsListener transferMetricsListener,
+			boolean writeIndex, ZipCompression zipCompression)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+
 		this.couchDocumentExporter = couchDocumentExporter;
+		this.pageSize = pageSize;
+		this.transferMetricsListener = transferMetricsListener;
+		this.writeIndex = writeIndex;
+		this.zipCompression = zipCompression;
 	}
 
 	public void export(CouchDbConnector couchDbConnector, OutputStream outputStream) throws IOException
 	{
-		ViewQuery q = new ViewQuery().allDocs();
-		ViewResult viewResult = couchDbConnector.queryView(q);
+		Iterator<ViewResult.Row> rows = new AllDocumentsRows(couchDbConnector, pageSize).iterator();
 
-		if(viewResult.getTotalRows() == 0)
+		if(!rows.hasNext())
 			return;
 
-		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		ZipEntryWriter zipEntryWriter = new ZipEntryWriter(outputStream, zipCompression);
+		ArchiveIndexWriter archiveIndexWriter = writeIndex ? new ArchiveIndexWriter() : null;
 
 		try
 		{
-			for(ViewResult.Row row: viewResult.getRows())
+			while(rows.hasNext())
 			{
+				ViewResult.Row row = rows.next();
 				String id = row.getId();
 				String revision = row.getValueAsNode().get("rev").getTextValue();
-				ZipEntry zipEntry = new ZipEntry(id);
-				zipOutputStream.putNextEntry(zipEntry);
-				couchDocumentExporter.exportDocument(id, revision, couchDbConnector, zipOutputStream);
+				long offset = zipEntryWriter.getByteCount();
+
+				long startNanos = System.nanoTime();
+				TimedOutputStream timedOutputStream = new TimedOutputStream(zipEntryWriter.startEntry(id));
+
+				HeaderCapturingOutputStream headerCapturingOutputStream = null;
+				OutputStream documentOutputStream = timedOutputStream;
+				if(archiveIndexWriter != null)
+					documentOutputStream = headerCapturingOutputStream = new HeaderCapturingOutputStream(timedOutputStream, MAXIMUM_HEADER_SIZE);
+
+				couchDocumentExporter.exportDocument(id, revision, couchDbConnector, documentOutputStream);
+
+				long finishStartNanos = System.nanoTime();
+				zipEntryWriter.finishEntry();
+				long finishNanos = System.nanoTime() - finishStartNanos;
+				reportDocument(id, timedOutputStream.getByteCount(), System.nanoTime() - startNanos,
+						timedOutputStream.getElapsedNanos() + finishNanos);
+
+				if(archiveIndexWriter != null)
+					archiveIndexWriter.add(createIndexEntry(id, offset, revision, timedOutputStream.getByteCount(), headerCapturingOutputStream.getHeaders()));
+			}
+
+			if(archiveIndexWriter != null)
+			{
+				archiveIndexWriter.writeTo(zipEntryWriter.startEntry(ArchiveIndex.ENTRY_NAME, "application/json"));
+				zipEntryWriter.finishEntry();
 			}
 		}
 		finally
 		{
-			zipOutputStream.finish();
+			if(archiveIndexWriter != null)
+				archiveIndexWriter.discard();
+			zipEntryWriter.finish();
+		}
+	}
+
+	private static ArchiveIndexEntry createIndexEntry(String id, long offset, String revision, long size, Iterable<Header> headers)
+	{
+		boolean attachments = false;
+		for(Header header : headers)
+		{
+			if(HttpHeaders.ETAG.equalsIgnoreCase(header.getName()))
+				revision = header.getValue();
+			else if(HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getName()))
+				attachments = header.getValue().toLowerCase().startsWith("multipart/");
 		}
+
+		return new ArchiveIndexEntry(id, offset, revision, size, attachments);
+	}
+
+	private void reportDocument(String id, long byteCount, long elapsedNanos, long writeNanos)
+	{
+		transferMetricsListener.writeBlocked(writeNanos);
+		transferMetricsListener.readBlocked(elapsedNanos - writeNanos);
+		transferMetricsListener.documentTransferred(id, byteCount, elapsedNanos);
 	}
 }
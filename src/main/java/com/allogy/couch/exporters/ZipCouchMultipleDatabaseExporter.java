@@ -16,22 +16,75 @@
 
 package com.allogy.couch.exporters;
 
+import com.allogy.io.PendingSpool;
 import com.google.common.collect.Iterables;
 import org.ektorp.CouchDbConnector;
-import org.ektorp.ViewQuery;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * A CouchMultipleDatabaseExporter which writes each database's export as an entry
+ * in a zip archive.
+ * Databases may be exported concurrently. Each concurrent export is spooled, in memory
+ * up to an equal share of the memory budget and in a temporary file beyond that, and
+ * the spools are copied into the archive in the order the databases were given.
+ * Each database's export is compressed as a ZipCompression decides. Content type aware
+ * compression treats the exports as already compressed, as they are when the
+ * CouchDatabaseExporter writes zip archives.
+ */
 public class ZipCouchMultipleDatabaseExporter implements CouchMultipleDatabaseExporter
 {
+	private static final String DATABASE_CONTENT_TYPE = "application/zip";
+
 	private CouchDatabaseExporter couchDatabaseExporter;
+	private int exportThreads;
+	private int spoolThreshold;
+	private ZipCompression zipCompression;
 
 	public ZipCouchMultipleDatabaseExporter(CouchDatabaseExporter couchDatabaseExporter)
 	{
+		this(couchDatabaseExporter, 1, 0);
+	}
+
+	/**
+	 * Constructs a new ZipCouchMultipleDatabaseExporter which exports several databases at once.
+	 * @param couchDatabaseExporter the exporter used for each database; it is called from
+	 *                              multiple threads at once when exportThreads is greater than one
+	 * @param exportThreads the number of databases to export at the same time; with one
+	 *                      thread, databases are written directly to the archive
+	 * @param memoryBudget the number of bytes of spooled database exports to hold in memory
+	 */
+	public ZipCouchMultipleDatabaseExporter(CouchDatabaseExporter couchDatabaseExporter, int exportThreads, long memoryBudget)
+	{
+		this(couchDatabaseExporter, exportThreads, memoryBudget, ZipCompression.defaultCompression());
+	}
+
+	/**
+	 * Constructs a new ZipCouchMultipleDatabaseExporter which compresses each database's
+	 * entry as a ZipCompression decides. Concurrent exports are already spooled, so they
+	 * can be written STORED without spooling them again.
+	 * @param couchDatabaseExporter the exporter used for each database
+	 * @param exportThreads the number of databases to export at the same time
+	 * @param memoryBudget the number of bytes of spooled database exports to hold in memory
+	 * @param zipCompression how each database's entry is compressed
+	 */
+	public ZipCouchMultipleDatabaseExporter(CouchDatabaseExporter couchDatabaseExporter, int exportThreads, long memoryBudget,
+			ZipCompression zipCompression)
+	{
+		if(exportThreads < 1)
+			throw new IllegalArgumentException("exportThreads");
+		if(memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget");
+
 		this.couchDatabaseExporter = couchDatabaseExporter;
+		this.exportThreads = exportThreads;
+		this.spoolThreshold = (int)Math.min(memoryBudget / (2 * exportThreads), Integer.MAX_VALUE);
+		this.zipCompression = zipCompression;
 	}
 
 	public void export(Iterable<CouchDbConnector> couchDbConnectors, OutputStream outputStream) throws IOException
@@ -41,26 +94,102 @@ public class ZipCouchMultipleDatabaseExporter implements CouchMultipleDatabaseEx
 		if(outputStream == null)
 			throw new IllegalArgumentException("outputStream");
 
-		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		ZipEntryWriter zipEntryWriter = new ZipEntryWriter(outputStream, zipCompression);
+
+		try
+		{
+			if(exportThreads == 1)
+				exportSequentially(couchDbConnectors, zipEntryWriter);
+			else
+				exportConcurrently(couchDbConnectors, zipEntryWriter);
+		}
+		finally
+		{
+			zipEntryWriter.finish();
+		}
+	}
+
+	private void exportSequentially(Iterable<CouchDbConnector> couchDbConnectors, ZipEntryWriter zipEntryWriter) throws IOException
+	{
+		for(CouchDbConnector couchDbConnector: couchDbConnectors)
+		{
+			if(isEmpty(couchDbConnector))
+				continue;
+
+			OutputStream entryOutputStream = zipEntryWriter.startEntry(getDatabaseName(couchDbConnector), DATABASE_CONTENT_TYPE);
+			couchDatabaseExporter.export(couchDbConnector, entryOutputStream);
+			zipEntryWriter.finishEntry();
+		}
+	}
+
+	/**
+	 * Exports up to twice as many databases as there are threads ahead of the
+	 * database being copied into the archive.
+	 */
+	private void exportConcurrently(Iterable<CouchDbConnector> couchDbConnectors, ZipEntryWriter zipEntryWriter) throws IOException
+	{
+		ExecutorService executorService = Executors.newFixedThreadPool(exportThreads);
+		Deque<PendingSpool> pendingDatabases = new ArrayDeque<PendingSpool>();
 
 		try
 		{
-			for(CouchDbConnector couchDbConnector: couchDbConnectors)
+			for(final CouchDbConnector couchDbConnector: couchDbConnectors)
 			{
-				if(couchDbConnector.queryView(new ViewQuery().allDocs()).getTotalRows() == 0)
+				if(isEmpty(couchDbConnector))
 					continue;
 
-				String databaseName = couchDbConnector.path();
-				databaseName = databaseName.substring(0, databaseName.length() - 1);
-				ZipEntry zipEntry = new ZipEntry(databaseName);
-				zipOutputStream.putNextEntry(zipEntry);
+				if(pendingDatabases.size() == 2 * exportThreads)
+					writeDatabase(pendingDatabases.removeFirst(), zipEntryWriter);
 
-				couchDatabaseExporter.export(couchDbConnector, zipOutputStream);
+				pendingDatabases.addLast(PendingSpool.submit(getDatabaseName(couchDbConnector), "couch-export-", spoolThreshold,
+						executorService, new PendingSpool.SpoolWriter()
+						{
+							public void write(OutputStream outputStream) throws IOException
+							{
+								couchDatabaseExporter.export(couchDbConnector, outputStream);
+							}
+						}));
 			}
+
+			while(!pendingDatabases.isEmpty())
+				writeDatabase(pendingDatabases.removeFirst(), zipEntryWriter);
 		}
 		finally
 		{
-			zipOutputStream.finish();
+			executorService.shutdownNow();
+			for(PendingSpool pendingDatabase : pendingDatabases)
+				pendingDatabase.discard();
 		}
 	}
+
+	private static void writeDatabase(PendingSpool pendingDatabase, ZipEntryWriter zipEntryWriter) throws IOException
+	{
+		try
+		{
+			pendingDatabase.await();
+
+			pendingDatabase.writeTo(zipEntryWriter.startEntry(pendingDatabase.getName(), DATABASE_CONTENT_TYPE,
+					pendingDatabase.getSize(), pendingDatabase.getCrc()));
+			zipEntryWriter.finishEntry();
+		}
+		finally
+		{
+			pendingDatabase.discard();
+		}
+	}
+
+	/**
+	 * Checks for documents using the database information rather than querying
+	 * _all_docs, which the database exporter will do anyway.
+	 */
+	private static boolean isEmpty(CouchDbConnector couchDbConnector)
+	{
+		return couchDbConnector.getDbInfo().getDocCount() == 0;
+	}
+
+	private static String getDatabaseName(CouchDbConnector couchDbConnector)
+	{
+		String databaseName = couchDbConnector.path();
+		return databaseName.substring(0, databaseName.length() - 1);
+	}
 }
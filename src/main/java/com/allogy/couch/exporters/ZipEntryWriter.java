@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the entries of a zip archive compressed as a ZipCompression decides.
+ * Each entry is started, written through the returned stream and then finished.
+ */
+class ZipEntryWriter
+{
+	static final int STORED_SPOOL_THRESHOLD = 1024 * 1024;
+
+	private final ZipCompression zipCompression;
+	private final CountingOutputStream countingOutputStream;
+	private final ZipOutputStream zipOutputStream;
+	private String spoolName;
+	private DeferredFileOutputStream spool;
+	private CRC32 spoolCrc;
+
+	ZipEntryWriter(OutputStream outputStream, ZipCompression zipCompression)
+	{
+		this.zipCompression = zipCompression;
+		countingOutputStream = new CountingOutputStream(outputStream);
+		zipOutputStream = new ZipOutputStream(countingOutputStream);
+	}
+
+	/**
+	 * @return the number of bytes written to the archive; between entries this is
+	 *         the offset of the next entry's local header
+	 */
+	long getByteCount()
+	{
+		return countingOutputStream.getByteCount();
+	}
+
+	/**
+	 * Starts a document entry, whose content type is read from its MIME headers when
+	 * the compression is content type aware.
+	 */
+	OutputStream startEntry(String name) throws IOException
+	{
+		if(zipCompression.isStored())
+			return startSpool(name);
+
+		zipOutputStream.putNextEntry(new ZipEntry(name));
+		if(zipCompression.isContentTypeAware())
+			return new ContentTypeCompressionOutputStream(zipOutputStream, zipCompression);
+
+		zipOutputStream.setLevel(zipCompression.getLevel());
+		return zipOutputStream;
+	}
+
+	/**
+	 * Starts an entry with a known content type.
+	 */
+	OutputStream startEntry(String name, String contentType) throws IOException
+	{
+		if(zipCompression.isStored())
+			return startSpool(name);
+
+		zipOutputStream.setLevel(zipCompression.getLevel(contentType));
+		zipOutputStream.putNextEntry(new ZipEntry(name));
+		return zipOutputStream;
+	}
+
+	/**
+	 * Starts an entry whose size and CRC are known, so that it can be written STORED
+	 * without being spooled. It is STORED if the compression is stored, or if it is
+	 * content type aware and the content is already compressed.
+	 */
+	OutputStream startEntry(String name, String contentType, long size, long crc) throws IOException
+	{
+		ZipEntry zipEntry = new ZipEntry(name);
+		if(zipCompression.isStored() || (zipCompression.isContentTypeAware() && ZipCompression.isCompressedContentType(contentType)))
+		{
+			zipEntry.setMethod(ZipEntry.STORED);
+			zipEntry.setSize(size);
+			zipEntry.setCompressedSize(size);
+			zipEntry.setCrc(crc);
+		}
+		else
+		{
+			zipOutputStream.setLevel(zipCompression.getLevel());
+		}
+
+		zipOutputStream.putNextEntry(zipEntry);
+		return zipOutputStream;
+	}
+
+	/**
+	 * Finishes the current entry, writing it if it was spooled.
+	 */
+	void finishEntry() throws IOException
+	{
+		if(spool != null)
+		{
+			try
+			{
+				spool.close();
+				OutputStream outputStream = startEntry(spoolName, null, spool.getByteCount(), spoolCrc.getValue());
+				spool.writeTo(outputStream);
+			}
+			finally
+			{
+				discardSpool();
+			}
+		}
+
+		zipOutputStream.closeEntry();
+	}
+
+	void setComment(String comment)
+	{
+		zipOutputStream.setComment(comment);
+	}
+
+	/**
+	 * Finishes the archive without closing the stream it is written to.
+	 */
+	void finish() throws IOException
+	{
+		discardSpool();
+		zipOutputStream.finish();
+	}
+
+	private OutputStream startSpool(String name)
+	{
+		discardSpool();
+
+		spoolName = name;
+		spool = new DeferredFileOutputStream(STORED_SPOOL_THRESHOLD, "couch-export-", ".spool", null);
+		spoolCrc = new CRC32();
+		return new CheckedOutputStream(spool, spoolCrc);
+	}
+
+	private void discardSpool()
+	{
+		if(spool == null)
+			return;
+
+		try
+		{
+			spool.close();
+		}
+		catch (IOException e)
+		{ }
+
+		if(!spool.isInMemory() && spool.getFile() != null)
+			spool.getFile().delete();
+		spool = null;
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.filter;
+
+import org.ektorp.CouchDbConnector;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An interface for import filters which decide on many documents at once.
+ */
+public interface BatchDocumentFilter
+{
+	/**
+	 * Determines which of a number of documents should be included in an import.
+	 * @param couchDbConnector the Couch database to which the documents would be imported
+	 * @param documentRevisions the Couch revision which would be imported for each document id
+	 * @return the ids of the documents to import
+	 */
+	Set<String> includeDocuments(CouchDbConnector couchDbConnector, Map<String, String> documentRevisions);
+}
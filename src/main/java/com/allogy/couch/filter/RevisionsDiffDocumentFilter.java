@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.filter;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A filter which excludes documents whose import revision exists, or has existed, on
+ * the destination Couch database, like ExcludeRevisionExistsDocumentFilter.
+ * Revisions are checked with Couch's _revs_diff, which answers for many documents in
+ * a single request.
+ */
+public class RevisionsDiffDocumentFilter implements BatchDocumentFilter, DocumentFilter
+{
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	public boolean includeDocument(CouchDbConnector couchDbConnector, String documentId, String revision)
+	{
+		return !includeDocuments(couchDbConnector, Collections.singletonMap(documentId, revision)).isEmpty();
+	}
+
+	public Set<String> includeDocuments(CouchDbConnector couchDbConnector, Map<String, String> documentRevisions)
+	{
+		if(documentRevisions.isEmpty())
+			return Collections.emptySet();
+
+		ObjectNode request = JsonNodeFactory.instance.objectNode();
+		for(Map.Entry<String, String> documentRevision : documentRevisions.entrySet())
+			request.putArray(documentRevision.getKey()).add(documentRevision.getValue());
+
+		HttpResponse response;
+		try
+		{
+			response = couchDbConnector.getConnection().post(couchDbConnector.path() + "_revs_diff",
+					objectMapper.writeValueAsString(request));
+		}
+		catch (IOException e)
+		{
+			throw new DbAccessException(e);
+		}
+
+		try
+		{
+			if(!response.isSuccessful())
+				throw StdResponseHandler.createDbAccessException(response);
+
+			Set<String> missingDocumentIds = new HashSet<String>();
+			JsonNode missingRevisions = objectMapper.readTree(response.getContent());
+			Iterator<String> documentIds = missingRevisions.getFieldNames();
+			while(documentIds.hasNext())
+			{
+				String documentId = documentIds.next();
+				if(documentRevisions.containsKey(documentId))
+					missingDocumentIds.add(documentId);
+			}
+			return missingDocumentIds;
+		}
+		catch (IOException e)
+		{
+			throw new DbAccessException(e);
+		}
+		finally
+		{
+			response.releaseConnection();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers;
+
+/**
+ * Creates CouchDatabaseImporters for importers which run several database imports at once.
+ */
+public interface CouchDatabaseImporterFactory
+{
+	/**
+	 * Creates a CouchDatabaseImporter, along with its own CouchDocumentImporter and CouchImporter,
+	 * which does not share state with any other CouchDatabaseImporter created by this factory.
+	 * @return a new CouchDatabaseImporter
+	 */
+	CouchDatabaseImporter createCouchDatabaseImporter();
+}
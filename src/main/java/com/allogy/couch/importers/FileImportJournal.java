@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.io.FileReplacer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * An ImportJournal kept in a properties file of database names and committed entry
+ * counts. The file is replaced whole on every update, so a crash leaves either the
+ * previous or the new progress. It may be shared by importers running concurrently.
+ */
+public class FileImportJournal implements ImportJournal
+{
+	private final File file;
+	private final Properties committedEntryCounts;
+
+	/**
+	 * Constructs a new FileImportJournal, reading the progress already recorded in the
+	 * file if it exists.
+	 * @param file the journal file
+	 * @throws IOException the existing journal could not be read
+	 */
+	public FileImportJournal(File file) throws IOException
+	{
+		this.file = file;
+		committedEntryCounts = new Properties();
+
+		if(file.exists())
+		{
+			InputStream inputStream = new FileInputStream(file);
+			try
+			{
+				committedEntryCounts.load(inputStream);
+			}
+			finally
+			{
+				inputStream.close();
+			}
+		}
+	}
+
+	public synchronized long getCommittedEntryCount(String databaseName)
+	{
+		String committedEntryCount = committedEntryCounts.getProperty(databaseName);
+		return committedEntryCount != null ?
+				Long.parseLong(committedEntryCount) :
+				0;
+	}
+
+	public synchronized void entriesCommitted(String databaseName, long entryCount) throws IOException
+	{
+		committedEntryCounts.setProperty(databaseName, Long.toString(entryCount));
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		committedEntryCounts.store(outputStream, "couch-transfer import journal");
+		FileReplacer.replace(file, outputStream.toByteArray());
+	}
+}
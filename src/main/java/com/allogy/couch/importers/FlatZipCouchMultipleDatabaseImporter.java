@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.FlatArchiveLayout;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.CouchDbInstance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A CouchMultipleDatabaseImporter which reads the flat archives written by
+ * FlatZipCouchMultipleDatabaseExporter, importing each entry as a document of the
+ * database its name gives. The CouchDocumentImporter is finished after the last
+ * document of each database.
+ * Archives of nested databases, as ZipCouchMultipleDatabaseExporter writes them, are
+ * recognized by the absence of the FlatArchiveLayout entry and imported one database
+ * at a time with a CouchDatabaseImporter.
+ */
+public class FlatZipCouchMultipleDatabaseImporter implements CouchMultipleDatabaseImporter
+{
+	private CouchDocumentImporter couchDocumentImporter;
+	private CouchDatabaseImporter nestedDatabaseImporter;
+
+	public FlatZipCouchMultipleDatabaseImporter(CouchDocumentImporter couchDocumentImporter)
+	{
+		this(couchDocumentImporter, new ZipCouchDatabaseImporter(couchDocumentImporter));
+	}
+
+	/**
+	 * Constructs a new FlatZipCouchMultipleDatabaseImporter.
+	 * @param couchDocumentImporter the importer used for each document of a flat archive
+	 * @param nestedDatabaseImporter the importer used for each database of a nested archive
+	 */
+	public FlatZipCouchMultipleDatabaseImporter(CouchDocumentImporter couchDocumentImporter, CouchDatabaseImporter nestedDatabaseImporter)
+	{
+		this.couchDocumentImporter = couchDocumentImporter;
+		this.nestedDatabaseImporter = nestedDatabaseImporter;
+	}
+
+	public void importDatabases(CouchDbInstance couchDbInstance, InputStream inputStream) throws IOException
+	{
+		ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+
+		ZipEntry zipEntry = zipInputStream.getNextEntry();
+		if(zipEntry == null)
+			return;
+
+		if(FlatArchiveLayout.LAYOUT_ENTRY_NAME.equals(zipEntry.getName()))
+		{
+			String layoutName = IOUtils.toString(zipInputStream, "UTF-8");
+			if(!FlatArchiveLayout.LAYOUT_NAME.equals(layoutName))
+				throw new IOException("Unsupported archive layout: " + layoutName);
+
+			importDocuments(couchDbInstance, zipInputStream);
+		}
+		else
+		{
+			importNestedDatabases(couchDbInstance, zipInputStream, zipEntry);
+		}
+	}
+
+	private void importDocuments(CouchDbInstance couchDbInstance, ZipInputStream zipInputStream) throws IOException
+	{
+		CouchDbConnector couchDbConnector = null;
+		String databaseName = null;
+
+		ZipEntry zipEntry;
+		while ((zipEntry = zipInputStream.getNextEntry()) != null)
+		{
+			String entryDatabaseName = FlatArchiveLayout.getDatabaseName(zipEntry.getName());
+			if(!entryDatabaseName.equals(databaseName))
+			{
+				if(couchDbConnector != null)
+					couchDocumentImporter.finishImport();
+
+				databaseName = entryDatabaseName;
+				couchDbConnector = couchDbInstance.createConnector(databaseName, true);
+			}
+
+			couchDocumentImporter.importDocument(couchDbConnector, zipInputStream);
+		}
+
+		if(couchDbConnector != null)
+			couchDocumentImporter.finishImport();
+	}
+
+	private void importNestedDatabases(CouchDbInstance couchDbInstance, ZipInputStream zipInputStream, ZipEntry zipEntry) throws IOException
+	{
+		do
+		{
+			CouchDbConnector couchDbConnector = couchDbInstance.createConnector(zipEntry.getName(), true);
+			nestedDatabaseImporter.importDatabase(couchDbConnector, zipInputStream);
+		}
+		while ((zipEntry = zipInputStream.getNextEntry()) != null);
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import java.io.IOException;
+
+/**
+ * Records how far the import of each database has progressed, so that an
+ * interrupted import can skip the entries already written to Couch.
+ * A journal describes one archive; use a new journal for a different archive.
+ */
+public interface ImportJournal
+{
+	/**
+	 * @param databaseName the name of the database being imported
+	 * @return the number of leading archive entries of the database which have been written to Couch
+	 */
+	long getCommittedEntryCount(String databaseName);
+
+	/**
+	 * Records that the leading entries of a database have been written to Couch.
+	 * @param databaseName the name of the database being imported
+	 * @param entryCount the number of leading archive entries which have been written
+	 * @throws IOException the journal could not be written
+	 */
+	void entriesCommitted(String databaseName, long entryCount) throws IOException;
+}
@@ -21,16 +21,15 @@ import com.allogy.couch.importers.command.BasicImportCommand;
 import com.allogy.couch.importers.command.CouchImporter;
 import com.allogy.couch.importers.command.ImmediateCouchImporter;
 import com.allogy.couch.importers.command.ImportCommand;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import com.allogy.io.TimedInputStream;
 import com.allogy.io.UnCloseableInputStream;
-import com.allogy.mime.MimeStreamingReader;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
-import org.apache.http.Header;
+import com.allogy.mime.MimeEnvelope;
+import com.allogy.mime.MimeEnvelopeReader;
 import org.apache.http.HttpHeaders;
-import org.apache.http.NameValuePair;
 import org.ektorp.CouchDbConnector;
 
-import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -38,6 +37,7 @@ public class MimeCouchDocumentImporter implements CouchDocumentImporter
 {
 	private DocumentFilter documentFilter;
     private CouchImporter couchImporter;
+    private TransferMetricsListener transferMetricsListener;
 
 	public MimeCouchDocumentImporter(DocumentFilter documentFilter)
 	{
@@ -45,37 +45,57 @@ public class MimeCouchDocumentImporter implements CouchDocumentImporter
 	}
 
     public MimeCouchDocumentImporter(DocumentFilter documentFilter, CouchImporter couchImporter)
+    {
+        this(documentFilter, couchImporter, NullTransferMetricsListener.metricsListener());
+    }
+
+    /**
+     * Constructs a new MimeCouchDocumentImporter which reports filter decisions and
+     * imported documents to a TransferMetricsListener. Time spent reading the archive
+     * is reported as read time and the remainder of each document's import as write time.
+     * @param documentFilter the filter deciding which documents to import
+     * @param couchImporter the CouchImporter which imports the included documents
+     * @param transferMetricsListener the listener receiving measurements
+     */
+    public MimeCouchDocumentImporter(DocumentFilter documentFilter, CouchImporter couchImporter, TransferMetricsListener transferMetricsListener)
     {
         this.documentFilter = documentFilter;
         this.couchImporter = couchImporter;
+        this.transferMetricsListener = transferMetricsListener;
     }
 
 	public void importDocument(CouchDbConnector couchDbConnector, InputStream inputStream) throws IOException
 	{
-		MimeStreamingReader mimeReader = new MimeStreamingReader(inputStream);
+		long startNanos = System.nanoTime();
+		MimeEnvelope mimeEnvelope = MimeEnvelopeReader.currentThreadReader().read(inputStream);
+		long headerNanos = System.nanoTime() - startNanos;
 
-		Iterable<Header> headers = mimeReader.getHeaders();
+		String id = getRequiredHeader(mimeEnvelope.getContentId(), "Content-ID");
+		String revision = getRequiredHeader(mimeEnvelope.getETag(), HttpHeaders.ETAG);
 
-		String id = getHeader(headers, "Content-ID").getValue();
-		String revision = getHeader(headers, HttpHeaders.ETAG).getValue();
-
-		if (!documentFilter.includeDocument(couchDbConnector, id, revision))
+		boolean included = documentFilter.includeDocument(couchDbConnector, id, revision);
+		transferMetricsListener.documentFiltered(id, included);
+		if (!included)
 			return;
 
-		Header contentTypeHeader = getHeader(headers, HttpHeaders.CONTENT_TYPE);
-		NameValuePair boundaryNameValuePair = contentTypeHeader.getElements()[0].getParameterByName("boundary");
-		String boundary = boundaryNameValuePair != null ?
-				boundaryNameValuePair.getValue() :
-				null;
+		String boundary = mimeEnvelope.getBoundary();
 
-		String contentLength = getHeader(headers, HttpHeaders.CONTENT_LENGTH).getValue();
-		long size = Long.parseLong(contentLength);
+		long size = mimeEnvelope.getContentLength();
+		if(size < 0)
+			throw new IOException("The MIME entry of " + id + " has no Content-Length header");
 
-		InputStream uploadStream = new UnCloseableInputStream(inputStream);
+		TimedInputStream timedInputStream = new TimedInputStream(inputStream);
+		InputStream uploadStream = new UnCloseableInputStream(timedInputStream);
 
-        ImportCommand importCommand = new BasicImportCommand(couchDbConnector, id, uploadStream, size, boundary);
+        ImportCommand importCommand = new BasicImportCommand(couchDbConnector, id, revision, uploadStream, size, boundary);
 
         couchImporter.commandImport(importCommand);
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long readNanos = headerNanos + timedInputStream.getElapsedNanos();
+        transferMetricsListener.readBlocked(readNanos);
+        transferMetricsListener.writeBlocked(elapsedNanos - readNanos);
+        transferMetricsListener.documentTransferred(id, mimeEnvelope.getHeaderLength() + timedInputStream.getByteCount(), elapsedNanos);
 	}
 
     public void finishImport()
@@ -83,14 +103,10 @@ public class MimeCouchDocumentImporter implements CouchDocumentImporter
         couchImporter.finishImport();
     }
 
-    private static Header getHeader(Iterable<Header> headers, final String headerName)
+    private static String getRequiredHeader(String value, String headerName) throws IOException
 	{
-		return Iterables.find(headers, new Predicate<Header>()
-		{
-			public boolean apply(@Nullable Header header)
-			{
-				return header != null && headerName.equalsIgnoreCase(header.getName());
-			}
-		});
+		if(value == null)
+			throw new IOException("The MIME entry has no " + headerName + " header");
+		return value;
 	}
 }
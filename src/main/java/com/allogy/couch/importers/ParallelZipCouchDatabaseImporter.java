@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.ArchiveIndex;
+import com.allogy.io.MappedZipArchive;
+import com.allogy.io.MappedZipEntry;
+import com.allogy.io.PendingSpool;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+
+/**
+ * A CouchDatabaseImporter which decompresses the entries of a zip archive on a pool
+ * of threads, such as archives written by ParallelZipCouchDatabaseExporter.
+ * The archive is read through a MappedZipArchive. Each thread inflates an entry ahead
+ * of the importer into a spool, held in memory up to an equal share of the memory budget
+ * and in a temporary file beyond that. The calling thread imports the spools in archive
+ * order, so the CouchDocumentImporter is only ever called from one thread. STORED entries
+ * are imported directly from the mapped archive.
+ */
+public class ParallelZipCouchDatabaseImporter implements CouchDatabaseImporter
+{
+	private final CouchDocumentImporter couchDocumentImporter;
+	private final int threads;
+	private final int prefetchCount;
+	private final int spoolThreshold;
+
+	/**
+	 * Constructs a new ParallelZipCouchDatabaseImporter.
+	 * @param couchDocumentImporter the importer used for each document
+	 * @param threads the number of entries to decompress at the same time
+	 * @param prefetchCount the maximum number of entries decompressed, or being decompressed, ahead of the importer
+	 * @param memoryBudget the number of bytes of decompressed documents to hold in memory
+	 *                     across all entries ahead of the importer
+	 */
+	public ParallelZipCouchDatabaseImporter(CouchDocumentImporter couchDocumentImporter, int threads, int prefetchCount, long memoryBudget)
+	{
+		if(threads < 1)
+			throw new IllegalArgumentException("threads");
+		if(prefetchCount < threads)
+			throw new IllegalArgumentException("prefetchCount");
+		if(memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget");
+
+		this.couchDocumentImporter = couchDocumentImporter;
+		this.threads = threads;
+		this.prefetchCount = prefetchCount;
+		this.spoolThreshold = (int)Math.min(memoryBudget / prefetchCount, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Imports from an InputStream by first copying it to a temporary file. Use
+	 * {@link #importDatabase(CouchDbConnector, File)} when the archive is already a file.
+	 */
+	public void importDatabase(CouchDbConnector couchDbConnector, InputStream inputStream) throws IOException
+	{
+		File archiveFile = File.createTempFile("couch-import-", ".zip");
+		try
+		{
+			OutputStream archiveOutputStream = new FileOutputStream(archiveFile);
+			try
+			{
+				IOUtils.copy(inputStream, archiveOutputStream);
+			}
+			finally
+			{
+				archiveOutputStream.close();
+			}
+
+			importDatabase(couchDbConnector, archiveFile);
+		}
+		finally
+		{
+			archiveFile.delete();
+		}
+	}
+
+	/**
+	 * Imports an archive file into a Couch database.
+	 * @param couchDbConnector the CouchDbConnector for the destination database
+	 * @param archiveFile the file containing the Couch database export
+	 * @throws IOException an error occurred reading or writing the import documents
+	 */
+	public void importDatabase(CouchDbConnector couchDbConnector, File archiveFile) throws IOException
+	{
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(archiveFile);
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		Deque<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>(prefetchCount);
+
+		try
+		{
+			Iterator<MappedZipEntry> entries = mappedZipArchive.getEntries().iterator();
+			while(entries.hasNext())
+			{
+				MappedZipEntry entry = entries.next();
+				if(ArchiveIndex.ENTRY_NAME.equals(entry.getName()))
+					continue;
+
+				if(pendingEntries.size() == prefetchCount)
+					importEntry(couchDbConnector, pendingEntries.removeFirst());
+
+				pendingEntries.addLast(inflateEntry(mappedZipArchive, entry, executorService));
+			}
+
+			while(!pendingEntries.isEmpty())
+				importEntry(couchDbConnector, pendingEntries.removeFirst());
+
+			couchDocumentImporter.finishImport();
+		}
+		finally
+		{
+			executorService.shutdownNow();
+			for(PendingEntry pendingEntry : pendingEntries)
+				pendingEntry.discard();
+
+			mappedZipArchive.close();
+		}
+	}
+
+	private PendingEntry inflateEntry(final MappedZipArchive mappedZipArchive, final MappedZipEntry entry, ExecutorService executorService)
+	{
+		if(entry.getMethod() == ZipEntry.STORED)
+			return new PendingEntry(mappedZipArchive, entry, null);
+
+		PendingSpool spool = PendingSpool.submit(entry.getName(), "couch-import-", spoolThreshold, executorService,
+				new PendingSpool.SpoolWriter()
+				{
+					public void write(OutputStream outputStream) throws IOException
+					{
+						InputStream entryInputStream = mappedZipArchive.getInputStream(entry);
+						try
+						{
+							IOUtils.copy(entryInputStream, outputStream);
+						}
+						finally
+						{
+							entryInputStream.close();
+						}
+					}
+				});
+		return new PendingEntry(mappedZipArchive, entry, spool);
+	}
+
+	private void importEntry(CouchDbConnector couchDbConnector, PendingEntry pendingEntry) throws IOException
+	{
+		try
+		{
+			InputStream entryInputStream = pendingEntry.getInputStream();
+			try
+			{
+				couchDocumentImporter.importDocument(couchDbConnector, entryInputStream);
+			}
+			finally
+			{
+				entryInputStream.close();
+			}
+		}
+		finally
+		{
+			pendingEntry.discard();
+		}
+	}
+
+	/**
+	 * An entry being inflated, or a STORED entry which is read directly.
+	 */
+	private static class PendingEntry
+	{
+		private final MappedZipArchive mappedZipArchive;
+		private final MappedZipEntry entry;
+		private final PendingSpool spool;
+
+		PendingEntry(MappedZipArchive mappedZipArchive, MappedZipEntry entry, PendingSpool spool)
+		{
+			this.mappedZipArchive = mappedZipArchive;
+			this.entry = entry;
+			this.spool = spool;
+		}
+
+		InputStream getInputStream() throws IOException
+		{
+			return spool == null ? mappedZipArchive.getInputStream(entry) : spool.getInputStream();
+		}
+
+		void discard()
+		{
+			if(spool != null)
+				spool.discard();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.CouchDbInstance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A CouchMultipleDatabaseImporter for archives written by ZipCouchMultipleDatabaseExporter
+ * which imports several databases at once.
+ * The archive is read as a ZipFile so that each database entry can be read independently.
+ * Every database is imported by a new CouchDatabaseImporter from the given factory.
+ * The first database import to fail fails the whole import, and the imports still
+ * running or waiting to run are cancelled.
+ */
+public class ParallelZipCouchMultipleDatabaseImporter implements CouchMultipleDatabaseImporter
+{
+	private final CouchDatabaseImporterFactory couchDatabaseImporterFactory;
+	private final int importThreads;
+
+	/**
+	 * Constructs a new ParallelZipCouchMultipleDatabaseImporter.
+	 * @param couchDatabaseImporterFactory creates the importer for each database
+	 * @param importThreads the number of databases to import at the same time
+	 */
+	public ParallelZipCouchMultipleDatabaseImporter(CouchDatabaseImporterFactory couchDatabaseImporterFactory, int importThreads)
+	{
+		if(importThreads < 1)
+			throw new IllegalArgumentException("importThreads");
+
+		this.couchDatabaseImporterFactory = couchDatabaseImporterFactory;
+		this.importThreads = importThreads;
+	}
+
+	/**
+	 * Imports from an InputStream by first copying it to a temporary file. Use
+	 * {@link #importDatabases(CouchDbInstance, File)} when the archive is already a file.
+	 */
+	public void importDatabases(CouchDbInstance couchDbInstance, InputStream inputStream) throws IOException
+	{
+		File archiveFile = File.createTempFile("couch-import-", ".zip");
+		try
+		{
+			OutputStream archiveOutputStream = new FileOutputStream(archiveFile);
+			try
+			{
+				IOUtils.copy(inputStream, archiveOutputStream);
+			}
+			finally
+			{
+				archiveOutputStream.close();
+			}
+
+			importDatabases(couchDbInstance, archiveFile);
+		}
+		finally
+		{
+			archiveFile.delete();
+		}
+	}
+
+	/**
+	 * Imports multiple databases from an archive file into a Couch instance. This method
+	 * will create any import database which does not exist.
+	 * @param couchDbInstance the Couch instance in which the destination databases will exist
+	 * @param archiveFile the file containing the Couch export
+	 * @throws IOException an error occurred reading or writing the import data
+	 */
+	public void importDatabases(CouchDbInstance couchDbInstance, File archiveFile) throws IOException
+	{
+		ZipFile zipFile = new ZipFile(archiveFile);
+		try
+		{
+			importDatabases(couchDbInstance, zipFile);
+		}
+		finally
+		{
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Imports multiple databases from an open archive into a Couch instance. This method
+	 * will create any import database which does not exist.
+	 * @param couchDbInstance the Couch instance in which the destination databases will exist
+	 * @param zipFile the archive containing the Couch export; this method does not close it
+	 * @throws IOException an error occurred reading or writing the import data
+	 */
+	public void importDatabases(final CouchDbInstance couchDbInstance, final ZipFile zipFile) throws IOException
+	{
+		ExecutorService executorService = Executors.newFixedThreadPool(importThreads);
+		CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executorService);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+		try
+		{
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while(zipEntries.hasMoreElements())
+			{
+				final ZipEntry zipEntry = zipEntries.nextElement();
+				futures.add(completionService.submit(new Callable<Void>()
+				{
+					public Void call() throws Exception
+					{
+						importDatabase(couchDbInstance, zipFile, zipEntry);
+						return null;
+					}
+				}));
+			}
+
+			for(int i = 0; i < futures.size(); i++)
+				awaitNext(completionService);
+		}
+		finally
+		{
+			for(Future<Void> future : futures)
+				future.cancel(true);
+			executorService.shutdownNow();
+		}
+	}
+
+	private void importDatabase(CouchDbInstance couchDbInstance, ZipFile zipFile, ZipEntry zipEntry) throws IOException
+	{
+		String databaseName = zipEntry.getName();
+		CouchDbConnector couchDbConnector = couchDbInstance.createConnector(databaseName, true);
+
+		InputStream databaseInputStream = zipFile.getInputStream(zipEntry);
+		try
+		{
+			couchDatabaseImporterFactory.createCouchDatabaseImporter().importDatabase(couchDbConnector, databaseInputStream);
+		}
+		finally
+		{
+			databaseInputStream.close();
+		}
+	}
+
+	/**
+	 * Waits for the next database import to complete, in whatever order they complete.
+	 */
+	private static void awaitNext(CompletionService<Void> completionService) throws IOException
+	{
+		try
+		{
+			completionService.take().get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while importing databases");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException("Unable to import database", cause);
+		}
+	}
+}
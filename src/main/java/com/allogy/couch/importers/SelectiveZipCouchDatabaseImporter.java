@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.ArchiveIndex;
+import com.allogy.couch.archive.ArchiveIndexEntry;
+import org.ektorp.CouchDbConnector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Imports chosen documents from a zip archive written by ZipCouchDatabaseExporter.
+ * The archive is opened as a ZipFile, so each document is read directly from its entry
+ * without reading the entries before it. Ranges of ids are found using the archive's
+ * ArchiveIndex; an archive written without an index has its entry names scanned instead.
+ */
+public class SelectiveZipCouchDatabaseImporter
+{
+	private CouchDocumentImporter couchDocumentImporter;
+
+	public SelectiveZipCouchDatabaseImporter(CouchDocumentImporter couchDocumentImporter)
+	{
+		this.couchDocumentImporter = couchDocumentImporter;
+	}
+
+	/**
+	 * Imports documents by id. Ids which are not in the archive are ignored.
+	 * @param couchDbConnector the Couch database to import into
+	 * @param archiveFile the zip archive
+	 * @param ids the ids of the documents to import
+	 * @return the number of documents imported
+	 * @throws IOException an error occurred reading the archive or importing a document
+	 */
+	public int importDocuments(CouchDbConnector couchDbConnector, File archiveFile, Collection<String> ids) throws IOException
+	{
+		if(ids == null)
+			throw new IllegalArgumentException("ids");
+
+		ZipFile zipFile = new ZipFile(archiveFile);
+		try
+		{
+			return importEntries(couchDbConnector, zipFile, ids);
+		}
+		finally
+		{
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Imports the documents whose ids fall within a range.
+	 * @param couchDbConnector the Couch database to import into
+	 * @param archiveFile the zip archive
+	 * @param startId the first id of the range, inclusive; null to begin at the first id
+	 * @param endId the last id of the range, inclusive; null to end at the last id
+	 * @return the number of documents imported
+	 * @throws IOException an error occurred reading the archive or importing a document
+	 */
+	public int importDocumentRange(CouchDbConnector couchDbConnector, File archiveFile, String startId, String endId) throws IOException
+	{
+		ZipFile zipFile = new ZipFile(archiveFile);
+		try
+		{
+			return importEntries(couchDbConnector, zipFile, getIdRange(zipFile, startId, endId));
+		}
+		finally
+		{
+			zipFile.close();
+		}
+	}
+
+	private int importEntries(CouchDbConnector couchDbConnector, ZipFile zipFile, Collection<String> ids) throws IOException
+	{
+		int importedCount = 0;
+
+		for(String id : ids)
+		{
+			ZipEntry zipEntry = zipFile.getEntry(id);
+			if(zipEntry == null || ArchiveIndex.ENTRY_NAME.equals(id))
+				continue;
+
+			InputStream inputStream = zipFile.getInputStream(zipEntry);
+			try
+			{
+				couchDocumentImporter.importDocument(couchDbConnector, inputStream);
+			}
+			finally
+			{
+				inputStream.close();
+			}
+			importedCount++;
+		}
+
+		couchDocumentImporter.finishImport();
+		return importedCount;
+	}
+
+	private static Collection<String> getIdRange(ZipFile zipFile, String startId, String endId) throws IOException
+	{
+		List<String> ids = new ArrayList<String>();
+
+		ArchiveIndex archiveIndex = ArchiveIndex.read(zipFile);
+		if(archiveIndex != null)
+		{
+			for(ArchiveIndexEntry archiveIndexEntry : archiveIndex.getEntries(startId, endId))
+				ids.add(archiveIndexEntry.getId());
+			return ids;
+		}
+
+		Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+		while(zipEntries.hasMoreElements())
+		{
+			String id = zipEntries.nextElement().getName();
+			if((startId == null || id.compareTo(startId) >= 0) && (endId == null || id.compareTo(endId) <= 0))
+				ids.add(id);
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+}
@@ -16,30 +16,195 @@
 
 package com.allogy.couch.importers;
 
+import com.allogy.couch.archive.ArchiveIndex;
+import com.allogy.io.MappedZipArchive;
+import com.allogy.io.MappedZipEntry;
 import org.ektorp.CouchDbConnector;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
+/**
+ * A CouchDatabaseImporter which imports each entry of a zip archive as a document.
+ * With an ImportJournal, the importer records its progress every journalInterval
+ * entries and skips the entries a previous import already committed. Before each
+ * record the CouchDocumentImporter is finished, so that every buffered _bulk_docs
+ * and multipart write has succeeded. An ArchiveIndex entry is not imported.
+ */
 public class ZipCouchDatabaseImporter implements CouchDatabaseImporter
 {
+	public static final int DEFAULT_JOURNAL_INTERVAL = 1000;
+
 	private CouchDocumentImporter couchDocumentImporter;
+	private ImportJournal importJournal;
+	private int journalInterval;
 
 	public ZipCouchDatabaseImporter(CouchDocumentImporter couchDocumentImporter)
 	{
 		this.couchDocumentImporter = couchDocumentImporter;
 	}
 
+	public ZipCouchDatabaseImporter(CouchDocumentImporter couchDocumentImporter, ImportJournal importJournal)
+	{
+		this(couchDocumentImporter, importJournal, DEFAULT_JOURNAL_INTERVAL);
+	}
+
+	/**
+	 * Constructs a new ZipCouchDatabaseImporter which resumes from, and records its
+	 * progress to, an ImportJournal.
+	 * @param couchDocumentImporter the importer used for each document
+	 * @param importJournal the journal of committed entries
+	 * @param journalInterval the number of entries to import between journal records
+	 */
+	public ZipCouchDatabaseImporter(CouchDocumentImporter couchDocumentImporter, ImportJournal importJournal, int journalInterval)
+	{
+		if(journalInterval < 1)
+			throw new IllegalArgumentException("journalInterval");
+
+		this.couchDocumentImporter = couchDocumentImporter;
+		this.importJournal = importJournal;
+		this.journalInterval = journalInterval;
+	}
+
 	public void importDatabase(CouchDbConnector couchDbConnector, InputStream inputStream) throws IOException
 	{
-		ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+		final ZipInputStream zipInputStream = new ZipInputStream(inputStream);
 
-		while (zipInputStream.getNextEntry() != null)
+		importEntries(couchDbConnector, new EntryReader()
 		{
-			couchDocumentImporter.importDocument(couchDbConnector, zipInputStream);
+			public boolean nextEntry() throws IOException
+			{
+				ZipEntry zipEntry = zipInputStream.getNextEntry();
+				while (zipEntry != null && ArchiveIndex.ENTRY_NAME.equals(zipEntry.getName()))
+					zipEntry = zipInputStream.getNextEntry();
+				return zipEntry != null;
+			}
+
+			public void importEntry(CouchDbConnector couchDbConnector) throws IOException
+			{
+				couchDocumentImporter.importDocument(couchDbConnector, zipInputStream);
+			}
+		});
+	}
+
+	/**
+	 * Imports an archive file, reading it through a MappedZipArchive rather than a
+	 * ZipInputStream. Each entry is read directly from the mapped file, and entries
+	 * skipped because of the ImportJournal are not read at all. A file whose central
+	 * directory cannot be read, such as an archive whose writer was interrupted, is
+	 * read as a stream instead.
+	 * @param couchDbConnector the CouchDbConnector for the destination database
+	 * @param archiveFile the file containing the Couch database export
+	 * @throws IOException an error occurred reading or writing the import documents
+	 */
+	public void importDatabase(CouchDbConnector couchDbConnector, File archiveFile) throws IOException
+	{
+		final MappedZipArchive mappedZipArchive;
+		try
+		{
+			mappedZipArchive = new MappedZipArchive(archiveFile);
+		}
+		catch (ZipException e)
+		{
+			InputStream archiveInputStream = new BufferedInputStream(new FileInputStream(archiveFile));
+			try
+			{
+				importDatabase(couchDbConnector, archiveInputStream);
+			}
+			finally
+			{
+				archiveInputStream.close();
+			}
+			return;
 		}
 
-        couchDocumentImporter.finishImport();
+		try
+		{
+			final Iterator<MappedZipEntry> entries = mappedZipArchive.getEntries().iterator();
+
+			importEntries(couchDbConnector, new EntryReader()
+			{
+				private MappedZipEntry entry;
+
+				public boolean nextEntry()
+				{
+					entry = entries.hasNext() ? entries.next() : null;
+					while (entry != null && ArchiveIndex.ENTRY_NAME.equals(entry.getName()))
+						entry = entries.hasNext() ? entries.next() : null;
+					return entry != null;
+				}
+
+				public void importEntry(CouchDbConnector couchDbConnector) throws IOException
+				{
+					InputStream entryInputStream = mappedZipArchive.getInputStream(entry);
+					try
+					{
+						couchDocumentImporter.importDocument(couchDbConnector, entryInputStream);
+					}
+					finally
+					{
+						entryInputStream.close();
+					}
+				}
+			});
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	private void importEntries(CouchDbConnector couchDbConnector, EntryReader entryReader) throws IOException
+	{
+		if(importJournal == null)
+		{
+			while (entryReader.nextEntry())
+			{
+				entryReader.importEntry(couchDbConnector);
+			}
+
+			couchDocumentImporter.finishImport();
+			return;
+		}
+
+		String databaseName = couchDbConnector.getDatabaseName();
+		long committedEntryCount = importJournal.getCommittedEntryCount(databaseName);
+		long entryCount = 0;
+
+		while (entryReader.nextEntry())
+		{
+			if(entryCount++ < committedEntryCount)
+				continue;
+
+			entryReader.importEntry(couchDbConnector);
+
+			if(entryCount - committedEntryCount == journalInterval)
+			{
+				couchDocumentImporter.finishImport();
+				importJournal.entriesCommitted(databaseName, entryCount);
+				committedEntryCount = entryCount;
+			}
+		}
+
+		couchDocumentImporter.finishImport();
+		if(entryCount > committedEntryCount)
+			importJournal.entriesCommitted(databaseName, entryCount);
+	}
+
+	/**
+	 * The document entries of an archive, excluding any ArchiveIndex entry.
+	 */
+	private interface EntryReader
+	{
+		boolean nextEntry() throws IOException;
+
+		void importEntry(CouchDbConnector couchDbConnector) throws IOException;
 	}
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers.command;
+
+/**
+ * A BulkFlushPolicy which adjusts the number of documents in each bulk update to
+ * keep _bulk_docs requests near a target latency.
+ * The document limit grows by a quarter after each bulk update which completes well within
+ * the target, and halves after each one which exceeds it. A fixed byte limit still applies.
+ */
+public class AdaptiveBulkFlushPolicy implements BulkFlushPolicy
+{
+    private final long targetLatencyMillis;
+    private final int minDocuments;
+    private final int maxDocuments;
+    private final long maxBytes;
+
+    private int documentLimit;
+
+    /**
+     * Constructs a new AdaptiveBulkFlushPolicy.
+     * @param targetLatencyMillis the desired duration of a _bulk_docs request
+     * @param minDocuments the smallest document limit to use; also the initial limit
+     * @param maxDocuments the largest document limit to use
+     * @param maxBytes the buffer is bulk updated once its documents' combined size
+     *                 meets or exceeds this size
+     */
+    public AdaptiveBulkFlushPolicy(long targetLatencyMillis, int minDocuments, int maxDocuments, long maxBytes)
+    {
+        if(targetLatencyMillis < 1)
+            throw new IllegalArgumentException("targetLatencyMillis");
+        if(minDocuments < 1)
+            throw new IllegalArgumentException("minDocuments");
+        if(maxDocuments < minDocuments)
+            throw new IllegalArgumentException("maxDocuments");
+        if(maxBytes < 1)
+            throw new IllegalArgumentException("maxBytes");
+
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.minDocuments = minDocuments;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        documentLimit = minDocuments;
+    }
+
+    public synchronized boolean shouldFlush(int documentCount, long byteCount, long bufferAgeMillis)
+    {
+        return documentCount > documentLimit || byteCount >= maxBytes;
+    }
+
+    public synchronized void bulkUpdateCompleted(int documentCount, long byteCount, long elapsedMillis)
+    {
+        if(elapsedMillis > targetLatencyMillis)
+        {
+            documentLimit = Math.max(minDocuments, documentLimit / 2);
+        }
+        else if(elapsedMillis * 4 < targetLatencyMillis * 3 && documentCount >= documentLimit)
+        {
+            documentLimit = Math.min(maxDocuments, documentLimit + Math.max(1, documentLimit / 4));
+        }
+    }
+
+    /**
+     * @return the current maximum number of documents in a bulk update
+     */
+    public synchronized int getDocumentLimit()
+    {
+        return documentLimit;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers.command;
+
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import com.allogy.io.BulkUpdateInputStream;
+import com.allogy.io.NoNewEditsInputStream;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.Options;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A CouchImporter which buffers documents without attachments like
+ * BufferedCouchImporter, but performs its bulk updates and multipart
+ * updates on background threads.
+ * The data of every command is copied before commandImport returns, so the caller
+ * can decode the next documents while earlier ones are written. Once the configured
+ * number of requests is in flight, commandImport blocks until one completes.
+ * A failed request fails the next call to commandImport or finishImport.
+ */
+public class AsynchronousCouchImporter implements CouchImporter
+{
+    private final int bufferSize;
+    private final int maxInFlightRequests;
+    private final Semaphore inFlightRequests;
+    private final TransferMetricsListener transferMetricsListener;
+
+    private ExecutorService executorService;
+    private AtomicReference<RuntimeException> failure;
+    private List<ImportCommand> bufferedImportCommands;
+    private long sizeOfBufferedImportCommands;
+
+    /**
+     * Constructs a new AsynchronousCouchImporter.
+     * @param bufferSize the buffer size in bytes; once the combined size of buffered
+     *                   documents meets or exceeds this size, those documents are bulk
+     *                   updated. Multipart documents larger than this are spooled to
+     *                   temporary files until they are written.
+     * @param maxInFlightRequests the maximum number of update requests to run at once
+     */
+    public AsynchronousCouchImporter(int bufferSize, int maxInFlightRequests)
+    {
+        this(bufferSize, maxInFlightRequests, NullTransferMetricsListener.metricsListener());
+    }
+
+    /**
+     * Constructs a new AsynchronousCouchImporter which reports each request to a
+     * TransferMetricsListener from the thread which ran it.
+     * @param bufferSize the buffer size in bytes
+     * @param maxInFlightRequests the maximum number of update requests to run at once
+     * @param transferMetricsListener the listener receiving measurements
+     */
+    public AsynchronousCouchImporter(int bufferSize, int maxInFlightRequests, TransferMetricsListener transferMetricsListener)
+    {
+        if(maxInFlightRequests < 1)
+            throw new IllegalArgumentException("maxInFlightRequests");
+
+        this.bufferSize = bufferSize;
+        this.maxInFlightRequests = maxInFlightRequests;
+        inFlightRequests = new Semaphore(maxInFlightRequests);
+        failure = new AtomicReference<RuntimeException>();
+        this.transferMetricsListener = transferMetricsListener;
+        bufferedImportCommands = new ArrayList<ImportCommand>();
+    }
+
+    public void commandImport(ImportCommand importCommand)
+    {
+        throwIfFailed();
+
+        if(importCommand.getBoundary() != null)
+        {
+            importMultipart(importCommand);
+        }
+        else
+        {
+            bufferCommand(importCommand);
+        }
+    }
+
+    /**
+     * Bulk updates any buffered documents and waits for every request to complete.
+     * @throws RuntimeException the first failure of any request
+     */
+    public void finishImport()
+    {
+        try
+        {
+            if(!bufferedImportCommands.isEmpty())
+                bulkImportBufferedImportCommands();
+
+            awaitRequests();
+        }
+        finally
+        {
+            bufferedImportCommands.clear();
+            sizeOfBufferedImportCommands = 0;
+        }
+
+        RuntimeException firstFailure = failure.getAndSet(null);
+        if(firstFailure != null)
+            throw firstFailure;
+    }
+
+    private void importMultipart(ImportCommand importCommand)
+    {
+        final SpooledImportCommand spooledImportCommand;
+        try
+        {
+            spooledImportCommand = new SpooledImportCommand(importCommand, bufferSize);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        submit(new Request()
+        {
+            protected void send()
+            {
+                InputStream dataStream = spooledImportCommand.getDataStream();
+                try
+                {
+                    Options updateOptions = new Options().param("new_edits", "false");
+                    long startNanos = System.nanoTime();
+                    spooledImportCommand.getTargetCouchDbConnector().updateMultipart(spooledImportCommand.getId(),
+                            dataStream, spooledImportCommand.getBoundary(),
+                            spooledImportCommand.getSize(), updateOptions);
+                    transferMetricsListener.requestCompleted(CouchRequestType.UPDATE_MULTIPART, 1,
+                            spooledImportCommand.getSize(), System.nanoTime() - startNanos);
+                }
+                finally
+                {
+                    IOUtils.closeQuietly(dataStream);
+                }
+            }
+
+            protected void releaseData()
+            {
+                spooledImportCommand.release();
+            }
+        });
+    }
+
+    private void bufferCommand(ImportCommand importCommand)
+    {
+        if(!bufferedImportCommands.isEmpty() && importCommand.getSize() + sizeOfBufferedImportCommands >= bufferSize)
+        {
+            bulkImportBufferedImportCommands();
+        }
+
+        try
+        {
+            bufferedImportCommands.add(new BufferedImportCommand(importCommand));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        sizeOfBufferedImportCommands += importCommand.getSize();
+
+        if(sizeOfBufferedImportCommands >= bufferSize)
+        {
+            bulkImportBufferedImportCommands();
+        }
+    }
+
+    private void bulkImportBufferedImportCommands()
+    {
+        final List<ImportCommand> batch = bufferedImportCommands;
+        final long sizeOfBatch = sizeOfBufferedImportCommands;
+        bufferedImportCommands = new ArrayList<ImportCommand>();
+        sizeOfBufferedImportCommands = 0;
+
+        submit(new Request()
+        {
+            protected void send()
+            {
+                List<InputStream> bufferedInputStreams = new ArrayList<InputStream>();
+                CouchDbConnector targetCouchDbConnector = batch.get(0).getTargetCouchDbConnector();
+                for(ImportCommand importCommand : batch)
+                {
+                    bufferedInputStreams.add(importCommand.getDataStream());
+                }
+
+                InputStream bulkUpdateInputStream = new NoNewEditsInputStream(new BulkUpdateInputStream(bufferedInputStreams));
+                long startNanos = System.nanoTime();
+                targetCouchDbConnector.executeBulk(bulkUpdateInputStream);
+                transferMetricsListener.requestCompleted(CouchRequestType.BULK_UPDATE, batch.size(), sizeOfBatch,
+                        System.nanoTime() - startNanos);
+            }
+        });
+    }
+
+    /**
+     * Runs a request on the executor, first waiting for an in-flight request
+     * to complete if the maximum are already running.
+     */
+    private void submit(Request request)
+    {
+        try
+        {
+            inFlightRequests.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        if(executorService == null)
+            executorService = Executors.newFixedThreadPool(maxInFlightRequests);
+
+        executorService.execute(request);
+    }
+
+    private void awaitRequests()
+    {
+        if(executorService == null)
+            return;
+
+        executorService.shutdown();
+        try
+        {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            abandonRequests();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            executorService = null;
+        }
+    }
+
+    /**
+     * Interrupts the running requests and drops the queued ones, which never run
+     * and so must release their permits and data here. The running requests keep
+     * reporting to the failure holder of the abandoned executor, so that their
+     * failures do not fail the requests which follow.
+     */
+    private void abandonRequests()
+    {
+        for(Runnable queuedRequest : executorService.shutdownNow())
+            ((Request) queuedRequest).abandon();
+        failure = new AtomicReference<RuntimeException>();
+    }
+
+    /**
+     * Abandons the import if an earlier request failed.
+     */
+    private void throwIfFailed()
+    {
+        RuntimeException firstFailure = failure.getAndSet(null);
+        if(firstFailure == null)
+            return;
+
+        if(executorService != null)
+        {
+            abandonRequests();
+            executorService = null;
+        }
+        bufferedImportCommands.clear();
+        sizeOfBufferedImportCommands = 0;
+
+        throw firstFailure;
+    }
+
+    /**
+     * A request run on the executor. It holds an in-flight permit from the time it
+     * is submitted until it completes or is abandoned.
+     */
+    private abstract class Request implements Runnable
+    {
+        private final AtomicReference<RuntimeException> executorFailure = failure;
+
+        public void run()
+        {
+            try
+            {
+                send();
+            }
+            catch (RuntimeException e)
+            {
+                executorFailure.compareAndSet(null, e);
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        /**
+         * Gives up a request which never ran.
+         */
+        void abandon()
+        {
+            release();
+        }
+
+        private void release()
+        {
+            try
+            {
+                releaseData();
+            }
+            finally
+            {
+                inFlightRequests.release();
+            }
+        }
+
+        protected abstract void send();
+
+        protected void releaseData()
+        {}
+    }
+}
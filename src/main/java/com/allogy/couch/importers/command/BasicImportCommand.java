@@ -24,14 +24,21 @@ public class BasicImportCommand implements ImportCommand
 {
     final CouchDbConnector targetCouchDbConnector;
     final String id;
+    final String revision;
     final InputStream dataStream;
     final long size;
     final String boundary;
 
     public BasicImportCommand(CouchDbConnector targetCouchDbConnector, String id, InputStream dataStream, long size, String boundary)
+    {
+        this(targetCouchDbConnector, id, null, dataStream, size, boundary);
+    }
+
+    public BasicImportCommand(CouchDbConnector targetCouchDbConnector, String id, String revision, InputStream dataStream, long size, String boundary)
     {
         this.targetCouchDbConnector = targetCouchDbConnector;
         this.id = id;
+        this.revision = revision;
         this.dataStream = dataStream;
         this.size = size;
         this.boundary = boundary;
@@ -47,6 +54,11 @@ public class BasicImportCommand implements ImportCommand
         return id;
     }
 
+    public String getRevision()
+    {
+        return revision;
+    }
+
     public InputStream getDataStream()
     {
         return dataStream;
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers.command;
+
+import com.allogy.couch.filter.BatchDocumentFilter;
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import org.ektorp.CouchDbConnector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A CouchImporter which filters documents in batches before passing them to
+ * another CouchImporter.
+ * Commands are spooled, in memory up to a threshold and in temporary files beyond it,
+ * until a batch is full. The whole batch is then checked with a single call to a
+ * BatchDocumentFilter, and the included commands are passed on in their original order.
+ * Use this with IncludeAllDocumentFilter in the CouchDocumentImporter.
+ */
+public class BatchFilteringCouchImporter implements CouchImporter
+{
+    private final BatchDocumentFilter batchDocumentFilter;
+    private final CouchImporter innerCouchImporter;
+    private final int batchSize;
+    private final int spoolThreshold;
+    private final List<SpooledImportCommand> pendingImportCommands;
+    private final TransferMetricsListener transferMetricsListener;
+
+    /**
+     * Constructs a new BatchFilteringCouchImporter.
+     * @param batchDocumentFilter the filter deciding which documents to import
+     * @param innerCouchImporter the CouchImporter which imports the included documents
+     * @param batchSize the number of documents to filter at once
+     * @param spoolThreshold the size in bytes above which a pending document is held in a temporary file
+     */
+    public BatchFilteringCouchImporter(BatchDocumentFilter batchDocumentFilter, CouchImporter innerCouchImporter, int batchSize, int spoolThreshold)
+    {
+        this(batchDocumentFilter, innerCouchImporter, batchSize, spoolThreshold, NullTransferMetricsListener.metricsListener());
+    }
+
+    /**
+     * Constructs a new BatchFilteringCouchImporter which reports each batch check and
+     * each filter decision to a TransferMetricsListener. Give the CouchDocumentImporter
+     * in front of it a different listener, or none, since that importer includes every
+     * document.
+     * @param batchDocumentFilter the filter deciding which documents to import
+     * @param innerCouchImporter the CouchImporter which imports the included documents
+     * @param batchSize the number of documents to filter at once
+     * @param spoolThreshold the size in bytes above which a pending document is held in a temporary file
+     * @param transferMetricsListener the listener receiving measurements
+     */
+    public BatchFilteringCouchImporter(BatchDocumentFilter batchDocumentFilter, CouchImporter innerCouchImporter, int batchSize, int spoolThreshold,
+            TransferMetricsListener transferMetricsListener)
+    {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("batchSize");
+
+        this.batchDocumentFilter = batchDocumentFilter;
+        this.innerCouchImporter = innerCouchImporter;
+        this.batchSize = batchSize;
+        this.spoolThreshold = spoolThreshold;
+        pendingImportCommands = new ArrayList<SpooledImportCommand>(batchSize);
+        this.transferMetricsListener = transferMetricsListener;
+    }
+
+    public void commandImport(ImportCommand importCommand)
+    {
+        if(importCommand.getRevision() == null)
+            throw new IllegalArgumentException("importCommand must have a revision to be filtered");
+
+        if(!pendingImportCommands.isEmpty() &&
+                pendingImportCommands.get(0).getTargetCouchDbConnector() != importCommand.getTargetCouchDbConnector())
+        {
+            filterPendingImportCommands();
+        }
+
+        try
+        {
+            pendingImportCommands.add(new SpooledImportCommand(importCommand, spoolThreshold));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        if(pendingImportCommands.size() >= batchSize)
+            filterPendingImportCommands();
+    }
+
+    public void finishImport()
+    {
+        if(!pendingImportCommands.isEmpty())
+            filterPendingImportCommands();
+
+        innerCouchImporter.finishImport();
+    }
+
+    private void filterPendingImportCommands()
+    {
+        try
+        {
+            CouchDbConnector targetCouchDbConnector = pendingImportCommands.get(0).getTargetCouchDbConnector();
+
+            Map<String, String> documentRevisions = new LinkedHashMap<String, String>();
+            for(ImportCommand importCommand : pendingImportCommands)
+                documentRevisions.put(importCommand.getId(), importCommand.getRevision());
+
+            long startNanos = System.nanoTime();
+            Set<String> includedDocumentIds = batchDocumentFilter.includeDocuments(targetCouchDbConnector, documentRevisions);
+            transferMetricsListener.requestCompleted(CouchRequestType.FILTER_BATCH, documentRevisions.size(), 0,
+                    System.nanoTime() - startNanos);
+
+            for(ImportCommand importCommand : pendingImportCommands)
+            {
+                boolean included = includedDocumentIds.contains(importCommand.getId());
+                transferMetricsListener.documentFiltered(importCommand.getId(), included);
+                if(included)
+                    innerCouchImporter.commandImport(importCommand);
+            }
+        }
+        finally
+        {
+            for(SpooledImportCommand importCommand : pendingImportCommands)
+                importCommand.release();
+            pendingImportCommands.clear();
+        }
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.allogy.couch.importers.command;
 
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
 import com.allogy.io.BulkUpdateInputStream;
 import com.allogy.io.NoNewEditsInputStream;
 import org.ektorp.CouchDbConnector;
@@ -26,27 +29,56 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A CouchImporter which buffers documents without attachments
  * and performs bulk updates with those buffered documents.
+ * A BulkFlushPolicy decides when the buffer is bulk updated.
  */
 public class BufferedCouchImporter implements CouchImporter
 {
-    private final int bufferSize;
+    private static final int MULTIPART_STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final BulkFlushPolicy bulkFlushPolicy;
+    private final TransferMetricsListener transferMetricsListener;
     private List<ImportCommand> bufferedImportCommands;
     private long sizeOfBufferedImportCommands;
+    private long bufferStartMillis;
 
     /**
      * Constructs a new BufferedCouchImporter with a specified
      * buffer size. Once the combined size of buffered documents
      * meets or exceeds this size, those documents are bulk
      * updated.
-     * @param bufferSize the buffer size in bytes
+     * @param bufferSize the buffer size in bytes; a size less than
+     *                   one bulk updates each document on its own
      */
     public BufferedCouchImporter(int bufferSize)
     {
-        this.bufferSize = bufferSize;
+        this(ThresholdBulkFlushPolicy.bytes(Math.max(1, bufferSize)));
+    }
+
+    /**
+     * Constructs a new BufferedCouchImporter which bulk updates
+     * when a BulkFlushPolicy decides to.
+     * @param bulkFlushPolicy the policy deciding when to bulk update
+     */
+    public BufferedCouchImporter(BulkFlushPolicy bulkFlushPolicy)
+    {
+        this(bulkFlushPolicy, NullTransferMetricsListener.metricsListener());
+    }
+
+    /**
+     * Constructs a new BufferedCouchImporter which reports each bulk update and
+     * multipart update to a TransferMetricsListener.
+     * @param bulkFlushPolicy the policy deciding when to bulk update
+     * @param transferMetricsListener the listener receiving measurements
+     */
+    public BufferedCouchImporter(BulkFlushPolicy bulkFlushPolicy, TransferMetricsListener transferMetricsListener)
+    {
+        this.bulkFlushPolicy = bulkFlushPolicy;
+        this.transferMetricsListener = transferMetricsListener;
         bufferedImportCommands = new ArrayList<ImportCommand>();
     }
 
@@ -71,36 +103,69 @@ public class BufferedCouchImporter implements CouchImporter
     private void importMultipartImmediately(ImportCommand importCommand)
     {
         Options updateOptions = new Options().param("new_edits", "false");
-        long spareBuffer = bufferSize - sizeOfBufferedImportCommands;
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(importCommand.getDataStream(), (int)spareBuffer);
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(importCommand.getDataStream(), MULTIPART_STREAM_BUFFER_SIZE);
 
+        long startNanos = System.nanoTime();
         importCommand.getTargetCouchDbConnector().updateMultipart(importCommand.getId(),
                 bufferedInputStream, importCommand.getBoundary(),
                 importCommand.getSize(), updateOptions);
+        transferMetricsListener.requestCompleted(CouchRequestType.UPDATE_MULTIPART, 1, importCommand.getSize(),
+                System.nanoTime() - startNanos);
     }
 
     private void bufferCommand(ImportCommand importCommand)
     {
-        if(!bufferedImportCommands.isEmpty() && importCommand.getSize() + sizeOfBufferedImportCommands >= bufferSize)
+        if(!bufferedImportCommands.isEmpty() && bulkFlushPolicy.shouldFlush(bufferedImportCommands.size() + 1,
+                importCommand.getSize() + sizeOfBufferedImportCommands, getBufferAgeMillis()))
         {
             bulkImportBufferedImportCommands();
         }
 
+        bufferedImportCommands.add(toBufferedImportCommand(importCommand));
+
+        if(bufferedImportCommands.size() == 1)
+            bufferStartMillis = System.currentTimeMillis();
+        sizeOfBufferedImportCommands += importCommand.getSize();
+
+        if(bulkFlushPolicy.shouldFlush(bufferedImportCommands.size(), sizeOfBufferedImportCommands, getBufferAgeMillis()))
+        {
+            try
+            {
+                bulkImportBufferedImportCommands();
+            }
+            catch (RuntimeException e)
+            {
+                // Leave the buffer as it was before this command, so that calling
+                // commandImport again with it replays the same batch.
+                bufferedImportCommands.remove(bufferedImportCommands.size() - 1);
+                sizeOfBufferedImportCommands -= importCommand.getSize();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads a command into memory, unless it already is in memory, such as a
+     * command RetryingCouchImporter read to be able to send it again.
+     */
+    private static ImportCommand toBufferedImportCommand(ImportCommand importCommand)
+    {
+        if(importCommand instanceof BufferedImportCommand)
+            return importCommand;
+
         try
         {
-            bufferedImportCommands.add(new BufferedImportCommand(importCommand));
+            return new BufferedImportCommand(importCommand);
         }
         catch (IOException e)
         {
             throw new RuntimeException(e);
         }
+    }
 
-        sizeOfBufferedImportCommands += importCommand.getSize();
-
-        if(sizeOfBufferedImportCommands >= bufferSize)
-        {
-            bulkImportBufferedImportCommands();
-        }
+    private long getBufferAgeMillis()
+    {
+        return System.currentTimeMillis() - bufferStartMillis;
     }
 
     private void bulkImportBufferedImportCommands()
@@ -113,7 +178,13 @@ public class BufferedCouchImporter implements CouchImporter
         }
 
         InputStream bulkUpdateInputStream = new NoNewEditsInputStream(new BulkUpdateInputStream(bufferedInputStreams));
+        long startNanos = System.nanoTime();
         targetCouchDbConnector.executeBulk(bulkUpdateInputStream);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        bulkFlushPolicy.bulkUpdateCompleted(bufferedImportCommands.size(), sizeOfBufferedImportCommands,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        transferMetricsListener.requestCompleted(CouchRequestType.BULK_UPDATE, bufferedImportCommands.size(),
+                sizeOfBufferedImportCommands, elapsedNanos);
 
         bufferedImportCommands.clear();
         sizeOfBufferedImportCommands = 0;
@@ -19,23 +19,69 @@ package com.allogy.couch.importers.command;
 import org.apache.commons.io.IOUtils;
 import org.ektorp.CouchDbConnector;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
+/**
+ * An ImportCommand which reads the data of another ImportCommand into memory.
+ * The data is kept as the original bytes and each data stream reads them
+ * without copying.
+ */
 public class BufferedImportCommand implements ImportCommand
 {
+    private static final int MAXIMUM_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
     private final ImportCommand innerImportCommand;
-    private final String dataString;
+    private final byte[] data;
 
     public BufferedImportCommand(ImportCommand innerImportCommand) throws IOException
     {
         this.innerImportCommand = innerImportCommand;
-        dataString = IOUtils.toString(innerImportCommand.getDataStream());
+        data = readData(innerImportCommand.getDataStream(), innerImportCommand.getSize());
+    }
+
+    /**
+     * Reads a stream into an array sized from the expected size, falling back
+     * to a growing buffer when the stream is longer than expected. The array
+     * starts at no more than MAXIMUM_INITIAL_BUFFER_SIZE and grows towards the
+     * expected size as data arrives, so that an overstated size cannot force a
+     * large allocation for a short stream.
+     */
+    private static byte[] readData(InputStream inputStream, long expectedSize) throws IOException
+    {
+        if(expectedSize <= 0 || expectedSize > Integer.MAX_VALUE)
+            return IOUtils.toByteArray(inputStream);
+
+        byte[] data = new byte[(int)Math.min(expectedSize, MAXIMUM_INITIAL_BUFFER_SIZE)];
+        int offset = 0;
+        while(offset < expectedSize)
+        {
+            if(offset == data.length)
+                data = Arrays.copyOf(data, (int)Math.min(expectedSize, 2L * data.length));
+
+            int bytesRead = inputStream.read(data, offset, data.length - offset);
+            if(bytesRead == -1)
+                return Arrays.copyOf(data, offset);
+            offset += bytesRead;
+        }
+
+        int nextByte = inputStream.read();
+        if(nextByte == -1)
+            return data;
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 2);
+        outputStream.write(data);
+        outputStream.write(nextByte);
+        IOUtils.copy(inputStream, outputStream);
+        return outputStream.toByteArray();
     }
 
     public InputStream getDataStream()
     {
-        return IOUtils.toInputStream(dataString);
+        return new ByteArrayInputStream(data);
     }
 
     public CouchDbConnector getTargetCouchDbConnector()
@@ -48,6 +94,11 @@ public class BufferedImportCommand implements ImportCommand
         return innerImportCommand.getId();
     }
 
+    public String getRevision()
+    {
+        return innerImportCommand.getRevision();
+    }
+
     public long getSize()
     {
         return innerImportCommand.getSize();
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers.command;
+
+/**
+ * Decides when BufferedCouchImporter bulk updates its buffered documents.
+ */
+public interface BulkFlushPolicy
+{
+    /**
+     * Determines whether a buffer should be bulk updated. This is asked before a document
+     * is added, with the counts the buffer would have after adding it, and again after the
+     * document is added. A buffer which should be flushed before adding a document is
+     * bulk updated without that document.
+     * @param documentCount the number of documents in the buffer
+     * @param byteCount the combined size of the documents in the buffer
+     * @param bufferAgeMillis the time since the oldest document in the buffer was added
+     * @return true to bulk update the buffer
+     */
+    boolean shouldFlush(int documentCount, long byteCount, long bufferAgeMillis);
+
+    /**
+     * Reports a completed bulk update.
+     * @param documentCount the number of documents in the bulk update
+     * @param byteCount the combined size of the documents in the bulk update
+     * @param elapsedMillis the duration of the _bulk_docs request
+     */
+    void bulkUpdateCompleted(int documentCount, long byteCount, long elapsedMillis);
+}
@@ -16,24 +16,49 @@
 
 package com.allogy.couch.importers.command;
 
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
 import org.ektorp.Options;
 
 public class ImmediateCouchImporter implements CouchImporter
 {
+    private final TransferMetricsListener transferMetricsListener;
+
+    public ImmediateCouchImporter()
+    {
+        this(NullTransferMetricsListener.metricsListener());
+    }
+
+    /**
+     * Constructs a new ImmediateCouchImporter which reports each update request
+     * to a TransferMetricsListener.
+     * @param transferMetricsListener the listener receiving measurements
+     */
+    public ImmediateCouchImporter(TransferMetricsListener transferMetricsListener)
+    {
+        this.transferMetricsListener = transferMetricsListener;
+    }
+
     public void commandImport(ImportCommand importCommand)
     {
         Options updateOptions = new Options().param("new_edits", "false");
+        long startNanos = System.nanoTime();
         if (importCommand.getBoundary()!= null)
         {
             importCommand.getTargetCouchDbConnector().updateMultipart(importCommand.getId(),
                     importCommand.getDataStream(), importCommand.getBoundary(), importCommand.getSize(),
                     updateOptions);
+            transferMetricsListener.requestCompleted(CouchRequestType.UPDATE_MULTIPART, 1, importCommand.getSize(),
+                    System.nanoTime() - startNanos);
         }
         else
         {
             importCommand.getTargetCouchDbConnector().update(importCommand.getId(),
                     importCommand.getDataStream(), importCommand.getSize(),
                     updateOptions);
+            transferMetricsListener.requestCompleted(CouchRequestType.UPDATE, 1, importCommand.getSize(),
+                    System.nanoTime() - startNanos);
         }
     }
 
@@ -24,6 +24,7 @@ public interface ImportCommand
 {
     public CouchDbConnector getTargetCouchDbConnector();
     public String getId();
+    public String getRevision();
     public InputStream getDataStream();
     public long getSize();
     public String getBoundary();
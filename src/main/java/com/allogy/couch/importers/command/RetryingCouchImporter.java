@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.allogy.couch.importers.command;
+
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.RetryMetricsListener;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.UpdateConflictException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A CouchImporter which retries the requests of another CouchImporter when they
+ * fail with a connection error or a 5xx response from Couch.
+ * The data of a multipart command is spooled, in memory up to a threshold and in a
+ * temporary file beyond it, so that the multipart update can be sent again. Any other
+ * command is a document without attachments and is read into a BufferedImportCommand,
+ * which BufferedCouchImporter buffers as it is rather than copying it again. A failed
+ * bulk update is replayed by repeating the call which triggered it, since
+ * BufferedCouchImporter keeps its buffer when a bulk update fails.
+ * Attempts are spaced by an exponential backoff with full jitter, and the number of
+ * retries over the lifetime of the importer is limited by a retry budget, so that an
+ * unavailable server fails the run rather than stalling it.
+ * Wrap ImmediateCouchImporter or BufferedCouchImporter directly; a BatchFilteringCouchImporter
+ * may wrap this one.
+ */
+public class RetryingCouchImporter implements CouchImporter
+{
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final int DEFAULT_RETRY_BUDGET = 100;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10 * 1000;
+    public static final int DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+
+    private static final Pattern STATUS_CODE_PATTERN = Pattern.compile("^(\\d{3}):");
+
+    private final CouchImporter innerCouchImporter;
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int spoolThreshold;
+    private final RetryMetricsListener retryMetricsListener;
+    private final Random random;
+    private int remainingRetries;
+
+    public RetryingCouchImporter(CouchImporter innerCouchImporter)
+    {
+        this(innerCouchImporter, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_BUDGET, DEFAULT_INITIAL_DELAY_MILLIS,
+                DEFAULT_MAX_DELAY_MILLIS, DEFAULT_SPOOL_THRESHOLD);
+    }
+
+    /**
+     * Constructs a new RetryingCouchImporter.
+     * @param innerCouchImporter the CouchImporter whose requests are retried
+     * @param maxAttempts the maximum number of attempts at a single call, including the first
+     * @param retryBudget the maximum number of retries over the lifetime of this importer
+     * @param initialDelayMillis the upper bound of the delay before the first retry
+     * @param maxDelayMillis the upper bound of the delay before any retry
+     * @param spoolThreshold the size in bytes above which a command's data is spooled to a temporary file
+     */
+    public RetryingCouchImporter(CouchImporter innerCouchImporter, int maxAttempts, int retryBudget,
+            long initialDelayMillis, long maxDelayMillis, int spoolThreshold)
+    {
+        this(innerCouchImporter, maxAttempts, retryBudget, initialDelayMillis, maxDelayMillis, spoolThreshold,
+                NullTransferMetricsListener.retryMetricsListener());
+    }
+
+    /**
+     * Constructs a new RetryingCouchImporter which reports each retry to a
+     * RetryMetricsListener.
+     * @param innerCouchImporter the CouchImporter whose requests are retried
+     * @param maxAttempts the maximum number of attempts at a single call, including the first
+     * @param retryBudget the maximum number of retries over the lifetime of this importer
+     * @param initialDelayMillis the upper bound of the delay before the first retry
+     * @param maxDelayMillis the upper bound of the delay before any retry
+     * @param spoolThreshold the size in bytes above which a command's data is spooled to a temporary file
+     * @param retryMetricsListener the listener receiving each retry
+     */
+    public RetryingCouchImporter(CouchImporter innerCouchImporter, int maxAttempts, int retryBudget,
+            long initialDelayMillis, long maxDelayMillis, int spoolThreshold, RetryMetricsListener retryMetricsListener)
+    {
+        if(maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts");
+        if(retryBudget < 0)
+            throw new IllegalArgumentException("retryBudget");
+        if(initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis)
+            throw new IllegalArgumentException("initialDelayMillis");
+
+        this.innerCouchImporter = innerCouchImporter;
+        this.maxAttempts = maxAttempts;
+        remainingRetries = retryBudget;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.spoolThreshold = spoolThreshold;
+        this.retryMetricsListener = retryMetricsListener;
+        random = new Random();
+    }
+
+    public void commandImport(ImportCommand importCommand)
+    {
+        if(importCommand instanceof SpooledImportCommand || importCommand instanceof BufferedImportCommand)
+        {
+            importWithRetries(importCommand);
+            return;
+        }
+
+        if(importCommand.getBoundary() == null)
+        {
+            BufferedImportCommand bufferedImportCommand;
+            try
+            {
+                bufferedImportCommand = new BufferedImportCommand(importCommand);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            importWithRetries(bufferedImportCommand);
+            return;
+        }
+
+        SpooledImportCommand spooledImportCommand;
+        try
+        {
+            spooledImportCommand = new SpooledImportCommand(importCommand, spoolThreshold);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        try
+        {
+            importWithRetries(spooledImportCommand);
+        }
+        finally
+        {
+            spooledImportCommand.release();
+        }
+    }
+
+    public void finishImport()
+    {
+        int attempt = 1;
+        while(true)
+        {
+            try
+            {
+                innerCouchImporter.finishImport();
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                backOff(attempt++, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of retries left in the retry budget.
+     */
+    public int getRemainingRetries()
+    {
+        return remainingRetries;
+    }
+
+    private void importWithRetries(ImportCommand replayableImportCommand)
+    {
+        int attempt = 1;
+        while(true)
+        {
+            try
+            {
+                innerCouchImporter.commandImport(replayableImportCommand);
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                backOff(attempt++, e);
+            }
+        }
+    }
+
+    /**
+     * Waits before the next attempt, or rethrows the failure if it should not be retried.
+     */
+    private void backOff(int failedAttempt, RuntimeException failure)
+    {
+        if(failedAttempt >= maxAttempts || remainingRetries <= 0 || !isRetryable(failure))
+            throw failure;
+
+        remainingRetries--;
+        long delayMillis = getDelayMillis(failedAttempt);
+        retryMetricsListener.requestRetried(failedAttempt, delayMillis);
+        try
+        {
+            Thread.sleep(delayMillis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    /**
+     * Picks a delay uniformly between zero and an exponentially growing ceiling,
+     * so that importers failing together do not retry together.
+     */
+    private long getDelayMillis(int failedAttempt)
+    {
+        long ceilingMillis = maxDelayMillis;
+        if(failedAttempt <= 62 && initialDelayMillis <= maxDelayMillis >> (failedAttempt - 1))
+            ceilingMillis = initialDelayMillis << (failedAttempt - 1);
+        return (long) (random.nextDouble() * (ceilingMillis + 1));
+    }
+
+    /**
+     * Decides whether a failure is likely to succeed when repeated: a connection
+     * error, or a 5xx response from Couch.
+     */
+    static boolean isRetryable(RuntimeException failure)
+    {
+        if(!(failure instanceof DbAccessException) || failure instanceof UpdateConflictException ||
+                failure instanceof DocumentNotFoundException)
+        {
+            return false;
+        }
+
+        if(failure.getCause() instanceof IOException)
+            return true;
+
+        if(failure.getMessage() == null)
+            return false;
+        Matcher statusCodeMatcher = STATUS_CODE_PATTERN.matcher(failure.getMessage());
+        return statusCodeMatcher.find() && statusCodeMatcher.group(1).charAt(0) == '5';
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers.command;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.ektorp.CouchDbConnector;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An ImportCommand which copies the data of another ImportCommand so that
+ * it can be read after the original stream has moved on, and read more than once.
+ * The data is held in memory up to a threshold and in a temporary file beyond that.
+ * Call {@link #release()} once the command is no longer needed.
+ */
+public class SpooledImportCommand implements ImportCommand
+{
+    private final ImportCommand innerImportCommand;
+    private final DeferredFileOutputStream spool;
+
+    public SpooledImportCommand(ImportCommand innerImportCommand, int memoryThreshold) throws IOException
+    {
+        this.innerImportCommand = innerImportCommand;
+        spool = new DeferredFileOutputStream(memoryThreshold, "couch-import-", ".spool", null);
+        try
+        {
+            IOUtils.copy(innerImportCommand.getDataStream(), spool);
+        }
+        finally
+        {
+            spool.close();
+        }
+    }
+
+    public InputStream getDataStream()
+    {
+        if(spool.isInMemory())
+            return new ByteArrayInputStream(spool.getData());
+
+        try
+        {
+            return new FileInputStream(spool.getFile());
+        }
+        catch (FileNotFoundException e)
+        {
+            throw new IllegalStateException("The spooled data for " + getId() + " has been released", e);
+        }
+    }
+
+    /**
+     * Deletes any temporary file holding the data.
+     */
+    public void release()
+    {
+        if(!spool.isInMemory())
+            spool.getFile().delete();
+    }
+
+    public CouchDbConnector getTargetCouchDbConnector()
+    {
+        return innerImportCommand.getTargetCouchDbConnector();
+    }
+
+    public String getId()
+    {
+        return innerImportCommand.getId();
+    }
+
+    public String getRevision()
+    {
+        return innerImportCommand.getRevision();
+    }
+
+    public long getSize()
+    {
+        return innerImportCommand.getSize();
+    }
+
+    public String getBoundary()
+    {
+        return innerImportCommand.getBoundary();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers.command;
+
+/**
+ * A BulkFlushPolicy with fixed limits on the documents, bytes and
+ * time in a single bulk update.
+ */
+public class ThresholdBulkFlushPolicy implements BulkFlushPolicy
+{
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long maxLingerMillis;
+
+    /**
+     * Constructs a new ThresholdBulkFlushPolicy.
+     * @param maxDocuments the maximum number of documents in a bulk update
+     * @param maxBytes the buffer is bulk updated once its documents' combined size
+     *                 meets or exceeds this size
+     * @param maxLingerMillis the buffer is bulk updated once its oldest document has
+     *                        waited this long; 0 for no limit. Because the buffer is only
+     *                        examined when a document is imported, this bounds how long a
+     *                        document waits while the import is making progress.
+     */
+    public ThresholdBulkFlushPolicy(int maxDocuments, long maxBytes, long maxLingerMillis)
+    {
+        if(maxDocuments < 1)
+            throw new IllegalArgumentException("maxDocuments");
+        if(maxBytes < 1)
+            throw new IllegalArgumentException("maxBytes");
+        if(maxLingerMillis < 0)
+            throw new IllegalArgumentException("maxLingerMillis");
+
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.maxLingerMillis = maxLingerMillis;
+    }
+
+    /**
+     * Creates a policy which only limits the combined size of the buffered documents.
+     * @param maxBytes the buffer size in bytes
+     */
+    public static ThresholdBulkFlushPolicy bytes(long maxBytes)
+    {
+        return new ThresholdBulkFlushPolicy(Integer.MAX_VALUE, maxBytes, 0);
+    }
+
+    public boolean shouldFlush(int documentCount, long byteCount, long bufferAgeMillis)
+    {
+        return documentCount > maxDocuments ||
+                byteCount >= maxBytes ||
+                (maxLingerMillis > 0 && bufferAgeMillis >= maxLingerMillis);
+    }
+
+    public void bulkUpdateCompleted(int documentCount, long byteCount, long elapsedMillis)
+    { }
+}
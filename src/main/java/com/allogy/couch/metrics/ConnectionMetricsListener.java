@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.allogy.couch.metrics;
+
+/**
+ * Receives measurements of the connection pool of an HttpClient created by
+ * TransferHttpClientFactory. It is separate from TransferMetricsListener so that
+ * existing TransferMetricsListener implementations are unaffected; implement both
+ * to receive every measurement in one place. Implementations must be thread safe.
+ */
+public interface ConnectionMetricsListener
+{
+	/**
+	 * Reports a connection leased from the pool.
+	 * @param waitNanos the time spent waiting for the connection
+	 * @param poolExhausted true if every connection of the pool was leased when it was requested
+	 */
+	void connectionLeased(long waitNanos, boolean poolExhausted);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+/**
+ * The kinds of Couch request reported to a TransferMetricsListener.
+ */
+public enum CouchRequestType
+{
+	/**
+	 * A _bulk_get of one page of documents.
+	 */
+	BULK_GET,
+
+	/**
+	 * A JSON document update.
+	 */
+	UPDATE,
+
+	/**
+	 * A multipart/related document update, carrying attachments.
+	 */
+	UPDATE_MULTIPART,
+
+	/**
+	 * A _bulk_docs update.
+	 */
+	BULK_UPDATE,
+
+	/**
+	 * A BatchDocumentFilter check of one batch of import revisions, such as a _revs_diff.
+	 */
+	FILTER_BATCH
+}
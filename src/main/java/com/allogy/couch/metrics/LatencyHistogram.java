@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed-size latency histogram with power-of-two microsecond buckets, accurate
+ * to within a factor of two, which is enough to tell a slow request from a fast one
+ * without keeping every sample.
+ */
+class LatencyHistogram
+{
+	private static final int BUCKET_COUNT = 40;
+
+	private final long[] bucketCounts = new long[BUCKET_COUNT];
+	private long count;
+	private long maxNanos;
+
+	void record(long elapsedNanos)
+	{
+		long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+		int bucket = Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+		bucketCounts[bucket]++;
+		count++;
+		maxNanos = Math.max(maxNanos, elapsedNanos);
+	}
+
+	long getCount()
+	{
+		return count;
+	}
+
+	long getMaxNanos()
+	{
+		return maxNanos;
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the upper bound, in nanoseconds, of the bucket holding the percentile;
+	 * 0 if nothing has been recorded
+	 */
+	long getPercentileNanos(double percentile)
+	{
+		if(count == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+		{
+			seen += bucketCounts[bucket];
+			if(seen >= rank && seen > 0)
+				return Math.min(maxNanos, TimeUnit.MICROSECONDS.toNanos(2L << bucket));
+		}
+		return maxNanos;
+	}
+}
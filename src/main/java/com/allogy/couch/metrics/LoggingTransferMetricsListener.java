@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TransferMetricsListener which accumulates measurements and logs a summary
+ * at most once per report interval. Summaries are logged as measurements arrive,
+ * so call report at the end of a transfer to log the final totals.
+ */
+public class LoggingTransferMetricsListener implements TransferMetricsListener, ConnectionMetricsListener,
+		RetryMetricsListener
+{
+	public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 60 * 1000;
+
+	private static final Logger logger = LoggerFactory.getLogger(LoggingTransferMetricsListener.class);
+
+	private final long reportIntervalMillis;
+	private final long startMillis;
+	private final Map<CouchRequestType, RequestMetrics> requestMetrics;
+	private long lastReportMillis;
+	private long documentCount;
+	private long byteCount;
+	private long includedDocumentCount;
+	private long filteredDocumentCount;
+	private long readBlockedNanos;
+	private long writeBlockedNanos;
+	private long leasedConnectionCount;
+	private long exhaustedConnectionCount;
+	private long connectionWaitNanos;
+	private long retriedRequestCount;
+	private long retryDelayMillis;
+
+	public LoggingTransferMetricsListener()
+	{
+		this(DEFAULT_REPORT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Constructs a new LoggingTransferMetricsListener.
+	 * @param reportIntervalMillis the minimum time between logged summaries
+	 */
+	public LoggingTransferMetricsListener(long reportIntervalMillis)
+	{
+		if(reportIntervalMillis < 0)
+			throw new IllegalArgumentException("reportIntervalMillis");
+
+		this.reportIntervalMillis = reportIntervalMillis;
+		startMillis = System.currentTimeMillis();
+		lastReportMillis = startMillis;
+		requestMetrics = new EnumMap<CouchRequestType, RequestMetrics>(CouchRequestType.class);
+	}
+
+	public synchronized void documentTransferred(String documentId, long byteCount, long elapsedNanos)
+	{
+		documentCount++;
+		this.byteCount += byteCount;
+		reportIfDue();
+	}
+
+	public synchronized void documentFiltered(String documentId, boolean included)
+	{
+		filteredDocumentCount++;
+		if(included)
+			includedDocumentCount++;
+		reportIfDue();
+	}
+
+	public synchronized void requestCompleted(CouchRequestType requestType, int documentCount, long byteCount, long elapsedNanos)
+	{
+		RequestMetrics metrics = requestMetrics.get(requestType);
+		if(metrics == null)
+		{
+			metrics = new RequestMetrics();
+			requestMetrics.put(requestType, metrics);
+		}
+		metrics.documentCount += documentCount;
+		metrics.byteCount += byteCount;
+		metrics.latencyHistogram.record(elapsedNanos);
+		reportIfDue();
+	}
+
+	public synchronized void readBlocked(long elapsedNanos)
+	{
+		readBlockedNanos += elapsedNanos;
+	}
+
+	public synchronized void writeBlocked(long elapsedNanos)
+	{
+		writeBlockedNanos += elapsedNanos;
+	}
+
+	public synchronized void connectionLeased(long waitNanos, boolean poolExhausted)
+	{
+		leasedConnectionCount++;
+		if(poolExhausted)
+			exhaustedConnectionCount++;
+		connectionWaitNanos += waitNanos;
+	}
+
+	public synchronized void requestRetried(int attempt, long delayMillis)
+	{
+		retriedRequestCount++;
+		retryDelayMillis += delayMillis;
+	}
+
+	/**
+	 * Logs a summary of everything measured so far.
+	 */
+	public synchronized void report()
+	{
+		lastReportMillis = System.currentTimeMillis();
+		if(logger.isInfoEnabled())
+			logger.info(getSummary());
+	}
+
+	synchronized String getSummary()
+	{
+		double elapsedSeconds = Math.max(1, System.currentTimeMillis() - startMillis) / 1000.0;
+
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format("Transferred %d documents (%.1f/s), %d bytes (%.1f KiB/s)",
+				documentCount, documentCount / elapsedSeconds, byteCount, byteCount / 1024.0 / elapsedSeconds));
+		if(filteredDocumentCount > 0)
+		{
+			summary.append(String.format("; filter included %d of %d documents (%.1f%%)",
+					includedDocumentCount, filteredDocumentCount, 100.0 * includedDocumentCount / filteredDocumentCount));
+		}
+		summary.append(String.format("; blocked reading %d ms, writing %d ms",
+				TimeUnit.NANOSECONDS.toMillis(readBlockedNanos), TimeUnit.NANOSECONDS.toMillis(writeBlockedNanos)));
+		if(leasedConnectionCount > 0)
+		{
+			summary.append(String.format("; %d connections leased, %d from an exhausted pool (%.1f%%), waiting %d ms",
+					leasedConnectionCount, exhaustedConnectionCount, 100.0 * exhaustedConnectionCount / leasedConnectionCount,
+					TimeUnit.NANOSECONDS.toMillis(connectionWaitNanos)));
+		}
+		if(retriedRequestCount > 0)
+			summary.append(String.format("; %d requests retried, backing off %d ms", retriedRequestCount, retryDelayMillis));
+
+		for(Map.Entry<CouchRequestType, RequestMetrics> entry : requestMetrics.entrySet())
+		{
+			LatencyHistogram latencyHistogram = entry.getValue().latencyHistogram;
+			summary.append(String.format("; %s: %d requests, %.1f documents and %d bytes per request, latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+					entry.getKey(), latencyHistogram.getCount(),
+					(double) entry.getValue().documentCount / latencyHistogram.getCount(),
+					entry.getValue().byteCount / latencyHistogram.getCount(),
+					toMillis(latencyHistogram.getPercentileNanos(50)),
+					toMillis(latencyHistogram.getPercentileNanos(90)),
+					toMillis(latencyHistogram.getPercentileNanos(99)),
+					toMillis(latencyHistogram.getMaxNanos())));
+		}
+		return summary.toString();
+	}
+
+	private void reportIfDue()
+	{
+		if(System.currentTimeMillis() - lastReportMillis >= reportIntervalMillis)
+			report();
+	}
+
+	private static double toMillis(long nanos)
+	{
+		return nanos / 1000000.0;
+	}
+
+	private static class RequestMetrics
+	{
+		private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+		private long documentCount;
+		private long byteCount;
+	}
+}
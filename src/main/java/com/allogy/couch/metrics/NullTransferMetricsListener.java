@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+/**
+ * A TransferMetricsListener, ConnectionMetricsListener and RetryMetricsListener which
+ * ignores all measurements.
+ */
+public class NullTransferMetricsListener implements TransferMetricsListener, ConnectionMetricsListener,
+		RetryMetricsListener
+{
+	private static final NullTransferMetricsListener INSTANCE = new NullTransferMetricsListener();
+
+	private NullTransferMetricsListener()
+	{}
+
+	public static TransferMetricsListener metricsListener()
+	{
+		return INSTANCE;
+	}
+
+	public static ConnectionMetricsListener connectionMetricsListener()
+	{
+		return INSTANCE;
+	}
+
+	public static RetryMetricsListener retryMetricsListener()
+	{
+		return INSTANCE;
+	}
+
+	public void documentTransferred(String documentId, long byteCount, long elapsedNanos)
+	{}
+
+	public void documentFiltered(String documentId, boolean included)
+	{}
+
+	public void requestCompleted(CouchRequestType requestType, int documentCount, long byteCount, long elapsedNanos)
+	{}
+
+	public void readBlocked(long elapsedNanos)
+	{}
+
+	public void writeBlocked(long elapsedNanos)
+	{}
+
+	public void connectionLeased(long waitNanos, boolean poolExhausted)
+	{}
+
+	public void requestRetried(int attempt, long delayMillis)
+	{}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.allogy.couch.metrics;
+
+/**
+ * Receives the retries of a RetryingCouchImporter. It is separate from
+ * TransferMetricsListener so that existing TransferMetricsListener implementations
+ * are unaffected. Implementations must be thread safe.
+ */
+public interface RetryMetricsListener
+{
+	/**
+	 * Reports a failed request which RetryingCouchImporter is about to retry.
+	 * @param attempt the number of the failed attempt, starting at 1
+	 * @param delayMillis the time to wait before the next attempt
+	 */
+	void requestRetried(int attempt, long delayMillis);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+/**
+ * Receives measurements from exporters, importers and CouchImporters.
+ * Implementations must be thread safe, since concurrent exporters and
+ * asynchronous importers report from their worker threads.
+ */
+public interface TransferMetricsListener
+{
+	/**
+	 * Reports a document written to, or read from, an archive.
+	 * @param documentId the Couch document id
+	 * @param byteCount the size of the document's archive entry
+	 * @param elapsedNanos the time taken to transfer the document
+	 */
+	void documentTransferred(String documentId, long byteCount, long elapsedNanos);
+
+	/**
+	 * Reports an import filter's decision on a document.
+	 * @param documentId the Couch document id
+	 * @param included true if the document is imported
+	 */
+	void documentFiltered(String documentId, boolean included);
+
+	/**
+	 * Reports a completed request to Couch.
+	 * @param requestType the kind of request
+	 * @param documentCount the number of documents in the request
+	 * @param byteCount the size of the documents in the request
+	 * @param elapsedNanos the duration of the request
+	 */
+	void requestCompleted(CouchRequestType requestType, int documentCount, long byteCount, long elapsedNanos);
+
+	/**
+	 * Reports time spent waiting on the source of a transfer: Couch when exporting,
+	 * the archive when importing.
+	 * @param elapsedNanos the time spent blocked
+	 */
+	void readBlocked(long elapsedNanos);
+
+	/**
+	 * Reports time spent waiting on the destination of a transfer: the archive when
+	 * exporting, Couch when importing.
+	 * @param elapsedNanos the time spent blocked
+	 */
+	void writeBlocked(long elapsedNanos);
+}
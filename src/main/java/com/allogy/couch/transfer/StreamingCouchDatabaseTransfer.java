@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.transfer;
+
+import com.allogy.couch.exporters.AllDocumentsRows;
+import com.allogy.couch.exporters.MimeCouchDocumentExporter;
+import com.allogy.couch.exporters.ZipCouchDatabaseExporter;
+import com.allogy.couch.filter.DocumentFilter;
+import com.allogy.couch.filter.IncludeAllDocumentFilter;
+import com.allogy.couch.importers.command.BasicImportCommand;
+import com.allogy.couch.importers.command.CouchImporter;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicHeader;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewResult;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+
+/**
+ * Transfers a Couch database directly into another, without an intermediate archive.
+ * Each document is requested from the source exactly as MimeCouchDocumentExporter
+ * requests it and handed to a CouchImporter exactly as MimeCouchDocumentImporter
+ * hands it over, so revisions are preserved the same way. With a BufferedCouchImporter,
+ * multipart documents stream from the source response straight into the target and
+ * other documents are batched into _bulk_docs; the importer's buffer is the only
+ * buffering between the two databases.
+ * After copying every document, the transfer replays the source's _changes made since
+ * it started. A continuous transfer then keeps following _changes until stop is called,
+ * for example at cut-over once writes to the source have stopped.
+ */
+public class StreamingCouchDatabaseTransfer
+{
+	public static final long DEFAULT_CHANGES_TIMEOUT_MILLIS = 10 * 1000;
+
+	private final DocumentFilter documentFilter;
+	private final CouchImporter couchImporter;
+	private final int pageSize;
+	private final long changesTimeoutMillis;
+	private final ObjectMapper objectMapper;
+	private volatile boolean stopped;
+
+	public StreamingCouchDatabaseTransfer(CouchImporter couchImporter)
+	{
+		this(IncludeAllDocumentFilter.documentFilter(), couchImporter, ZipCouchDatabaseExporter.DEFAULT_PAGE_SIZE,
+				DEFAULT_CHANGES_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Constructs a new StreamingCouchDatabaseTransfer.
+	 * @param documentFilter the filter deciding which documents to transfer; it is asked
+	 *                       before the document is read from the source
+	 * @param couchImporter the CouchImporter which writes documents to the target
+	 * @param pageSize the number of _all_docs rows or changes to request at a time
+	 * @param changesTimeoutMillis how long a continuous transfer waits for a change
+	 *                             before checking whether it has been stopped
+	 */
+	public StreamingCouchDatabaseTransfer(DocumentFilter documentFilter, CouchImporter couchImporter, int pageSize, long changesTimeoutMillis)
+	{
+		if(pageSize < 1)
+			throw new IllegalArgumentException("pageSize");
+		if(changesTimeoutMillis < 1)
+			throw new IllegalArgumentException("changesTimeoutMillis");
+
+		this.documentFilter = documentFilter;
+		this.couchImporter = couchImporter;
+		this.pageSize = pageSize;
+		this.changesTimeoutMillis = changesTimeoutMillis;
+		objectMapper = new ObjectMapper();
+	}
+
+	/**
+	 * Transfers every document, then the changes made since the transfer began.
+	 * @param sourceCouchDbConnector the database to read
+	 * @param targetCouchDbConnector the database to write
+	 * @param continuous true to keep following _changes until stop is called
+	 * @return the last source sequence transferred
+	 * @throws IOException an error occurred reading the source
+	 */
+	public String transfer(CouchDbConnector sourceCouchDbConnector, CouchDbConnector targetCouchDbConnector, boolean continuous) throws IOException
+	{
+		String sequence = getUpdateSequence(sourceCouchDbConnector);
+
+		for(ViewResult.Row row : new AllDocumentsRows(sourceCouchDbConnector, pageSize))
+		{
+			transferDocument(row.getId(), row.getValueAsNode().get("rev").getTextValue(),
+					sourceCouchDbConnector, targetCouchDbConnector);
+		}
+		couchImporter.finishImport();
+
+		boolean caughtUp = false;
+		while(!caughtUp)
+		{
+			JsonNode changes = getChanges(sourceCouchDbConnector, sequence, false);
+			sequence = transferChanges(changes, sourceCouchDbConnector, targetCouchDbConnector, sequence);
+			caughtUp = changes.path("results").size() < pageSize;
+		}
+
+		while(continuous && !stopped)
+		{
+			JsonNode changes = getChanges(sourceCouchDbConnector, sequence, true);
+			sequence = transferChanges(changes, sourceCouchDbConnector, targetCouchDbConnector, sequence);
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * Ends a continuous transfer once it has written the changes it is waiting for,
+	 * within the changes timeout.
+	 */
+	public void stop()
+	{
+		stopped = true;
+	}
+
+	private String transferChanges(JsonNode changes, CouchDbConnector sourceCouchDbConnector, CouchDbConnector targetCouchDbConnector,
+			String sequence) throws IOException
+	{
+		for(JsonNode change : changes.path("results"))
+		{
+			transferDocument(change.path("id").getTextValue(), change.path("changes").path(0).path("rev").getTextValue(),
+					sourceCouchDbConnector, targetCouchDbConnector);
+			sequence = change.path("seq").asText();
+		}
+		couchImporter.finishImport();
+
+		return changes.has("last_seq") ?
+				changes.path("last_seq").asText() :
+				sequence;
+	}
+
+	private void transferDocument(String id, String revision, CouchDbConnector sourceCouchDbConnector,
+			CouchDbConnector targetCouchDbConnector) throws IOException
+	{
+		if(!documentFilter.includeDocument(targetCouchDbConnector, id, revision))
+			return;
+
+		HttpResponse response = MimeCouchDocumentExporter.requestDocument(id, revision, sourceCouchDbConnector);
+		InputStream content = response.getContent();
+		try
+		{
+			String revisionReceived = response.getETag();
+			if(revisionReceived == null)
+				return;
+
+			NameValuePair boundaryNameValuePair = new BasicHeader(HttpHeaders.CONTENT_TYPE, response.getContentType())
+					.getElements()[0].getParameterByName("boundary");
+			String boundary = boundaryNameValuePair != null ?
+					boundaryNameValuePair.getValue() :
+					null;
+
+			couchImporter.commandImport(new BasicImportCommand(targetCouchDbConnector, id, revisionReceived, content,
+					response.getContentLength(), boundary));
+		}
+		finally
+		{
+			IOUtils.closeQuietly(content);
+			response.releaseConnection();
+		}
+	}
+
+	private String getUpdateSequence(CouchDbConnector couchDbConnector) throws IOException
+	{
+		HttpResponse response = couchDbConnector.getConnection().get(couchDbConnector.path());
+		try
+		{
+			if(!response.isSuccessful())
+				throw StdResponseHandler.createDbAccessException(response);
+
+			return objectMapper.readTree(response.getContent()).path("update_seq").asText();
+		}
+		finally
+		{
+			response.releaseConnection();
+		}
+	}
+
+	private JsonNode getChanges(CouchDbConnector couchDbConnector, String since, boolean longPoll) throws IOException
+	{
+		StringBuilder uri = new StringBuilder(couchDbConnector.path()).append("_changes?style=main_only&limit=").append(pageSize)
+				.append("&since=").append(URLEncoder.encode(since, "UTF-8"));
+		if(longPoll)
+			uri.append("&feed=longpoll&timeout=").append(changesTimeoutMillis);
+
+		HttpResponse response = couchDbConnector.getConnection().get(uri.toString());
+		try
+		{
+			if(!response.isSuccessful())
+				throw StdResponseHandler.createDbAccessException(response);
+
+			return objectMapper.readTree(response.getContent());
+		}
+		finally
+		{
+			response.releaseConnection();
+		}
+	}
+}
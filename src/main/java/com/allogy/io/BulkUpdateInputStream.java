@@ -16,59 +16,105 @@
 
 package com.allogy.io;
 
-import org.apache.commons.io.IOUtils;
-
-import java.io.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 
+/**
+ * An InputStream which joins a number of JSON value streams into a JSON array.
+ */
 public class BulkUpdateInputStream extends InputStream
 {
-    private final Reader headerReader;
-    private final Reader footerReader;
+    private static final byte[] HEADER = { '[' };
+    private static final byte[] SEPARATOR = { ',' };
+    private static final byte[] FOOTER = { ']' };
 
-    Iterator<InputStream> currentInputStreamIterator;
-    InputStream currentInputStream;
+    private final Iterator<InputStream> innerInputStreamIterator;
+
+    private InputStream currentInputStream;
+    private InputStream nextInnerInputStream;
+    private boolean hasStartedInnerInputStreams;
+    private boolean hasStartedFooter;
 
     public BulkUpdateInputStream(Iterable<InputStream> innerInputStreams)
     {
-        headerReader = new StringReader("[");
-        footerReader = new StringReader("]");
-
-        currentInputStreamIterator = innerInputStreams.iterator();
-        moveToNextInnerInputStream();
+        innerInputStreamIterator = innerInputStreams.iterator();
+        currentInputStream = new ByteArrayInputStream(HEADER);
     }
 
     @Override
     public int read() throws IOException
     {
-        int headerValue = headerReader.read();
-        if(headerValue != -1)
-            return headerValue;
+        while(currentInputStream != null)
+        {
+            int value = currentInputStream.read();
+            if(value != -1)
+                return value;
 
-        int innerValue = currentInputStream.read();
-        if(innerValue != -1)
-            return innerValue;
+            moveToNextInputStream();
+        }
 
-        if(currentInputStreamIterator.hasNext())
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        if(length == 0)
+            return 0;
+
+        while(currentInputStream != null)
         {
-            moveToNextInnerInputStream();
+            int bytesRead = currentInputStream.read(buffer, offset, length);
+            if(bytesRead > 0)
+                return bytesRead;
 
-            innerValue = currentInputStream.read();
-            if(innerValue != -1)
-                return innerValue;
+            moveToNextInputStream();
         }
 
-        int footerValue = footerReader.read();
-        if(footerValue != -1)
-            return footerValue;
-
         return -1;
     }
 
-    private void moveToNextInnerInputStream()
+    @Override
+    public int available() throws IOException
+    {
+        return currentInputStream != null ? currentInputStream.available() : 0;
+    }
+
+    /**
+     * Moves through the header, each inner stream with separators between them,
+     * and the footer. The current stream is null once the footer is finished.
+     */
+    private void moveToNextInputStream()
     {
-        currentInputStream = currentInputStreamIterator.next();
-        if(currentInputStreamIterator.hasNext())
-            currentInputStream = new SequenceInputStream(currentInputStream, IOUtils.toInputStream(","));
+        if(nextInnerInputStream != null)
+        {
+            currentInputStream = nextInnerInputStream;
+            nextInnerInputStream = null;
+        }
+        else if(innerInputStreamIterator.hasNext())
+        {
+            InputStream innerInputStream = innerInputStreamIterator.next();
+            if(hasStartedInnerInputStreams)
+            {
+                currentInputStream = new ByteArrayInputStream(SEPARATOR);
+                nextInnerInputStream = innerInputStream;
+            }
+            else
+            {
+                currentInputStream = innerInputStream;
+                hasStartedInnerInputStreams = true;
+            }
+        }
+        else if(!hasStartedFooter)
+        {
+            currentInputStream = new ByteArrayInputStream(FOOTER);
+            hasStartedFooter = true;
+        }
+        else
+        {
+            currentInputStream = null;
+        }
     }
 }
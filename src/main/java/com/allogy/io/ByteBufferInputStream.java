@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream which reads the remaining bytes of a ByteBuffer. The stream
+ * advances the position of the buffer it is given.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	private final ByteBuffer byteBuffer;
+
+	public ByteBufferInputStream(ByteBuffer byteBuffer)
+	{
+		if(byteBuffer == null)
+			throw new IllegalArgumentException("byteBuffer");
+
+		this.byteBuffer = byteBuffer;
+	}
+
+	@Override
+	public int read()
+	{
+		if(!byteBuffer.hasRemaining())
+			return -1;
+		return byteBuffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length)
+	{
+		if(length == 0)
+			return 0;
+		if(!byteBuffer.hasRemaining())
+			return -1;
+
+		int count = Math.min(length, byteBuffer.remaining());
+		byteBuffer.get(buffer, offset, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long count)
+	{
+		if(count <= 0)
+			return 0;
+
+		int skipped = (int)Math.min(count, byteBuffer.remaining());
+		byteBuffer.position(byteBuffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available()
+	{
+		return byteBuffer.remaining();
+	}
+}
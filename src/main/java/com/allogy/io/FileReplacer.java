@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Replaces small files, such as checkpoints and journals, so that an interruption
+ * leaves either the old or the new content but never a partial file.
+ */
+public class FileReplacer
+{
+	private FileReplacer()
+	{}
+
+	/**
+	 * Writes content to a temporary file beside the target, syncs it to disk and
+	 * renames it over the target.
+	 * @param file the file to replace
+	 * @param content the new content of the file
+	 * @throws IOException the file could not be written or replaced
+	 */
+	public static void replace(File file, byte[] content) throws IOException
+	{
+		File temporaryFile = new File(file.getPath() + ".tmp");
+
+		FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+		try
+		{
+			outputStream.write(content);
+			outputStream.getFD().sync();
+		}
+		finally
+		{
+			outputStream.close();
+		}
+
+		if(!temporaryFile.renameTo(file))
+		{
+			if(!file.delete() || !temporaryFile.renameTo(file))
+				throw new IOException("Unable to replace " + file);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+import com.google.common.base.Charsets;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A zip archive read through memory-mapped regions of its file. The entries are found
+ * from the central directory, and an entry's data is read directly from a slice of the
+ * mapped file, so reading a stored entry copies nothing but the bytes read and reading a
+ * deflated entry copies only into the Inflater. Streams from one archive are independent
+ * and may be read on different threads at once.
+ * Entry CRCs are not checked; corruption of a deflated entry is found by the Inflater.
+ * Mapped regions are released by the garbage collector rather than by close.
+ */
+public class MappedZipArchive implements Closeable
+{
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int MAXIMUM_COMMENT_SIZE = 0xffff;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+	private static final int INFLATER_BUFFER_SIZE = 8192;
+
+	/**
+	 * Regions begin every REGION_STEP bytes and are twice as long, less one byte, so
+	 * that any span no longer than REGION_STEP lies wholly within one region.
+	 */
+	private static final long REGION_STEP = 1L << 30;
+
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel fileChannel;
+	private final long fileSize;
+	private final MappedByteBuffer[] regions;
+	private final List<MappedZipEntry> entries;
+	private final Map<String, MappedZipEntry> entriesByName;
+
+	/**
+	 * Opens and maps a zip archive.
+	 * @param file the archive
+	 * @throws IOException the file could not be read or is not a zip archive
+	 */
+	public MappedZipArchive(File file) throws IOException
+	{
+		randomAccessFile = new RandomAccessFile(file, "r");
+		try
+		{
+			fileChannel = randomAccessFile.getChannel();
+			fileSize = fileChannel.size();
+			regions = new MappedByteBuffer[(int)(fileSize / REGION_STEP) + 1];
+			entries = readCentralDirectory();
+		}
+		catch (IOException e)
+		{
+			randomAccessFile.close();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			randomAccessFile.close();
+			throw e;
+		}
+
+		entriesByName = new HashMap<String, MappedZipEntry>();
+		for(MappedZipEntry entry : entries)
+			entriesByName.put(entry.getName(), entry);
+	}
+
+	/**
+	 * @return the entries in the order of the central directory, which is the order
+	 *         in which they were written
+	 */
+	public List<MappedZipEntry> getEntries()
+	{
+		return entries;
+	}
+
+	/**
+	 * @return the entry with a name, or null if the archive has no such entry
+	 */
+	public MappedZipEntry getEntry(String name)
+	{
+		return entriesByName.get(name);
+	}
+
+	/**
+	 * Opens the uncompressed data of an entry.
+	 * @param entry an entry of this archive
+	 * @throws IOException the entry could not be read
+	 */
+	public InputStream getInputStream(MappedZipEntry entry) throws IOException
+	{
+		ByteBuffer localHeader = slice(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+		if(localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException("Invalid local header for " + entry.getName());
+
+		long dataOffset = entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE +
+				getUnsignedShort(localHeader, 26) + getUnsignedShort(localHeader, 28);
+		ByteBuffer data = slice(dataOffset, entry.getCompressedSize());
+
+		switch(entry.getMethod())
+		{
+			case ZipEntry.STORED:
+				return new ByteBufferInputStream(data);
+			case ZipEntry.DEFLATED:
+				return new MappedInflaterInputStream(new ByteBufferInputStream(data));
+			default:
+				throw new ZipException("Unsupported compression method " + entry.getMethod() + " for " + entry.getName());
+		}
+	}
+
+	public void close() throws IOException
+	{
+		randomAccessFile.close();
+	}
+
+	private List<MappedZipEntry> readCentralDirectory() throws IOException
+	{
+		int tailSize = (int)Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAXIMUM_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+		long tailOffset = fileSize - tailSize;
+		ByteBuffer tail = slice(tailOffset, tailSize);
+
+		int endPosition = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+		while(endPosition >= 0 && tail.getInt(endPosition) != END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+			endPosition--;
+		if(endPosition < 0)
+			throw new ZipException("No end of central directory record");
+
+		long entryCount = getUnsignedShort(tail, endPosition + 10);
+		long centralDirectorySize = getUnsignedInt(tail, endPosition + 12);
+		long centralDirectoryOffset = getUnsignedInt(tail, endPosition + 16);
+
+		int locatorPosition = endPosition - ZIP64_LOCATOR_SIZE;
+		if(locatorPosition >= 0 && tail.getInt(locatorPosition) == ZIP64_LOCATOR_SIGNATURE)
+		{
+			ByteBuffer zip64End = slice(tail.getLong(locatorPosition + 8), 56);
+			if(zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+				throw new ZipException("Invalid zip64 end of central directory record");
+
+			entryCount = zip64End.getLong(32);
+			centralDirectorySize = zip64End.getLong(40);
+			centralDirectoryOffset = zip64End.getLong(48);
+		}
+
+		if(entryCount > Integer.MAX_VALUE)
+			throw new ZipException("Too many entries: " + entryCount);
+
+		ByteBuffer centralDirectory = slice(centralDirectoryOffset, centralDirectorySize);
+		if(entryCount > centralDirectory.limit() / CENTRAL_DIRECTORY_HEADER_SIZE)
+			throw new ZipException("Invalid central directory");
+
+		List<MappedZipEntry> entries = new ArrayList<MappedZipEntry>((int)entryCount);
+		int position = 0;
+		for(long i = 0; i < entryCount; i++)
+		{
+			if(position + CENTRAL_DIRECTORY_HEADER_SIZE > centralDirectory.limit())
+				throw new ZipException("Invalid central directory");
+			if(centralDirectory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE)
+				throw new ZipException("Invalid central directory header");
+
+			int method = getUnsignedShort(centralDirectory, position + 10);
+			long compressedSize = getUnsignedInt(centralDirectory, position + 20);
+			long size = getUnsignedInt(centralDirectory, position + 24);
+			int nameLength = getUnsignedShort(centralDirectory, position + 28);
+			int extraLength = getUnsignedShort(centralDirectory, position + 30);
+			int commentLength = getUnsignedShort(centralDirectory, position + 32);
+			long localHeaderOffset = getUnsignedInt(centralDirectory, position + 42);
+			if(position + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength > centralDirectory.limit())
+				throw new ZipException("Invalid central directory");
+
+			int namePosition = position + CENTRAL_DIRECTORY_HEADER_SIZE;
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = centralDirectory.duplicate();
+			nameBuffer.position(namePosition);
+			nameBuffer.get(nameBytes);
+			String name = new String(nameBytes, Charsets.UTF_8);
+
+			int extraPosition = namePosition + nameLength;
+			int extraEnd = extraPosition + extraLength;
+			while(extraPosition + 4 <= extraEnd)
+			{
+				int fieldId = getUnsignedShort(centralDirectory, extraPosition);
+				int fieldLength = getUnsignedShort(centralDirectory, extraPosition + 2);
+				if(fieldId == ZIP64_EXTRA_FIELD_ID)
+				{
+					int valuePosition = extraPosition + 4;
+					if(valuePosition + fieldLength > extraEnd)
+						throw new ZipException("Invalid zip64 extra field for " + name);
+					int valueEnd = valuePosition + fieldLength;
+					if(size == ZIP64_MAGIC && valuePosition + 8 <= valueEnd)
+					{
+						size = centralDirectory.getLong(valuePosition);
+						valuePosition += 8;
+					}
+					if(compressedSize == ZIP64_MAGIC && valuePosition + 8 <= valueEnd)
+					{
+						compressedSize = centralDirectory.getLong(valuePosition);
+						valuePosition += 8;
+					}
+					if(localHeaderOffset == ZIP64_MAGIC && valuePosition + 8 <= valueEnd)
+						localHeaderOffset = centralDirectory.getLong(valuePosition);
+				}
+				extraPosition += 4 + fieldLength;
+			}
+
+			entries.add(new MappedZipEntry(name, method, compressedSize, size, localHeaderOffset));
+			position = extraEnd + commentLength;
+		}
+
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Gets a little-endian slice of the file. A span which fits within a region is
+	 * sliced from the region; a longer span is mapped by itself.
+	 */
+	private ByteBuffer slice(long offset, long length) throws IOException
+	{
+		if(offset < 0 || length < 0 || offset + length > fileSize)
+			throw new EOFException("Zip archive is truncated");
+		if(length > Integer.MAX_VALUE)
+			throw new ZipException("Entry is too large to map: " + length + " bytes");
+
+		ByteBuffer byteBuffer;
+		int regionIndex = (int)(offset / REGION_STEP);
+		if(length <= REGION_STEP)
+		{
+			int position = (int)(offset - regionIndex * REGION_STEP);
+			byteBuffer = getRegion(regionIndex).duplicate();
+			byteBuffer.limit(position + (int)length);
+			byteBuffer.position(position);
+			byteBuffer = byteBuffer.slice();
+		}
+		else
+		{
+			byteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		}
+
+		return byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private synchronized MappedByteBuffer getRegion(int regionIndex) throws IOException
+	{
+		if(regions[regionIndex] == null)
+		{
+			long regionOffset = regionIndex * REGION_STEP;
+			long regionLength = Math.min(fileSize - regionOffset, 2 * REGION_STEP - 1);
+			regions[regionIndex] = fileChannel.map(FileChannel.MapMode.READ_ONLY, regionOffset, regionLength);
+		}
+		return regions[regionIndex];
+	}
+
+	private static int getUnsignedShort(ByteBuffer byteBuffer, int position)
+	{
+		return byteBuffer.getShort(position) & 0xffff;
+	}
+
+	private static long getUnsignedInt(ByteBuffer byteBuffer, int position)
+	{
+		return byteBuffer.getInt(position) & ZIP64_MAGIC;
+	}
+
+	/**
+	 * Inflates raw deflate data, supplying the extra byte which the Inflater may need
+	 * at the end of the input, and releases the Inflater when closed.
+	 */
+	private static class MappedInflaterInputStream extends InflaterInputStream
+	{
+		private boolean endOfInput;
+
+		MappedInflaterInputStream(InputStream inputStream)
+		{
+			super(inputStream, new Inflater(true), INFLATER_BUFFER_SIZE);
+		}
+
+		@Override
+		protected void fill() throws IOException
+		{
+			if(endOfInput)
+				throw new EOFException("Unexpected end of deflated entry");
+
+			len = in.read(buf, 0, buf.length);
+			if(len == -1)
+			{
+				buf[0] = 0;
+				len = 1;
+				endOfInput = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			super.close();
+			inf.end();
+		}
+	}
+}
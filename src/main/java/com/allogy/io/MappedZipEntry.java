@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+/**
+ * An entry of a MappedZipArchive as described by the archive's central directory.
+ */
+public class MappedZipEntry
+{
+	private final String name;
+	private final int method;
+	private final long compressedSize;
+	private final long size;
+	private final long localHeaderOffset;
+
+	MappedZipEntry(String name, int method, long compressedSize, long size, long localHeaderOffset)
+	{
+		this.name = name;
+		this.method = method;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.localHeaderOffset = localHeaderOffset;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the compression method, which is ZipEntry.STORED or ZipEntry.DEFLATED
+	 */
+	public int getMethod()
+	{
+		return method;
+	}
+
+	public long getCompressedSize()
+	{
+		return compressedSize;
+	}
+
+	public long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the offset in the archive of the entry's local file header
+	 */
+	public long getLocalHeaderOffset()
+	{
+		return localHeaderOffset;
+	}
+}
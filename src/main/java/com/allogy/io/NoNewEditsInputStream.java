@@ -16,28 +16,69 @@
 
 package com.allogy.io;
 
+import com.google.common.base.Charsets;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 
 public class NoNewEditsInputStream extends InputStream
 {
+    private static final byte[] FOOTER = ", \"new_edits\": false".getBytes(Charsets.US_ASCII);
+
     private final InputStream innerInputStream;
-    private final StringReader footerReader;
+    private boolean innerInputStreamFinished;
+    private int footerPosition;
 
     public NoNewEditsInputStream(InputStream innerInputStream)
     {
         this.innerInputStream = innerInputStream;
-        footerReader = new StringReader(", \"new_edits\": false");
     }
 
     @Override
     public int read() throws IOException
     {
-        int innerValue = innerInputStream.read();
-        if(innerValue != -1)
-            return innerValue;
+        if(!innerInputStreamFinished)
+        {
+            int innerValue = innerInputStream.read();
+            if(innerValue != -1)
+                return innerValue;
+            innerInputStreamFinished = true;
+        }
+
+        return footerPosition < FOOTER.length ? FOOTER[footerPosition++] : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        if(length == 0)
+            return 0;
 
-        return footerReader.read();
+        if(!innerInputStreamFinished)
+        {
+            int bytesRead = innerInputStream.read(buffer, offset, length);
+            if(bytesRead > 0)
+                return bytesRead;
+            if(bytesRead == -1)
+                innerInputStreamFinished = true;
+            else
+                return 0;
+        }
+
+        if(footerPosition == FOOTER.length)
+            return -1;
+
+        int bytesCopied = Math.min(length, FOOTER.length - footerPosition);
+        System.arraycopy(FOOTER, footerPosition, buffer, offset, bytesCopied);
+        footerPosition += bytesCopied;
+        return bytesCopied;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        if(!innerInputStreamFinished)
+            return innerInputStream.available();
+        return FOOTER.length - footerPosition;
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.io;
+
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Output which is produced on another thread, such as an exported document or an
+ * inflated archive entry. The output is held in memory up to a threshold and overflows
+ * into a temporary file beyond that. The size and CRC of the output are kept so that
+ * it can be written as a STORED zip entry.
+ */
+public class PendingSpool
+{
+	public interface SpoolWriter
+	{
+		void write(OutputStream outputStream) throws IOException;
+	}
+
+	private final String name;
+	private final DeferredFileOutputStream spool;
+	private final CRC32 crc32;
+	private volatile Future<Void> future;
+	private volatile boolean discarded;
+
+	private PendingSpool(String name, String prefix, int threshold)
+	{
+		this.name = name;
+		spool = new DeferredFileOutputStream(threshold, prefix, ".spool", null);
+		crc32 = new CRC32();
+	}
+
+	/**
+	 * Starts writing a spool on an ExecutorService.
+	 * @param name the name of what is being spooled; used in error messages
+	 * @param prefix the prefix of the name of the temporary file
+	 * @param threshold the number of bytes to hold in memory before using a temporary file
+	 */
+	public static PendingSpool submit(String name, String prefix, int threshold, ExecutorService executorService,
+			final SpoolWriter spoolWriter)
+	{
+		final PendingSpool pendingSpool = new PendingSpool(name, prefix, threshold);
+
+		pendingSpool.future = executorService.submit(new Callable<Void>()
+		{
+			public Void call() throws Exception
+			{
+				try
+				{
+					spoolWriter.write(new CheckedOutputStream(pendingSpool.spool, pendingSpool.crc32));
+				}
+				finally
+				{
+					pendingSpool.spool.close();
+					if(pendingSpool.discarded)
+						pendingSpool.deleteSpoolFile();
+				}
+				return null;
+			}
+		});
+
+		return pendingSpool;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the number of bytes spooled; only complete after await
+	 */
+	public long getSize()
+	{
+		return spool.getByteCount();
+	}
+
+	/**
+	 * @return the CRC-32 of the bytes spooled; only complete after await
+	 */
+	public long getCrc()
+	{
+		return crc32.getValue();
+	}
+
+	/**
+	 * Waits for the spool to be written and copies it to an OutputStream.
+	 * @throws IOException the spool could not be written or copied
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException
+	{
+		await();
+		spool.writeTo(outputStream);
+	}
+
+	/**
+	 * Waits for the spool to be written and opens it for reading.
+	 * @throws IOException the spool could not be written or opened
+	 */
+	public InputStream getInputStream() throws IOException
+	{
+		await();
+		return spool.isInMemory() ?
+				new ByteArrayInputStream(spool.getData()) :
+				new FileInputStream(spool.getFile());
+	}
+
+	/**
+	 * Waits for the spool to be written.
+	 * @throws IOException the spool could not be written
+	 */
+	public void await() throws IOException
+	{
+		try
+		{
+			future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while spooling " + name);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException("Unable to spool " + name, cause);
+		}
+	}
+
+	/**
+	 * Releases the spool. A write which is still running deletes its own
+	 * spool file once it stops writing.
+	 */
+	public void discard()
+	{
+		discarded = true;
+		future.cancel(true);
+		deleteSpoolFile();
+	}
+
+	private void deleteSpoolFile()
+	{
+		if(!spool.isInMemory() && spool.getFile() != null)
+			spool.getFile().delete();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream which counts the bytes read from an inner stream and the time
+ * spent waiting for them.
+ */
+public class TimedInputStream extends InputStream
+{
+	private InputStream inputStream;
+	private long byteCount;
+	private long elapsedNanos;
+
+	public TimedInputStream(InputStream inputStream)
+	{
+		this.inputStream = inputStream;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			int value = inputStream.read();
+			if(value != -1)
+				byteCount++;
+			return value;
+		}
+		finally
+		{
+			elapsedNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			int count = inputStream.read(buffer, offset, length);
+			if(count > 0)
+				byteCount += count;
+			return count;
+		}
+		finally
+		{
+			elapsedNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	@Override
+	public long skip(long count) throws IOException
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			long skipped = inputStream.skip(count);
+			byteCount += skipped;
+			return skipped;
+		}
+		finally
+		{
+			elapsedNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return inputStream.available();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		inputStream.close();
+	}
+
+	/**
+	 * @return the number of bytes read or skipped so far
+	 */
+	public long getByteCount()
+	{
+		return byteCount;
+	}
+
+	/**
+	 * @return the time spent in calls to the inner stream so far
+	 */
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream which counts the bytes written to an inner stream and the time
+ * spent writing them.
+ */
+public class TimedOutputStream extends OutputStream
+{
+	private OutputStream outputStream;
+	private long byteCount;
+	private long elapsedNanos;
+
+	public TimedOutputStream(OutputStream outputStream)
+	{
+		this.outputStream = outputStream;
+	}
+
+	@Override
+	public void write(int value) throws IOException
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			outputStream.write(value);
+			byteCount++;
+		}
+		finally
+		{
+			elapsedNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			outputStream.write(buffer, offset, length);
+			byteCount += length;
+		}
+		finally
+		{
+			elapsedNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		long startNanos = System.nanoTime();
+		try
+		{
+			outputStream.flush();
+		}
+		finally
+		{
+			elapsedNanos += System.nanoTime() - startNanos;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		outputStream.close();
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getByteCount()
+	{
+		return byteCount;
+	}
+
+	/**
+	 * @return the time spent in calls to the inner stream so far
+	 */
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+}
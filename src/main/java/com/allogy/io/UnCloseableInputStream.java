@@ -34,6 +34,24 @@ public class UnCloseableInputStream extends InputStream
 		return inputStream.read();
 	}
 
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		return inputStream.read(buffer, offset, length);
+	}
+
+	@Override
+	public long skip(long count) throws IOException
+	{
+		return inputStream.skip(count);
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return inputStream.available();
+	}
+
 	@Override
 	public void close()
 	{
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.mime;
+
+import org.apache.http.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+/**
+ * An OutputStream which passes everything written to it through to another stream
+ * and keeps a copy of the header block of the MIME entity being written, so that its
+ * headers can be read once it has been written.
+ */
+public class HeaderCapturingOutputStream extends FilterOutputStream
+{
+	private static final byte[] HEADER_ENDING = (MimeUtilities.CRLFEnding + MimeUtilities.CRLFEnding).getBytes();
+
+	private final ByteArrayOutputStream headerOutputStream;
+	private final int limit;
+	private int endingMatched;
+	private boolean complete;
+
+	/**
+	 * Constructs a new HeaderCapturingOutputStream.
+	 * @param outputStream the stream to which everything is written
+	 * @param limit the largest header block to keep; a larger block is not kept
+	 */
+	public HeaderCapturingOutputStream(OutputStream outputStream, int limit)
+	{
+		super(outputStream);
+
+		if(limit < HEADER_ENDING.length)
+			throw new IllegalArgumentException("limit");
+
+		this.limit = limit;
+		headerOutputStream = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		out.write(b);
+		capture(b);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException
+	{
+		out.write(buffer, offset, length);
+		for(int i = offset; i < offset + length && !complete && headerOutputStream.size() < limit; i++)
+			capture(buffer[i]);
+	}
+
+	private void capture(int b)
+	{
+		if(complete || headerOutputStream.size() >= limit)
+			return;
+
+		headerOutputStream.write(b);
+
+		if((byte)b == HEADER_ENDING[endingMatched])
+			endingMatched++;
+		else
+			endingMatched = (byte)b == HEADER_ENDING[0] ? 1 : 0;
+
+		complete = endingMatched == HEADER_ENDING.length;
+	}
+
+	/**
+	 * Reads the headers written so far.
+	 * @return the headers, or no headers if the header block has not been completely
+	 *         written or was larger than the limit
+	 * @throws IOException the header block could not be read
+	 */
+	public Iterable<Header> getHeaders() throws IOException
+	{
+		if(!complete)
+			return Collections.emptyList();
+
+		return new MimeStreamingReader(new ByteArrayInputStream(headerOutputStream.toByteArray())).getHeaders();
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.mime;
+
+/**
+ * The headers of an exported document's MIME entry, as read by MimeEnvelopeReader.
+ */
+public class MimeEnvelope
+{
+	private final String contentId;
+	private final String eTag;
+	private final String contentType;
+	private final String boundary;
+	private final long contentLength;
+	private final int headerLength;
+
+	MimeEnvelope(String contentId, String eTag, String contentType, String boundary, long contentLength, int headerLength)
+	{
+		this.contentId = contentId;
+		this.eTag = eTag;
+		this.contentType = contentType;
+		this.boundary = boundary;
+		this.contentLength = contentLength;
+		this.headerLength = headerLength;
+	}
+
+	/**
+	 * @return the Content-ID header, the document id; null if absent
+	 */
+	public String getContentId()
+	{
+		return contentId;
+	}
+
+	/**
+	 * @return the ETag header, the document revision; null if absent
+	 */
+	public String getETag()
+	{
+		return eTag;
+	}
+
+	/**
+	 * @return the Content-Type header; null if absent
+	 */
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	/**
+	 * @return the boundary parameter of the Content-Type header; null if absent
+	 */
+	public String getBoundary()
+	{
+		return boundary;
+	}
+
+	/**
+	 * @return the Content-Length header; -1 if absent
+	 */
+	public long getContentLength()
+	{
+		return contentLength;
+	}
+
+	/**
+	 * @return the number of bytes of the header block, including the blank line ending it
+	 */
+	public int getHeaderLength()
+	{
+		return headerLength;
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.mime;
+
+import com.google.common.base.Charsets;
+import org.apache.http.HttpHeaders;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the header block of a MIME entry, as MimeEnvelopeWriter and
+ * MimeGeneratingInputStream write them, into a MimeEnvelope. Unlike MimeStreamingReader
+ * it keeps only the headers an exported document has, scanning the block once from a
+ * buffer which is kept between entries. The block is read one byte at a time so that
+ * the stream is left at the first byte of the body. A reader is not thread safe;
+ * currentThreadReader gives each thread its own.
+ */
+public class MimeEnvelopeReader
+{
+	public static final int DEFAULT_MAXIMUM_HEADER_LENGTH = 64 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+	private static final String CONTENT_ID = "Content-ID";
+	private static final String BOUNDARY_PARAMETER = "boundary";
+
+	private static final ThreadLocal<MimeEnvelopeReader> THREAD_READERS = new ThreadLocal<MimeEnvelopeReader>()
+	{
+		@Override
+		protected MimeEnvelopeReader initialValue()
+		{
+			return new MimeEnvelopeReader();
+		}
+	};
+
+	private final int maximumHeaderLength;
+	private byte[] buffer;
+
+	public MimeEnvelopeReader()
+	{
+		this(DEFAULT_MAXIMUM_HEADER_LENGTH);
+	}
+
+	/**
+	 * Constructs a new MimeEnvelopeReader.
+	 * @param maximumHeaderLength the largest header block to read before failing
+	 */
+	public MimeEnvelopeReader(int maximumHeaderLength)
+	{
+		if(maximumHeaderLength < 2)
+			throw new IllegalArgumentException("maximumHeaderLength");
+
+		this.maximumHeaderLength = maximumHeaderLength;
+		buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maximumHeaderLength)];
+	}
+
+	/**
+	 * @return the reader of the current thread, which is reused by every call on that thread
+	 */
+	public static MimeEnvelopeReader currentThreadReader()
+	{
+		return THREAD_READERS.get();
+	}
+
+	/**
+	 * Reads a header block, leaving the stream at the first byte of the body.
+	 * @param inputStream the stream positioned at the start of a MIME entry; it is not closed
+	 * @return the headers of the entry
+	 * @throws IOException the stream ended or the block exceeded the maximum length
+	 */
+	public MimeEnvelope read(InputStream inputStream) throws IOException
+	{
+		int headerLength = readHeaderBlock(inputStream);
+
+		String contentId = null;
+		String eTag = null;
+		String contentType = null;
+		long contentLength = -1;
+
+		int lineStart = 0;
+		while(true)
+		{
+			int lineEnd = indexOfLineEnd(lineStart, headerLength);
+			if(lineEnd == lineStart)
+				break;
+
+			int colon = indexOf(':', lineStart, lineEnd);
+			if(colon != -1)
+			{
+				int nameEnd = trimEnd(lineStart, colon);
+				int valueStart = trimStart(colon + 1, lineEnd);
+				int valueEnd = trimEnd(valueStart, lineEnd);
+
+				if(nameEquals(lineStart, nameEnd, CONTENT_ID))
+					contentId = decode(valueStart, valueEnd);
+				else if(nameEquals(lineStart, nameEnd, HttpHeaders.ETAG))
+					eTag = decode(valueStart, valueEnd);
+				else if(nameEquals(lineStart, nameEnd, HttpHeaders.CONTENT_TYPE))
+					contentType = decode(valueStart, valueEnd);
+				else if(nameEquals(lineStart, nameEnd, HttpHeaders.CONTENT_LENGTH))
+					contentLength = parseLong(valueStart, valueEnd);
+			}
+
+			lineStart = lineEnd + 2;
+		}
+
+		return new MimeEnvelope(contentId, eTag, contentType, getBoundary(contentType), contentLength, headerLength);
+	}
+
+	/**
+	 * Reads up to and including the blank line ending the header block.
+	 * @return the length of the block
+	 */
+	private int readHeaderBlock(InputStream inputStream) throws IOException
+	{
+		int length = 0;
+		while(true)
+		{
+			int value = inputStream.read();
+			if(value == -1)
+				throw new EOFException("The stream ended before the end of the MIME headers");
+
+			if(length == buffer.length)
+			{
+				if(length == maximumHeaderLength)
+					throw new IOException("The MIME headers are longer than " + maximumHeaderLength + " bytes");
+				buffer = Arrays.copyOf(buffer, Math.min(2 * buffer.length, maximumHeaderLength));
+			}
+			buffer[length++] = (byte)value;
+
+			if(value == '\n' && length == 1)
+				throw new IOException("The MIME headers start with a line feed without a carriage return");
+			if(value == '\n' && buffer[length - 2] == '\r' && (length == 2 || (length >= 4 && buffer[length - 3] == '\n' && buffer[length - 4] == '\r')))
+				return length;
+		}
+	}
+
+	/**
+	 * Finds the parameter named boundary of a Content-Type such as
+	 * multipart/related; boundary="abc", removing any quotes.
+	 */
+	static String getBoundary(String contentType)
+	{
+		if(contentType == null)
+			return null;
+
+		int parameterStart = contentType.indexOf(';');
+		while(parameterStart != -1)
+		{
+			parameterStart++;
+			int equals = contentType.indexOf('=', parameterStart);
+			if(equals == -1)
+				return null;
+
+			boolean quoted = false;
+			int valueStart = equals + 1;
+			while(valueStart < contentType.length() && contentType.charAt(valueStart) == ' ')
+				valueStart++;
+			int valueEnd = valueStart;
+			while(valueEnd < contentType.length() && (quoted || contentType.charAt(valueEnd) != ';'))
+			{
+				if(contentType.charAt(valueEnd) == '"')
+					quoted = !quoted;
+				valueEnd++;
+			}
+
+			if(BOUNDARY_PARAMETER.equalsIgnoreCase(contentType.substring(parameterStart, equals).trim()))
+			{
+				String value = contentType.substring(valueStart, valueEnd).trim();
+				if(value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+					value = value.substring(1, value.length() - 1);
+				return value;
+			}
+
+			parameterStart = valueEnd < contentType.length() ? valueEnd : -1;
+		}
+		return null;
+	}
+
+	private int indexOfLineEnd(int start, int end)
+	{
+		for(int i = start; i < end - 1; i++)
+		{
+			if(buffer[i] == '\r' && buffer[i + 1] == '\n')
+				return i;
+		}
+		return end;
+	}
+
+	private int indexOf(char c, int start, int end)
+	{
+		for(int i = start; i < end; i++)
+		{
+			if(buffer[i] == c)
+				return i;
+		}
+		return -1;
+	}
+
+	private int trimStart(int start, int end)
+	{
+		while(start < end && (buffer[start] == ' ' || buffer[start] == '\t'))
+			start++;
+		return start;
+	}
+
+	private int trimEnd(int start, int end)
+	{
+		while(end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t'))
+			end--;
+		return end;
+	}
+
+	/**
+	 * Compares a header name in the buffer with an ASCII name, ignoring case.
+	 */
+	private boolean nameEquals(int start, int end, String name)
+	{
+		if(end - start != name.length())
+			return false;
+
+		for(int i = 0; i < name.length(); i++)
+		{
+			int c = buffer[start + i];
+			int n = name.charAt(i);
+			if(c != n && Character.toLowerCase(c) != Character.toLowerCase(n))
+				return false;
+		}
+		return true;
+	}
+
+	private String decode(int start, int end)
+	{
+		return new String(buffer, start, end - start, Charsets.UTF_8);
+	}
+
+	private long parseLong(int start, int end) throws IOException
+	{
+		if(start == end)
+			throw new IOException("Empty Content-Length header");
+
+		long value = 0;
+		for(int i = start; i < end; i++)
+		{
+			int digit = buffer[i] - '0';
+			if(digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10)
+				throw new IOException("Invalid Content-Length header: " + decode(start, end));
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+}
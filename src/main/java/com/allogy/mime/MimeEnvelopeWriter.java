@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.mime;
+
+import com.google.common.base.Charsets;
+import org.apache.http.Header;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes MIME entries, a block of headers followed by a body, in the form
+ * MimeGeneratingInputStream produces them. Headers are encoded as UTF-8 into a
+ * buffer which is kept between entries, and the header block is written with one
+ * write before the body is copied through a buffer which is also kept. A writer is
+ * not thread safe; currentThreadWriter gives each thread its own.
+ * Call startEntry before adding the headers of each entry, so that headers left by
+ * an entry which failed before it was written are not written with the next one.
+ */
+public class MimeEnvelopeWriter
+{
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private static final ThreadLocal<MimeEnvelopeWriter> THREAD_WRITERS = new ThreadLocal<MimeEnvelopeWriter>()
+	{
+		@Override
+		protected MimeEnvelopeWriter initialValue()
+		{
+			return new MimeEnvelopeWriter();
+		}
+	};
+
+	private static final byte[] HEADER_SEPARATOR = { ':', ' ' };
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final byte[] copyBuffer;
+	private byte[] headerBuffer;
+	private int headerLength;
+
+	public MimeEnvelopeWriter()
+	{
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a new MimeEnvelopeWriter.
+	 * @param bufferSize the initial size of the header buffer and the size of the body copy buffer
+	 */
+	public MimeEnvelopeWriter(int bufferSize)
+	{
+		if(bufferSize < 1)
+			throw new IllegalArgumentException("bufferSize");
+
+		copyBuffer = new byte[bufferSize];
+		headerBuffer = new byte[bufferSize];
+	}
+
+	/**
+	 * @return the writer of the current thread, which is reused by every call on that thread
+	 */
+	public static MimeEnvelopeWriter currentThreadWriter()
+	{
+		return THREAD_WRITERS.get();
+	}
+
+	/**
+	 * Begins a new entry, discarding any headers added since the last entry was written.
+	 * @return this writer
+	 */
+	public MimeEnvelopeWriter startEntry()
+	{
+		reset();
+		return this;
+	}
+
+	/**
+	 * Adds a header to the next entry.
+	 * @param name the header name
+	 * @param value the header value; null is written as an empty value
+	 */
+	public void addHeader(String name, String value)
+	{
+		appendText(name);
+		append(HEADER_SEPARATOR);
+		if(value != null)
+			appendText(value);
+		append(CRLF);
+	}
+
+	public void addHeaders(Iterable<Header> headers)
+	{
+		for(Header header : headers)
+			addHeader(header.getName(), header.getValue());
+	}
+
+	/**
+	 * Writes the headers added since the last entry, the blank line ending them and a body.
+	 * @param outputStream the stream to write to; it is not closed
+	 * @param bodyInputStream the body, read to its end but not closed
+	 * @return the number of bytes written
+	 */
+	public long writeTo(OutputStream outputStream, InputStream bodyInputStream) throws IOException
+	{
+		long byteCount = writeHeaders(outputStream);
+
+		int readCount;
+		while ((readCount = bodyInputStream.read(copyBuffer)) != -1)
+		{
+			outputStream.write(copyBuffer, 0, readCount);
+			byteCount += readCount;
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Writes the headers added since the last entry, the blank line ending them and a body.
+	 * @return the number of bytes written
+	 */
+	public long writeTo(OutputStream outputStream, byte[] body, int offset, int length) throws IOException
+	{
+		long byteCount = writeHeaders(outputStream);
+		outputStream.write(body, offset, length);
+		return byteCount + length;
+	}
+
+	/**
+	 * Discards the headers added since the last entry.
+	 */
+	public void reset()
+	{
+		headerLength = 0;
+	}
+
+	private int writeHeaders(OutputStream outputStream) throws IOException
+	{
+		append(CRLF);
+		int byteCount = headerLength;
+		try
+		{
+			outputStream.write(headerBuffer, 0, byteCount);
+		}
+		finally
+		{
+			reset();
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Appends text as UTF-8, copying ASCII characters directly.
+	 */
+	private void appendText(String text)
+	{
+		int length = text.length();
+		ensureCapacity(length);
+		for(int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+			if(c >= 0x80)
+			{
+				append(text.substring(i).getBytes(Charsets.UTF_8));
+				return;
+			}
+			headerBuffer[headerLength++] = (byte)c;
+		}
+	}
+
+	private void append(byte[] bytes)
+	{
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, headerBuffer, headerLength, bytes.length);
+		headerLength += bytes.length;
+	}
+
+	private void ensureCapacity(int additionalLength)
+	{
+		if(headerLength + additionalLength > headerBuffer.length)
+			headerBuffer = Arrays.copyOf(headerBuffer, Math.max(2 * headerBuffer.length, headerLength + additionalLength));
+	}
+}
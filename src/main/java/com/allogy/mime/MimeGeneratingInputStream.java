@@ -16,6 +16,7 @@
 
 package com.allogy.mime;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
 import org.apache.commons.collections.iterators.IteratorEnumeration;
@@ -37,14 +38,14 @@ public class MimeGeneratingInputStream extends InputStream
 		{
 			public InputStream apply(@Nullable Header s)
 			{
-				InputStream headerStream = new ByteArrayInputStream(s.toString().getBytes());
-				return new SequenceInputStream(headerStream, new ByteArrayInputStream(MimeUtilities.CRLFEnding.getBytes()));
+				InputStream headerStream = new ByteArrayInputStream(s.toString().getBytes(Charsets.UTF_8));
+				return new SequenceInputStream(headerStream, new ByteArrayInputStream(MimeUtilities.CRLFEnding.getBytes(Charsets.UTF_8)));
 			}
 		});
 
 		InputStream givenHeadersInputStream = new SequenceInputStream(new IteratorEnumeration(inputStreamHeaders.iterator()));
 
-		InputStream headerInputStream = new SequenceInputStream(givenHeadersInputStream, new ByteArrayInputStream(MimeUtilities.CRLFEnding.getBytes()));
+		InputStream headerInputStream = new SequenceInputStream(givenHeadersInputStream, new ByteArrayInputStream(MimeUtilities.CRLFEnding.getBytes(Charsets.UTF_8)));
 
 		innerInputStream = new SequenceInputStream(headerInputStream, bodyInputStream);
 	}
@@ -54,4 +55,16 @@ public class MimeGeneratingInputStream extends InputStream
 	{
 		return innerInputStream.read();
 	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		return innerInputStream.read(buffer, offset, length);
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return innerInputStream.available();
+	}
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch;
+
+import com.allogy.couch.metrics.ConnectionMetricsListener;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class MeteredClientConnectionManagerTest
+{
+	private ConnectionMetricsListener connectionMetricsListener;
+	private HttpRoute route;
+	private MeteredClientConnectionManager objectUnderTest;
+
+	@Before
+	public void setUp()
+	{
+		connectionMetricsListener = mock(ConnectionMetricsListener.class);
+		route = new HttpRoute(new HttpHost("localhost", 5984));
+
+		objectUnderTest = new MeteredClientConnectionManager(SchemeRegistryFactory.createDefault(), connectionMetricsListener);
+		objectUnderTest.setMaxTotal(2);
+		objectUnderTest.setDefaultMaxPerRoute(2);
+	}
+
+	@After
+	public void tearDown()
+	{
+		objectUnderTest.shutdown();
+	}
+
+	private ManagedClientConnection lease() throws Exception
+	{
+		return objectUnderTest.requestConnection(route, null).getConnection(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void getConnection_should_report_a_lease_from_a_pool_with_free_connections() throws Exception
+	{
+		lease();
+
+		verify(connectionMetricsListener).connectionLeased(anyLong(), eq(false));
+		assertThat(objectUnderTest.getLeasedConnections(), is(1));
+	}
+
+	@Test
+	public void getConnection_should_report_a_lease_requested_from_an_exhausted_pool() throws Exception
+	{
+		ManagedClientConnection connection = lease();
+		lease();
+
+		ClientConnectionRequest connectionRequest = objectUnderTest.requestConnection(route, null);
+		connection.releaseConnection();
+		connectionRequest.getConnection(1, TimeUnit.SECONDS);
+
+		verify(connectionMetricsListener, times(2)).connectionLeased(anyLong(), eq(false));
+		verify(connectionMetricsListener).connectionLeased(anyLong(), eq(true));
+	}
+
+	@Test
+	public void releaseConnection_should_return_the_connection_to_the_pool() throws Exception
+	{
+		ManagedClientConnection connection = lease();
+
+		connection.releaseConnection();
+		connection.releaseConnection();
+
+		assertThat(objectUnderTest.getLeasedConnections(), is(0));
+	}
+
+	@Test
+	public void requestConnection_should_not_report_a_lease_until_the_connection_is_obtained()
+	{
+		objectUnderTest.requestConnection(route, null);
+
+		verify(connectionMetricsListener, never()).connectionLeased(anyLong(), anyBoolean());
+	}
+}
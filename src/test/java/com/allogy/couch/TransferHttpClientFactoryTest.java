@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch;
+
+import com.allogy.couch.metrics.ConnectionMetricsListener;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.ArrayList;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class TransferHttpClientFactoryTest
+{
+	private HttpServer httpServer;
+	private Set<Integer> clientPorts;
+	private List<String> requestPaths;
+	private ConnectionMetricsListener connectionMetricsListener;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+		requestPaths = Collections.synchronizedList(new ArrayList<String>());
+		connectionMetricsListener = mock(ConnectionMetricsListener.class);
+
+		httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		httpServer.createContext("/", new HttpHandler()
+		{
+			public void handle(HttpExchange httpExchange) throws IOException
+			{
+				clientPorts.add(httpExchange.getRemoteAddress().getPort());
+				requestPaths.add(httpExchange.getRequestURI().getPath());
+				byte[] body = "{}".getBytes("UTF-8");
+				httpExchange.getResponseHeaders().add("Content-Type", "application/json");
+				httpExchange.sendResponseHeaders(200, body.length);
+				OutputStream responseBody = httpExchange.getResponseBody();
+				responseBody.write(body);
+				responseBody.close();
+			}
+		});
+		httpServer.start();
+	}
+
+	@After
+	public void tearDown()
+	{
+		httpServer.stop(0);
+	}
+
+	private String getServerUrl()
+	{
+		return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+	}
+
+	private TransferHttpClientFactory createObjectUnderTest(String url)
+	{
+		return new TransferHttpClientFactory(url, 1, 1000, 1000, TransferHttpClientFactory.DEFAULT_KEEP_ALIVE_MILLIS, connectionMetricsListener);
+	}
+
+	private static void get(HttpClient httpClient, String uri) throws IOException
+	{
+		HttpResponse httpResponse = httpClient.get(uri);
+		try
+		{
+			assertThat(httpResponse.isSuccessful(), is(true));
+		}
+		finally
+		{
+			httpResponse.releaseConnection();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_concurrency_is_less_than_one()
+	{
+		new TransferHttpClientFactory(getServerUrl(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_the_url_is_malformed()
+	{
+		new TransferHttpClientFactory("localhost:5984:x", 1);
+	}
+
+	@Test
+	public void getMaxConnections_should_allow_a_connection_per_thread_and_spares()
+	{
+		assertThat(new TransferHttpClientFactory(getServerUrl(), 8).getMaxConnections(), is(8 + TransferHttpClientFactory.SPARE_CONNECTIONS));
+	}
+
+	@Test
+	public void createHttpClient_should_return_a_StdHttpClient_for_a_url_without_a_path()
+	{
+		HttpClient httpClient = createObjectUnderTest(getServerUrl() + "/").createHttpClient();
+
+		assertThat(httpClient, instanceOf(StdHttpClient.class));
+		httpClient.shutdown();
+	}
+
+	@Test
+	public void createHttpClient_should_add_the_path_of_the_url_to_requests() throws IOException
+	{
+		HttpClient httpClient = createObjectUnderTest(getServerUrl() + "/couch").createHttpClient();
+		try
+		{
+			get(httpClient, "/database/doc1");
+		}
+		finally
+		{
+			httpClient.shutdown();
+		}
+
+		assertThat(requestPaths.toString(), is("[/couch/database/doc1]"));
+	}
+
+	@Test
+	public void createHttpClient_should_reuse_a_kept_alive_connection() throws IOException
+	{
+		HttpClient httpClient = createObjectUnderTest(getServerUrl()).createHttpClient();
+		try
+		{
+			for(int i = 0; i < 5; i++)
+				get(httpClient, "/database/doc" + i);
+		}
+		finally
+		{
+			httpClient.shutdown();
+		}
+
+		assertThat(requestPaths.size(), is(5));
+		assertThat(clientPorts.size(), is(1));
+		verify(connectionMetricsListener, times(5)).connectionLeased(anyLong(), eq(false));
+	}
+
+	@Test
+	public void BoundedKeepAliveStrategy_should_limit_the_keep_alive_time_given_by_the_server()
+	{
+		TransferHttpClientFactory.BoundedKeepAliveStrategy keepAliveStrategy = new TransferHttpClientFactory.BoundedKeepAliveStrategy(5000);
+
+		BasicHttpResponse shortKeepAlive = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		shortKeepAlive.addHeader("Keep-Alive", "timeout=2");
+		BasicHttpResponse longKeepAlive = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		longKeepAlive.addHeader("Keep-Alive", "timeout=60");
+
+		assertThat(keepAliveStrategy.getKeepAliveDuration(shortKeepAlive, new BasicHttpContext()), is(2000L));
+		assertThat(keepAliveStrategy.getKeepAliveDuration(longKeepAlive, new BasicHttpContext()), is(5000L));
+		assertThat(keepAliveStrategy.getKeepAliveDuration(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"), new BasicHttpContext()), is(5000L));
+	}
+}
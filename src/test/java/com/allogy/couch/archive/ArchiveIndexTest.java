@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.archive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ArchiveIndexTest
+{
+	private static ArchiveIndex writeAndRead(int memoryThreshold, ArchiveIndexEntry... entries) throws IOException
+	{
+		ArchiveIndexWriter archiveIndexWriter = new ArchiveIndexWriter(memoryThreshold);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try
+		{
+			for(ArchiveIndexEntry entry : entries)
+				archiveIndexWriter.add(entry);
+			archiveIndexWriter.writeTo(outputStream);
+		}
+		finally
+		{
+			archiveIndexWriter.discard();
+		}
+
+		return ArchiveIndex.read(new ByteArrayInputStream(outputStream.toByteArray()));
+	}
+
+	private static List<String> getIds(Iterable<ArchiveIndexEntry> entries)
+	{
+		List<String> ids = new ArrayList<String>();
+		for(ArchiveIndexEntry entry : entries)
+			ids.add(entry.getId());
+		return ids;
+	}
+
+	@Test
+	public void read_should_read_every_field_written() throws IOException
+	{
+		ArchiveIndex archiveIndex = writeAndRead(ArchiveIndexWriter.DEFAULT_MEMORY_THRESHOLD,
+				new ArchiveIndexEntry("a", 0, "1-a", 10, false),
+				new ArchiveIndexEntry("b", 100, "2-b", 20, true));
+
+		assertThat(archiveIndex.size(), is(2));
+		ArchiveIndexEntry entry = archiveIndex.getEntry("b");
+		assertThat(entry.getOffset(), is(100L));
+		assertThat(entry.getRevision(), is("2-b"));
+		assertThat(entry.getSize(), is(20L));
+		assertThat(entry.hasAttachments(), is(true));
+		assertThat(archiveIndex.getEntry("c"), nullValue());
+	}
+
+	@Test
+	public void read_should_read_an_index_which_overflowed_into_a_file() throws IOException
+	{
+		ArchiveIndexEntry[] entries = new ArchiveIndexEntry[100];
+		for(int i = 0; i < entries.length; i++)
+			entries[i] = new ArchiveIndexEntry(String.format("%03d", i), i * 10, null, 10, false);
+
+		ArchiveIndex archiveIndex = writeAndRead(16, entries);
+
+		assertThat(archiveIndex.size(), is(100));
+		assertThat(archiveIndex.getEntry("099").getOffset(), is(990L));
+		assertThat(archiveIndex.getEntry("099").getRevision(), nullValue());
+	}
+
+	@Test
+	public void getEntries_should_return_an_inclusive_range_in_id_order() throws IOException
+	{
+		ArchiveIndex archiveIndex = writeAndRead(ArchiveIndexWriter.DEFAULT_MEMORY_THRESHOLD,
+				new ArchiveIndexEntry("tenant2:b", 0, "1", 1, false),
+				new ArchiveIndexEntry("tenant1:a", 0, "1", 1, false),
+				new ArchiveIndexEntry("tenant2:a", 0, "1", 1, false),
+				new ArchiveIndexEntry("tenant3:a", 0, "1", 1, false));
+
+		assertThat(getIds(archiveIndex.getEntries("tenant2:", "tenant2:\uffff")).toString(), is("[tenant2:a, tenant2:b]"));
+		assertThat(getIds(archiveIndex.getEntries(null, "tenant2:a")).toString(), is("[tenant1:a, tenant2:a]"));
+		assertThat(getIds(archiveIndex.getEntries("tenant3:a", null)).toString(), is("[tenant3:a]"));
+	}
+}
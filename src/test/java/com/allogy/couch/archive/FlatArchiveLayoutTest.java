@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.archive;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FlatArchiveLayoutTest
+{
+	@Test
+	public void getEntryName_should_join_the_database_name_and_document_id()
+	{
+		assertThat(FlatArchiveLayout.getEntryName("database", "doc1"), is("database/doc1"));
+	}
+
+	@Test
+	public void getEntryName_should_escape_slashes_in_the_database_name()
+	{
+		assertThat(FlatArchiveLayout.getEntryName("tenant/orders", "_design/orders"), is("tenant%2Forders/_design/orders"));
+	}
+
+	@Test
+	public void getDatabaseName_and_getDocumentId_should_split_at_the_first_slash()
+	{
+		String entryName = FlatArchiveLayout.getEntryName("tenant/orders", "_design/orders");
+
+		assertThat(FlatArchiveLayout.getDatabaseName(entryName), is("tenant/orders"));
+		assertThat(FlatArchiveLayout.getDocumentId(entryName), is("_design/orders"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void getDatabaseName_should_throw_for_a_name_without_a_document_id()
+	{
+		FlatArchiveLayout.getDatabaseName("database/");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void getDocumentId_should_throw_for_a_name_without_a_database_name()
+	{
+		FlatArchiveLayout.getDocumentId("doc1");
+	}
+}
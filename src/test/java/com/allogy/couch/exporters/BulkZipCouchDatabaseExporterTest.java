@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.exporters;
+
+import com.allogy.mime.MimeStreamingReader;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class BulkZipCouchDatabaseExporterTest
+{
+	private CouchDocumentExporter attachmentsCouchDocumentExporter;
+	private CouchDbConnector couchDbConnector;
+	private HttpClient httpClient;
+	private HttpResponse bulkGetResponse;
+	private ByteArrayOutputStream outputStream;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		attachmentsCouchDocumentExporter = mock(CouchDocumentExporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		httpClient = mock(HttpClient.class);
+		bulkGetResponse = mock(HttpResponse.class);
+		outputStream = new ByteArrayOutputStream();
+
+		String allDocs = "{\"total_rows\":2,\"offset\":0,\"rows\":[" +
+				"{\"id\":\"plain\",\"key\":\"plain\",\"value\":{\"rev\":\"2-b\"}}," +
+				"{\"id\":\"attached\",\"key\":\"attached\",\"value\":{\"rev\":\"1-a\"}}]}";
+		String bulkGet = "{\"results\":[" +
+				"{\"id\":\"plain\",\"docs\":[{\"ok\":{\"_id\":\"plain\",\"_rev\":\"2-b\",\"price\":1.10,\"_revisions\":{\"start\":2,\"ids\":[\"b\",\"a\"]}}}]}," +
+				"{\"id\":\"attached\",\"docs\":[{\"ok\":{\"_id\":\"attached\",\"_rev\":\"1-a\",\"_attachments\":{\"a.txt\":{\"stub\":true}}}}]}]}";
+
+		stub(couchDbConnector.path()).toReturn("/db/");
+		stub(couchDbConnector.getConnection()).toReturn(httpClient);
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(new ViewResult(new ObjectMapper().readTree(allDocs), false));
+		stub(httpClient.post(eq("/db/_bulk_get?revs=true"), anyString())).toReturn(bulkGetResponse);
+		stub(bulkGetResponse.isSuccessful()).toReturn(true);
+		stub(bulkGetResponse.getContent()).toReturn(new ByteArrayInputStream(bulkGet.getBytes("UTF-8")));
+	}
+
+	private BulkZipCouchDatabaseExporter createObjectUnderTest()
+	{
+		return new BulkZipCouchDatabaseExporter(attachmentsCouchDocumentExporter);
+	}
+
+	@Test
+	public void export_should_make_a_single_bulk_get_request_per_page() throws IOException
+	{
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		verify(httpClient, times(1)).post(anyString(), anyString());
+		verify(httpClient, never()).get(anyString(), any(Map.class));
+	}
+
+	@Test
+	public void export_should_use_the_attachments_exporter_only_for_documents_with_attachments() throws IOException
+	{
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		verify(attachmentsCouchDocumentExporter).exportDocument(eq("attached"), eq("1-a"), eq(couchDbConnector), any(OutputStream.class));
+		verify(attachmentsCouchDocumentExporter, never()).exportDocument(eq("plain"), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	@Test
+	public void export_should_write_documents_without_attachments_as_json_mime_entries() throws IOException
+	{
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		ZipEntry zipEntry = zipInputStream.getNextEntry();
+		assertThat(zipEntry.getName(), is("plain"));
+
+		MimeStreamingReader mimeReader = new MimeStreamingReader(zipInputStream);
+		Map<String, String> headers = new HashMap<String, String>();
+		for(Header header : mimeReader.getHeaders())
+			headers.put(header.getName(), header.getValue());
+		String content = IOUtils.toString(mimeReader.getContentInputStream(), "UTF-8");
+
+		assertThat(headers.get("Content-ID"), is("plain"));
+		assertThat(headers.get("ETag"), is("2-b"));
+		assertThat(headers.get("Content-Type"), is("application/json"));
+		assertThat(headers.get("Content-Length"), is(Integer.toString(content.getBytes("UTF-8").length)));
+		assertThat(content, is("{\"_id\":\"plain\",\"_rev\":\"2-b\",\"price\":1.10,\"_revisions\":{\"start\":2,\"ids\":[\"b\",\"a\"]}}"));
+
+		assertThat(zipInputStream.getNextEntry().getName(), is("attached"));
+	}
+
+	@Test
+	public void export_should_use_the_attachments_exporter_for_documents_which_bulk_get_could_not_read() throws IOException
+	{
+		String bulkGet = "{\"results\":[" +
+				"{\"id\":\"plain\",\"docs\":[{\"error\":{\"id\":\"plain\",\"rev\":\"2-b\",\"error\":\"not_found\",\"reason\":\"missing\"}}]}]}";
+		stub(bulkGetResponse.getContent()).toReturn(new ByteArrayInputStream(bulkGet.getBytes("UTF-8")));
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		verify(attachmentsCouchDocumentExporter).exportDocument(eq("plain"), eq("2-b"), eq(couchDbConnector), any(OutputStream.class));
+		verify(attachmentsCouchDocumentExporter).exportDocument(eq("attached"), eq("1-a"), eq(couchDbConnector), any(OutputStream.class));
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertThat(zipInputStream.getNextEntry().getName(), is("plain"));
+		assertThat(zipInputStream.getNextEntry().getName(), is("attached"));
+	}
+}
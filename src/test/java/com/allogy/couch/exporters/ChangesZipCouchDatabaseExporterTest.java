@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ChangesZipCouchDatabaseExporterTest
+{
+	private CouchDocumentExporter couchDocumentExporter;
+	private SequenceStore sequenceStore;
+	private CouchDbConnector couchDbConnector;
+	private HttpClient httpClient;
+	private ByteArrayOutputStream outputStream;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentExporter = mock(CouchDocumentExporter.class);
+		sequenceStore = mock(SequenceStore.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		httpClient = mock(HttpClient.class);
+		outputStream = new ByteArrayOutputStream();
+
+		stub(couchDbConnector.getDatabaseName()).toReturn("db");
+		stub(couchDbConnector.path()).toReturn("/db/");
+		stub(couchDbConnector.getConnection()).toReturn(httpClient);
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(((String) invocation.getArguments()[1]).getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	private ChangesZipCouchDatabaseExporter createObjectUnderTest()
+	{
+		return new ChangesZipCouchDatabaseExporter(couchDocumentExporter, sequenceStore, 2);
+	}
+
+	private void stubChanges(String uri, String changes) throws IOException
+	{
+		HttpResponse response = mock(HttpResponse.class);
+		stub(response.isSuccessful()).toReturn(true);
+		stub(response.getContent()).toReturn(new ByteArrayInputStream(changes.getBytes("UTF-8")));
+		stub(httpClient.get(uri)).toReturn(response);
+	}
+
+	private static String createChange(int sequence, String id, String revision, boolean deleted)
+	{
+		return "{\"seq\":" + sequence + ",\"id\":\"" + id + "\",\"changes\":[{\"rev\":\"" + revision + "\"}]" +
+				(deleted ? ",\"deleted\":true" : "") + "}";
+	}
+
+	private List<String> readEntryNames() throws IOException
+	{
+		List<String> entryNames = new ArrayList<String>();
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		ZipEntry zipEntry;
+		while((zipEntry = zipInputStream.getNextEntry()) != null)
+			entryNames.add(zipEntry.getName());
+		return entryNames;
+	}
+
+	@Test
+	public void export_should_read_changes_since_the_stored_sequence_one_page_at_a_time() throws IOException
+	{
+		stub(sequenceStore.getSequence("db")).toReturn("10");
+		stubChanges("/db/_changes?style=main_only&limit=2&since=10",
+				"{\"results\":[" + createChange(11, "a", "2-a", false) + "," + createChange(12, "b", "3-b", true) + "],\"last_seq\":12}");
+		stubChanges("/db/_changes?style=main_only&limit=2&since=12",
+				"{\"results\":[" + createChange(13, "c", "1-c", false) + "],\"last_seq\":13}");
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		InOrder inOrder = inOrder(couchDocumentExporter);
+		inOrder.verify(couchDocumentExporter).exportDocument(eq("a"), eq("2-a"), eq(couchDbConnector), any(OutputStream.class));
+		inOrder.verify(couchDocumentExporter).exportDocument(eq("b"), eq("3-b"), eq(couchDbConnector), any(OutputStream.class));
+		inOrder.verify(couchDocumentExporter).exportDocument(eq("c"), eq("1-c"), eq(couchDbConnector), any(OutputStream.class));
+		assertThat(readEntryNames().toString(), is("[a, b, c]"));
+	}
+
+	@Test
+	public void export_should_store_the_last_exported_sequence() throws IOException
+	{
+		stubChanges("/db/_changes?style=main_only&limit=2",
+				"{\"results\":[" + createChange(1, "a", "1-a", false) + "],\"last_seq\":1}");
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		verify(sequenceStore).setSequence("db", "1");
+		assertTrue(new String(outputStream.toByteArray(), "UTF-8").contains("last_seq=1"));
+	}
+
+	@Test
+	public void export_should_write_nothing_if_nothing_changed() throws IOException
+	{
+		stub(sequenceStore.getSequence("db")).toReturn("5");
+		stubChanges("/db/_changes?style=main_only&limit=2&since=5", "{\"results\":[],\"last_seq\":5}");
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertThat(outputStream.size(), is(0));
+		verify(sequenceStore, never()).setSequence(anyString(), anyString());
+	}
+
+	@Test
+	public void export_should_stop_before_a_document_already_in_the_archive() throws IOException
+	{
+		stubChanges("/db/_changes?style=main_only&limit=2",
+				"{\"results\":[" + createChange(1, "a", "1-a", false) + "," + createChange(2, "b", "1-b", false) + "],\"last_seq\":2}");
+		stubChanges("/db/_changes?style=main_only&limit=2&since=2",
+				"{\"results\":[" + createChange(3, "a", "2-a", false) + "," + createChange(4, "c", "1-c", false) + "],\"last_seq\":4}");
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertThat(readEntryNames().toString(), is("[a, b]"));
+		verify(sequenceStore).setSequence("db", "2");
+	}
+
+	@Test
+	public void export_should_not_store_the_sequence_if_a_document_fails() throws IOException
+	{
+		stubChanges("/db/_changes?style=main_only&limit=2",
+				"{\"results\":[" + createChange(1, "a", "1-a", false) + "],\"last_seq\":1}");
+		doThrow(new IOException()).when(couchDocumentExporter)
+				.exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		try
+		{
+			createObjectUnderTest().export(couchDbConnector, outputStream);
+		}
+		catch (IOException e)
+		{ }
+
+		verify(sequenceStore, never()).setSequence(anyString(), anyString());
+		assertThat(outputStream.size(), not(0));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class ContentTypeCompressionOutputStreamTest
+{
+	private static final String MULTIPART_DOCUMENT = "Content-ID: a\r\nContent-Type: multipart/related; boundary=\"xyz\"\r\n\r\n" +
+			"--xyz\r\nContent-Type: application/json\r\n\r\n{\"_id\":\"a\"}\r\n" +
+			"--xyz\r\nContent-Type: image/jpeg\r\n\r\nJPEG\r\n" +
+			"--xyz\r\nContent-Type: text/plain\r\n\r\nTEXT\r\n--xyz--";
+
+	private ZipOutputStream zipOutputStream;
+	private ByteArrayOutputStream writtenOutputStream;
+	private List<String> levelChanges;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		zipOutputStream = mock(ZipOutputStream.class);
+		writtenOutputStream = new ByteArrayOutputStream();
+		levelChanges = new ArrayList<String>();
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				writtenOutputStream.write((byte[]) invocation.getArguments()[0], (Integer) invocation.getArguments()[1],
+						(Integer) invocation.getArguments()[2]);
+				return null;
+			}
+		}).when(zipOutputStream).write(any(byte[].class), anyInt(), anyInt());
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				levelChanges.add(invocation.getArguments()[0] + "@" + writtenOutputStream.size());
+				return null;
+			}
+		}).when(zipOutputStream).setLevel(anyInt());
+	}
+
+	private static int getBodyStart(String document, String contentType)
+	{
+		String headerEnding = "Content-Type: " + contentType + "\r\n\r\n";
+		return document.indexOf(headerEnding) + headerEnding.length();
+	}
+
+	private ContentTypeCompressionOutputStream createObjectUnderTest()
+	{
+		return new ContentTypeCompressionOutputStream(zipOutputStream, ZipCompression.contentTypeAware(Deflater.BEST_COMPRESSION));
+	}
+
+	@Test
+	public void write_should_change_level_for_each_part_by_content_type() throws IOException
+	{
+		createObjectUnderTest().write(MULTIPART_DOCUMENT.getBytes("UTF-8"));
+
+		assertThat(new String(writtenOutputStream.toByteArray(), "UTF-8"), is(MULTIPART_DOCUMENT));
+		assertThat(levelChanges.toString(), is("[9@0, 0@" + getBodyStart(MULTIPART_DOCUMENT, "image/jpeg") +
+				", 9@" + getBodyStart(MULTIPART_DOCUMENT, "text/plain") + "]"));
+	}
+
+	@Test
+	public void write_should_find_parts_written_one_byte_at_a_time() throws IOException
+	{
+		ContentTypeCompressionOutputStream objectUnderTest = createObjectUnderTest();
+		for(byte b : MULTIPART_DOCUMENT.getBytes("UTF-8"))
+			objectUnderTest.write(b);
+
+		assertThat(new String(writtenOutputStream.toByteArray(), "UTF-8"), is(MULTIPART_DOCUMENT));
+		assertThat(levelChanges.toString(), is("[9@0, 0@" + getBodyStart(MULTIPART_DOCUMENT, "image/jpeg") +
+				", 9@" + getBodyStart(MULTIPART_DOCUMENT, "text/plain") + "]"));
+	}
+
+	@Test
+	public void write_should_use_the_level_of_a_single_part_document() throws IOException
+	{
+		String document = "Content-ID: a\r\nContent-Type: application/pdf\r\n\r\n%PDF";
+
+		createObjectUnderTest().write(document.getBytes("UTF-8"));
+
+		assertThat(new String(writtenOutputStream.toByteArray(), "UTF-8"), is(document));
+		assertThat(levelChanges.toString(), is("[9@0, 0@" + getBodyStart(document, "application/pdf") + "]"));
+	}
+}
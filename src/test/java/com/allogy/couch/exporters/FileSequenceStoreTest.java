@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FileSequenceStoreTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private FileSequenceStore createObjectUnderTest() throws IOException
+	{
+		return new FileSequenceStore(new File(temporaryFolder.getRoot(), "sequences.properties"));
+	}
+
+	@Test
+	public void getSequence_should_return_null_for_a_database_never_exported() throws IOException
+	{
+		assertThat(createObjectUnderTest().getSequence("db"), nullValue());
+	}
+
+	@Test
+	public void setSequence_should_be_read_by_a_new_store_on_the_same_file() throws IOException
+	{
+		createObjectUnderTest().setSequence("db", "42-g1AAAA");
+
+		assertThat(createObjectUnderTest().getSequence("db"), is("42-g1AAAA"));
+	}
+}
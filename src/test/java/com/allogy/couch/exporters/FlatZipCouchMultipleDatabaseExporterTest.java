@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.archive.FlatArchiveLayout;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class FlatZipCouchMultipleDatabaseExporterTest
+{
+	private CouchDocumentExporter couchDocumentExporter;
+	private ByteArrayOutputStream outputStream;
+	private List<CouchDbConnector> couchDbConnectors;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentExporter = mock(CouchDocumentExporter.class);
+		outputStream = new ByteArrayOutputStream();
+		couchDbConnectors = new ArrayList<CouchDbConnector>();
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				CouchDbConnector couchDbConnector = (CouchDbConnector) invocation.getArguments()[2];
+				String content = couchDbConnector.getDatabaseName() + ":" + invocation.getArguments()[0];
+				((OutputStream) invocation.getArguments()[3]).write(content.getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	private FlatZipCouchMultipleDatabaseExporter createObjectUnderTest()
+	{
+		return new FlatZipCouchMultipleDatabaseExporter(couchDocumentExporter);
+	}
+
+	private static CouchDbConnector createCouchDbConnector(String databaseName, String... ids) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"total_rows\":" + ids.length + ",\"offset\":0,\"rows\":[");
+		for(int i = 0; i < ids.length; i++)
+		{
+			if(i > 0)
+				json.append(",");
+			json.append("{\"id\":\"").append(ids[i]).append("\",\"key\":\"").append(ids[i])
+					.append("\",\"value\":{\"rev\":\"1-a\"}}");
+		}
+		json.append("]}");
+
+		CouchDbConnector couchDbConnector = mock(CouchDbConnector.class);
+		stub(couchDbConnector.getDatabaseName()).toReturn(databaseName);
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(new ViewResult(new ObjectMapper().readTree(json.toString()), false));
+		return couchDbConnector;
+	}
+
+	private List<String> readEntries() throws IOException
+	{
+		List<String> entries = new ArrayList<String>();
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		ZipEntry zipEntry;
+		while ((zipEntry = zipInputStream.getNextEntry()) != null)
+			entries.add(zipEntry.getName() + "=" + IOUtils.toString(zipInputStream, "UTF-8"));
+		return entries;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void export_should_throw_if_couchDbConnectors_is_empty() throws IOException
+	{
+		createObjectUnderTest().export(couchDbConnectors, outputStream);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void export_should_throw_if_outputStream_is_null() throws IOException
+	{
+		couchDbConnectors.add(createCouchDbConnector("first", "doc1"));
+
+		createObjectUnderTest().export(couchDbConnectors, null);
+	}
+
+	@Test
+	public void export_should_write_the_layout_entry_and_each_document_as_an_entry() throws IOException
+	{
+		couchDbConnectors.add(createCouchDbConnector("first", "doc1", "doc2"));
+		couchDbConnectors.add(createCouchDbConnector("tenant/second", "_design/views"));
+
+		createObjectUnderTest().export(couchDbConnectors, outputStream);
+
+		assertThat(readEntries().toString(), is("[" + FlatArchiveLayout.LAYOUT_ENTRY_NAME + "=" + FlatArchiveLayout.LAYOUT_NAME + ", "
+				+ "first/doc1=first:doc1, first/doc2=first:doc2, tenant%2Fsecond/_design/views=tenant/second:_design/views]"));
+	}
+
+	@Test
+	public void export_should_not_write_entries_for_empty_databases() throws IOException
+	{
+		couchDbConnectors.add(createCouchDbConnector("empty"));
+		couchDbConnectors.add(createCouchDbConnector("first", "doc1"));
+
+		createObjectUnderTest().export(couchDbConnectors, outputStream);
+
+		assertThat(readEntries().toString(), is("[" + FlatArchiveLayout.LAYOUT_ENTRY_NAME + "=" + FlatArchiveLayout.LAYOUT_NAME + ", "
+				+ "first/doc1=first:doc1]"));
+	}
+
+	@Test
+	public void export_should_write_stored_entries_when_compression_is_stored() throws IOException
+	{
+		couchDbConnectors.add(createCouchDbConnector("first", "doc1"));
+
+		new FlatZipCouchMultipleDatabaseExporter(couchDocumentExporter, 100, ZipCompression.stored()).export(couchDbConnectors, outputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		zipInputStream.getNextEntry();
+		assertThat(zipInputStream.getNextEntry().getMethod(), is(ZipEntry.STORED));
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ParallelZipCouchDatabaseExporterTest
+{
+	private CouchDocumentExporter couchDocumentExporter;
+	private CouchDbConnector couchDbConnector;
+	private ByteArrayOutputStream outputStream;
+	private long memoryBudget;
+	private ZipCompression zipCompression;
+	private List<String> ids;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentExporter = mock(CouchDocumentExporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		outputStream = new ByteArrayOutputStream();
+		memoryBudget = 1024 * 1024;
+		zipCompression = ZipCompression.defaultCompression();
+
+		ids = new ArrayList<String>();
+		for(int i = 0; i < 20; i++)
+			ids.add(String.format("doc%02d", i));
+		stubAllDocs(ids);
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				String id = (String) invocation.getArguments()[0];
+				Thread.sleep(id.hashCode() % 5);
+				((OutputStream) invocation.getArguments()[3]).write(createContent(id).getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	private void stubAllDocs(List<String> documentIds) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"total_rows\":" + documentIds.size() + ",\"offset\":0,\"rows\":[");
+		for(int i = 0; i < documentIds.size(); i++)
+		{
+			String id = documentIds.get(i);
+			if(i > 0)
+				json.append(",");
+			json.append("{\"id\":\"").append(id).append("\",\"key\":\"").append(id)
+					.append("\",\"value\":{\"rev\":\"1-a\"}}");
+		}
+		json.append("]}");
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(new ViewResult(new ObjectMapper().readTree(json.toString()), false));
+	}
+
+	private static String createContent(String id)
+	{
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < 200; i++)
+			content.append("content of ").append(id).append('\n');
+		return content.toString();
+	}
+
+	private ParallelZipCouchDatabaseExporter createObjectUnderTest()
+	{
+		return new ParallelZipCouchDatabaseExporter(couchDocumentExporter, 4, 8, memoryBudget, 100,
+				zipCompression, NullTransferMetricsListener.metricsListener());
+	}
+
+	private void assertArchiveHasAllDocumentsInOrder(int expectedMethod) throws IOException
+	{
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		for(String id : ids)
+		{
+			ZipEntry zipEntry = zipInputStream.getNextEntry();
+			assertThat(zipEntry.getName(), is(id));
+			assertThat(zipEntry.getMethod(), is(expectedMethod));
+			assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is(createContent(id)));
+		}
+		assertThat(zipInputStream.getNextEntry() == null, is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_prefetchCount_is_less_than_threads()
+	{
+		new ParallelZipCouchDatabaseExporter(couchDocumentExporter, 4, 3, memoryBudget, 100,
+				zipCompression, NullTransferMetricsListener.metricsListener());
+	}
+
+	@Test
+	public void export_should_write_deflated_documents_in_all_docs_order() throws IOException
+	{
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertArchiveHasAllDocumentsInOrder(ZipEntry.DEFLATED);
+	}
+
+	@Test
+	public void export_should_write_deflated_documents_in_all_docs_order_when_spooling_to_files() throws IOException
+	{
+		memoryBudget = 0;
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertArchiveHasAllDocumentsInOrder(ZipEntry.DEFLATED);
+	}
+
+	@Test
+	public void export_should_write_stored_documents_in_all_docs_order() throws IOException
+	{
+		zipCompression = ZipCompression.stored();
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertArchiveHasAllDocumentsInOrder(ZipEntry.STORED);
+	}
+
+	@Test
+	public void export_should_write_documents_in_all_docs_order_with_content_type_aware_compression() throws IOException
+	{
+		zipCompression = ZipCompression.contentTypeAware(6);
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertArchiveHasAllDocumentsInOrder(ZipEntry.DEFLATED);
+	}
+
+	@Test
+	public void export_should_write_an_empty_archive_for_an_empty_database() throws IOException
+	{
+		ids.clear();
+		stubAllDocs(ids);
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertArchiveHasAllDocumentsInOrder(ZipEntry.DEFLATED);
+	}
+
+	@Test(expected = IOException.class)
+	public void export_should_throw_the_IOException_of_a_failed_export() throws IOException
+	{
+		doThrow(new IOException()).when(couchDocumentExporter).exportDocument(eq("doc05"), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import com.allogy.io.MappedZipArchive;
+import com.allogy.io.MappedZipEntry;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PrecompressedZipWriterTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ByteArrayOutputStream outputStream;
+
+	@Before
+	public void setUp()
+	{
+		outputStream = new ByteArrayOutputStream();
+	}
+
+	private PrecompressedZipWriter createObjectUnderTest()
+	{
+		return new PrecompressedZipWriter(outputStream);
+	}
+
+	private static long crcOf(byte[] data)
+	{
+		CRC32 crc32 = new CRC32();
+		crc32.update(data);
+		return crc32.getValue();
+	}
+
+	private static byte[] deflate(byte[] data) throws IOException
+	{
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+		DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(deflated, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+		deflaterOutputStream.write(data);
+		deflaterOutputStream.close();
+		return deflated.toByteArray();
+	}
+
+	private void writeEntries(PrecompressedZipWriter objectUnderTest) throws IOException
+	{
+		byte[] first = "first document, first document, first document".getBytes("UTF-8");
+		byte[] firstDeflated = deflate(first);
+		OutputStream entryOutputStream = objectUnderTest.startEntry("first", ZipEntry.DEFLATED, crcOf(first), first.length, firstDeflated.length);
+		entryOutputStream.write(firstDeflated);
+		objectUnderTest.finishEntry();
+
+		byte[] second = "second \u00e9".getBytes("UTF-8");
+		entryOutputStream = objectUnderTest.startEntry("caf\u00e9", ZipEntry.STORED, crcOf(second), second.length, second.length);
+		entryOutputStream.write(second);
+		objectUnderTest.finishEntry();
+
+		objectUnderTest.finish();
+	}
+
+	@Test
+	public void entries_should_be_readable_by_ZipInputStream() throws IOException
+	{
+		PrecompressedZipWriter objectUnderTest = createObjectUnderTest();
+		writeEntries(objectUnderTest);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		ZipEntry zipEntry = zipInputStream.getNextEntry();
+		assertThat(zipEntry.getName(), is("first"));
+		assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is("first document, first document, first document"));
+		zipEntry = zipInputStream.getNextEntry();
+		assertThat(zipEntry.getName(), is("caf\u00e9"));
+		assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is("second \u00e9"));
+		assertThat(zipInputStream.getNextEntry() == null, is(true));
+		assertThat(objectUnderTest.getByteCount(), is((long)outputStream.size()));
+	}
+
+	@Test
+	public void entries_should_be_readable_through_the_central_directory() throws IOException
+	{
+		writeEntries(createObjectUnderTest());
+		File archiveFile = temporaryFolder.newFile("archive.zip");
+		FileUtils.writeByteArrayToFile(archiveFile, outputStream.toByteArray());
+
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(archiveFile);
+		try
+		{
+			assertThat(mappedZipArchive.getEntries().size(), is(2));
+			MappedZipEntry entry = mappedZipArchive.getEntry("caf\u00e9");
+			assertThat(entry.getMethod(), is(ZipEntry.STORED));
+			InputStream entryInputStream = mappedZipArchive.getInputStream(entry);
+			assertThat(IOUtils.toString(entryInputStream, "UTF-8"), is("second \u00e9"));
+			entryInputStream.close();
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	@Test
+	public void finish_should_write_an_empty_archive_with_no_entries() throws IOException
+	{
+		createObjectUnderTest().finish();
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertThat(zipInputStream.getNextEntry() == null, is(true));
+	}
+
+	@Test(expected = ZipException.class)
+	public void finishEntry_should_throw_if_the_data_written_does_not_match_the_compressed_size() throws IOException
+	{
+		PrecompressedZipWriter objectUnderTest = createObjectUnderTest();
+		OutputStream entryOutputStream = objectUnderTest.startEntry("short", ZipEntry.STORED, 0, 10, 10);
+		entryOutputStream.write(new byte[5]);
+
+		objectUnderTest.finishEntry();
+	}
+}
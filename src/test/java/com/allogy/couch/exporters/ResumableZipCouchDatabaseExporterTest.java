@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ResumableZipCouchDatabaseExporterTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private CouchDocumentExporter couchDocumentExporter;
+	private CouchDbConnector couchDbConnector;
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentExporter = mock(CouchDocumentExporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		directory = temporaryFolder.newFolder("export");
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(("content of " + invocation.getArguments()[0]).getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	private ResumableZipCouchDatabaseExporter createObjectUnderTest()
+	{
+		return new ResumableZipCouchDatabaseExporter(couchDocumentExporter, 10, 2);
+	}
+
+	private static ViewResult createViewResult(String... ids) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"total_rows\":" + ids.length + ",\"offset\":0,\"rows\":[");
+		for(int i = 0; i < ids.length; i++)
+		{
+			if(i > 0)
+				json.append(",");
+			json.append("{\"id\":\"").append(ids[i]).append("\",\"key\":\"").append(ids[i])
+					.append("\",\"value\":{\"rev\":\"1-").append(ids[i]).append("\"}}");
+		}
+		json.append("]}");
+
+		return new ViewResult(new ObjectMapper().readTree(json.toString()), false);
+	}
+
+	private static List<String> readEntryNames(File segmentFile) throws IOException
+	{
+		List<String> entryNames = new ArrayList<String>();
+		ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(segmentFile));
+		try
+		{
+			ZipEntry zipEntry;
+			while((zipEntry = zipInputStream.getNextEntry()) != null)
+				entryNames.add(zipEntry.getName());
+		}
+		finally
+		{
+			zipInputStream.close();
+		}
+		return entryNames;
+	}
+
+	private static List<String> readCentralDirectory(File segmentFile) throws IOException
+	{
+		List<String> entries = new ArrayList<String>();
+		ZipFile zipFile = new ZipFile(segmentFile);
+		try
+		{
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while(zipEntries.hasMoreElements())
+			{
+				ZipEntry zipEntry = zipEntries.nextElement();
+				InputStream entryInputStream = zipFile.getInputStream(zipEntry);
+				entries.add(zipEntry.getName() + "=" + IOUtils.toString(entryInputStream, "UTF-8"));
+				entryInputStream.close();
+			}
+		}
+		finally
+		{
+			zipFile.close();
+		}
+		return entries;
+	}
+
+	private void interruptExportAt(String id) throws IOException
+	{
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(new byte[100]);
+				throw new IOException("connection dropped");
+			}
+		}).when(couchDocumentExporter).exportDocument(eq(id), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+		try
+		{
+			createObjectUnderTest().export(couchDbConnector, directory);
+		}
+		catch (IOException e)
+		{ }
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_checkpointInterval_is_less_than_one()
+	{
+		new ResumableZipCouchDatabaseExporter(couchDocumentExporter, 10, 0);
+	}
+
+	@Test
+	public void export_should_write_one_segment_and_a_complete_checkpoint() throws IOException
+	{
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a", "b", "c"));
+
+		ExportCheckpoint checkpoint = createObjectUnderTest().export(couchDbConnector, directory);
+
+		assertThat(checkpoint.isComplete(), is(true));
+		assertThat(checkpoint.getLastKey(), is("c"));
+		assertThat(checkpoint.getEntryCount(), is(3L));
+		assertThat(checkpoint.getByteCount(), is(new File(directory, "segment-00000.zip").length()));
+
+		List<File> segmentFiles = ResumableZipCouchDatabaseExporter.getSegmentFiles(directory);
+		assertThat(segmentFiles.size(), is(1));
+		assertThat(readEntryNames(segmentFiles.get(0)).toString(), is("[a, b, c]"));
+	}
+
+	@Test
+	public void export_should_checkpoint_every_checkpointInterval_documents() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class))).thenReturn(createViewResult("a", "b", "c"));
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				throw new IOException("connection dropped");
+			}
+		}).when(couchDocumentExporter).exportDocument(eq("c"), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		try
+		{
+			createObjectUnderTest().export(couchDbConnector, directory);
+		}
+		catch (IOException e)
+		{ }
+
+		FileInputStream checkpointInputStream = new FileInputStream(new File(directory, ResumableZipCouchDatabaseExporter.CHECKPOINT_FILE_NAME));
+		ExportCheckpoint checkpoint = ExportCheckpoint.read(checkpointInputStream);
+		checkpointInputStream.close();
+
+		assertThat(checkpoint.isComplete(), is(false));
+		assertThat(checkpoint.getLastKey(), is("b"));
+		assertThat(checkpoint.getEntryCount(), is(2L));
+		assertThat(checkpoint.getSegment(), is(0));
+	}
+
+	@Test
+	public void export_should_truncate_an_interrupted_segment_to_whole_entries() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class))).thenReturn(createViewResult("a", "b", "c"));
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(new byte[100]);
+				throw new IOException("connection dropped");
+			}
+		}).when(couchDocumentExporter).exportDocument(eq("c"), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+		try
+		{
+			createObjectUnderTest().export(couchDbConnector, directory);
+		}
+		catch (IOException e)
+		{ }
+
+		reset(couchDocumentExporter);
+		when(couchDbConnector.queryView(any(ViewQuery.class))).thenReturn(createViewResult("b", "c"));
+
+		createObjectUnderTest().export(couchDbConnector, directory);
+
+		List<File> segmentFiles = ResumableZipCouchDatabaseExporter.getSegmentFiles(directory);
+		assertThat(segmentFiles.size(), is(2));
+		assertThat(readEntryNames(segmentFiles.get(0)).toString(), is("[a, b]"));
+		assertThat(readEntryNames(segmentFiles.get(1)).toString(), is("[c]"));
+	}
+
+	@Test
+	public void export_should_write_a_central_directory_for_an_interrupted_segment() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class))).thenReturn(createViewResult("a", "b", "c"));
+		interruptExportAt("c");
+
+		when(couchDbConnector.queryView(any(ViewQuery.class))).thenReturn(createViewResult("b", "c", "d"));
+		interruptExportAt("d");
+
+		reset(couchDocumentExporter);
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(("content of " + invocation.getArguments()[0]).getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+		when(couchDbConnector.queryView(any(ViewQuery.class))).thenReturn(createViewResult("b", "c", "d"));
+
+		createObjectUnderTest().export(couchDbConnector, directory);
+
+		List<File> segmentFiles = ResumableZipCouchDatabaseExporter.getSegmentFiles(directory);
+		assertThat(segmentFiles.size(), is(2));
+		assertThat(readCentralDirectory(segmentFiles.get(0)).toString(), is("[a=content of a, b=content of b]"));
+		assertThat(readCentralDirectory(segmentFiles.get(1)).toString(), is("[c=content of c, d=content of d]"));
+	}
+
+	@Test
+	public void export_should_resume_after_the_last_key_in_a_new_segment() throws IOException
+	{
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a", "b", "c"));
+		createObjectUnderTest().export(couchDbConnector, directory);
+		File firstSegmentFile = new File(directory, "segment-00000.zip");
+		long firstSegmentLength = firstSegmentFile.length();
+
+		FileOutputStream appendingOutputStream = new FileOutputStream(firstSegmentFile, true);
+		appendingOutputStream.write(new byte[] { 1, 2, 3, 4 });
+		appendingOutputStream.close();
+		FileOutputStream checkpointOutputStream = new FileOutputStream(new File(directory, ResumableZipCouchDatabaseExporter.CHECKPOINT_FILE_NAME));
+		new ExportCheckpoint("c", 3, firstSegmentLength, 0, firstSegmentLength, false).write(checkpointOutputStream);
+		checkpointOutputStream.close();
+
+		reset(couchDbConnector);
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("c", "d", "e"));
+
+		ExportCheckpoint checkpoint = createObjectUnderTest().export(couchDbConnector, directory);
+
+		ArgumentCaptor<ViewQuery> viewQueryArgumentCaptor = ArgumentCaptor.forClass(ViewQuery.class);
+		verify(couchDbConnector).queryView(viewQueryArgumentCaptor.capture());
+		assertThat((String)viewQueryArgumentCaptor.getValue().getStartKey(), is("c"));
+
+		assertThat(firstSegmentFile.length(), is(firstSegmentLength));
+		assertThat(checkpoint.isComplete(), is(true));
+		assertThat(checkpoint.getEntryCount(), is(5L));
+		assertThat(checkpoint.getSegment(), is(1));
+
+		List<File> segmentFiles = ResumableZipCouchDatabaseExporter.getSegmentFiles(directory);
+		assertThat(segmentFiles.size(), is(2));
+		assertThat(readEntryNames(segmentFiles.get(1)).toString(), is("[d, e]"));
+	}
+
+	@Test
+	public void export_should_do_nothing_if_the_checkpoint_is_complete() throws IOException
+	{
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a"));
+		createObjectUnderTest().export(couchDbConnector, directory);
+		reset(couchDbConnector);
+
+		ExportCheckpoint checkpoint = createObjectUnderTest().export(couchDbConnector, directory);
+
+		assertThat(checkpoint.isComplete(), is(true));
+		verifyZeroInteractions(couchDbConnector);
+	}
+
+	@Test
+	public void export_of_an_empty_database_should_write_no_segments() throws IOException
+	{
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult());
+
+		ExportCheckpoint checkpoint = createObjectUnderTest().export(couchDbConnector, directory);
+
+		assertThat(checkpoint.isComplete(), is(true));
+		assertThat(checkpoint.getLastKey(), nullValue());
+		assertThat(ResumableZipCouchDatabaseExporter.getSegmentFiles(directory).size(), is(0));
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.exporters;
+
+import org.junit.Test;
+
+import java.util.zip.Deflater;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ZipCompressionTest
+{
+	@Test
+	public void isCompressedContentType_should_be_true_for_compressed_media() throws Exception
+	{
+		assertThat(ZipCompression.isCompressedContentType("image/jpeg"), is(true));
+		assertThat(ZipCompression.isCompressedContentType("Application/PDF; name=report.pdf"), is(true));
+		assertThat(ZipCompression.isCompressedContentType("video/mp4"), is(true));
+		assertThat(ZipCompression.isCompressedContentType("application/vnd.openxmlformats-officedocument.wordprocessingml.document"), is(true));
+	}
+
+	@Test
+	public void isCompressedContentType_should_be_false_for_text_and_unknown_media() throws Exception
+	{
+		assertThat(ZipCompression.isCompressedContentType("application/json"), is(false));
+		assertThat(ZipCompression.isCompressedContentType("multipart/related; boundary=\"abc\""), is(false));
+		assertThat(ZipCompression.isCompressedContentType("image/svg+xml"), is(false));
+		assertThat(ZipCompression.isCompressedContentType(null), is(false));
+	}
+
+	@Test
+	public void getLevel_should_not_compress_compressed_media_when_content_type_aware() throws Exception
+	{
+		ZipCompression zipCompression = ZipCompression.contentTypeAware(Deflater.BEST_SPEED);
+
+		assertThat(zipCompression.getLevel("image/png"), is(Deflater.NO_COMPRESSION));
+		assertThat(zipCompression.getLevel("application/json"), is(Deflater.BEST_SPEED));
+	}
+
+	@Test
+	public void getLevel_should_ignore_content_type_otherwise() throws Exception
+	{
+		assertThat(ZipCompression.deflated(Deflater.BEST_SPEED).getLevel("image/png"), is(Deflater.BEST_SPEED));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void deflated_should_throw_for_an_invalid_level()
+	{
+		ZipCompression.deflated(10);
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.exporters;
+
+import com.allogy.couch.archive.ArchiveIndex;
+import com.allogy.couch.archive.ArchiveIndexEntry;
+import com.allogy.couch.metrics.NullTransferMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ZipCouchDatabaseExporterTest
+{
+	private CouchDocumentExporter couchDocumentExporter;
+	private CouchDbConnector couchDbConnector;
+	private ByteArrayOutputStream outputStream;
+	private int pageSize;
+
+	@Before
+	public void setUp()
+	{
+		couchDocumentExporter = mock(CouchDocumentExporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		outputStream = new ByteArrayOutputStream();
+		pageSize = 2;
+	}
+
+	private ZipCouchDatabaseExporter createObjectUnderTest()
+	{
+		return new ZipCouchDatabaseExporter(couchDocumentExporter, pageSize);
+	}
+
+	private static ViewResult createViewResult(String... ids) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"total_rows\":" + ids.length + ",\"offset\":0,\"rows\":[");
+		for(int i = 0; i < ids.length; i++)
+		{
+			if(i > 0)
+				json.append(",");
+			json.append("{\"id\":\"").append(ids[i]).append("\",\"key\":\"").append(ids[i])
+					.append("\",\"value\":{\"rev\":\"1-").append(ids[i]).append("\"}}");
+		}
+		json.append("]}");
+
+		return new ViewResult(new ObjectMapper().readTree(json.toString()), false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_pageSize_is_less_than_one()
+	{
+		new ZipCouchDatabaseExporter(couchDocumentExporter, 0);
+	}
+
+	@Test
+	public void export_should_not_write_anything_for_an_empty_database() throws IOException
+	{
+		stub(couchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult());
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		assertThat(outputStream.size(), is(0));
+		verify(couchDocumentExporter, never()).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	@Test
+	public void export_should_request_each_page_starting_at_the_first_row_not_yet_exported() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class)))
+				.thenReturn(createViewResult("a", "b", "c"))
+				.thenReturn(createViewResult("c"));
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		ArgumentCaptor<ViewQuery> viewQueryArgumentCaptor = ArgumentCaptor.forClass(ViewQuery.class);
+		verify(couchDbConnector, times(2)).queryView(viewQueryArgumentCaptor.capture());
+
+		List<ViewQuery> viewQueries = viewQueryArgumentCaptor.getAllValues();
+		assertThat(viewQueries.get(0).getStartKey(), nullValue());
+		assertThat((String)viewQueries.get(1).getStartKey(), is("c"));
+	}
+
+	@Test
+	public void export_should_export_every_document_once_in_order() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class)))
+				.thenReturn(createViewResult("a", "b", "c"))
+				.thenReturn(createViewResult("c", "d", "e"))
+				.thenReturn(createViewResult("e"));
+
+		createObjectUnderTest().export(couchDbConnector, outputStream);
+
+		InOrder inOrder = inOrder(couchDocumentExporter);
+		for(String id : new String[] { "a", "b", "c", "d", "e" })
+			inOrder.verify(couchDocumentExporter).exportDocument(eq(id), eq("1-" + id), eq(couchDbConnector), any(OutputStream.class));
+		verify(couchDocumentExporter, times(5)).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	@Test
+	public void export_should_report_each_document_to_the_transfer_metrics_listener() throws IOException
+	{
+		TransferMetricsListener transferMetricsListener = mock(TransferMetricsListener.class);
+		when(couchDbConnector.queryView(any(ViewQuery.class)))
+				.thenReturn(createViewResult("a", "b"));
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(new byte[] { 1, 2, 3 });
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		new ZipCouchDatabaseExporter(couchDocumentExporter, pageSize, transferMetricsListener).export(couchDbConnector, outputStream);
+
+		verify(transferMetricsListener).documentTransferred(eq("a"), eq(3L), anyLong());
+		verify(transferMetricsListener).documentTransferred(eq("b"), eq(3L), anyLong());
+		verify(transferMetricsListener, times(2)).readBlocked(anyLong());
+		verify(transferMetricsListener, times(2)).writeBlocked(anyLong());
+	}
+
+	@Test
+	public void export_should_write_an_index_of_every_document_after_the_documents() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class)))
+				.thenReturn(createViewResult("a", "b"));
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				String id = (String) invocation.getArguments()[0];
+				String contentType = "a".equals(id) ? "application/json" : "multipart/related; boundary=\"x\"";
+				((OutputStream) invocation.getArguments()[3]).write(("Content-ID: " + id + "\r\nContent-Type: " + contentType +
+						"\r\nETag: 2-" + id + "\r\n\r\n{}").getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		new ZipCouchDatabaseExporter(couchDocumentExporter, pageSize, NullTransferMetricsListener.metricsListener(), true)
+				.export(couchDbConnector, outputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertThat(zipInputStream.getNextEntry().getName(), is("a"));
+		assertThat(zipInputStream.getNextEntry().getName(), is("b"));
+		ZipEntry indexEntry = zipInputStream.getNextEntry();
+		assertThat(indexEntry.getName(), is(ArchiveIndex.ENTRY_NAME));
+
+		ArchiveIndex archiveIndex = ArchiveIndex.read(zipInputStream);
+		assertThat(archiveIndex.size(), is(2));
+
+		ArchiveIndexEntry entryA = archiveIndex.getEntry("a");
+		assertThat(entryA.getOffset(), is(0L));
+		assertThat(entryA.getRevision(), is("2-a"));
+		assertThat(entryA.hasAttachments(), is(false));
+
+		ArchiveIndexEntry entryB = archiveIndex.getEntry("b");
+		assertThat(entryB.getOffset(), not(0L));
+		assertThat(entryB.hasAttachments(), is(true));
+		assertThat(entryB.getSize(), is((long) ("Content-ID: b\r\nContent-Type: multipart/related; boundary=\"x\"\r\nETag: 2-b\r\n\r\n{}").length()));
+		byte[] archive = outputStream.toByteArray();
+		int offset = (int) entryB.getOffset();
+		assertThat(new byte[] { archive[offset], archive[offset + 1], archive[offset + 2], archive[offset + 3] }, is(new byte[] { 'P', 'K', 3, 4 }));
+	}
+
+	@Test
+	public void export_should_write_stored_entries() throws IOException
+	{
+		when(couchDbConnector.queryView(any(ViewQuery.class)))
+				.thenReturn(createViewResult("a", "b"));
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(("content of " + invocation.getArguments()[0]).getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		new ZipCouchDatabaseExporter(couchDocumentExporter, pageSize, NullTransferMetricsListener.metricsListener(), true, ZipCompression.stored())
+				.export(couchDbConnector, outputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		for(String id : new String[] { "a", "b" })
+		{
+			ZipEntry zipEntry = zipInputStream.getNextEntry();
+			assertThat(zipEntry.getName(), is(id));
+			assertThat(zipEntry.getMethod(), is(ZipEntry.STORED));
+			assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is("content of " + id));
+		}
+
+		assertThat(zipInputStream.getNextEntry().getName(), is(ArchiveIndex.ENTRY_NAME));
+		ArchiveIndexEntry entryB = ArchiveIndex.read(zipInputStream).getEntry("b");
+		byte[] archive = outputStream.toByteArray();
+		int offset = (int) entryB.getOffset();
+		assertThat(new byte[] { archive[offset], archive[offset + 1], archive[offset + 2], archive[offset + 3] }, is(new byte[] { 'P', 'K', 3, 4 }));
+	}
+
+	@Test
+	public void export_should_write_readable_entries_with_content_type_aware_compression() throws IOException
+	{
+		final String document = "Content-Type: multipart/related; boundary=\"b\"\r\n\r\n" +
+				"--b\r\nContent-Type: application/json\r\n\r\n{\"_id\":\"a\"}\r\n" +
+				"--b\r\nContent-Type: image/jpeg\r\n\r\nnot really a jpeg\r\n--b--";
+		when(couchDbConnector.queryView(any(ViewQuery.class)))
+				.thenReturn(createViewResult("a"));
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				((OutputStream) invocation.getArguments()[3]).write(document.getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentExporter).exportDocument(anyString(), anyString(), any(CouchDbConnector.class), any(OutputStream.class));
+
+		new ZipCouchDatabaseExporter(couchDocumentExporter, pageSize, NullTransferMetricsListener.metricsListener(), false,
+				ZipCompression.contentTypeAware(Deflater.BEST_COMPRESSION)).export(couchDbConnector, outputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertThat(zipInputStream.getNextEntry().getName(), is("a"));
+		assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is(document));
+	}
+}
@@ -16,16 +16,30 @@
 
 package com.allogy.couch.exporters;
 
+import org.apache.commons.io.IOUtils;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DbInfo;
+import org.ektorp.ViewQuery;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
-import static org.mockito.Mockito.mock;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
 
 public class ZipCouchMultipleDatabaseExporterTest
 {
@@ -63,4 +77,101 @@ public class ZipCouchMultipleDatabaseExporterTest
 	{
 		createObjectUnderTest().export(couchDbConnectors, null);
 	}
+
+	private static CouchDbConnector createCouchDbConnector(String databaseName, long documentCount)
+	{
+		DbInfo dbInfo = mock(DbInfo.class);
+		stub(dbInfo.getDocCount()).toReturn(documentCount);
+
+		CouchDbConnector couchDbConnector = mock(CouchDbConnector.class);
+		stub(couchDbConnector.path()).toReturn(databaseName + "/");
+		stub(couchDbConnector.getDbInfo()).toReturn(dbInfo);
+		return couchDbConnector;
+	}
+
+	private void stubDatabaseExportWritesPath() throws IOException
+	{
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				CouchDbConnector couchDbConnector = (CouchDbConnector) invocation.getArguments()[0];
+				((OutputStream) invocation.getArguments()[1]).write(couchDbConnector.path().getBytes("UTF-8"));
+				return null;
+			}
+		}).when(couchDatabaseExporter).export(any(CouchDbConnector.class), any(OutputStream.class));
+	}
+
+	@Test
+	public void export_should_skip_empty_databases_using_database_info() throws IOException
+	{
+		CouchDbConnector emptyCouchDbConnector = createCouchDbConnector("empty", 0);
+		couchDbConnectors.clear();
+		couchDbConnectors.add(emptyCouchDbConnector);
+
+		createObjectUnderTest().export(couchDbConnectors, new ByteArrayOutputStream());
+
+		verify(couchDatabaseExporter, never()).export(any(CouchDbConnector.class), any(OutputStream.class));
+		verify(emptyCouchDbConnector, never()).queryView(any(ViewQuery.class));
+	}
+
+	@Test
+	public void export_with_multiple_threads_should_write_databases_in_the_given_order() throws IOException
+	{
+		couchDbConnectors.clear();
+		for(int i = 0; i < 10; i++)
+			couchDbConnectors.add(createCouchDbConnector("db" + i, i % 3));
+		stubDatabaseExportWritesPath();
+
+		ByteArrayOutputStream exportOutputStream = new ByteArrayOutputStream();
+		new ZipCouchMultipleDatabaseExporter(couchDatabaseExporter, 3, 0).export(couchDbConnectors, exportOutputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(exportOutputStream.toByteArray()));
+		for(int i = 0; i < 10; i++)
+		{
+			if(i % 3 == 0)
+				continue;
+			assertThat(zipInputStream.getNextEntry().getName(), is("db" + i));
+			assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is("db" + i + "/"));
+		}
+		assertThat(zipInputStream.getNextEntry(), nullValue());
+	}
+
+	@Test
+	public void export_should_store_database_entries_with_content_type_aware_compression() throws IOException
+	{
+		couchDbConnectors.clear();
+		couchDbConnectors.add(createCouchDbConnector("db0", 1));
+		couchDbConnectors.add(createCouchDbConnector("db1", 1));
+		stubDatabaseExportWritesPath();
+
+		ByteArrayOutputStream exportOutputStream = new ByteArrayOutputStream();
+		new ZipCouchMultipleDatabaseExporter(couchDatabaseExporter, 2, 0, ZipCompression.contentTypeAware(Deflater.BEST_SPEED))
+				.export(couchDbConnectors, exportOutputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(exportOutputStream.toByteArray()));
+		for(int i = 0; i < 2; i++)
+		{
+			ZipEntry zipEntry = zipInputStream.getNextEntry();
+			assertThat(zipEntry.getMethod(), is(ZipEntry.STORED));
+			assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is("db" + i + "/"));
+		}
+	}
+
+	@Test
+	public void export_should_spool_database_entries_to_store_them_when_exporting_sequentially() throws IOException
+	{
+		couchDbConnectors.clear();
+		couchDbConnectors.add(createCouchDbConnector("db0", 1));
+		stubDatabaseExportWritesPath();
+
+		ByteArrayOutputStream exportOutputStream = new ByteArrayOutputStream();
+		new ZipCouchMultipleDatabaseExporter(couchDatabaseExporter, 1, 0, ZipCompression.stored())
+				.export(couchDbConnectors, exportOutputStream);
+
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(exportOutputStream.toByteArray()));
+		ZipEntry zipEntry = zipInputStream.getNextEntry();
+		assertThat(zipEntry.getMethod(), is(ZipEntry.STORED));
+		assertThat(IOUtils.toString(zipInputStream, "UTF-8"), is("db0/"));
+	}
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.filter;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class RevisionsDiffDocumentFilterTest
+{
+	private CouchDbConnector couchDbConnector;
+	private HttpClient httpClient;
+	private HttpResponse httpResponse;
+	private Map<String, String> documentRevisions;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDbConnector = mock(CouchDbConnector.class);
+		httpClient = mock(HttpClient.class);
+		httpResponse = mock(HttpResponse.class);
+
+		stub(couchDbConnector.path()).toReturn("/db/");
+		stub(couchDbConnector.getConnection()).toReturn(httpClient);
+		stub(httpClient.post(eq("/db/_revs_diff"), anyString())).toReturn(httpResponse);
+		stub(httpResponse.isSuccessful()).toReturn(true);
+		stub(httpResponse.getContent()).toReturn(new ByteArrayInputStream(
+				"{\"missing-doc\":{\"missing\":[\"1-a\"]},\"new-revision\":{\"missing\":[\"3-c\"],\"possible_ancestors\":[\"2-b\"]}}".getBytes("UTF-8")));
+
+		documentRevisions = new LinkedHashMap<String, String>();
+		documentRevisions.put("missing-doc", "1-a");
+		documentRevisions.put("new-revision", "3-c");
+		documentRevisions.put("existing-revision", "2-b");
+	}
+
+	private RevisionsDiffDocumentFilter createObjectUnderTest()
+	{
+		return new RevisionsDiffDocumentFilter();
+	}
+
+	@Test
+	public void includeDocuments_should_request_every_revision_in_one_revs_diff() throws IOException
+	{
+		createObjectUnderTest().includeDocuments(couchDbConnector, documentRevisions);
+
+		ArgumentCaptor<String> requestArgumentCaptor = ArgumentCaptor.forClass(String.class);
+		verify(httpClient, times(1)).post(eq("/db/_revs_diff"), requestArgumentCaptor.capture());
+
+		Map<?, ?> request = new ObjectMapper().readValue(requestArgumentCaptor.getValue(), Map.class);
+		assertThat(request.size(), is(3));
+		assertThat(request.get("existing-revision").toString(), is("[2-b]"));
+	}
+
+	@Test
+	public void includeDocuments_should_include_only_documents_with_missing_revisions()
+	{
+		Set<String> includedDocumentIds = createObjectUnderTest().includeDocuments(couchDbConnector, documentRevisions);
+
+		assertThat(includedDocumentIds.size(), is(2));
+		assertThat(includedDocumentIds.contains("missing-doc"), is(true));
+		assertThat(includedDocumentIds.contains("new-revision"), is(true));
+	}
+
+	@Test
+	public void includeDocuments_should_release_the_connection()
+	{
+		createObjectUnderTest().includeDocuments(couchDbConnector, documentRevisions);
+
+		verify(httpResponse).releaseConnection();
+	}
+
+	@Test(expected = DbAccessException.class)
+	public void includeDocuments_should_throw_if_the_request_fails()
+	{
+		stub(httpResponse.isSuccessful()).toReturn(false);
+		stub(httpResponse.getCode()).toReturn(500);
+
+		createObjectUnderTest().includeDocuments(couchDbConnector, documentRevisions);
+	}
+
+	@Test
+	public void includeDocument_should_return_false_if_the_revision_is_not_missing()
+	{
+		assertThat(createObjectUnderTest().includeDocument(couchDbConnector, "existing-revision", "2-b"), is(false));
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FileImportJournalTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp()
+	{
+		file = new File(temporaryFolder.getRoot(), "import.journal");
+	}
+
+	private FileImportJournal createObjectUnderTest() throws IOException
+	{
+		return new FileImportJournal(file);
+	}
+
+	@Test
+	public void getCommittedEntryCount_should_return_zero_for_an_unknown_database() throws IOException
+	{
+		assertThat(createObjectUnderTest().getCommittedEntryCount("database"), is(0L));
+	}
+
+	@Test
+	public void getCommittedEntryCount_should_return_the_last_recorded_count() throws IOException
+	{
+		FileImportJournal objectUnderTest = createObjectUnderTest();
+		objectUnderTest.entriesCommitted("database", 10);
+		objectUnderTest.entriesCommitted("database", 20);
+
+		assertThat(objectUnderTest.getCommittedEntryCount("database"), is(20L));
+	}
+
+	@Test
+	public void entriesCommitted_should_be_read_by_a_new_journal_on_the_same_file() throws IOException
+	{
+		createObjectUnderTest().entriesCommitted("first", 5);
+		createObjectUnderTest().entriesCommitted("second", 7);
+
+		FileImportJournal objectUnderTest = createObjectUnderTest();
+		assertThat(objectUnderTest.getCommittedEntryCount("first"), is(5L));
+		assertThat(objectUnderTest.getCommittedEntryCount("second"), is(7L));
+	}
+}
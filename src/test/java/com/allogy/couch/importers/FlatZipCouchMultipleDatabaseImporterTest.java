@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.FlatArchiveLayout;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.CouchDbInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class FlatZipCouchMultipleDatabaseImporterTest
+{
+	private CouchDbInstance couchDbInstance;
+	private CouchDocumentImporter couchDocumentImporter;
+	private List<String> importedDocuments;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDbInstance = mock(CouchDbInstance.class);
+		couchDocumentImporter = mock(CouchDocumentImporter.class);
+		importedDocuments = new ArrayList<String>();
+
+		when(couchDbInstance.createConnector(anyString(), eq(true))).thenAnswer(new Answer<CouchDbConnector>()
+		{
+			public CouchDbConnector answer(InvocationOnMock invocation) throws Throwable
+			{
+				CouchDbConnector couchDbConnector = mock(CouchDbConnector.class);
+				stub(couchDbConnector.getDatabaseName()).toReturn((String) invocation.getArguments()[0]);
+				return couchDbConnector;
+			}
+		});
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				CouchDbConnector couchDbConnector = (CouchDbConnector) invocation.getArguments()[0];
+				InputStream inputStream = (InputStream) invocation.getArguments()[1];
+				importedDocuments.add(couchDbConnector.getDatabaseName() + ":" + IOUtils.toString(inputStream, "UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+	}
+
+	private FlatZipCouchMultipleDatabaseImporter createObjectUnderTest()
+	{
+		return new FlatZipCouchMultipleDatabaseImporter(couchDocumentImporter);
+	}
+
+	/**
+	 * Creates an archive with an entry for each pair of name and content.
+	 */
+	private static byte[] createArchive(String... namesAndContents) throws IOException
+	{
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		for(int i = 0; i < namesAndContents.length; i += 2)
+		{
+			zipOutputStream.putNextEntry(new ZipEntry(namesAndContents[i]));
+			zipOutputStream.write(namesAndContents[i + 1].getBytes("UTF-8"));
+		}
+		zipOutputStream.finish();
+		return outputStream.toByteArray();
+	}
+
+	private static InputStream createFlatArchive(String... namesAndContents) throws IOException
+	{
+		String[] entries = new String[namesAndContents.length + 2];
+		entries[0] = FlatArchiveLayout.LAYOUT_ENTRY_NAME;
+		entries[1] = FlatArchiveLayout.LAYOUT_NAME;
+		System.arraycopy(namesAndContents, 0, entries, 2, namesAndContents.length);
+		return new ByteArrayInputStream(createArchive(entries));
+	}
+
+	@Test
+	public void importDatabases_should_import_each_document_into_its_database() throws IOException
+	{
+		createObjectUnderTest().importDatabases(couchDbInstance, createFlatArchive(
+				"first/doc1", "a", "first/doc2", "b", "tenant%2Fsecond/_design/views", "c"));
+
+		assertThat(importedDocuments.toString(), is("[first:a, first:b, tenant/second:c]"));
+		verify(couchDbInstance).createConnector("first", true);
+		verify(couchDbInstance).createConnector("tenant/second", true);
+	}
+
+	@Test
+	public void importDatabases_should_finish_the_import_after_each_database() throws IOException
+	{
+		createObjectUnderTest().importDatabases(couchDbInstance, createFlatArchive(
+				"first/doc1", "a", "second/doc1", "b"));
+
+		InOrder inOrder = inOrder(couchDocumentImporter);
+		inOrder.verify(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+		inOrder.verify(couchDocumentImporter).finishImport();
+		inOrder.verify(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+		inOrder.verify(couchDocumentImporter).finishImport();
+	}
+
+	@Test
+	public void importDatabases_should_not_finish_an_import_for_an_archive_without_documents() throws IOException
+	{
+		createObjectUnderTest().importDatabases(couchDbInstance, createFlatArchive());
+
+		verify(couchDocumentImporter, never()).finishImport();
+		verify(couchDbInstance, never()).createConnector(anyString(), anyBoolean());
+	}
+
+	@Test(expected = IOException.class)
+	public void importDatabases_should_throw_for_an_unknown_layout() throws IOException
+	{
+		createObjectUnderTest().importDatabases(couchDbInstance, new ByteArrayInputStream(createArchive(
+				FlatArchiveLayout.LAYOUT_ENTRY_NAME, "sharded", "first/doc1", "a")));
+	}
+
+	@Test
+	public void importDatabases_should_import_nested_database_archives() throws IOException
+	{
+		byte[] firstDatabase = createArchive("doc1", "a", "doc2", "b");
+		byte[] secondDatabase = createArchive("doc1", "c");
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		zipOutputStream.putNextEntry(new ZipEntry("first"));
+		zipOutputStream.write(firstDatabase);
+		zipOutputStream.putNextEntry(new ZipEntry("second"));
+		zipOutputStream.write(secondDatabase);
+		zipOutputStream.finish();
+
+		createObjectUnderTest().importDatabases(couchDbInstance, new ByteArrayInputStream(outputStream.toByteArray()));
+
+		assertThat(importedDocuments.toString(), is("[first:a, first:b, second:c]"));
+		verify(couchDocumentImporter, times(2)).finishImport();
+	}
+}
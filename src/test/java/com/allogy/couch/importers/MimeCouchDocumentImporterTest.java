@@ -17,6 +17,8 @@
 package com.allogy.couch.importers;
 
 import com.allogy.couch.filter.DocumentFilter;
+import com.allogy.couch.importers.command.ImmediateCouchImporter;
+import com.allogy.couch.metrics.TransferMetricsListener;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import org.apache.commons.io.IOUtils;
@@ -190,4 +192,58 @@ public class MimeCouchDocumentImporterTest
 		assertThat(options.size(), is(1));
 		assertThat(options.get("new_edits"), is("false"));
 	}
+
+	@Test
+	public void importDocument_should_report_an_excluded_document_to_the_transfer_metrics_listener() throws IOException
+	{
+		TransferMetricsListener transferMetricsListener = mock(TransferMetricsListener.class);
+		stub(documentFilter.includeDocument(couchDbConnector, documentId, revision)).toReturn(false);
+
+		new MimeCouchDocumentImporter(documentFilter, new ImmediateCouchImporter(), transferMetricsListener).importDocument(couchDbConnector, inputStream);
+
+		verify(transferMetricsListener).documentFiltered(documentId, false);
+		verify(transferMetricsListener, never()).documentTransferred(anyString(), anyLong(), anyLong());
+	}
+
+	@Test
+	public void importDocument_should_report_an_imported_document_to_the_transfer_metrics_listener() throws IOException
+	{
+		TransferMetricsListener transferMetricsListener = mock(TransferMetricsListener.class);
+		stub(documentFilter.includeDocument(couchDbConnector, documentId, revision)).toReturn(true);
+
+		new MimeCouchDocumentImporter(documentFilter, new ImmediateCouchImporter(), transferMetricsListener).importDocument(couchDbConnector, inputStream);
+
+		verify(transferMetricsListener).documentFiltered(documentId, true);
+		verify(transferMetricsListener).documentTransferred(eq(documentId), anyLong(), anyLong());
+		verify(transferMetricsListener).readBlocked(anyLong());
+		verify(transferMetricsListener).writeBlocked(anyLong());
+	}
+
+	@Test(expected = IOException.class)
+	public void importDocument_should_throw_if_the_ETag_header_is_missing() throws IOException
+	{
+		headers.remove(Iterables.find(headers, new Predicate<Header>()
+		{
+			public boolean apply(@Nullable Header header)
+			{
+				return header.getName().equals(HttpHeaders.ETAG);
+			}
+		}));
+		inputStream = createMimeInputStream(headers, content);
+
+		createObjectUnderTest().importDocument(couchDbConnector, inputStream);
+	}
+
+	@Test
+	public void importDocument_should_report_the_header_bytes_as_transferred() throws IOException
+	{
+		TransferMetricsListener transferMetricsListener = mock(TransferMetricsListener.class);
+		stub(documentFilter.includeDocument(couchDbConnector, documentId, revision)).toReturn(true);
+		// The mocked CouchDbConnector does not read the content
+		int headerLength = IOUtils.toByteArray(createMimeInputStream(headers, "")).length;
+
+		new MimeCouchDocumentImporter(documentFilter, new ImmediateCouchImporter(), transferMetricsListener).importDocument(couchDbConnector, inputStream);
+
+		verify(transferMetricsListener).documentTransferred(eq(documentId), eq((long)headerLength), anyLong());
+	}
 }
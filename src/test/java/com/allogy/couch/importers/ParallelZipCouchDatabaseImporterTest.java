@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.ArchiveIndex;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ParallelZipCouchDatabaseImporterTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private CouchDocumentImporter couchDocumentImporter;
+	private CouchDbConnector couchDbConnector;
+	private long memoryBudget;
+	private List<String> importedContents;
+	private List<String> expectedContents;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentImporter = mock(CouchDocumentImporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		memoryBudget = 1024 * 1024;
+		importedContents = new ArrayList<String>();
+
+		expectedContents = new ArrayList<String>();
+		for(int i = 0; i < 20; i++)
+			expectedContents.add(String.format("document %02d", i));
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				InputStream inputStream = (InputStream) invocation.getArguments()[1];
+				importedContents.add(IOUtils.toString(inputStream, "UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+	}
+
+	private ParallelZipCouchDatabaseImporter createObjectUnderTest()
+	{
+		return new ParallelZipCouchDatabaseImporter(couchDocumentImporter, 4, 8, memoryBudget);
+	}
+
+	private File createArchive(int method, boolean withIndex) throws IOException
+	{
+		File archiveFile = temporaryFolder.newFile("archive.zip");
+		ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archiveFile));
+		for(String content : expectedContents)
+		{
+			byte[] data = content.getBytes("UTF-8");
+			ZipEntry zipEntry = new ZipEntry(content);
+			zipEntry.setMethod(method);
+			if(method == ZipEntry.STORED)
+			{
+				CRC32 crc32 = new CRC32();
+				crc32.update(data);
+				zipEntry.setSize(data.length);
+				zipEntry.setCrc(crc32.getValue());
+			}
+			zipOutputStream.putNextEntry(zipEntry);
+			zipOutputStream.write(data);
+		}
+		if(withIndex)
+		{
+			zipOutputStream.putNextEntry(new ZipEntry(ArchiveIndex.ENTRY_NAME));
+			zipOutputStream.write("[]".getBytes("UTF-8"));
+		}
+		zipOutputStream.close();
+		return archiveFile;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_prefetchCount_is_less_than_threads()
+	{
+		new ParallelZipCouchDatabaseImporter(couchDocumentImporter, 4, 3, memoryBudget);
+	}
+
+	@Test
+	public void importDatabase_should_import_deflated_entries_in_archive_order() throws IOException
+	{
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive(ZipEntry.DEFLATED, false));
+
+		assertThat(importedContents, is(expectedContents));
+	}
+
+	@Test
+	public void importDatabase_should_import_deflated_entries_in_archive_order_when_spooling_to_files() throws IOException
+	{
+		memoryBudget = 0;
+
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive(ZipEntry.DEFLATED, false));
+
+		assertThat(importedContents, is(expectedContents));
+	}
+
+	@Test
+	public void importDatabase_should_import_stored_entries_in_archive_order() throws IOException
+	{
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive(ZipEntry.STORED, false));
+
+		assertThat(importedContents, is(expectedContents));
+	}
+
+	@Test
+	public void importDatabase_should_skip_the_archive_index() throws IOException
+	{
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive(ZipEntry.DEFLATED, true));
+
+		assertThat(importedContents, is(expectedContents));
+	}
+
+	@Test
+	public void importDatabase_should_import_from_an_InputStream() throws IOException
+	{
+		InputStream inputStream = new FileInputStream(createArchive(ZipEntry.DEFLATED, false));
+		try
+		{
+			createObjectUnderTest().importDatabase(couchDbConnector, inputStream);
+		}
+		finally
+		{
+			inputStream.close();
+		}
+
+		assertThat(importedContents, is(expectedContents));
+	}
+
+	@Test
+	public void importDatabase_should_finish_the_import_after_the_last_document() throws IOException
+	{
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive(ZipEntry.DEFLATED, false));
+
+		InOrder inOrder = inOrder(couchDocumentImporter);
+		inOrder.verify(couchDocumentImporter, times(20)).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+		inOrder.verify(couchDocumentImporter).finishImport();
+	}
+
+	@Test(expected = IOException.class)
+	public void importDatabase_should_throw_the_IOException_of_a_failed_import() throws IOException
+	{
+		doThrow(new IOException()).when(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive(ZipEntry.DEFLATED, false));
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.CouchDbInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ParallelZipCouchMultipleDatabaseImporterTest
+{
+	private CouchDbInstance couchDbInstance;
+	private CouchDatabaseImporterFactory couchDatabaseImporterFactory;
+	private Map<String, String> importedDatabases;
+	private File archiveFile;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDbInstance = mock(CouchDbInstance.class);
+		importedDatabases = new ConcurrentHashMap<String, String>();
+
+		when(couchDbInstance.createConnector(anyString(), eq(true))).thenAnswer(new Answer<CouchDbConnector>()
+		{
+			public CouchDbConnector answer(InvocationOnMock invocation) throws Throwable
+			{
+				CouchDbConnector couchDbConnector = mock(CouchDbConnector.class);
+				stub(couchDbConnector.getDatabaseName()).toReturn((String) invocation.getArguments()[0]);
+				return couchDbConnector;
+			}
+		});
+
+		couchDatabaseImporterFactory = mock(CouchDatabaseImporterFactory.class);
+		when(couchDatabaseImporterFactory.createCouchDatabaseImporter()).thenAnswer(new Answer<CouchDatabaseImporter>()
+		{
+			public CouchDatabaseImporter answer(InvocationOnMock invocation) throws Throwable
+			{
+				return new CouchDatabaseImporter()
+				{
+					public void importDatabase(CouchDbConnector couchDbConnector, InputStream inputStream) throws IOException
+					{
+						importedDatabases.put(couchDbConnector.getDatabaseName(), IOUtils.toString(inputStream, "UTF-8"));
+					}
+				};
+			}
+		});
+
+		archiveFile = File.createTempFile("ParallelZipCouchMultipleDatabaseImporterTest", ".zip");
+		ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archiveFile));
+		for(int i = 0; i < 8; i++)
+		{
+			zipOutputStream.putNextEntry(new ZipEntry("db" + i));
+			zipOutputStream.write(("content" + i).getBytes("UTF-8"));
+		}
+		zipOutputStream.close();
+	}
+
+	@After
+	public void tearDown()
+	{
+		archiveFile.delete();
+	}
+
+	private ParallelZipCouchMultipleDatabaseImporter createObjectUnderTest()
+	{
+		return new ParallelZipCouchMultipleDatabaseImporter(couchDatabaseImporterFactory, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_importThreads_is_less_than_one()
+	{
+		new ParallelZipCouchMultipleDatabaseImporter(couchDatabaseImporterFactory, 0);
+	}
+
+	@Test
+	public void importDatabases_should_import_every_database_entry_with_its_own_importer() throws IOException
+	{
+		createObjectUnderTest().importDatabases(couchDbInstance, archiveFile);
+
+		assertThat(importedDatabases.size(), is(8));
+		for(int i = 0; i < 8; i++)
+			assertThat(importedDatabases.get("db" + i), is("content" + i));
+		verify(couchDatabaseImporterFactory, times(8)).createCouchDatabaseImporter();
+	}
+
+	@Test
+	public void importDatabases_from_an_InputStream_should_import_every_database_entry() throws IOException
+	{
+		InputStream inputStream = new FileInputStream(archiveFile);
+		try
+		{
+			createObjectUnderTest().importDatabases(couchDbInstance, inputStream);
+		}
+		finally
+		{
+			inputStream.close();
+		}
+
+		assertThat(importedDatabases.size(), is(8));
+	}
+
+	@Test(expected = IOException.class)
+	public void importDatabases_should_throw_the_IOException_of_a_failed_database_import() throws IOException
+	{
+		CouchDatabaseImporter failingImporter = mock(CouchDatabaseImporter.class);
+		doThrow(new IOException()).when(failingImporter).importDatabase(any(CouchDbConnector.class), any(InputStream.class));
+		when(couchDatabaseImporterFactory.createCouchDatabaseImporter()).thenReturn(failingImporter);
+
+		createObjectUnderTest().importDatabases(couchDbInstance, archiveFile);
+	}
+
+	@Test(timeout = 10000)
+	public void importDatabases_should_fail_on_the_first_failed_database_and_cancel_the_rest() throws Exception
+	{
+		final CountDownLatch firstDatabaseLatch = new CountDownLatch(1);
+		final CountDownLatch firstDatabaseCancelled = new CountDownLatch(1);
+		when(couchDatabaseImporterFactory.createCouchDatabaseImporter()).thenReturn(new CouchDatabaseImporter()
+		{
+			public void importDatabase(CouchDbConnector couchDbConnector, InputStream inputStream) throws IOException
+			{
+				if("db0".equals(couchDbConnector.getDatabaseName()))
+				{
+					try
+					{
+						firstDatabaseLatch.await(60, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e)
+					{
+						firstDatabaseCancelled.countDown();
+					}
+				}
+				else if("db7".equals(couchDbConnector.getDatabaseName()))
+				{
+					throw new IOException("db7 failed");
+				}
+			}
+		});
+
+		try
+		{
+			createObjectUnderTest().importDatabases(couchDbInstance, archiveFile);
+			fail();
+		}
+		catch (IOException e)
+		{
+			assertThat(e.getMessage(), is("db7 failed"));
+			assertThat(firstDatabaseCancelled.await(5, TimeUnit.SECONDS), is(true));
+		}
+		finally
+		{
+			firstDatabaseLatch.countDown();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.ArchiveIndex;
+import com.allogy.couch.archive.ArchiveIndexEntry;
+import com.allogy.couch.archive.ArchiveIndexWriter;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class SelectiveZipCouchDatabaseImporterTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private CouchDocumentImporter couchDocumentImporter;
+	private CouchDbConnector couchDbConnector;
+	private List<String> importedContents;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentImporter = mock(CouchDocumentImporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		importedContents = new ArrayList<String>();
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				importedContents.add(IOUtils.toString((InputStream) invocation.getArguments()[1], "UTF-8"));
+				return null;
+			}
+		}).when(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+	}
+
+	private SelectiveZipCouchDatabaseImporter createObjectUnderTest()
+	{
+		return new SelectiveZipCouchDatabaseImporter(couchDocumentImporter);
+	}
+
+	private File createArchive(boolean writeIndex, String... ids) throws IOException
+	{
+		File archiveFile = temporaryFolder.newFile("archive.zip");
+		ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archiveFile));
+		ArchiveIndexWriter archiveIndexWriter = new ArchiveIndexWriter();
+		try
+		{
+			for(String id : ids)
+			{
+				zipOutputStream.putNextEntry(new ZipEntry(id));
+				zipOutputStream.write(("content of " + id).getBytes("UTF-8"));
+				archiveIndexWriter.add(new ArchiveIndexEntry(id, 0, "1-" + id, 0, false));
+			}
+			if(writeIndex)
+			{
+				zipOutputStream.putNextEntry(new ZipEntry(ArchiveIndex.ENTRY_NAME));
+				archiveIndexWriter.writeTo(zipOutputStream);
+			}
+		}
+		finally
+		{
+			archiveIndexWriter.discard();
+			zipOutputStream.close();
+		}
+		return archiveFile;
+	}
+
+	@Test
+	public void importDocuments_should_import_only_the_requested_documents() throws IOException
+	{
+		File archiveFile = createArchive(true, "a", "b", "c", "d");
+
+		int importedCount = createObjectUnderTest().importDocuments(couchDbConnector, archiveFile, Arrays.asList("c", "a", "missing"));
+
+		assertThat(importedCount, is(2));
+		assertThat(importedContents.toString(), is("[content of c, content of a]"));
+		verify(couchDocumentImporter).finishImport();
+	}
+
+	@Test
+	public void importDocuments_should_not_import_the_archive_index() throws IOException
+	{
+		File archiveFile = createArchive(true, "a");
+
+		int importedCount = createObjectUnderTest().importDocuments(couchDbConnector, archiveFile, Arrays.asList(ArchiveIndex.ENTRY_NAME));
+
+		assertThat(importedCount, is(0));
+	}
+
+	@Test
+	public void importDocumentRange_should_import_the_documents_in_the_range_using_the_index() throws IOException
+	{
+		File archiveFile = createArchive(true, "tenant1:a", "tenant2:a", "tenant2:b", "tenant3:a");
+
+		int importedCount = createObjectUnderTest().importDocumentRange(couchDbConnector, archiveFile, "tenant2:", "tenant2:\uffff");
+
+		assertThat(importedCount, is(2));
+		assertThat(importedContents.toString(), is("[content of tenant2:a, content of tenant2:b]"));
+	}
+
+	@Test
+	public void importDocumentRange_should_scan_entry_names_of_an_archive_without_an_index() throws IOException
+	{
+		File archiveFile = createArchive(false, "tenant2:b", "tenant1:a", "tenant2:a");
+
+		int importedCount = createObjectUnderTest().importDocumentRange(couchDbConnector, archiveFile, "tenant2:", null);
+
+		assertThat(importedCount, is(2));
+		assertThat(importedContents.toString(), is("[content of tenant2:a, content of tenant2:b]"));
+	}
+}
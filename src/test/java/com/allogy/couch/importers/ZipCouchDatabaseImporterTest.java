@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.importers;
+
+import com.allogy.couch.archive.ArchiveIndex;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ZipCouchDatabaseImporterTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private CouchDocumentImporter couchDocumentImporter;
+	private CouchDbConnector couchDbConnector;
+	private ImportJournal importJournal;
+	private List<String> importedContents;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		couchDocumentImporter = mock(CouchDocumentImporter.class);
+		couchDbConnector = mock(CouchDbConnector.class);
+		importJournal = mock(ImportJournal.class);
+		importedContents = new ArrayList<String>();
+
+		stub(couchDbConnector.getDatabaseName()).toReturn("database");
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				InputStream inputStream = (InputStream) invocation.getArguments()[1];
+				importedContents.add(Character.toString((char) inputStream.read()));
+				return null;
+			}
+		}).when(couchDocumentImporter).importDocument(any(CouchDbConnector.class), any(InputStream.class));
+	}
+
+	private ZipCouchDatabaseImporter createObjectUnderTest()
+	{
+		return new ZipCouchDatabaseImporter(couchDocumentImporter, importJournal, 2);
+	}
+
+	private static InputStream createArchive(String... contents) throws IOException
+	{
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		for(String content : contents)
+		{
+			zipOutputStream.putNextEntry(new ZipEntry(content));
+			zipOutputStream.write(content.getBytes("UTF-8"));
+		}
+		zipOutputStream.finish();
+		return new ByteArrayInputStream(outputStream.toByteArray());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_journalInterval_is_less_than_one()
+	{
+		new ZipCouchDatabaseImporter(couchDocumentImporter, importJournal, 0);
+	}
+
+	@Test
+	public void importDatabase_without_a_journal_should_import_every_entry() throws IOException
+	{
+		new ZipCouchDatabaseImporter(couchDocumentImporter).importDatabase(couchDbConnector, createArchive("a", "b", "c"));
+
+		assertThat(importedContents.toString(), is("[a, b, c]"));
+		verify(couchDocumentImporter).finishImport();
+	}
+
+	@Test
+	public void importDatabase_should_finish_the_import_before_each_journal_record() throws IOException
+	{
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive("a", "b", "c"));
+
+		InOrder inOrder = inOrder(couchDocumentImporter, importJournal);
+		inOrder.verify(couchDocumentImporter).finishImport();
+		inOrder.verify(importJournal).entriesCommitted("database", 2);
+		inOrder.verify(couchDocumentImporter).finishImport();
+		inOrder.verify(importJournal).entriesCommitted("database", 3);
+	}
+
+	@Test
+	public void importDatabase_should_skip_committed_entries() throws IOException
+	{
+		stub(importJournal.getCommittedEntryCount("database")).toReturn(2L);
+
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive("a", "b", "c", "d"));
+
+		assertThat(importedContents.toString(), is("[c, d]"));
+		verify(importJournal).entriesCommitted("database", 4);
+	}
+
+	@Test
+	public void importDatabase_should_not_record_anything_if_every_entry_was_committed() throws IOException
+	{
+		stub(importJournal.getCommittedEntryCount("database")).toReturn(2L);
+
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive("a", "b"));
+
+		assertThat(importedContents.size(), is(0));
+		verify(importJournal, never()).entriesCommitted(anyString(), anyLong());
+	}
+
+	@Test
+	public void importDatabase_should_not_import_the_archive_index() throws IOException
+	{
+		createObjectUnderTest().importDatabase(couchDbConnector, createArchive("a", ArchiveIndex.ENTRY_NAME));
+
+		assertThat(importedContents.toString(), is("[a]"));
+		verify(importJournal).entriesCommitted("database", 1);
+	}
+
+	@Test
+	public void importDatabase_should_import_an_archive_file_skipping_committed_entries() throws IOException
+	{
+		stub(importJournal.getCommittedEntryCount("database")).toReturn(1L);
+		File archiveFile = temporaryFolder.newFile("archive.zip");
+		FileOutputStream outputStream = new FileOutputStream(archiveFile);
+		try
+		{
+			IOUtils.copy(createArchive("a", "b", "c", ArchiveIndex.ENTRY_NAME), outputStream);
+		}
+		finally
+		{
+			outputStream.close();
+		}
+
+		createObjectUnderTest().importDatabase(couchDbConnector, archiveFile);
+
+		assertThat(importedContents.toString(), is("[b, c]"));
+		InOrder inOrder = inOrder(couchDocumentImporter, importJournal);
+		inOrder.verify(couchDocumentImporter).finishImport();
+		inOrder.verify(importJournal).entriesCommitted("database", 3);
+	}
+
+	@Test
+	public void importDatabase_should_read_an_archive_file_without_a_central_directory_as_a_stream() throws IOException
+	{
+		ByteArrayOutputStream archiveOutputStream = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(archiveOutputStream);
+		for(String content : new String[] { "a", "b" })
+		{
+			zipOutputStream.putNextEntry(new ZipEntry(content));
+			zipOutputStream.write(content.getBytes("UTF-8"));
+			zipOutputStream.closeEntry();
+		}
+
+		// The entries are written without finishing the archive, so it has no central directory
+		File archiveFile = temporaryFolder.newFile("interrupted.zip");
+		FileOutputStream outputStream = new FileOutputStream(archiveFile);
+		try
+		{
+			archiveOutputStream.writeTo(outputStream);
+		}
+		finally
+		{
+			outputStream.close();
+		}
+
+		createObjectUnderTest().importDatabase(couchDbConnector, archiveFile);
+
+		assertThat(importedContents.toString(), is("[a, b]"));
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers.command;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveBulkFlushPolicyTest
+{
+    private AdaptiveBulkFlushPolicy createObjectUnderTest()
+    {
+        return new AdaptiveBulkFlushPolicy(100, 10, 100, 1000000);
+    }
+
+    @Test
+    public void shouldFlush_should_flush_once_the_document_limit_is_exceeded()
+    {
+        AdaptiveBulkFlushPolicy objectUnderTest = createObjectUnderTest();
+
+        assertThat(objectUnderTest.shouldFlush(10, 1, 0), is(false));
+        assertThat(objectUnderTest.shouldFlush(11, 1, 0), is(true));
+    }
+
+    @Test
+    public void shouldFlush_should_flush_once_the_byte_limit_is_met()
+    {
+        assertThat(createObjectUnderTest().shouldFlush(1, 1000000, 0), is(true));
+    }
+
+    @Test
+    public void bulkUpdateCompleted_well_within_the_target_latency_should_grow_the_document_limit_up_to_the_maximum()
+    {
+        AdaptiveBulkFlushPolicy objectUnderTest = createObjectUnderTest();
+
+        objectUnderTest.bulkUpdateCompleted(10, 100, 10);
+        assertThat(objectUnderTest.getDocumentLimit(), is(12));
+
+        for(int i = 0; i < 50; i++)
+            objectUnderTest.bulkUpdateCompleted(objectUnderTest.getDocumentLimit(), 100, 10);
+        assertThat(objectUnderTest.getDocumentLimit(), is(100));
+    }
+
+    @Test
+    public void bulkUpdateCompleted_for_a_partial_batch_should_not_grow_the_document_limit()
+    {
+        AdaptiveBulkFlushPolicy objectUnderTest = createObjectUnderTest();
+
+        objectUnderTest.bulkUpdateCompleted(3, 100, 10);
+
+        assertThat(objectUnderTest.getDocumentLimit(), is(10));
+    }
+
+    @Test
+    public void bulkUpdateCompleted_beyond_the_target_latency_should_halve_the_document_limit_down_to_the_minimum()
+    {
+        AdaptiveBulkFlushPolicy objectUnderTest = createObjectUnderTest();
+        for(int i = 0; i < 10; i++)
+            objectUnderTest.bulkUpdateCompleted(objectUnderTest.getDocumentLimit(), 100, 10);
+        int grownLimit = objectUnderTest.getDocumentLimit();
+
+        objectUnderTest.bulkUpdateCompleted(grownLimit, 100, 500);
+        assertThat(objectUnderTest.getDocumentLimit(), is(Math.max(10, grownLimit / 2)));
+
+        for(int i = 0; i < 10; i++)
+            objectUnderTest.bulkUpdateCompleted(10, 100, 500);
+        assertThat(objectUnderTest.getDocumentLimit(), is(10));
+    }
+}
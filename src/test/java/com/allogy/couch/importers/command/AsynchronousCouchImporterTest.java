@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers.command;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.Options;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class AsynchronousCouchImporterTest
+{
+    private CouchDbConnector targetCouchDbConnector;
+    private int bufferSize;
+
+    @Before
+    public void setUp()
+    {
+        targetCouchDbConnector = mock(CouchDbConnector.class);
+        bufferSize = 1000;
+    }
+
+    private AsynchronousCouchImporter createObjectUnderTest()
+    {
+        return new AsynchronousCouchImporter(bufferSize, 2);
+    }
+
+    private static Set<String> getSpoolFiles()
+    {
+        Set<String> spoolFiles = new HashSet<String>();
+        for(String fileName : new File(System.getProperty("java.io.tmpdir")).list())
+        {
+            if(fileName.startsWith("couch-import-") && fileName.endsWith(".spool"))
+                spoolFiles.add(fileName);
+        }
+        return spoolFiles;
+    }
+
+    private ImportCommand createImportCommand(String data, String boundary)
+    {
+        ImportCommand importCommand = mock(ImportCommand.class);
+        stub(importCommand.getTargetCouchDbConnector()).toReturn(targetCouchDbConnector);
+        stub(importCommand.getId()).toReturn(UUID.randomUUID().toString());
+        stub(importCommand.getDataStream()).toReturn(IOUtils.toInputStream(data));
+        stub(importCommand.getSize()).toReturn((long) data.length());
+        stub(importCommand.getBoundary()).toReturn(boundary);
+        return importCommand;
+    }
+
+    @Test
+    public void commandImport_with_a_boundary_should_updateMultipart_with_a_copy_of_the_data_by_finishImport()
+    {
+        String data = UUID.randomUUID().toString();
+        final StringBuilder uploadedData = new StringBuilder();
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                uploadedData.append(IOUtils.toString((InputStream) invocation.getArguments()[1]));
+                return null;
+            }
+        }).when(targetCouchDbConnector).updateMultipart(anyString(), any(InputStream.class), anyString(), anyLong(), any(Options.class));
+
+        AsynchronousCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand(data, "boundary"));
+        objectUnderTest.finishImport();
+
+        verify(targetCouchDbConnector).updateMultipart(anyString(), any(InputStream.class), eq("boundary"), eq((long) data.length()), any(Options.class));
+        assertThat(uploadedData.toString(), is(data));
+    }
+
+    @Test
+    public void commandImport_with_a_boundary_larger_than_the_buffer_should_spool_the_data()
+    {
+        bufferSize = 4;
+        String data = UUID.randomUUID().toString();
+        final StringBuilder uploadedData = new StringBuilder();
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                uploadedData.append(IOUtils.toString((InputStream) invocation.getArguments()[1]));
+                return null;
+            }
+        }).when(targetCouchDbConnector).updateMultipart(anyString(), any(InputStream.class), anyString(), anyLong(), any(Options.class));
+
+        AsynchronousCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand(data, "boundary"));
+        objectUnderTest.finishImport();
+
+        assertThat(uploadedData.toString(), is(data));
+    }
+
+    @Test
+    public void finishImport_should_bulk_update_buffered_documents()
+    {
+        AsynchronousCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"a\"}", null));
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"b\"}", null));
+
+        verify(targetCouchDbConnector, never()).executeBulk(any(InputStream.class));
+
+        objectUnderTest.finishImport();
+
+        verify(targetCouchDbConnector, times(1)).executeBulk(any(InputStream.class));
+    }
+
+    @Test
+    public void commandImport_should_not_wait_for_a_bulk_update_below_the_in_flight_limit() throws InterruptedException
+    {
+        bufferSize = 1;
+        final CountDownLatch releaseRequests = new CountDownLatch(1);
+        when(targetCouchDbConnector.executeBulk(any(InputStream.class))).thenAnswer(new Answer<List<DocumentOperationResult>>()
+        {
+            public List<DocumentOperationResult> answer(InvocationOnMock invocation) throws Throwable
+            {
+                releaseRequests.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+
+        AsynchronousCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"a\"}", null));
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"b\"}", null));
+
+        assertThat(releaseRequests.getCount(), is(1L));
+
+        releaseRequests.countDown();
+        objectUnderTest.finishImport();
+
+        verify(targetCouchDbConnector, times(2)).executeBulk(any(InputStream.class));
+    }
+
+    @Test(expected = DbAccessException.class)
+    public void finishImport_should_throw_the_failure_of_a_request()
+    {
+        when(targetCouchDbConnector.executeBulk(any(InputStream.class))).thenThrow(new DbAccessException());
+
+        AsynchronousCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"a\"}", null));
+        objectUnderTest.finishImport();
+    }
+
+    @Test(timeout = 10000)
+    public void commandImport_should_not_block_after_abandoning_requests_which_had_not_started()
+    {
+        doThrow(new DbAccessException("503:Service Unavailable")).when(targetCouchDbConnector).updateMultipart(
+                anyString(), any(InputStream.class), anyString(), anyLong(), any(Options.class));
+        AsynchronousCouchImporter objectUnderTest = new AsynchronousCouchImporter(bufferSize, 1);
+
+        for(int i = 0; i < 1000; i++)
+        {
+            try
+            {
+                objectUnderTest.commandImport(createImportCommand(UUID.randomUUID().toString(), "abc"));
+            }
+            catch (DbAccessException e)
+            { }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void commandImport_should_delete_the_spool_files_of_abandoned_multipart_requests() throws InterruptedException
+    {
+        bufferSize = 4;
+        doThrow(new DbAccessException("503:Service Unavailable")).when(targetCouchDbConnector).updateMultipart(
+                anyString(), any(InputStream.class), anyString(), anyLong(), any(Options.class));
+        Set<String> existingSpoolFiles = getSpoolFiles();
+        AsynchronousCouchImporter objectUnderTest = new AsynchronousCouchImporter(bufferSize, 1);
+
+        for(int i = 0; i < 1000; i++)
+        {
+            try
+            {
+                objectUnderTest.commandImport(createImportCommand(UUID.randomUUID().toString(), "abc"));
+            }
+            catch (DbAccessException e)
+            { }
+        }
+        try
+        {
+            objectUnderTest.finishImport();
+        }
+        catch (DbAccessException e)
+        { }
+
+        Set<String> leftSpoolFiles = getSpoolFiles();
+        leftSpoolFiles.removeAll(existingSpoolFiles);
+        while(!leftSpoolFiles.isEmpty())
+        {
+            // Requests abandoned while running delete their own spool files once they stop.
+            Thread.sleep(10);
+            leftSpoolFiles = getSpoolFiles();
+            leftSpoolFiles.removeAll(existingSpoolFiles);
+        }
+    }
+
+    @Test
+    public void finishImport_without_a_buffer_should_not_update_anything()
+    {
+        createObjectUnderTest().finishImport();
+        verify(targetCouchDbConnector, never()).executeBulk(any(InputStream.class));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.allogy.couch.importers.command;
+
+import com.allogy.couch.filter.BatchDocumentFilter;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+public class BatchFilteringCouchImporterTest
+{
+    private BatchDocumentFilter batchDocumentFilter;
+    private CouchImporter innerCouchImporter;
+    private CouchDbConnector targetCouchDbConnector;
+    private List<String> importedData;
+    @Captor
+    private ArgumentCaptor<Map<String, String>> documentRevisionsArgumentCaptor;
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        batchDocumentFilter = mock(BatchDocumentFilter.class);
+        innerCouchImporter = mock(CouchImporter.class);
+        targetCouchDbConnector = mock(CouchDbConnector.class);
+        importedData = new ArrayList<String>();
+
+        when(batchDocumentFilter.includeDocuments(any(CouchDbConnector.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<Set<String>>()
+        {
+            public Set<String> answer(InvocationOnMock invocation) throws Throwable
+            {
+                Set<String> includedDocumentIds = new HashSet<String>();
+                for(Object id : ((Map<?, ?>) invocation.getArguments()[1]).keySet())
+                {
+                    if(!((String) id).startsWith("existing"))
+                        includedDocumentIds.add((String) id);
+                }
+                return includedDocumentIds;
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                importedData.add(IOUtils.toString(((ImportCommand) invocation.getArguments()[0]).getDataStream()));
+                return null;
+            }
+        }).when(innerCouchImporter).commandImport(any(ImportCommand.class));
+    }
+
+    private BatchFilteringCouchImporter createObjectUnderTest()
+    {
+        return new BatchFilteringCouchImporter(batchDocumentFilter, innerCouchImporter, 3, 1024);
+    }
+
+    private ImportCommand createImportCommand(String id)
+    {
+        return new BasicImportCommand(targetCouchDbConnector, id, "1-a", IOUtils.toInputStream("data of " + id), 0, null);
+    }
+
+    @Test
+    public void commandImport_should_filter_once_per_batch_and_pass_on_included_commands_in_order()
+    {
+        BatchFilteringCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand("new1"));
+        objectUnderTest.commandImport(createImportCommand("existing1"));
+
+        verify(batchDocumentFilter, never()).includeDocuments(any(CouchDbConnector.class), anyMapOf(String.class, String.class));
+
+        objectUnderTest.commandImport(createImportCommand("new2"));
+
+        verify(batchDocumentFilter, times(1)).includeDocuments(eq(targetCouchDbConnector), documentRevisionsArgumentCaptor.capture());
+        assertThat(documentRevisionsArgumentCaptor.getValue().size(), is(3));
+        assertThat(importedData.size(), is(2));
+        assertThat(importedData.get(0), is("data of new1"));
+        assertThat(importedData.get(1), is("data of new2"));
+    }
+
+    @Test
+    public void finishImport_should_filter_pending_commands_and_finish_the_inner_importer()
+    {
+        BatchFilteringCouchImporter objectUnderTest = createObjectUnderTest();
+        objectUnderTest.commandImport(createImportCommand("new1"));
+
+        objectUnderTest.finishImport();
+
+        assertThat(importedData.size(), is(1));
+        verify(innerCouchImporter).finishImport();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void commandImport_should_throw_if_the_command_has_no_revision()
+    {
+        createObjectUnderTest().commandImport(new BasicImportCommand(targetCouchDbConnector, "id", IOUtils.toInputStream(""), 0, null));
+    }
+}
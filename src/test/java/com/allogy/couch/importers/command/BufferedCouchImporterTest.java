@@ -16,6 +16,8 @@
 
 package com.allogy.couch.importers.command;
 
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.TransferMetricsListener;
 import org.apache.commons.io.IOUtils;
 import org.ektorp.CouchDbConnector;
 import org.ektorp.Options;
@@ -189,4 +191,75 @@ public class BufferedCouchImporterTest
         createObjectUnderTest().finishImport();
         verify(targetCouchDbConnector, never()).executeBulk(any(InputStream.class));
     }
+
+    @Test
+    public void commandImport_with_a_document_count_policy_should_bulk_update_batches_of_that_many_documents()
+    {
+        CouchImporter objectUnderTest = new BufferedCouchImporter(new ThresholdBulkFlushPolicy(2, Long.MAX_VALUE, 0));
+
+        for(int i = 0; i < 5; i++)
+            objectUnderTest.commandImport(createImportCommand(1));
+
+        verify(targetCouchDbConnector, times(2)).executeBulk(any(InputStream.class));
+
+        objectUnderTest.finishImport();
+
+        verify(targetCouchDbConnector, times(3)).executeBulk(any(InputStream.class));
+    }
+
+    @Test
+    public void commandImport_should_report_each_bulk_update_to_the_policy()
+    {
+        BulkFlushPolicy bulkFlushPolicy = mock(BulkFlushPolicy.class);
+        stub(bulkFlushPolicy.shouldFlush(anyInt(), anyLong(), anyLong())).toReturn(true);
+
+        new BufferedCouchImporter(bulkFlushPolicy).commandImport(createImportCommand(25));
+
+        verify(bulkFlushPolicy).bulkUpdateCompleted(eq(1), eq(25L), anyLong());
+    }
+
+    @Test
+    public void commandImport_should_report_each_bulk_update_to_the_transfer_metrics_listener()
+    {
+        TransferMetricsListener transferMetricsListener = mock(TransferMetricsListener.class);
+        CouchImporter objectUnderTest = new BufferedCouchImporter(new ThresholdBulkFlushPolicy(2, Long.MAX_VALUE, 0), transferMetricsListener);
+
+        objectUnderTest.commandImport(createImportCommand(10));
+        objectUnderTest.commandImport(createImportCommand(15));
+        objectUnderTest.commandImport(createImportCommand(20));
+
+        verify(transferMetricsListener).requestCompleted(eq(CouchRequestType.BULK_UPDATE), eq(2), eq(25L), anyLong());
+    }
+
+    @Test
+    public void commandImport_should_leave_the_buffer_unchanged_if_a_bulk_update_fails()
+    {
+        when(targetCouchDbConnector.executeBulk(any(InputStream.class))).thenThrow(new RuntimeException()).thenReturn(null);
+        TransferMetricsListener transferMetricsListener = mock(TransferMetricsListener.class);
+        CouchImporter objectUnderTest = new BufferedCouchImporter(new ThresholdBulkFlushPolicy(1000, 20, 0), transferMetricsListener);
+
+        ImportCommand importCommand = createImportCommand(25);
+        try
+        {
+            objectUnderTest.commandImport(importCommand);
+        }
+        catch (RuntimeException e)
+        { }
+        objectUnderTest.commandImport(importCommand);
+
+        verify(targetCouchDbConnector, times(2)).executeBulk(any(InputStream.class));
+        verify(transferMetricsListener).requestCompleted(eq(CouchRequestType.BULK_UPDATE), eq(1), eq(25L), anyLong());
+    }
+
+    @Test
+    public void commandImport_with_a_buffer_size_of_zero_should_bulk_update_each_document_on_its_own()
+    {
+        CouchImporter objectUnderTest = new BufferedCouchImporter(0);
+
+        objectUnderTest.commandImport(createImportCommand(10));
+        objectUnderTest.commandImport(createImportCommand(10));
+        objectUnderTest.finishImport();
+
+        verify(targetCouchDbConnector, times(2)).executeBulk(any(InputStream.class));
+    }
 }
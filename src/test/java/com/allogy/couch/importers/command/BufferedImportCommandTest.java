@@ -21,6 +21,7 @@ import org.ektorp.CouchDbConnector;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.UUID;
@@ -94,4 +95,59 @@ public class BufferedImportCommandTest
     {
         assertThat(createObjectUnderTest().getDataStream(), not(innerImportCommand.getDataStream()));
     }
+
+    @Test
+    public void getDataStream_should_return_the_inner_bytes_unchanged_when_the_size_matches() throws IOException
+    {
+        byte[] innerBytes = "{\"name\":\"caf\u00e9 \u2603\"}".getBytes("UTF-8");
+        stub(innerImportCommand.getDataStream()).toReturn(new ByteArrayInputStream(innerBytes));
+        stub(innerImportCommand.getSize()).toReturn((long) innerBytes.length);
+
+        assertThat(IOUtils.toByteArray(createObjectUnderTest().getDataStream()), is(innerBytes));
+    }
+
+    @Test
+    public void getDataStream_should_return_all_inner_bytes_when_the_stream_is_longer_than_the_size() throws IOException
+    {
+        stub(innerImportCommand.getSize()).toReturn(4L);
+
+        assertThat(IOUtils.toString(createObjectUnderTest().getDataStream()), is(innerDataStream));
+    }
+
+    @Test
+    public void getDataStream_should_return_all_inner_bytes_when_the_stream_is_shorter_than_the_size() throws IOException
+    {
+        stub(innerImportCommand.getSize()).toReturn(1000L);
+
+        assertThat(IOUtils.toString(createObjectUnderTest().getDataStream()), is(innerDataStream));
+    }
+
+    @Test
+    public void getDataStream_should_return_all_inner_bytes_when_the_size_is_overstated() throws IOException
+    {
+        stub(innerImportCommand.getSize()).toReturn((long) Integer.MAX_VALUE);
+
+        assertThat(IOUtils.toString(createObjectUnderTest().getDataStream()), is(innerDataStream));
+    }
+
+    @Test
+    public void getDataStream_should_return_the_inner_bytes_when_they_are_larger_than_the_initial_buffer() throws IOException
+    {
+        byte[] innerBytes = new byte[3 * 1024 * 1024 + 7];
+        for(int i = 0; i < innerBytes.length; i++)
+            innerBytes[i] = (byte) i;
+        stub(innerImportCommand.getDataStream()).toReturn(new ByteArrayInputStream(innerBytes));
+        stub(innerImportCommand.getSize()).toReturn((long) innerBytes.length);
+
+        assertThat(IOUtils.toByteArray(createObjectUnderTest().getDataStream()), is(innerBytes));
+    }
+
+    @Test
+    public void getDataStream_should_be_readable_more_than_once() throws IOException
+    {
+        ImportCommand objectUnderTest = createObjectUnderTest();
+
+        assertThat(IOUtils.toString(objectUnderTest.getDataStream()), is(innerDataStream));
+        assertThat(IOUtils.toString(objectUnderTest.getDataStream()), is(innerDataStream));
+    }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.allogy.couch.importers.command;
+
+import com.allogy.couch.metrics.CouchRequestType;
+import com.allogy.couch.metrics.RetryMetricsListener;
+import com.allogy.couch.metrics.TransferMetricsListener;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.Options;
+import org.ektorp.UpdateConflictException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class RetryingCouchImporterTest
+{
+    private CouchDbConnector targetCouchDbConnector;
+    private RetryMetricsListener retryMetricsListener;
+    private int maxAttempts;
+    private int retryBudget;
+
+    @Before
+    public void setUp()
+    {
+        targetCouchDbConnector = mock(CouchDbConnector.class);
+        retryMetricsListener = mock(RetryMetricsListener.class);
+        maxAttempts = 3;
+        retryBudget = 10;
+    }
+
+    private RetryingCouchImporter createObjectUnderTest(CouchImporter innerCouchImporter)
+    {
+        return new RetryingCouchImporter(innerCouchImporter, maxAttempts, retryBudget, 0, 0, 16, retryMetricsListener);
+    }
+
+    private ImportCommand createImportCommand(String data, String boundary)
+    {
+        ImportCommand importCommand = mock(ImportCommand.class);
+        stub(importCommand.getTargetCouchDbConnector()).toReturn(targetCouchDbConnector);
+        stub(importCommand.getId()).toReturn(UUID.randomUUID().toString());
+        stub(importCommand.getDataStream()).toReturn(IOUtils.toInputStream(data));
+        stub(importCommand.getSize()).toReturn((long) data.length());
+        stub(importCommand.getBoundary()).toReturn(boundary);
+        return importCommand;
+    }
+
+    private static DbAccessException serviceUnavailable()
+    {
+        return new DbAccessException("503:Service Unavailable\nURI: /db/_bulk_docs\nResponse Body: \n{}");
+    }
+
+    private static DbAccessException connectionReset()
+    {
+        return new DbAccessException(new SocketException("Connection reset"));
+    }
+
+    @Test
+    public void commandImport_should_resend_a_multipart_update_after_a_5xx_response() throws IOException
+    {
+        String data = "--abc\r\n" + UUID.randomUUID().toString() + "\r\n--abc--";
+        doThrow(serviceUnavailable()).doNothing().when(targetCouchDbConnector).updateMultipart(
+                anyString(), any(InputStream.class), anyString(), anyLong(), any(Options.class));
+
+        createObjectUnderTest(new ImmediateCouchImporter()).commandImport(createImportCommand(data, "abc"));
+
+        ArgumentCaptor<InputStream> inputStreamArgumentCaptor = ArgumentCaptor.forClass(InputStream.class);
+        verify(targetCouchDbConnector, times(2)).updateMultipart(anyString(), inputStreamArgumentCaptor.capture(),
+                eq("abc"), eq((long) data.length()), any(Options.class));
+        for(InputStream dataStream : inputStreamArgumentCaptor.getAllValues())
+            assertThat(IOUtils.toString(dataStream), is(data));
+    }
+
+    @Test
+    public void commandImport_should_replay_a_bulk_update_after_a_connection_error() throws IOException
+    {
+        when(targetCouchDbConnector.executeBulk(any(InputStream.class))).thenThrow(connectionReset()).thenReturn(null);
+        TransferMetricsListener bulkMetricsListener = mock(TransferMetricsListener.class);
+        RetryingCouchImporter objectUnderTest = createObjectUnderTest(
+                new BufferedCouchImporter(new ThresholdBulkFlushPolicy(2, Long.MAX_VALUE, 0), bulkMetricsListener));
+
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"a\"}", null));
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"b\"}", null));
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"c\"}", null));
+
+        ArgumentCaptor<InputStream> inputStreamArgumentCaptor = ArgumentCaptor.forClass(InputStream.class);
+        verify(targetCouchDbConnector, times(2)).executeBulk(inputStreamArgumentCaptor.capture());
+        List<InputStream> bulkStreams = inputStreamArgumentCaptor.getAllValues();
+        assertThat(IOUtils.toString(bulkStreams.get(1)), is(IOUtils.toString(bulkStreams.get(0))));
+        verify(bulkMetricsListener).requestCompleted(eq(CouchRequestType.BULK_UPDATE), eq(2), anyLong(), anyLong());
+    }
+
+    @Test
+    public void commandImport_should_read_the_data_of_a_bulk_update_command_once()
+    {
+        ImportCommand importCommand = createImportCommand("{\"_id\":\"a\"}", null);
+        RetryingCouchImporter objectUnderTest = createObjectUnderTest(new BufferedCouchImporter(1000));
+
+        objectUnderTest.commandImport(importCommand);
+
+        verify(importCommand, times(1)).getDataStream();
+    }
+
+    @Test
+    public void finishImport_should_retry_the_last_bulk_update()
+    {
+        when(targetCouchDbConnector.executeBulk(any(InputStream.class))).thenThrow(serviceUnavailable()).thenReturn(null);
+        RetryingCouchImporter objectUnderTest = createObjectUnderTest(new BufferedCouchImporter(1000));
+
+        objectUnderTest.commandImport(createImportCommand("{\"_id\":\"a\"}", null));
+        objectUnderTest.finishImport();
+
+        verify(targetCouchDbConnector, times(2)).executeBulk(any(InputStream.class));
+    }
+
+    @Test
+    public void commandImport_should_not_retry_an_update_conflict()
+    {
+        UpdateConflictException updateConflictException = new UpdateConflictException();
+        doThrow(updateConflictException).when(targetCouchDbConnector).update(
+                anyString(), any(InputStream.class), anyLong(), any(Options.class));
+
+        try
+        {
+            createObjectUnderTest(new ImmediateCouchImporter()).commandImport(createImportCommand("{}", null));
+            fail();
+        }
+        catch (UpdateConflictException e)
+        {
+            assertThat(e, is(updateConflictException));
+        }
+        verify(targetCouchDbConnector, times(1)).update(anyString(), any(InputStream.class), anyLong(), any(Options.class));
+    }
+
+    @Test
+    public void commandImport_should_give_up_after_the_maximum_number_of_attempts()
+    {
+        doThrow(serviceUnavailable()).when(targetCouchDbConnector).update(
+                anyString(), any(InputStream.class), anyLong(), any(Options.class));
+
+        try
+        {
+            createObjectUnderTest(new ImmediateCouchImporter()).commandImport(createImportCommand("{}", null));
+            fail();
+        }
+        catch (DbAccessException e)
+        { }
+        verify(targetCouchDbConnector, times(maxAttempts)).update(anyString(), any(InputStream.class), anyLong(), any(Options.class));
+    }
+
+    @Test
+    public void commandImport_should_stop_retrying_once_the_retry_budget_is_spent()
+    {
+        maxAttempts = 10;
+        retryBudget = 2;
+        doThrow(connectionReset()).when(targetCouchDbConnector).update(
+                anyString(), any(InputStream.class), anyLong(), any(Options.class));
+        RetryingCouchImporter objectUnderTest = createObjectUnderTest(new ImmediateCouchImporter());
+
+        try
+        {
+            objectUnderTest.commandImport(createImportCommand("{}", null));
+            fail();
+        }
+        catch (DbAccessException e)
+        { }
+        verify(targetCouchDbConnector, times(3)).update(anyString(), any(InputStream.class), anyLong(), any(Options.class));
+        assertThat(objectUnderTest.getRemainingRetries(), is(0));
+    }
+
+    @Test
+    public void commandImport_should_report_each_retry_to_the_retry_metrics_listener()
+    {
+        doThrow(serviceUnavailable()).doThrow(serviceUnavailable()).doNothing().when(targetCouchDbConnector).update(
+                anyString(), any(InputStream.class), anyLong(), any(Options.class));
+
+        createObjectUnderTest(new ImmediateCouchImporter()).commandImport(createImportCommand("{}", null));
+
+        verify(retryMetricsListener).requestRetried(eq(1), anyLong());
+        verify(retryMetricsListener).requestRetried(eq(2), anyLong());
+    }
+
+    @Test
+    public void isRetryable_should_accept_5xx_responses_and_connection_errors()
+    {
+        assertThat(RetryingCouchImporter.isRetryable(serviceUnavailable()), is(true));
+        assertThat(RetryingCouchImporter.isRetryable(new DbAccessException("500:Internal Server Error")), is(true));
+        assertThat(RetryingCouchImporter.isRetryable(connectionReset()), is(true));
+    }
+
+    @Test
+    public void isRetryable_should_reject_other_failures()
+    {
+        assertThat(RetryingCouchImporter.isRetryable(new DbAccessException("400:Bad Request")), is(false));
+        assertThat(RetryingCouchImporter.isRetryable(new UpdateConflictException()), is(false));
+        assertThat(RetryingCouchImporter.isRetryable(new RuntimeException(new IOException())), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_should_throw_if_maxAttempts_is_less_than_one()
+    {
+        new RetryingCouchImporter(new ImmediateCouchImporter(), 0, 1, 0, 0, 16);
+    }
+}
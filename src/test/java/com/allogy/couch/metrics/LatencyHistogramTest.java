@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest
+{
+	private LatencyHistogram createObjectUnderTest()
+	{
+		return new LatencyHistogram();
+	}
+
+	@Test
+	public void getPercentileNanos_should_return_zero_if_nothing_is_recorded()
+	{
+		assertThat(createObjectUnderTest().getPercentileNanos(50), is(0L));
+	}
+
+	@Test
+	public void getPercentileNanos_should_be_within_a_factor_of_two_of_the_percentile()
+	{
+		LatencyHistogram objectUnderTest = createObjectUnderTest();
+		for(int i = 1; i <= 100; i++)
+			objectUnderTest.record(TimeUnit.MILLISECONDS.toNanos(i));
+
+		long p90 = objectUnderTest.getPercentileNanos(90);
+		assertTrue(p90 >= TimeUnit.MILLISECONDS.toNanos(90));
+		assertTrue(p90 <= TimeUnit.MILLISECONDS.toNanos(180));
+	}
+
+	@Test
+	public void getPercentileNanos_should_not_exceed_the_maximum()
+	{
+		LatencyHistogram objectUnderTest = createObjectUnderTest();
+		objectUnderTest.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+		assertThat(objectUnderTest.getPercentileNanos(100), is(TimeUnit.MILLISECONDS.toNanos(3)));
+		assertThat(objectUnderTest.getMaxNanos(), is(TimeUnit.MILLISECONDS.toNanos(3)));
+		assertThat(objectUnderTest.getCount(), is(1L));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class LoggingTransferMetricsListenerTest
+{
+	private LoggingTransferMetricsListener createObjectUnderTest()
+	{
+		return new LoggingTransferMetricsListener(Long.MAX_VALUE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_reportIntervalMillis_is_negative()
+	{
+		new LoggingTransferMetricsListener(-1);
+	}
+
+	@Test
+	public void getSummary_should_include_document_and_byte_totals()
+	{
+		LoggingTransferMetricsListener objectUnderTest = createObjectUnderTest();
+		objectUnderTest.documentTransferred("a", 100, 0);
+		objectUnderTest.documentTransferred("b", 250, 0);
+
+		assertThat(objectUnderTest.getSummary(), containsString("Transferred 2 documents"));
+		assertThat(objectUnderTest.getSummary(), containsString("350 bytes"));
+	}
+
+	@Test
+	public void getSummary_should_include_the_filter_hit_rate()
+	{
+		LoggingTransferMetricsListener objectUnderTest = createObjectUnderTest();
+		objectUnderTest.documentFiltered("a", true);
+		objectUnderTest.documentFiltered("b", false);
+		objectUnderTest.documentFiltered("c", false);
+		objectUnderTest.documentFiltered("d", false);
+
+		assertThat(objectUnderTest.getSummary(), containsString("filter included 1 of 4 documents (25.0%)"));
+	}
+
+	@Test
+	public void getSummary_should_not_include_a_filter_hit_rate_if_nothing_was_filtered()
+	{
+		assertThat(createObjectUnderTest().getSummary(), not(containsString("filter")));
+	}
+
+	@Test
+	public void getSummary_should_include_blocked_time()
+	{
+		LoggingTransferMetricsListener objectUnderTest = createObjectUnderTest();
+		objectUnderTest.readBlocked(TimeUnit.MILLISECONDS.toNanos(20));
+		objectUnderTest.readBlocked(TimeUnit.MILLISECONDS.toNanos(30));
+		objectUnderTest.writeBlocked(TimeUnit.MILLISECONDS.toNanos(7));
+
+		assertThat(objectUnderTest.getSummary(), containsString("blocked reading 50 ms, writing 7 ms"));
+	}
+
+	@Test
+	public void getSummary_should_include_batch_sizes_per_request_type()
+	{
+		LoggingTransferMetricsListener objectUnderTest = createObjectUnderTest();
+		objectUnderTest.requestCompleted(CouchRequestType.BULK_UPDATE, 10, 1000, TimeUnit.MILLISECONDS.toNanos(5));
+		objectUnderTest.requestCompleted(CouchRequestType.BULK_UPDATE, 20, 3000, TimeUnit.MILLISECONDS.toNanos(5));
+
+		assertThat(objectUnderTest.getSummary(), containsString("BULK_UPDATE: 2 requests, 15.0 documents and 2000 bytes per request"));
+	}
+
+	@Test
+	public void getSummary_should_include_connection_pool_saturation()
+	{
+		LoggingTransferMetricsListener objectUnderTest = createObjectUnderTest();
+		objectUnderTest.connectionLeased(0, false);
+		objectUnderTest.connectionLeased(0, false);
+		objectUnderTest.connectionLeased(0, false);
+		objectUnderTest.connectionLeased(TimeUnit.MILLISECONDS.toNanos(12), true);
+
+		assertThat(objectUnderTest.getSummary(), containsString("4 connections leased, 1 from an exhausted pool (25.0%), waiting 12 ms"));
+	}
+
+	@Test
+	public void getSummary_should_not_include_connections_if_none_were_leased()
+	{
+		assertThat(createObjectUnderTest().getSummary(), not(containsString("connections")));
+	}
+
+	@Test
+	public void getSummary_should_include_retried_requests()
+	{
+		LoggingTransferMetricsListener objectUnderTest = createObjectUnderTest();
+		objectUnderTest.requestRetried(1, 40);
+		objectUnderTest.requestRetried(2, 75);
+
+		assertThat(objectUnderTest.getSummary(), containsString("2 requests retried, backing off 115 ms"));
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.couch.transfer;
+
+import com.allogy.couch.filter.DocumentFilter;
+import com.allogy.couch.importers.command.CouchImporter;
+import com.allogy.couch.importers.command.ImportCommand;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class StreamingCouchDatabaseTransferTest
+{
+	private DocumentFilter documentFilter;
+	private CouchImporter couchImporter;
+	private CouchDbConnector sourceCouchDbConnector;
+	private CouchDbConnector targetCouchDbConnector;
+	private HttpClient sourceHttpClient;
+	private List<String> importedDocuments;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		documentFilter = mock(DocumentFilter.class);
+		couchImporter = mock(CouchImporter.class);
+		sourceCouchDbConnector = mock(CouchDbConnector.class);
+		targetCouchDbConnector = mock(CouchDbConnector.class);
+		sourceHttpClient = mock(HttpClient.class);
+		importedDocuments = new ArrayList<String>();
+
+		stub(sourceCouchDbConnector.path()).toReturn("/source/");
+		stub(sourceCouchDbConnector.getConnection()).toReturn(sourceHttpClient);
+		stub(documentFilter.includeDocument(any(CouchDbConnector.class), anyString(), anyString())).toReturn(true);
+		stub(sourceCouchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult());
+		stubResponse("/source/", "{\"db_name\":\"source\",\"update_seq\":0}");
+		stubResponse("/source/_changes?style=main_only&limit=10&since=0", "{\"results\":[],\"last_seq\":0}");
+
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				ImportCommand importCommand = (ImportCommand) invocation.getArguments()[0];
+				assertThat(importCommand.getTargetCouchDbConnector(), sameInstance(targetCouchDbConnector));
+				importedDocuments.add(importCommand.getId() + "@" + importCommand.getRevision() + ":" +
+						IOUtils.toString(importCommand.getDataStream(), "UTF-8") + ":" + importCommand.getBoundary());
+				return null;
+			}
+		}).when(couchImporter).commandImport(any(ImportCommand.class));
+	}
+
+	private StreamingCouchDatabaseTransfer createObjectUnderTest()
+	{
+		return new StreamingCouchDatabaseTransfer(documentFilter, couchImporter, 10, 1000);
+	}
+
+	private HttpResponse stubResponse(String uri, String content) throws IOException
+	{
+		HttpResponse response = mock(HttpResponse.class);
+		stub(response.isSuccessful()).toReturn(true);
+		stub(response.getContent()).toReturn(new ByteArrayInputStream(content.getBytes("UTF-8")));
+		stub(sourceHttpClient.get(uri)).toReturn(response);
+		return response;
+	}
+
+	private HttpResponse stubDocument(String id, String revision, String contentType) throws IOException
+	{
+		String content = "content of " + id;
+		HttpResponse response = mock(HttpResponse.class);
+		stub(response.getETag()).toReturn(revision);
+		stub(response.getContentType()).toReturn(contentType);
+		stub(response.getContentLength()).toReturn((long) content.length());
+		stub(response.getContent()).toReturn(new ByteArrayInputStream(content.getBytes("UTF-8")));
+		stub(sourceHttpClient.get(eq("/source/" + id + "?revs=true&attachments=true&rev=" + revision), anyMapOf(String.class, String.class)))
+				.toReturn(response);
+		return response;
+	}
+
+	private static ViewResult createViewResult(String... ids) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"total_rows\":" + ids.length + ",\"offset\":0,\"rows\":[");
+		for(int i = 0; i < ids.length; i++)
+		{
+			if(i > 0)
+				json.append(",");
+			json.append("{\"id\":\"").append(ids[i]).append("\",\"key\":\"").append(ids[i])
+					.append("\",\"value\":{\"rev\":\"1-").append(ids[i]).append("\"}}");
+		}
+		json.append("]}");
+
+		return new ViewResult(new ObjectMapper().readTree(json.toString()), false);
+	}
+
+	private static String createChange(int sequence, String id, String revision)
+	{
+		return "{\"seq\":" + sequence + ",\"id\":\"" + id + "\",\"changes\":[{\"rev\":\"" + revision + "\"}]}";
+	}
+
+	@Test
+	public void transfer_should_import_every_document_from_the_source() throws IOException
+	{
+		stub(sourceCouchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a", "b"));
+		stubDocument("a", "1-a", "application/json");
+		stubDocument("b", "1-b", "multipart/related; boundary=\"abc\"");
+
+		String sequence = createObjectUnderTest().transfer(sourceCouchDbConnector, targetCouchDbConnector, false);
+
+		assertThat(importedDocuments.toString(), is("[a@1-a:content of a:null, b@1-b:content of b:abc]"));
+		assertThat(sequence, is("0"));
+		verify(couchImporter, atLeastOnce()).finishImport();
+	}
+
+	@Test
+	public void transfer_should_release_each_document_response() throws IOException
+	{
+		stub(sourceCouchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a"));
+		HttpResponse response = stubDocument("a", "1-a", "application/json");
+
+		createObjectUnderTest().transfer(sourceCouchDbConnector, targetCouchDbConnector, false);
+
+		verify(response).releaseConnection();
+	}
+
+	@Test
+	public void transfer_should_not_request_documents_excluded_by_the_filter() throws IOException
+	{
+		stub(sourceCouchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a", "b"));
+		stubDocument("b", "1-b", "application/json");
+		stub(documentFilter.includeDocument(targetCouchDbConnector, "a", "1-a")).toReturn(false);
+
+		createObjectUnderTest().transfer(sourceCouchDbConnector, targetCouchDbConnector, false);
+
+		verify(sourceHttpClient, never()).get(startsWith("/source/a?"), anyMapOf(String.class, String.class));
+		assertThat(importedDocuments.toString(), is("[b@1-b:content of b:null]"));
+	}
+
+	@Test
+	public void transfer_should_import_changes_made_since_it_began() throws IOException
+	{
+		stubResponse("/source/", "{\"db_name\":\"source\",\"update_seq\":4}");
+		stub(sourceCouchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a"));
+		stubDocument("a", "1-a", "application/json");
+		stubDocument("c", "2-c", "application/json");
+		stubResponse("/source/_changes?style=main_only&limit=10&since=4",
+				"{\"results\":[" + createChange(5, "c", "2-c") + "],\"last_seq\":5}");
+
+		String sequence = createObjectUnderTest().transfer(sourceCouchDbConnector, targetCouchDbConnector, false);
+
+		assertThat(importedDocuments.toString(), is("[a@1-a:content of a:null, c@2-c:content of c:null]"));
+		assertThat(sequence, is("5"));
+	}
+
+	@Test
+	public void transfer_should_follow_changes_until_stopped() throws IOException
+	{
+		final StreamingCouchDatabaseTransfer objectUnderTest = createObjectUnderTest();
+		stubDocument("d", "1-d", "application/json");
+		stubResponse("/source/_changes?style=main_only&limit=10&since=0&feed=longpoll&timeout=1000",
+				"{\"results\":[" + createChange(1, "d", "1-d") + "],\"last_seq\":1}");
+		doAnswer(new Answer<Void>()
+		{
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				if(!importedDocuments.isEmpty())
+					objectUnderTest.stop();
+				return null;
+			}
+		}).when(couchImporter).finishImport();
+
+		String sequence = objectUnderTest.transfer(sourceCouchDbConnector, targetCouchDbConnector, true);
+
+		assertThat(importedDocuments.toString(), is("[d@1-d:content of d:null]"));
+		assertThat(sequence, is("1"));
+	}
+
+	@Test
+	public void transfer_should_skip_documents_deleted_before_they_are_read() throws IOException
+	{
+		stub(sourceCouchDbConnector.queryView(any(ViewQuery.class))).toReturn(createViewResult("a"));
+		HttpResponse response = mock(HttpResponse.class);
+		stub(response.getContent()).toReturn(new ByteArrayInputStream(new byte[0]));
+		stub(sourceHttpClient.get(anyString(), anyMapOf(String.class, String.class))).toReturn(response);
+
+		createObjectUnderTest().transfer(sourceCouchDbConnector, targetCouchDbConnector, false);
+
+		verify(couchImporter, never()).commandImport(any(ImportCommand.class));
+		verify(response).releaseConnection();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_pageSize_is_less_than_one()
+	{
+		new StreamingCouchDatabaseTransfer(documentFilter, couchImporter, 0, 1000);
+	}
+}
@@ -21,6 +21,7 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -63,4 +64,26 @@ public class BulkUpdateInputStreamTest
         assertThat(jsonArray.size(), is(innerStrings.size()));
         assertThat(jsonArray, is((Collection)innerStrings));
     }
+
+    @Test
+    public void stream_read_in_small_chunks_should_return_the_inner_streams_separated_by_commas() throws IOException
+    {
+        ByteArrayOutputStream chunkedOutputStream = new ByteArrayOutputStream();
+        InputStream chunkedStream = createObjectUnderTest();
+        byte[] buffer = new byte[3];
+        int bytesRead;
+        while((bytesRead = chunkedStream.read(buffer, 0, buffer.length)) != -1)
+            chunkedOutputStream.write(buffer, 0, bytesRead);
+
+        String expectedString = "[\"" + innerStrings.get(0) + "\",\"" + innerStrings.get(1) + "\",\"" + innerStrings.get(2) + "\"]";
+        assertThat(chunkedOutputStream.toString("UTF-8"), is(expectedString));
+    }
+
+    @Test
+    public void stream_should_return_an_empty_JSON_array_without_inner_InputStream_streams() throws IOException
+    {
+        innerInputStreams.clear();
+
+        assertThat(IOUtils.toString(createObjectUnderTest()), is("[]"));
+    }
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.io;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MappedZipArchiveTest
+{
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File createArchive(int method, String... names) throws IOException
+	{
+		File archiveFile = temporaryFolder.newFile("archive.zip");
+		ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(archiveFile));
+		try
+		{
+			zipOutputStream.setComment("a comment");
+			for(String name : names)
+			{
+				byte[] content = createContent(name);
+				ZipEntry zipEntry = new ZipEntry(name);
+				zipEntry.setMethod(method);
+				if(method == ZipEntry.STORED)
+				{
+					CRC32 crc32 = new CRC32();
+					crc32.update(content);
+					zipEntry.setSize(content.length);
+					zipEntry.setCrc(crc32.getValue());
+				}
+				zipOutputStream.putNextEntry(zipEntry);
+				zipOutputStream.write(content);
+			}
+		}
+		finally
+		{
+			zipOutputStream.close();
+		}
+		return archiveFile;
+	}
+
+	private static byte[] createContent(String name) throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < 100; i++)
+			content.append("content of ").append(name).append(' ');
+		return content.toString().getBytes("UTF-8");
+	}
+
+	private static String read(MappedZipArchive mappedZipArchive, String name) throws IOException
+	{
+		InputStream inputStream = mappedZipArchive.getInputStream(mappedZipArchive.getEntry(name));
+		try
+		{
+			return IOUtils.toString(inputStream, "UTF-8");
+		}
+		finally
+		{
+			inputStream.close();
+		}
+	}
+
+	private static List<String> getNames(MappedZipArchive mappedZipArchive)
+	{
+		List<String> names = new ArrayList<String>();
+		for(MappedZipEntry entry : mappedZipArchive.getEntries())
+			names.add(entry.getName());
+		return names;
+	}
+
+	@Test
+	public void getEntries_should_return_the_entries_in_the_order_written() throws IOException
+	{
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(createArchive(ZipEntry.DEFLATED, "c", "a", "b"));
+		try
+		{
+			assertThat(getNames(mappedZipArchive).toString(), is("[c, a, b]"));
+			assertThat(mappedZipArchive.getEntry("a").getSize(), is((long) createContent("a").length));
+			assertThat(mappedZipArchive.getEntry("d"), nullValue());
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	@Test
+	public void getInputStream_should_read_deflated_entries() throws IOException
+	{
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(createArchive(ZipEntry.DEFLATED, "a", "b"));
+		try
+		{
+			assertThat(read(mappedZipArchive, "b"), is(new String(createContent("b"), "UTF-8")));
+			assertThat(read(mappedZipArchive, "a"), is(new String(createContent("a"), "UTF-8")));
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	@Test
+	public void getInputStream_should_read_stored_entries() throws IOException
+	{
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(createArchive(ZipEntry.STORED, "a", "b"));
+		try
+		{
+			assertThat(mappedZipArchive.getEntry("a").getMethod(), is(ZipEntry.STORED));
+			assertThat(read(mappedZipArchive, "b"), is(new String(createContent("b"), "UTF-8")));
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	@Test
+	public void getEntries_should_decode_names_as_utf8() throws IOException
+	{
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(createArchive(ZipEntry.DEFLATED, "caf\u00e9"));
+		try
+		{
+			assertThat(read(mappedZipArchive, "caf\u00e9"), is(new String(createContent("caf\u00e9"), "UTF-8")));
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	@Test
+	public void getEntries_should_read_a_zip64_central_directory() throws IOException
+	{
+		String[] names = new String[70000];
+		for(int i = 0; i < names.length; i++)
+			names[i] = Integer.toString(i);
+
+		MappedZipArchive mappedZipArchive = new MappedZipArchive(createArchive(ZipEntry.DEFLATED, names));
+		try
+		{
+			assertThat(mappedZipArchive.getEntries().size(), is(70000));
+			assertThat(read(mappedZipArchive, "69999"), is(new String(createContent("69999"), "UTF-8")));
+		}
+		finally
+		{
+			mappedZipArchive.close();
+		}
+	}
+
+	@Test(expected = ZipException.class)
+	public void constructor_should_throw_for_a_file_which_is_not_a_zip_archive() throws IOException
+	{
+		File file = temporaryFolder.newFile("not.zip");
+		FileOutputStream outputStream = new FileOutputStream(file);
+		try
+		{
+			outputStream.write("not a zip archive".getBytes("UTF-8"));
+		}
+		finally
+		{
+			outputStream.close();
+		}
+
+		new MappedZipArchive(file);
+	}
+
+	@Test(expected = ZipException.class)
+	public void constructor_should_throw_for_an_overstated_entry_count() throws IOException
+	{
+		File archiveFile = createArchive(ZipEntry.DEFLATED, "doc1");
+		long endOfCentralDirectoryOffset = archiveFile.length() - 22 - "a comment".length();
+		writeUnsignedShort(archiveFile, endOfCentralDirectoryOffset + 8, 5);
+		writeUnsignedShort(archiveFile, endOfCentralDirectoryOffset + 10, 5);
+
+		new MappedZipArchive(archiveFile);
+	}
+
+	@Test(expected = ZipException.class)
+	public void constructor_should_throw_for_a_central_directory_header_longer_than_the_central_directory() throws IOException
+	{
+		File archiveFile = createArchive(ZipEntry.DEFLATED, "doc1");
+		long endOfCentralDirectoryOffset = archiveFile.length() - 22 - "a comment".length();
+		RandomAccessFile randomAccessFile = new RandomAccessFile(archiveFile, "r");
+		long centralDirectoryOffset;
+		try
+		{
+			randomAccessFile.seek(endOfCentralDirectoryOffset + 16);
+			centralDirectoryOffset = Integer.reverseBytes(randomAccessFile.readInt());
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+		writeUnsignedShort(archiveFile, centralDirectoryOffset + 32, 1000);
+
+		new MappedZipArchive(archiveFile);
+	}
+
+	private static void writeUnsignedShort(File file, long offset, int value) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try
+		{
+			randomAccessFile.seek(offset);
+			randomAccessFile.write(value & 0xff);
+			randomAccessFile.write(value >>> 8);
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+}
@@ -53,6 +53,17 @@ public class UnClosableInputStreamTest
 		assertThat(readValue, is(stubbedReadValue));
 	}
 
+	@Test
+	public void read_with_buffer_should_return_read_with_buffer_from_inner_InputStream() throws IOException
+	{
+		byte[] buffer = new byte[16];
+		stub(innerInputStream.read(buffer, 2, 10)).toReturn(7);
+
+		int readValue = createObjectUnderTest().read(buffer, 2, 10);
+
+		assertThat(readValue, is(7));
+	}
+
 	@Test
 	public void close_should_not_call_close_on_inner_InputStream() throws IOException
 	{
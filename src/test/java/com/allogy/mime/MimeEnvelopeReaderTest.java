@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.mime;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MimeEnvelopeReaderTest
+{
+	private static final String HEADERS = "Content-ID: doc1\r\n"
+			+ "Content-Length: 11\r\n"
+			+ "Content-Type: multipart/related; boundary=\"abc\"\r\n"
+			+ "ETag: 1-a\r\n"
+			+ "\r\n";
+
+	private MimeEnvelopeReader createObjectUnderTest()
+	{
+		return new MimeEnvelopeReader();
+	}
+
+	private static InputStream createInputStream(String text) throws IOException
+	{
+		return new ByteArrayInputStream(text.getBytes("UTF-8"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_maximumHeaderLength_is_less_than_two()
+	{
+		new MimeEnvelopeReader(1);
+	}
+
+	@Test
+	public void read_should_return_the_headers_of_an_exported_document() throws IOException
+	{
+		MimeEnvelope mimeEnvelope = createObjectUnderTest().read(createInputStream(HEADERS + "hello world"));
+
+		assertThat(mimeEnvelope.getContentId(), is("doc1"));
+		assertThat(mimeEnvelope.getETag(), is("1-a"));
+		assertThat(mimeEnvelope.getContentType(), is("multipart/related; boundary=\"abc\""));
+		assertThat(mimeEnvelope.getBoundary(), is("abc"));
+		assertThat(mimeEnvelope.getContentLength(), is(11L));
+		assertThat(mimeEnvelope.getHeaderLength(), is(HEADERS.length()));
+	}
+
+	@Test
+	public void read_should_leave_the_stream_at_the_first_byte_of_the_body() throws IOException
+	{
+		InputStream inputStream = createInputStream(HEADERS + "hello world");
+
+		createObjectUnderTest().read(inputStream);
+
+		assertThat(IOUtils.toString(inputStream, "UTF-8"), is("hello world"));
+	}
+
+	@Test
+	public void read_should_be_reusable_for_consecutive_entries() throws IOException
+	{
+		InputStream inputStream = createInputStream(HEADERS + "Content-ID: doc2\r\nETag: 2-b\r\n\r\nbody");
+		MimeEnvelopeReader objectUnderTest = createObjectUnderTest();
+
+		objectUnderTest.read(inputStream);
+		MimeEnvelope mimeEnvelope = objectUnderTest.read(inputStream);
+
+		assertThat(mimeEnvelope.getContentId(), is("doc2"));
+		assertThat(mimeEnvelope.getETag(), is("2-b"));
+		assertThat(mimeEnvelope.getContentType(), is(nullValue()));
+		assertThat(mimeEnvelope.getContentLength(), is(-1L));
+	}
+
+	@Test
+	public void read_should_match_header_names_ignoring_case_and_trim_values() throws IOException
+	{
+		MimeEnvelope mimeEnvelope = createObjectUnderTest().read(createInputStream("content-id:\t doc1 \r\netag:1-a\r\n\r\n"));
+
+		assertThat(mimeEnvelope.getContentId(), is("doc1"));
+		assertThat(mimeEnvelope.getETag(), is("1-a"));
+	}
+
+	@Test
+	public void read_should_decode_values_as_UTF8() throws IOException
+	{
+		MimeEnvelope mimeEnvelope = createObjectUnderTest().read(createInputStream("Content-ID: caf\u00e9-\u65e5\u672c\r\n\r\n"));
+
+		assertThat(mimeEnvelope.getContentId(), is("caf\u00e9-\u65e5\u672c"));
+	}
+
+	@Test
+	public void read_should_read_headers_longer_than_the_initial_buffer() throws IOException
+	{
+		StringBuilder id = new StringBuilder();
+		for(int i = 0; i < 5000; i++)
+			id.append('x');
+
+		MimeEnvelope mimeEnvelope = createObjectUnderTest().read(createInputStream("Content-ID: " + id + "\r\n\r\n"));
+
+		assertThat(mimeEnvelope.getContentId(), is(id.toString()));
+	}
+
+	@Test
+	public void read_should_return_no_headers_for_an_empty_header_block() throws IOException
+	{
+		MimeEnvelope mimeEnvelope = createObjectUnderTest().read(createInputStream("\r\nbody"));
+
+		assertThat(mimeEnvelope.getContentId(), is(nullValue()));
+		assertThat(mimeEnvelope.getHeaderLength(), is(2));
+	}
+
+	@Test(expected = EOFException.class)
+	public void read_should_throw_if_the_stream_ends_within_the_headers() throws IOException
+	{
+		createObjectUnderTest().read(createInputStream("Content-ID: doc1\r\n"));
+	}
+
+	@Test(expected = IOException.class)
+	public void read_should_throw_if_the_headers_exceed_the_maximum_length() throws IOException
+	{
+		new MimeEnvelopeReader(16).read(createInputStream(HEADERS));
+	}
+
+	@Test(expected = IOException.class)
+	public void read_should_throw_if_the_headers_start_with_a_bare_line_feed() throws IOException
+	{
+		createObjectUnderTest().read(createInputStream("\nContent-ID: doc1\r\n\r\n"));
+	}
+
+	@Test(expected = IOException.class)
+	public void read_should_throw_for_an_invalid_content_length() throws IOException
+	{
+		createObjectUnderTest().read(createInputStream("Content-Length: 1x\r\n\r\n"));
+	}
+
+	@Test
+	public void getBoundary_should_read_quoted_and_unquoted_boundaries() throws IOException
+	{
+		assertThat(MimeEnvelopeReader.getBoundary("multipart/related;boundary=\"a;b\""), is("a;b"));
+		assertThat(MimeEnvelopeReader.getBoundary("multipart/related; type=x; BOUNDARY=abc"), is("abc"));
+		assertThat(MimeEnvelopeReader.getBoundary("text/plain;charset=utf-8"), is(nullValue()));
+		assertThat(MimeEnvelopeReader.getBoundary("application/json"), is(nullValue()));
+	}
+
+	@Test
+	public void currentThreadReader_should_return_the_same_reader_on_a_thread()
+	{
+		assertThat(MimeEnvelopeReader.currentThreadReader(), is(sameInstance(MimeEnvelopeReader.currentThreadReader())));
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2012 David Venable.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.allogy.mime;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MimeEnvelopeWriterTest
+{
+	private List<Header> headers;
+	private String body;
+	private ByteArrayOutputStream outputStream;
+
+	@Before
+	public void setUp()
+	{
+		headers = new ArrayList<Header>();
+		for(int i = 0; i < 3; i++)
+			headers.add(new BasicHeader(UUID.randomUUID().toString(), UUID.randomUUID().toString()));
+
+		body = UUID.randomUUID().toString();
+		outputStream = new ByteArrayOutputStream();
+	}
+
+	private MimeEnvelopeWriter createObjectUnderTest()
+	{
+		return new MimeEnvelopeWriter(16);
+	}
+
+	private byte[] generateWithInputStream() throws IOException
+	{
+		return IOUtils.toByteArray(new MimeGeneratingInputStream(headers, IOUtils.toInputStream(body, "UTF-8")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_should_throw_if_bufferSize_is_less_than_one()
+	{
+		new MimeEnvelopeWriter(0);
+	}
+
+	@Test
+	public void writeTo_should_write_what_MimeGeneratingInputStream_generates() throws IOException
+	{
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+		objectUnderTest.addHeaders(headers);
+
+		long byteCount = objectUnderTest.writeTo(outputStream, IOUtils.toInputStream(body, "UTF-8"));
+
+		byte[] expected = generateWithInputStream();
+		assertThat(outputStream.toByteArray(), is(expected));
+		assertThat(byteCount, is((long)expected.length));
+	}
+
+	@Test
+	public void writeTo_with_a_byte_array_should_write_what_MimeGeneratingInputStream_generates() throws IOException
+	{
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+		objectUnderTest.addHeaders(headers);
+		byte[] bodyBytes = ("xx" + body + "xx").getBytes("UTF-8");
+
+		long byteCount = objectUnderTest.writeTo(outputStream, bodyBytes, 2, bodyBytes.length - 4);
+
+		byte[] expected = generateWithInputStream();
+		assertThat(outputStream.toByteArray(), is(expected));
+		assertThat(byteCount, is((long)expected.length));
+	}
+
+	@Test
+	public void writeTo_should_encode_headers_as_UTF8() throws IOException
+	{
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+		objectUnderTest.addHeader("Content-ID", "caf\u00e9-\u65e5\u672c");
+		objectUnderTest.addHeader("ETag", null);
+
+		objectUnderTest.writeTo(outputStream, new byte[0], 0, 0);
+
+		assertThat(outputStream.toString("UTF-8"), is("Content-ID: caf\u00e9-\u65e5\u672c\r\nETag: \r\n\r\n"));
+	}
+
+	@Test
+	public void writeTo_should_not_repeat_the_headers_of_the_previous_entry() throws IOException
+	{
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+		objectUnderTest.addHeader("Content-ID", "first");
+		objectUnderTest.writeTo(outputStream, new ByteArrayInputStream("1".getBytes("UTF-8")));
+		objectUnderTest.addHeader("Content-ID", "second");
+		objectUnderTest.writeTo(outputStream, new ByteArrayInputStream("2".getBytes("UTF-8")));
+
+		assertThat(outputStream.toString("UTF-8"), is("Content-ID: first\r\n\r\n1Content-ID: second\r\n\r\n2"));
+	}
+
+	@Test
+	public void writeTo_should_discard_the_headers_when_writing_fails() throws IOException
+	{
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+		objectUnderTest.addHeader("Content-ID", "first");
+		try
+		{
+			objectUnderTest.writeTo(new OutputStream()
+			{
+				@Override
+				public void write(int b) throws IOException
+				{
+					throw new IOException();
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					throw new IOException();
+				}
+			}, new byte[0], 0, 0);
+			fail();
+		}
+		catch (IOException e)
+		{ }
+
+		objectUnderTest.writeTo(outputStream, new byte[0], 0, 0);
+
+		assertThat(outputStream.toString("UTF-8"), is("\r\n"));
+	}
+
+	@Test
+	public void startEntry_should_discard_the_headers_of_an_entry_which_failed_before_it_was_written() throws IOException
+	{
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+		objectUnderTest.startEntry().addHeader("Content-ID", "doc1");
+
+		objectUnderTest.startEntry().addHeader("Content-ID", "doc2");
+		objectUnderTest.writeTo(outputStream, "{}".getBytes("UTF-8"), 0, 2);
+
+		assertThat(outputStream.toString("UTF-8"), is("Content-ID: doc2\r\n\r\n{}"));
+	}
+
+	@Test
+	public void writeTo_should_copy_bodies_larger_than_the_buffer() throws IOException
+	{
+		byte[] largeBody = new byte[100];
+		Arrays.fill(largeBody, (byte)'b');
+		MimeEnvelopeWriter objectUnderTest = createObjectUnderTest();
+
+		objectUnderTest.writeTo(outputStream, new ByteArrayInputStream(largeBody));
+
+		assertThat(outputStream.toString("UTF-8"), is("\r\n" + new String(largeBody, "UTF-8")));
+	}
+
+	@Test
+	public void currentThreadWriter_should_return_the_same_writer_on_a_thread()
+	{
+		assertThat(MimeEnvelopeWriter.currentThreadWriter(), is(sameInstance(MimeEnvelopeWriter.currentThreadWriter())));
+	}
+}